@@ -0,0 +1,140 @@
+package com.example.btchallengeapp;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.util.Log;
+
+import com.example.btchallengeapp.core.GattClient;
+import com.example.btchallengeapp.core.GattUuids;
+
+import java.util.UUID;
+
+/**
+ * GattClient backed by an Android BluetoothGatt connection. Requests are issued through a GattOperationQueue,
+ * never directly, so that they do not overlap.
+ */
+public class AndroidGattClient implements GattClient {
+
+    private final BluetoothGatt gatt;
+    private final String LOG_TAG = AndroidGattClient.class.getName();
+
+    public AndroidGattClient(BluetoothGatt gatt) {
+        this.gatt = gatt;
+    }
+
+    public BluetoothGatt getGatt() {
+        return gatt;
+    }
+
+    @Override
+    public boolean discoverServices() {
+        return gatt.discoverServices();
+    }
+
+    @Override
+    public boolean hasService(UUID service) {
+        return gatt.getService(service) != null;
+    }
+
+    @Override
+    public boolean enableIndication(UUID service, UUID characteristic) {
+        BluetoothGattService bluetoothGattService = gatt.getService(service);
+        if (bluetoothGattService == null) {
+            Log.d(LOG_TAG, "unable to find service with uuid: " + service);
+            return false;
+        }
+        return setIndicationForCharacteristic(bluetoothGattService, characteristic);
+    }
+
+    @Override
+    public boolean enableNotification(UUID service, UUID characteristic) {
+        BluetoothGattCharacteristic gattCharacteristic = findCharacteristic(service, characteristic);
+        return setCharacteristicForService(gattCharacteristic, characteristic,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        return gatt.requestMtu(mtu);
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        //the GattClient priorities have the values of the BluetoothGatt ones
+        return gatt.requestConnectionPriority(priority);
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID service, UUID characteristic) {
+        BluetoothGattCharacteristic gattCharacteristic = findCharacteristic(service, characteristic);
+        return gattCharacteristic != null && gatt.readCharacteristic(gattCharacteristic);
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, boolean withResponse) {
+        BluetoothGattCharacteristic gattCharacteristic = findCharacteristic(service, characteristic);
+        if (gattCharacteristic == null) {
+            return false;
+        }
+        gattCharacteristic.setWriteType(withResponse ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
+                : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        gattCharacteristic.setValue(value);
+        return gatt.writeCharacteristic(gattCharacteristic);
+    }
+
+    @Override
+    public void disconnect() {
+        gatt.disconnect();
+    }
+
+    @Override
+    public void close() {
+        gatt.close();
+    }
+
+    private BluetoothGattCharacteristic findCharacteristic(UUID service, UUID characteristic) {
+        BluetoothGattService bluetoothGattService = gatt.getService(service);
+        if (bluetoothGattService == null) {
+            Log.d(LOG_TAG, "unable to find service with uuid: " + service);
+            return null;
+        }
+        return bluetoothGattService.getCharacteristic(characteristic);
+    }
+
+    /**
+     * Sets indication for characteristic.
+     *
+     * @param bluetoothGattService the bluetooth gatt service
+     * @param uuid                 the uuid
+     * @return true if the descriptor write was started
+     */
+    public boolean setIndicationForCharacteristic(BluetoothGattService bluetoothGattService, UUID uuid) {
+        BluetoothGattCharacteristic characteristic = bluetoothGattService.getCharacteristic(uuid);
+        Log.d(LOG_TAG, String.format("setIndicationForCharacteristic() Characteristic: %s Service: %s", uuid.toString(), bluetoothGattService.getUuid().toString()));
+        return setCharacteristicForService(characteristic, uuid, BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+    }
+
+    /**
+     * Method to set characteristics for service.
+     *
+     * @return true if the descriptor write was started
+     */
+    private boolean setCharacteristicForService(BluetoothGattCharacteristic characteristic, UUID uuid, byte[] value) {
+        if (characteristic != null) {
+            gatt.setCharacteristicNotification(characteristic, true);
+            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(
+                    GattUuids.CLIENT_CHARACTERISTIC_CONFIG);
+            if (descriptor != null) {
+                descriptor.setValue(value);
+                return gatt.writeDescriptor(descriptor);
+            } else {
+                Log.d(LOG_TAG, "descriptor is null: " + uuid.toString());
+            }
+        } else {
+            Log.d(LOG_TAG, String.format("unable to find characteristic with uuid: %s", uuid.toString()));
+        }
+        return false;
+    }
+}
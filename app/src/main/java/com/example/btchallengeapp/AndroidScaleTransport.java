@@ -0,0 +1,71 @@
+package com.example.btchallengeapp;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+
+import com.example.btchallengeapp.core.GattCallback;
+import com.example.btchallengeapp.core.GattClient;
+import com.example.btchallengeapp.core.ScaleTransport;
+
+/**
+ * ScaleTransport opening real GATT connections through BluetoothDevice.connectGatt. The BluetoothGattCallback events
+ * are forwarded as they are to the framework independent GattCallback of the session.
+ */
+public class AndroidScaleTransport implements ScaleTransport {
+
+    private final Context context;
+    private final BluetoothAdapter btAdapter;
+
+    public AndroidScaleTransport(Context context, BluetoothAdapter btAdapter) {
+        this.context = context.getApplicationContext();
+        this.btAdapter = btAdapter;
+    }
+
+    @Override
+    public GattClient connect(String address, boolean autoConnect, GattCallback callback) {
+        BluetoothDevice device = btAdapter.getRemoteDevice(address);
+        BluetoothGatt gatt = device.connectGatt(context, autoConnect, new BluetoothGattCallback() {
+            @Override
+            public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+                callback.onConnectionStateChange(status, newState == BluetoothProfile.STATE_CONNECTED);
+            }
+
+            @Override
+            public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+                callback.onServicesDiscovered(status);
+            }
+
+            @Override
+            public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+                callback.onDescriptorWrite(status);
+            }
+
+            @Override
+            public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                callback.onCharacteristicRead(characteristic.getUuid(), characteristic.getValue(), status);
+            }
+
+            @Override
+            public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                callback.onCharacteristicWrite(characteristic.getUuid(), status);
+            }
+
+            @Override
+            public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+                callback.onMtuChanged(mtu, status);
+            }
+
+            @Override
+            public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                callback.onCharacteristicChanged(characteristic.getUuid(), characteristic.getValue());
+            }
+        }, BluetoothDevice.TRANSPORT_LE);
+        return new AndroidGattClient(gatt);
+    }
+}
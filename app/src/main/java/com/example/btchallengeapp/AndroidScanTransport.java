@@ -0,0 +1,103 @@
+package com.example.btchallengeapp;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.example.btchallengeapp.core.MacAddress;
+import com.example.btchallengeapp.core.ScanListener;
+import com.example.btchallengeapp.core.ScanTransport;
+import com.example.btchallengeapp.core.Trace;
+
+import java.util.List;
+
+/**
+ * ScanTransport backed by the BluetoothLeScanner. Scan results are forwarded to the framework independent
+ * ScanListener on the main thread, where the platform delivers them.
+ */
+public class AndroidScanTransport implements ScanTransport {
+
+    private final BluetoothAdapter btAdapter;
+    private final ScaleScanConfig scanConfig;
+    private final Trace trace;
+    private ScanListener listener;
+    private final String LOG_TAG = AndroidScanTransport.class.getName();
+
+    /**
+     * @param trace counts every scan result and records it at debug level
+     */
+    public AndroidScanTransport(BluetoothAdapter btAdapter, ScaleScanConfig scanConfig, Trace trace) {
+        this.btAdapter = btAdapter;
+        this.scanConfig = scanConfig;
+        this.trace = trace;
+    }
+
+    @Override
+    public void startScan(boolean scalesOnly, ScanListener listener) {
+        startScan(scalesOnly, false, listener);
+    }
+
+    @Override
+    public void startScan(boolean scalesOnly, boolean lowLatency, ScanListener listener) {
+        this.listener = listener;
+        BluetoothLeScanner btScanner = btAdapter.getBluetoothLeScanner();
+        if (scalesOnly) {
+            //filtering and batching is done by the bluetooth controller, only scales wake up the application
+            ScanSettings settings = scanConfig.buildSettings(btAdapter, lowLatency);
+            AsyncTask.execute(() -> {
+                //a scan already running with this callback has to be stopped before it takes the new settings
+                btScanner.stopScan(scanCallback);
+                btScanner.startScan(scanConfig.buildFilters(), settings, scanCallback);
+            });
+        } else {
+            AsyncTask.execute(() -> btScanner.startScan(scanCallback));
+        }
+    }
+
+    @Override
+    public void stopScan() {
+        BluetoothLeScanner btScanner = btAdapter.getBluetoothLeScanner();
+        AsyncTask.execute(() -> btScanner.stopScan(scanCallback));
+    }
+
+    private void forward(ScanListener target, ScanResult result) {
+        BluetoothDevice device = result.getDevice();
+        String address = device.getAddress();
+        //the address is only parsed when the event is recorded, otherwise it is just counted
+        trace.event(Trace.LEVEL_DEBUG, Trace.SCAN_RESULT,
+                trace.isEnabled(Trace.LEVEL_DEBUG) ? MacAddress.pack(address) : 0, result.getRssi());
+        target.onAdvertisement(address, device.getName(), result.getRssi(), result.getTimestampNanos());
+    }
+
+    /**
+     * Scancallback for Bluetooth LE scan. Scan results will be reported using these callbacks.
+     */
+    private final ScanCallback scanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            ScanListener target = listener;
+            forward(target, result);
+            target.onAdvertisementsDelivered();
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            ScanListener target = listener;
+            for (int i = 0; i < results.size(); i++) {
+                forward(target, results.get(i));
+            }
+            target.onAdvertisementsDelivered();
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.d(LOG_TAG, "SCAN FAILED " + errorCode);
+            listener.onScanFailed(errorCode);
+        }
+    };
+}
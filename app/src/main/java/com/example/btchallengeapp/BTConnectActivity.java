@@ -1,48 +1,74 @@
 package com.example.btchallengeapp;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothProfile;
-import android.content.BroadcastReceiver;
+import android.app.AlertDialog;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.net.ParseException;
+import android.content.ServiceConnection;
+import android.graphics.Typeface;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.IBinder;
+import android.text.InputType;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
-import android.widget.ListView;
+import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.TextView;
 
-import java.util.Objects;
-import java.util.UUID;
+import com.example.btchallengeapp.core.BodyCompositionCalculator;
+import com.example.btchallengeapp.core.BodyCompositionMeasurement;
+import com.example.btchallengeapp.core.DeviceRegistry;
+import com.example.btchallengeapp.core.MacAddress;
+import com.example.btchallengeapp.core.MeasurementBatch;
+import com.example.btchallengeapp.core.MeasurementLogView;
+import com.example.btchallengeapp.core.ScaleSession;
+import com.example.btchallengeapp.core.UserAttribution;
+import com.example.btchallengeapp.core.UserStatistics;
+
+import java.io.IOException;
 
 /**
  * This class will show the peripheral which the user has selected from the scanned peripheral list on the previous screen.
  * There will be an option to connect to the bluetooth peripheral. Once user connects to the peripheral, this will
  * read the body weight composition scale parameters and show them in a list view.
+ * The connection itself is owned by the ScaleService, this screen only observes it, so rotating the screen or
+ * navigating away does not drop the connection.
  */
 public class BTConnectActivity extends AppCompatActivity {
 
-    private Device selectedDevice;
-    private static final UUID SCALE_DATA = UUID.fromString("00002a9c-0000-1000-8000-00805f9b34fb");
-    public static final UUID CHAR_CLIENT_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
-    public static final UUID SERVICE_BODY_COMPOSITION = UUID.fromString("0000181b-0000-1000-8000-00805f9b34fb");
+    private DeviceRegistry registry;
+    private int selectedHandle;
+    private String selectedAddress;
+    private long selectedDevice;
+    //user of the newest reading of the selected scale, the scale itself while nobody is attributed
+    private long shownUser;
+    //newest reading of the selected scale, a new user is enrolled from it
+    private long lastEpochSeconds;
+    private int lastWeightGrams;
+    private int lastImpedance;
 
     private Button connectBTDevice;
     private Button disconnectDevice;
-    private BluetoothGatt bluetoothGatt;
-
-    private ArrayAdapter<String> listAdapter;
-    private BTBondStateChangeReceiver bondStateChangeReceiver;
+    private CheckBox recordFrames;
+    private TextView statisticsView;
+    private WeightChartView chartView;
+    private ScaleService scaleService;
+
+    private RecyclerView listView;
+    private MeasurementListAdapter listAdapter;
+    private final MeasurementBatch uiBatch = new MeasurementBatch(MAX_LISTED_MEASUREMENTS);
+    private final MeasurementFormatter formatter = new MeasurementFormatter();
+    private final UserStatistics.Summary summary = new UserStatistics.Summary();
+    //number of readings kept in the list, older ones stay available in the measurement log
+    private static final int MAX_LISTED_MEASUREMENTS = 200;
     private final String LOG_TAG = BTConnectActivity.class.getName();
 
     @Override
@@ -50,255 +76,317 @@ public class BTConnectActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_bt_connect);
 
-        ListView listView = findViewById(R.id.devices);
+        ScaleApplication application = (ScaleApplication) getApplication();
+        registry = application.getDeviceRegistry();
+        selectedHandle = getIntent().getIntExtra(DeviceScanActivity.SELECTED_DEVICE_HANDLE_KEY, DeviceRegistry.NO_HANDLE);
+        if (selectedHandle < 0 || selectedHandle >= registry.size()) {
+            //handles do not survive the process, go back to scanning after the app was restored
+            finish();
+            return;
+        }
+
+        listView = findViewById(R.id.devices);
         TextView deviceName = findViewById(R.id.selectedDevice);
 
-        listAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        layoutManager.setStackFromEnd(true);
+        listView.setLayoutManager(layoutManager);
+        listAdapter = new MeasurementListAdapter(MAX_LISTED_MEASUREMENTS);
         listView.setAdapter(listAdapter);
 
-        Intent intent = getIntent();
-        selectedDevice = intent.getParcelableExtra(DeviceScanActivity.SELECTED_DEVICE_KEY);
-        deviceName.setText("Selected Device : " + selectedDevice.getDeviceName());
+        AsyncTask.execute(() -> loadRecentMeasurements(application));
+
+        selectedAddress = registry.getAddress(selectedHandle);
+        selectedDevice = MacAddress.pack(selectedAddress);
+        shownUser = selectedDevice;
+        String selectedName = registry.getName(selectedHandle);
+        deviceName.setText("Selected Device : " + (selectedName != null ? selectedName : selectedAddress));
+
+        //debug aid, long press the device name to see the connection latency percentiles, the trace is dumped as well
+        deviceName.setOnLongClickListener(v -> {
+            showLatencyReport();
+            return true;
+        });
+
+        statisticsView = findViewById(R.id.statistics);
+        chartView = findViewById(R.id.chart);
+        showStatistics();
+
+        recordFrames = findViewById(R.id.recordFrames);
+        recordFrames.setOnCheckedChangeListener((button, checked) -> {
+            ScaleService service = scaleService;
+            if (service == null || checked == service.isCapturingFrames()) {
+                return;
+            }
+            if (checked) {
+                AsyncTask.execute(service::startFrameCapture);
+            } else {
+                AsyncTask.execute(service::stopFrameCapture);
+            }
+        });
+
+        findViewById(R.id.bodyProfile).setOnClickListener(v -> editBodyProfile());
+        findViewById(R.id.enrollUser).setOnClickListener(v -> enrollUser());
 
         connectBTDevice = findViewById(R.id.connect);
         connectBTDevice.setOnClickListener(v -> connectBTDevice());
 
         disconnectDevice = findViewById(R.id.disconnect);
         disconnectDevice.setOnClickListener(v -> disconnect());
-        disconnectDevice.setVisibility(View.GONE);
+        showConnectionState(registry.getConnectionState(selectedHandle));
+        //no connection can be started before the service is attached
+        connectBTDevice.setEnabled(false);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (selectedAddress != null) {
+            bindService(new Intent(this, ScaleService.class), serviceConnection, Context.BIND_AUTO_CREATE);
+        }
     }
 
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            scaleService = ((ScaleService.LocalBinder) binder).getService();
+            scaleService.addObserver(serviceObserver);
+            connectBTDevice.setEnabled(true);
+            recordFrames.setChecked(scaleService.isCapturingFrames());
+            showConnectionState(registry.getConnectionState(selectedHandle));
+            showStatistics();
+            //measurements which arrived while no screen was attached
+            scheduleBatch.run();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            scaleService = null;
+        }
+    };
+
     private void connectBTDevice() {
-        connectBTDevice.setVisibility(View.GONE);
-        disconnectDevice.setVisibility(View.VISIBLE);
-        //registering to listen to any bond state change event
-        registerForBondStateChange(getApplicationContext());
+        if (scaleService == null) {
+            return;
+        }
+        showConnectionState(ScaleSession.State.WAITING);
         //connecting to the device
-        bluetoothGatt = selectedDevice.getBtDevice().connectGatt(getApplicationContext(), true, new BluetoothGattCallback() {
-            @Override
-            public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-                if (status == BluetoothGatt.GATT_SUCCESS) {
-                    if (newState == BluetoothProfile.STATE_CONNECTED) {
-                        Log.d(LOG_TAG, "Successfully connected to and now trying to discover services");
-                        gatt.discoverServices();
-                    } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                        Log.d(LOG_TAG, "Successfully disconnected");
-                        gatt.close();
-                    }
-                } else {
-                    Log.e(LOG_TAG, "Error encountered and disconnecting");
-                    gatt.close();
-                }
-            }
-
-            @Override
-            public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-                Log.d(LOG_TAG, "Service discovered");
-                BluetoothGattService service = gatt.getService(SERVICE_BODY_COMPOSITION);
-                if (service != null) {
-                    setIndicationForCharacteristic(service, gatt, SCALE_DATA);
-                } else {
-                    Log.e(LOG_TAG, "Service not available, unknown device");
-                }
-            }
+        scaleService.connect(selectedAddress);
+    }
 
-            @Override
-            public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-                super.onCharacteristicChanged(gatt, characteristic);
-                Log.d(LOG_TAG, "onCharacteristicChanged() : characteristic UUID " + characteristic.getUuid());
-                if (SCALE_DATA.equals(characteristic.getUuid())) {
-                    byte[] data = characteristic.getValue();
-                    //As the payload data expected from weight scale is 13 bytes, we check the byte array length accordingly
-                    if (data != null && data.length==13) {
-                        Log.d(LOG_TAG, "Byte array data obtained with length " + data.length);
-                        parseBytesFromWeightScale(data);
-                    } else {
-                        Log.e(LOG_TAG, "Invalid Data");
-                    }
-                } else {
-                    Log.e(LOG_TAG, "Unknown characteristic");
-                }
+    /**
+     * Receives the connection progress and measurement batches from the service, on the main thread
+     */
+    private final ScaleService.Observer serviceObserver = new ScaleService.Observer() {
+        @Override
+        public void onConnectionStateChanged(String address, ScaleSession.State state) {
+            if (address.equals(selectedAddress)) {
+                showConnectionState(state);
             }
+        }
 
-            @Override
-            public void onCharacteristicRead(BluetoothGatt gatt,
-                                             BluetoothGattCharacteristic characteristic,
-                                             int status) {
-                Log.d(LOG_TAG, "On characteristic read called");
-            }
+        @Override
+        public void onMeasurementsReady() {
+            scheduleBatch.run();
+        }
+    };
 
-        });
+    private void showConnectionState(ScaleSession.State state) {
+        boolean closed = state == ScaleSession.State.CLOSED;
+        connectBTDevice.setVisibility(closed ? View.VISIBLE : View.GONE);
+        disconnectDevice.setVisibility(closed ? View.GONE : View.VISIBLE);
     }
 
     /**
-     * Register for bond state change events
-     *
-     * @param context context for registering BroadcastReceiver
+     * Asks for the pending measurements to be shown with the next drawn frame. Runs on the main thread.
      */
-    public void registerForBondStateChange(Context context) {
-        IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
-        bondStateChangeReceiver = new BTBondStateChangeReceiver();
-        context.registerReceiver(bondStateChangeReceiver, filter);
-    }
-
+    private final Choreographer.FrameCallback showBatch = this::showMeasurements;
+    private final Runnable scheduleBatch = () -> Choreographer.getInstance().postFrameCallback(showBatch);
 
     /**
-     * Broadcast receiver listening to bluetooth bond state change actions
+     * Shows all measurements the pipeline gathered since the previous frame, with a single list update.
+     * Readings reach this point already decoded, de-duplicated and stored in the measurement log.
      */
-    private class BTBondStateChangeReceiver extends BroadcastReceiver {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            try {
-                String action = intent.getAction();
-                Bundle bundle = intent.getExtras();
-                if (action != null && action == BluetoothDevice.ACTION_BOND_STATE_CHANGED) {
-                    Log.d(LOG_TAG, "ACTION_BOND_STATE_CHANGED");
-                    onPairingStateChanged(Objects.requireNonNull(bundle), intent);
-                }
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "Exception in onReceive of BTBondStateChangeReceiver " + e);
+    private void showMeasurements(long frameTimeNanos) {
+        if (scaleService == null) {
+            return;
+        }
+        scaleService.drainTo(uiBatch);
+        boolean ownReading = false;
+        for (int i = 0; i < uiBatch.size(); i++) {
+            if (uiBatch.device(i) == selectedDevice) {
+                ownReading = true;
+                shownUser = uiBatch.user(i);
+                rememberReading(uiBatch.epochSeconds(i), uiBatch.weightGrams(i), uiBatch.impedance(i), uiBatch.flags(i));
             }
         }
+        //follow new readings only while the newest one is in view, so scrolling back through the list is not disturbed
+        boolean atEnd = !listView.canScrollVertically(1);
+        listAdapter.append(uiBatch);
+        if (atEnd && listAdapter.getItemCount() > 0) {
+            listView.scrollToPosition(listAdapter.getItemCount() - 1);
+        }
+        if (ownReading) {
+            showStatistics();
+        }
     }
 
-    /**
-     * Handling of pairing/bonding state changes action
-     * Note - For now, we have listened to the events, appropriate actions may be added under various bond actions as needed
-     * BOND_NONE --> BOND_BONDING: Pairing started
-     * BOND_BONDING --> BOND_NONE : Pairing error, as pairing was not completed to BOND_BONDED status
-     * BOND_BONDING --> BOND_BONDED : Pairing completed
-     *
-     * @param bundle broadcast bundle
-     **/
-    private void onPairingStateChanged(Bundle bundle, Intent intent) {
-        BluetoothDevice bluetoothDevice = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-
-        int newBondState = bundle.getInt(BluetoothDevice.EXTRA_BOND_STATE);
-        int previousBondState = bundle.getInt(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE);
-        Log.d(LOG_TAG, "Previous bond state: " + previousBondState + " ---> New bond state: " + newBondState);
-        String deviceInfoLog = bluetoothDevice.getName() + "| MACId: " + bluetoothDevice.getAddress();
-        switch (newBondState) {
-            case BluetoothDevice.BOND_NONE:
-                /* Possible pairing failed case as Pairing state changed from BOND_BONDING to BOND_NONE */
-                if (previousBondState == BluetoothDevice.BOND_BONDING) {
-                    Log.e(LOG_TAG, "********** Possible pairing failed as pairing state changed from BOND_BONDING to BOND_NONE **********");
-                    //@TODO Appropriate error handling can be added as per application requirement
-                }
-                break;
-
-            case BluetoothDevice.BOND_BONDING:
-                /* Pairing started for device, start a timeout handler */
-                Log.d(LOG_TAG, "********** Pairing Initiated with Device :" + deviceInfoLog + " **********");
-                break;
-
-            case BluetoothDevice.BOND_BONDED:
-                Log.d(LOG_TAG, "********** Device paired successfully :" + deviceInfoLog + " **********");
-                //@TODO Appropriate success flow can be added as per application requirement
-                break;
-            default:
-                break;
-        }
+    private void rememberReading(long epochSeconds, int weightGrams, int impedance, int flags) {
+        lastEpochSeconds = epochSeconds;
+        lastWeightGrams = weightGrams;
+        lastImpedance = (flags & BodyCompositionMeasurement.FLAG_IMPEDANCE) != 0 ? impedance : 0;
     }
 
     /**
-     * Method to set characteristics for service.
+     * Shows the running statistics and the weight chart of the person who last stepped on the selected scale, read as
+     * they are instead of recomputed from the log.
+     * Readings no enrolled person matches are counted for the scale, as one user.
      */
-    private void setCharacteristicForService(BluetoothGattCharacteristic characteristic, BluetoothGatt gatt, UUID uuid, byte[] value) {
-        if (characteristic != null) {
-            gatt.setCharacteristicNotification(characteristic, true);
-            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(
-                    CHAR_CLIENT_CONFIG);
-            if (descriptor != null) {
-                descriptor.setValue(value);
-                gatt.writeDescriptor(descriptor);
-            } else {
-                Log.d(LOG_TAG, "descriptor is null: " + uuid.toString());
-            }
+    private void showStatistics() {
+        UserStatistics statistics = ((ScaleApplication) getApplication()).getUserStatistics();
+        if (statistics.read(shownUser, summary)) {
+            statisticsView.setText(formatter.formatStatistics(summary));
+            statisticsView.setVisibility(View.VISIBLE);
+            chartView.show(((ScaleApplication) getApplication()).getHistory(), shownUser);
+            chartView.setVisibility(View.VISIBLE);
         } else {
-            Log.d(LOG_TAG, String.format("unable to find characteristic with uuid: %s", uuid.toString()));
+            statisticsView.setVisibility(View.GONE);
+            chartView.setVisibility(View.GONE);
         }
     }
 
     /**
-     * Sets indication for characteristic.
-     *
-     * @param bluetoothGattService the bluetooth gatt service
-     * @param gatt                 the gatt
-     * @param uuid                 the uuid
+     * Reads the latest stored measurements so that the list survives rotation and process death.
+     * Runs off the main thread, the log is memory mapped so only the shown records are read, and they are only copied,
+     * the text is built when a row scrolls into view.
      */
-    public void setIndicationForCharacteristic(BluetoothGattService bluetoothGattService, BluetoothGatt gatt, UUID uuid) {
-        BluetoothGattCharacteristic characteristic = bluetoothGattService.getCharacteristic(uuid);
-        Log.d(LOG_TAG, String.format("setIndicationForCharacteristic() Characteristic: %s Service: %s", uuid.toString(), bluetoothGattService.getUuid().toString()));
-        setCharacteristicForService(characteristic, gatt, uuid, BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+    private void loadRecentMeasurements(ScaleApplication application) {
+        //the body profile is read from disk on first use
+        BodyCompositionCalculator bodyComposition = application.getBodyComposition();
+        try {
+            MeasurementLogView view = MeasurementLogView.open(application.getMeasurementLogFile());
+            MeasurementBatch history = listAdapter.newBatch();
+            int newest = -1;
+            for (int i = Math.max(0, view.size() - MAX_LISTED_MEASUREMENTS); i < view.size(); i++) {
+                history.add(view.device(i), view.device(i), view.epochSeconds(i), view.weightGrams(i),
+                        view.impedance(i), view.flags(i));
+                if (view.device(i) == selectedDevice) {
+                    newest = i;
+                }
+            }
+            //the statistics are shown for whoever the newest stored reading of the scale belongs to
+            long epochSeconds = newest >= 0 ? view.epochSeconds(newest) : 0;
+            int weightGrams = newest >= 0 ? view.weightGrams(newest) : 0;
+            int impedance = newest >= 0 && (view.flags(newest) & BodyCompositionMeasurement.FLAG_IMPEDANCE) != 0
+                    ? view.impedance(newest) : 0;
+            UserAttribution.Result attributed = new UserAttribution.Result();
+            long user = newest >= 0 && application.getUserAttribution().attribute(epochSeconds, weightGrams, impedance,
+                    attributed) ? attributed.getUser() : selectedDevice;
+            runOnUiThread(() -> {
+                listAdapter.setBodyComposition(bodyComposition);
+                //readings which arrived while loading come after the stored ones
+                listAdapter.prepend(history);
+                if (epochSeconds != 0 && lastEpochSeconds == 0) {
+                    shownUser = user;
+                    rememberReading(epochSeconds, weightGrams, impedance, BodyCompositionMeasurement.FLAG_IMPEDANCE);
+                    showStatistics();
+                }
+            });
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to read measurement log " + e);
+        }
     }
 
-    protected boolean isBitSet(byte value, int bit) {
-        return (value & (1 << bit)) != 0;
+    /**
+     * Asks for the height, age and sex the body composition is calculated for, the listed readings are shown again with it
+     */
+    private void editBodyProfile() {
+        LinearLayout form = new LinearLayout(this);
+        form.setOrientation(LinearLayout.VERTICAL);
+        EditText height = new EditText(this);
+        height.setHint("Height in cm");
+        height.setInputType(InputType.TYPE_CLASS_NUMBER);
+        EditText age = new EditText(this);
+        age.setHint("Age in years");
+        age.setInputType(InputType.TYPE_CLASS_NUMBER);
+        CheckBox male = new CheckBox(this);
+        male.setText("Male");
+        form.addView(height);
+        form.addView(age);
+        form.addView(male);
+        new AlertDialog.Builder(this)
+                .setTitle("Body profile")
+                .setView(form)
+                .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+                    try {
+                        ScaleApplication application = (ScaleApplication) getApplication();
+                        application.setBodyProfile(Integer.parseInt(height.getText().toString()),
+                                Integer.parseInt(age.getText().toString()), male.isChecked());
+                        listAdapter.setBodyComposition(application.getBodyComposition());
+                    } catch (IllegalArgumentException e) {
+                        //NumberFormatException included, nothing is stored
+                        Log.w(LOG_TAG, "Invalid body profile " + e);
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
     }
 
     /**
-     * Utility method to parse bytes from the byte array supplied. In this particular example,
-     * we extract the information received for the body weight scale BT device and parse the weight, date, and time information
-     * from the bytes received from the device.
-     *
-     * @param data
+     * Enrolls the person who took the newest reading of the selected scale, their next readings are attributed to them
      */
-    private void parseBytesFromWeightScale(byte[] data) {
-        try {
-            final byte ctrlByte0 = data[0];
-            final byte ctrlByte1 = data[1];
-
-            final boolean isWeightRemoved = isBitSet(ctrlByte1, 7);
-            final boolean isDateInvalid = isBitSet(ctrlByte1, 6);
-            final boolean isStabilized = isBitSet(ctrlByte1, 5);
-            final boolean isLBSUnit = isBitSet(ctrlByte0, 0);
-            final boolean isCattyUnit = isBitSet(ctrlByte1, 6);
-            final boolean isImpedance = isBitSet(ctrlByte1, 1);
-
-            if (isStabilized && !isWeightRemoved && !isDateInvalid) {
-
-                final int year = ((data[3] & 0xFF) << 8) | (data[2] & 0xFF);
-                final int month = data[4];
-                final int day = data[5];
-                final int hours = data[6];
-                final int min = data[7];
-                final int sec = data[8];
-
-                float weight;
-                float impedance = 0.0f;
-
-                if (isLBSUnit || isCattyUnit) {
-                    weight = (float) (((data[12] & 0xFF) << 8) | (data[11] & 0xFF)) / 100.0f;
-                } else {
-                    weight = (float) (((data[12] & 0xFF) << 8) | (data[11] & 0xFF)) / 200.0f;
-                }
-
-                if (isImpedance) {
-                    impedance = ((data[10] & 0xFF) << 8) | (data[9] & 0xFF);
-                    Log.d(LOG_TAG, "Impedance is " + impedance);
-                }
-
-                Log.d(LOG_TAG, "Weight is : " + weight);
-                runOnUiThread(() -> {
-                    String displayData = "Date- " + day + "/" + month + "/" + year + " Time- " + hours + ":" + min + " (HH:mm)" + " Weight- " +
-                            weight + (isLBSUnit ? " Pounds" : " Kgs");
-                    listAdapter.add(displayData);
-                    listAdapter.notifyDataSetChanged();
-                });
-            }
-        } catch (ParseException e) {
-            Log.e(LOG_TAG, "PARSING EXCEPTION " + e);
+    private void enrollUser() {
+        if (lastEpochSeconds == 0) {
+            return;
+        }
+        long user = ((ScaleApplication) getApplication()).enrollUser(lastWeightGrams, lastImpedance, lastEpochSeconds);
+        if (user == UserAttribution.NO_USER) {
+            Log.w(LOG_TAG, "No profile left to enroll a user");
+            return;
         }
+        shownUser = user;
+        showStatistics();
     }
 
     /**
      * Disconnect the established connection
      */
     private void disconnect() {
-        connectBTDevice.setVisibility(View.VISIBLE);
-        disconnectDevice.setVisibility(View.GONE);
-        bluetoothGatt.disconnect();
-        bluetoothGatt.close();
+        showConnectionState(ScaleSession.State.CLOSED);
+        if (scaleService != null) {
+            scaleService.disconnect(selectedAddress);
+        }
+    }
+
+    private void showLatencyReport() {
+        ScaleApplication application = (ScaleApplication) getApplication();
+        TextView report = new TextView(this);
+        report.setTypeface(Typeface.MONOSPACE);
+        report.setText(application.getLatencyTracker().report());
+        new AlertDialog.Builder(this)
+                .setTitle("Connection latency")
+                .setView(report)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+        AsyncTask.execute(() -> {
+            application.dumpLatencyReport();
+            application.dumpTrace();
+        });
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (scaleService != null) {
+            scaleService.persist();
+            scaleService.removeObserver(serviceObserver);
+            scaleService = null;
+            connectBTDevice.setEnabled(false);
+        }
+        if (selectedAddress != null) {
+            //the connection stays with the service, it is in the foreground while a scale is connected
+            unbindService(serviceConnection);
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,105 @@
+package com.example.btchallengeapp;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.btchallengeapp.core.DeviceRegistry;
+import com.example.btchallengeapp.core.ProximityRanker;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * This is the adapter for the devices scanned, the closest first. The rows are the order of the ProximityRanker, which
+ * only holds handles; the name and address are read from the live state in the registry and the smoothed RSSI from the
+ * ranker when a row is bound, so only rows on screen are ever formatted. Devices listed from the scan cache and not
+ * heard yet show their RSSI of the earlier scan.
+ */
+public class DeviceListAdapter extends RecyclerView.Adapter<DeviceListAdapter.ViewHolder> {
+
+    /**
+     * Payload of a row whose device advertised again, only the RSSI and name are rebound
+     */
+    public static final Object PAYLOAD_ADVERTISEMENT = new Object();
+
+    public interface OnDeviceClickListener {
+        void onDeviceClick(int handle);
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView deviceName;
+        final TextView deviceMacAddress;
+        final TextView deviceRssi;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            deviceName = itemView.findViewById(R.id.deviceName);
+            deviceMacAddress = itemView.findViewById(R.id.deviceMacAddress);
+            deviceRssi = itemView.findViewById(R.id.deviceRssi);
+        }
+    }
+
+    private final ProximityRanker devices;
+    private final DeviceRegistry registry;
+    private final BitSet unconfirmed;
+    private final OnDeviceClickListener clickListener;
+
+    /**
+     * @param unconfirmed handles of the cached devices not heard yet, updated by the owner
+     */
+    public DeviceListAdapter(ProximityRanker devices, DeviceRegistry registry, BitSet unconfirmed,
+                             OnDeviceClickListener clickListener) {
+        this.devices = devices;
+        this.registry = registry;
+        this.unconfirmed = unconfirmed;
+        this.clickListener = clickListener;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View row = LayoutInflater.from(parent.getContext()).inflate(R.layout.scanned_device, parent, false);
+        ViewHolder holder = new ViewHolder(row);
+        row.setOnClickListener(v -> {
+            int position = holder.getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                clickListener.onDeviceClick(devices.handleAt(position));
+            }
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        int handle = devices.handleAt(position);
+        holder.deviceMacAddress.setText(registry.getAddress(handle));
+        bindAdvertisement(holder, handle);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+        } else {
+            //the address of a row never changes
+            bindAdvertisement(holder, devices.handleAt(position));
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return devices.size();
+    }
+
+    private void bindAdvertisement(ViewHolder holder, int handle) {
+        String name = registry.getName(handle);
+        holder.deviceName.setText(name != null ? name : "Unnamed Device");
+        int rssi = Math.round(devices.getRssi(handle));
+        holder.deviceRssi.setText(unconfirmed.get(handle) ? rssi + " dBm, last scan" : rssi + " dBm");
+    }
+}
@@ -3,44 +3,72 @@ package com.example.btchallengeapp;
 import android.Manifest;
 import android.app.AlertDialog;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.le.BluetoothLeScanner;
-import android.bluetooth.le.ScanCallback;
-import android.bluetooth.le.ScanResult;
+import android.content.ComponentName;
 import android.content.Context;
-import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
-import android.widget.ListView;
+import android.widget.CheckBox;
 import android.widget.Toast;
 
-import java.util.ArrayList;
-import java.util.HashSet;
+import com.example.btchallengeapp.core.ConnectionPhase;
+import com.example.btchallengeapp.core.DeviceRegistry;
+import com.example.btchallengeapp.core.ProximityRanker;
+import com.example.btchallengeapp.core.ScanCache;
+import com.example.btchallengeapp.core.ScanListener;
+import com.example.btchallengeapp.core.Trace;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class will have the option to scan nearby BLE peripherals and show them in a list
  * User can select a device and go to the next screen to perform next set of operations
+ * The scan itself is run by the ScaleService, which this screen binds to while it is visible.
+ * Until the first scan results arrive the list shows the devices of earlier scans, read from the ScanCache.
  */
 public class DeviceScanActivity extends AppCompatActivity {
 
-    private ArrayList<Device> devices = new ArrayList<>();
-    private ListView listView;
-    private BluetoothLeScanner btScanner;
+    //the list is reordered at most twice a second, a device gone quiet for half a minute is dropped
+    private final ProximityRanker ranker = new ProximityRanker(64, TimeUnit.MILLISECONDS.toNanos(500),
+            TimeUnit.SECONDS.toNanos(30), 3f);
+    //cached devices are kept listed for the first seconds of a scan, those not heard by then are dropped
+    private static final long REVALIDATION_NANOS = TimeUnit.SECONDS.toNanos(10);
+    //the closest devices are remembered for the next start
+    private static final int CACHED_DEVICES = 16;
+    //devices listed from the cache and not heard by the scan yet
+    private final BitSet unconfirmed = new BitSet();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private ScanCache scanCache;
+    private long scanStartNanos;
+    private DeviceRegistry registry;
+    private Trace trace;
+    private DeviceListAdapter adapter;
+    private BluetoothAdapter btAdapter;
+    private ScaleService scaleService;
+    private CheckBox scalesOnlyCheckBox;
+    private CheckBox watchWeighInsCheckBox;
     private Button startScanningButton;
     private Button stopScanningButton;
     private final static int REQUEST_ENABLE_BT = 1;
     private static final int PERMISSION_REQUEST_COARSE_LOCATION = 1;
-    public final static String SELECTED_DEVICE_KEY = "selected_device_key";
+    public final static String SELECTED_DEVICE_HANDLE_KEY = "selected_device_handle_key";
     private final String LOG_TAG = DeviceScanActivity.class.getName();
 
     @Override
@@ -48,44 +76,170 @@ public class DeviceScanActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        configureBLE();
-
         startScanningButton = findViewById(R.id.StartScanButton);
         startScanningButton.setOnClickListener(v -> startScanning());
 
         stopScanningButton = findViewById(R.id.StopScanButton);
         stopScanningButton.setOnClickListener(v -> stopScanning());
         stopScanningButton.setVisibility(View.INVISIBLE);
+        //the scan is run by the service, it can only start once the service is attached
+        startScanningButton.setEnabled(false);
+
+        scalesOnlyCheckBox = findViewById(R.id.ScalesOnlyCheckBox);
+
+        watchWeighInsCheckBox = findViewById(R.id.WatchWeighInsCheckBox);
+        watchWeighInsCheckBox.setOnCheckedChangeListener((button, checked) -> {
+            if (scaleService != null) {
+                scaleService.setWatchForWeighIns(checked);
+            }
+        });
 
         //here we show the scanned nearby bluetooth devices in a clickable list view
-        listView = findViewById(R.id.listView);
+        RecyclerView listView = findViewById(R.id.listView);
+        listView.setLayoutManager(new LinearLayoutManager(this));
 
-        final DeviceArrayAdapter adapter = new DeviceArrayAdapter(this, devices);
+        registry = ((ScaleApplication) getApplication()).getDeviceRegistry();
+        trace = ((ScaleApplication) getApplication()).getTrace();
+        adapter = new DeviceListAdapter(ranker, registry, unconfirmed, this::onDeviceSelected);
 
         listView.setAdapter(adapter);
 
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-            @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-                //Stop the scanning when user has selected a device. Take the user to the next screen with the chosen device details
-                stopScanning();
-                Device value = adapter.getItem(position);
-                Toast.makeText(getApplicationContext(), value.getDeviceName() + " selected", Toast.LENGTH_SHORT).show();
-                Intent myIntent = new Intent(DeviceScanActivity.this, BTConnectActivity.class);
-                myIntent.putExtra(SELECTED_DEVICE_KEY, value);
-                DeviceScanActivity.this.startActivity(myIntent);
+        //the devices of earlier scans are read from disk off the main thread
+        ScaleApplication application = (ScaleApplication) getApplication();
+        AsyncTask.execute(() -> {
+            ScanCache cache = application.getScanCache();
+            runOnUiThread(() -> showCachedDevices(cache));
+        });
+        //the Bluetooth setup and its dialogs wait until the first frame is drawn
+        afterNextFrame(this::configureBLE);
+    }
+
+    /**
+     * Runs the action on the main thread once the next frame is drawn, unless the screen is gone by then
+     */
+    private void afterNextFrame(Runnable action) {
+        //frame callbacks run before the traversal of the frame, a message posted from one runs after it
+        Choreographer.getInstance().postFrameCallback(frameTimeNanos -> mainHandler.post(() -> {
+            if (!isDestroyed()) {
+                action.run();
+            }
+        }));
+    }
+
+    /**
+     * Lists the cached devices this process has not heard yet, the startup time is recorded once they are drawn
+     */
+    private void showCachedDevices(ScanCache cache) {
+        if (isDestroyed()) {
+            return;
+        }
+        scanCache = cache;
+        long now = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < cache.size(); i++) {
+            int handle = registry.register(cache.getDevice(i));
+            if (registry.getName(handle) == null) {
+                registry.setName(handle, cache.getName(i));
+            }
+            if (registry.getAdvertisementCount(handle) == 0 && ranker.restore(handle, cache.getRssi(i), now)) {
+                unconfirmed.set(handle);
+            }
+        }
+        ranker.update(now, orderChanges);
+        afterNextFrame(() -> {
+            ((ScaleApplication) getApplication()).recordStartup(ranker.size());
+            reportFullyDrawn();
+        });
+    }
+
+    /**
+     * Remembers the closest devices heard by the scan for the next start, written off the main thread
+     */
+    private void saveScanCache() {
+        ScanCache cache = scanCache;
+        if (cache == null) {
+            return;
+        }
+        long nowNanos = SystemClock.elapsedRealtimeNanos();
+        long nowMillis = System.currentTimeMillis();
+        for (int i = 0, saved = 0; i < ranker.size() && saved < CACHED_DEVICES; i++) {
+            int handle = ranker.handleAt(i);
+            if (!unconfirmed.get(handle) && registry.getAdvertisementCount(handle) > 0) {
+                long ageMillis = TimeUnit.NANOSECONDS.toMillis(nowNanos - registry.getLastSeenNanos(handle));
+                cache.record(registry.getDevice(handle), registry.getName(handle),
+                        Math.round(ranker.getRssi(handle)), nowMillis - ageMillis);
+                saved++;
+            }
+        }
+        AsyncTask.execute(() -> {
+            try {
+                cache.save();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Unable to save scan cache " + e);
             }
         });
     }
 
+    /**
+     * Stop the scanning when user has selected a device. Take the user to the next screen with the chosen device details
+     */
+    private void onDeviceSelected(int handle) {
+        stopScanning();
+        //scan result timestamps are in the elapsed realtime base, a cached device may not have been heard yet
+        if (registry.getAdvertisementCount(handle) > 0) {
+            ((ScaleApplication) getApplication()).getLatencyTracker().record(ConnectionPhase.ADVERTISEMENT_TO_SELECTION,
+                    SystemClock.elapsedRealtimeNanos() - registry.getFirstSeenNanos(handle));
+        }
+        String name = registry.getName(handle);
+        Toast.makeText(getApplicationContext(), (name != null ? name : "Unnamed Device") + " selected", Toast.LENGTH_SHORT).show();
+        //only the handle is passed on, the next screen reads the device from the registry
+        Intent myIntent = new Intent(DeviceScanActivity.this, BTConnectActivity.class);
+        myIntent.putExtra(SELECTED_DEVICE_HANDLE_KEY, handle);
+        DeviceScanActivity.this.startActivity(myIntent);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, ScaleService.class), serviceConnection, Context.BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (scaleService != null) {
+            //the listener updates this screen, a scan nobody sees only costs battery
+            stopScanning();
+            saveScanCache();
+            scaleService = null;
+            startScanningButton.setEnabled(false);
+            watchWeighInsCheckBox.setEnabled(false);
+        }
+        unbindService(serviceConnection);
+    }
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            scaleService = ((ScaleService.LocalBinder) binder).getService();
+            startScanningButton.setEnabled(true);
+            //the service outlives this screen while watching, show what it is doing
+            watchWeighInsCheckBox.setChecked(scaleService.isWatchingForWeighIns());
+            watchWeighInsCheckBox.setEnabled(true);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            scaleService = null;
+        }
+    };
+
     /**
      * This method would check and enable bluetooth and location permissions needed for
      * bluetooth operations
      */
     private void configureBLE() {
         BluetoothManager btManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
-        BluetoothAdapter btAdapter = btManager.getAdapter();
-        btScanner = btAdapter.getBluetoothLeScanner();
+        btAdapter = btManager.getAdapter();
 
         if (btAdapter != null && !btAdapter.isEnabled()) {
             Intent enableIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
@@ -129,10 +283,14 @@ public class DeviceScanActivity extends AppCompatActivity {
      * This method will start scanning for nearby bluetooth devices
      */
     public void startScanning() {
+        if (scaleService == null) {
+            return;
+        }
         Log.d(LOG_TAG, "Start scanning for peripherals");
         startScanningButton.setVisibility(View.INVISIBLE);
         stopScanningButton.setVisibility(View.VISIBLE);
-        AsyncTask.execute(() -> btScanner.startScan(leScanCallback));
+        scanStartNanos = SystemClock.elapsedRealtimeNanos();
+        scaleService.startScan(scalesOnlyCheckBox.isChecked(), scanListener);
     }
 
     /**
@@ -142,44 +300,77 @@ public class DeviceScanActivity extends AppCompatActivity {
         Log.d(LOG_TAG, "stopping scan");
         startScanningButton.setVisibility(View.VISIBLE);
         stopScanningButton.setVisibility(View.INVISIBLE);
-        AsyncTask.execute(() -> btScanner.stopScan(leScanCallback));
-    }
-
-    // Function to remove duplicates from an ArrayList
-    public ArrayList<Device> removeDuplicates(ArrayList<Device> list) {
-        HashSet<Object> seen = new HashSet<>();
-        devices.removeIf(e -> !seen.add(e.getDeviceName()));
-        return list;
+        if (scaleService != null) {
+            scaleService.stopScan();
+        }
     }
 
     /**
-     * Scancallback for Bluetooth LE scan. Scan results will be reported using these callbacks.
+     * Records each advertisement in the device registry and feeds its RSSI to the proximity ranker.
+     * A cached device is confirmed by its first advertisement, the ones still unconfirmed after the revalidation
+     * time are dropped from the list.
+     * Devices are keyed by MAC address so that each advertisement costs a single hash lookup.
+     * The list is updated once per delivery, a whole batch from the controller results in a single update: the changes
+     * of the proximity order, when the ranker resorts, and a partial rebind of the rows which advertised again. Rows off
+     * screen are only marked, they are bound when they scroll into view.
      */
-    private final ScanCallback leScanCallback = new ScanCallback() {
+    private final ScanListener scanListener = new ScanListener() {
+        private final BitSet advertised = new BitSet();
+
         @Override
-        public void onScanResult(int callbackType, ScanResult result) {
-            Log.d(LOG_TAG, "On scan result");
-            //get the scanned device details and add to the scan list
-            BluetoothDevice scannedDevice = result.getDevice();
-            Device device = new Device();
-            if (scannedDevice.getName() != null && scannedDevice.getAddress() != null) {
-                device.setDeviceName(scannedDevice.getName());
-            } else {
-                device.setDeviceName("Unnamed Device");
+        public void onAdvertisement(String address, String name, int rssi, long timestampNanos) {
+            int handle = registry.recordAdvertisement(address, name, rssi, timestampNanos);
+            if (ranker.observe(handle, rssi, timestampNanos)) {
+                trace.event(Trace.LEVEL_DEBUG, Trace.DEVICE_LISTED, registry.getDevice(handle), rssi);
             }
-            device.setDeviceMacAddress(scannedDevice.getAddress());
-            device.setBtDevice(scannedDevice);
-            devices.add(device);
-            devices = removeDuplicates(devices);
-            Log.d(LOG_TAG, "Device :: " + device.getDeviceName() + " Added to the list");
-            ((ArrayAdapter) listView.getAdapter()).notifyDataSetChanged();
+            advertised.set(handle);
+            unconfirmed.clear(handle);
+        }
+
+        @Override
+        public void onAdvertisementsDelivered() {
+            //scan result timestamps are in the elapsed realtime base
+            long now = SystemClock.elapsedRealtimeNanos();
+            if (!unconfirmed.isEmpty() && now - scanStartNanos > REVALIDATION_NANOS) {
+                for (int handle = unconfirmed.nextSetBit(0); handle >= 0; handle = unconfirmed.nextSetBit(handle + 1)) {
+                    ranker.forget(handle);
+                }
+                unconfirmed.clear();
+            }
+            ranker.update(now, orderChanges);
+            for (int handle = advertised.nextSetBit(0); handle >= 0; handle = advertised.nextSetBit(handle + 1)) {
+                int position = ranker.positionOf(handle);
+                if (position >= 0) {
+                    adapter.notifyItemChanged(position, DeviceListAdapter.PAYLOAD_ADVERTISEMENT);
+                }
+            }
+            advertised.clear();
         }
 
         @Override
         public void onScanFailed(int errorCode) {
             Log.d(LOG_TAG, "SCAN FAILED " + errorCode);
-            super.onScanFailed(errorCode);
         }
     };
 
-}
\ No newline at end of file
+    /**
+     * Passes each change of the proximity order on to the list, so only the rows that moved are animated
+     */
+    private final ProximityRanker.Changes orderChanges = new ProximityRanker.Changes() {
+        @Override
+        public void onRemoved(int position) {
+            adapter.notifyItemRemoved(position);
+        }
+
+        @Override
+        public void onInserted(int position) {
+            adapter.notifyItemInserted(position);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            adapter.notifyItemMoved(fromPosition, toPosition);
+        }
+    };
+
+}
@@ -0,0 +1,54 @@
+package com.example.btchallengeapp;
+
+import com.example.btchallengeapp.core.BodyComposition;
+import com.example.btchallengeapp.core.BodyCompositionMeasurement;
+import com.example.btchallengeapp.core.UserStatistics;
+
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * Builds the text shown for a measurement in the list, from the values stored in the measurement log
+ */
+public class MeasurementFormatter {
+
+    private static final float GRAMS_PER_POUND = 453.59237f;
+
+    private final Calendar calendar = Calendar.getInstance();
+
+    /**
+     * @param epochSeconds time of the measurement
+     * @param weightGrams  weight in grams
+     * @param flags        measurement flags, the weight is shown in pounds when the scale reported pounds
+     */
+    public String format(long epochSeconds, int weightGrams, int flags) {
+        calendar.setTimeInMillis(epochSeconds * 1000);
+        boolean pounds = (flags & BodyCompositionMeasurement.FLAG_LBS_UNIT) != 0;
+        float weight = pounds ? weightGrams / GRAMS_PER_POUND : weightGrams / 1000f;
+        return String.format(Locale.getDefault(), "Date- %d/%d/%d Time- %d:%02d (HH:mm) Weight- %.2f%s",
+                calendar.get(Calendar.DAY_OF_MONTH), calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.HOUR_OF_DAY), calendar.get(Calendar.MINUTE), weight, pounds ? " Pounds" : " Kgs");
+    }
+
+    /**
+     * @return the average, range and weekly trend in kg
+     */
+    public String formatStatistics(UserStatistics.Summary summary) {
+        double trend = summary.getTrendGramsPerDay();
+        return String.format(Locale.getDefault(), "Average- %.1f Kgs Range- %.1f to %.1f Kgs Trend- %s",
+                summary.getAverageGrams() / 1000, summary.getMinWeightGrams() / 1000f,
+                summary.getMaxWeightGrams() / 1000f,
+                Double.isNaN(trend) ? "-" : String.format(Locale.getDefault(), "%+.2f Kgs/week", trend * 7 / 1000));
+    }
+
+    /**
+     * @return the body composition of a reading, to be appended to its {@link #format(long, int, int)} text
+     */
+    public String formatComposition(BodyComposition composition) {
+        return String.format(Locale.getDefault(),
+                "\nBMI- %.1f Fat- %.1f%% Water- %.1f%% Muscle- %.1f Kgs Bone- %.1f Kgs Visceral fat- %.0f BMR- %.0f kcal",
+                composition.getBmi(), composition.getFatPercent(), composition.getWaterPercent(),
+                composition.getMuscleMassKg(), composition.getBoneMassKg(), composition.getVisceralFat(),
+                composition.getBmrKcal());
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.btchallengeapp;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.btchallengeapp.core.BodyComposition;
+import com.example.btchallengeapp.core.BodyCompositionCalculator;
+import com.example.btchallengeapp.core.MeasurementBatch;
+
+/**
+ * The most recent measurements, kept as primitive records in a fixed capacity ring so that memory stays flat however
+ * long the screen is open. Text is only built when a row is bound, which happens for the rows on screen.
+ *
+ * Rows are only ever appended at the end and evicted at the front, so each update is reported to the list as exactly
+ * one removed and one inserted range instead of being diffed or rebinding the whole list.
+ */
+public class MeasurementListAdapter extends RecyclerView.Adapter<MeasurementListAdapter.ViewHolder> {
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView text;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            text = itemView.findViewById(R.id.measurement);
+        }
+    }
+
+    private final int capacity;
+    private MeasurementBatch rows;
+    private final MeasurementFormatter formatter = new MeasurementFormatter();
+    private final BodyComposition composition = new BodyComposition();
+    private BodyCompositionCalculator bodyComposition;
+
+    public MeasurementListAdapter(int capacity) {
+        this.capacity = capacity;
+        rows = new MeasurementBatch(capacity);
+    }
+
+    /**
+     * @return an empty batch with the capacity of the list, to be filled off the main thread and passed to
+     * {@link #prepend}
+     */
+    public MeasurementBatch newBatch() {
+        return new MeasurementBatch(capacity);
+    }
+
+    /**
+     * Moves the measurements to the end of the list, evicting the oldest rows beyond the capacity
+     */
+    public void append(MeasurementBatch batch) {
+        int before = rows.size();
+        int added = batch.size();
+        if (added == 0) {
+            return;
+        }
+        batch.moveTo(rows);
+        if (added >= capacity) {
+            notifyDataSetChanged();
+            return;
+        }
+        int evicted = before + added - rows.size();
+        if (evicted > 0) {
+            notifyItemRangeRemoved(0, evicted);
+        }
+        notifyItemRangeInserted(before - evicted, added);
+    }
+
+    /**
+     * Puts older measurements, such as those read from the log, in front of the listed ones. The oldest are dropped if
+     * they do not all fit. The batch becomes the backing ring of the list and must not be used afterwards.
+     */
+    public void prepend(MeasurementBatch older) {
+        int listed = rows.size();
+        rows.moveTo(older);
+        rows = older;
+        int inserted = rows.size() - listed;
+        if (inserted > 0) {
+            notifyItemRangeInserted(0, inserted);
+        }
+    }
+
+    /**
+     * Shows the body composition of readings with an impedance, or stops showing it when null
+     */
+    public void setBodyComposition(BodyCompositionCalculator calculator) {
+        bodyComposition = calculator;
+        notifyItemRangeChanged(0, rows.size());
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new ViewHolder(LayoutInflater.from(parent.getContext()).inflate(R.layout.measurement_row, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        int weightGrams = rows.weightGrams(position);
+        String text = formatter.format(rows.epochSeconds(position), weightGrams, rows.flags(position));
+        if (bodyComposition != null
+                && bodyComposition.calculate(weightGrams / 1000f, rows.impedance(position), composition)) {
+            text += formatter.formatComposition(composition);
+        }
+        holder.text.setText(text);
+    }
+
+    @Override
+    public int getItemCount() {
+        return rows.size();
+    }
+}
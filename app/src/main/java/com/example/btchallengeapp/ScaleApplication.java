@@ -0,0 +1,305 @@
+package com.example.btchallengeapp;
+
+import android.app.Application;
+import android.content.SharedPreferences;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.btchallengeapp.core.BodyCompositionCalculator;
+import com.example.btchallengeapp.core.DeviceRegistry;
+import com.example.btchallengeapp.core.DownsampledHistory;
+import com.example.btchallengeapp.core.KnownScaleStore;
+import com.example.btchallengeapp.core.LatencyTracker;
+import com.example.btchallengeapp.core.MeasurementLogWriter;
+import com.example.btchallengeapp.core.MeasurementPipeline;
+import com.example.btchallengeapp.core.ScanCache;
+import com.example.btchallengeapp.core.Trace;
+import com.example.btchallengeapp.core.UserAttribution;
+import com.example.btchallengeapp.core.UserStatistics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application class holding the components which outlive a single screen, such as the measurement log.
+ */
+public class ScaleApplication extends Application {
+
+    private static final String MEASUREMENT_LOG_FILE = "measurements.log";
+    //records written and synced to disk together
+    private static final int MEASUREMENT_LOG_SYNC_RECORDS = 16;
+    private static final String LATENCY_REPORT_FILE = "latency.txt";
+    private static final String TRACE_FILE = "trace.txt";
+    //events kept for the trace dump, 32 bytes each
+    private static final int TRACE_CAPACITY = 4096;
+    private static final String KNOWN_SCALES_FILE = "known_scales";
+    private static final int MAX_KNOWN_SCALES = 16;
+    private static final String SCAN_CACHE_FILE = "scan_cache";
+    //the closest devices of the last couple of scans
+    private static final int SCAN_CACHE_CAPACITY = 32;
+    private static final long SCAN_CACHE_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final int MAX_USERS = 64;
+    //the lowest and highest weight are shown over the last month of daily weigh-ins
+    private static final int STATISTICS_WINDOW = 30;
+    private static final double STATISTICS_HALF_LIFE_DAYS = 7;
+    private static final String BODY_PROFILE_PREFERENCES = "body_profile";
+    private static final String KEY_HEIGHT = "height";
+    private static final String KEY_AGE = "age";
+    private static final String KEY_MALE = "male";
+    private static final String USER_PROFILES_PREFERENCES = "user_profiles";
+    //enrolled users are keyed above every packed MAC address, so that they never share statistics with a scale
+    private static final long FIRST_USER_ID = 1L << 48;
+    private static final String SCALE_HISTORY_PREFERENCES = "scale_history";
+    private static final String KEY_HISTORY_USER_ID = "user_id";
+
+    private MeasurementLogWriter measurementLog;
+    private final LatencyTracker latencyTracker = new LatencyTracker();
+    //debug builds record every scan result and frame, release builds only errors, both count everything
+    private final Trace trace = new Trace(TRACE_CAPACITY, BuildConfig.DEBUG ? Trace.LEVEL_DEBUG : Trace.LEVEL_ERROR,
+            SystemClock::elapsedRealtimeNanos);
+    private KnownScaleStore knownScales;
+    private ScanCache scanCache;
+    private boolean startupRecorded;
+    private final DeviceRegistry deviceRegistry = new DeviceRegistry();
+    private UserAttribution userAttribution;
+    private final UserStatistics userStatistics = new UserStatistics(MAX_USERS, STATISTICS_WINDOW,
+            STATISTICS_HALF_LIFE_DAYS);
+    private final DownsampledHistory history = new DownsampledHistory(MAX_USERS);
+    //the aggregates above live as long as the process, a recreated ScaleService must not replay the log into them again
+    private final MeasurementPipeline.Priming priming = new MeasurementPipeline.Priming();
+    private BodyCompositionCalculator bodyComposition;
+    private boolean bodyProfileLoaded;
+    private final String LOG_TAG = ScaleApplication.class.getName();
+
+    public File getMeasurementLogFile() {
+        return new File(getFilesDir(), MEASUREMENT_LOG_FILE);
+    }
+
+    /**
+     * @return the append only measurement log, opened on first use, or null if it can not be opened
+     */
+    public synchronized MeasurementLogWriter getMeasurementLog() {
+        if (measurementLog == null) {
+            try {
+                measurementLog = new MeasurementLogWriter(getMeasurementLogFile(), MEASUREMENT_LOG_SYNC_RECORDS);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Unable to open measurement log " + e);
+            }
+        }
+        return measurementLog;
+    }
+
+    /**
+     * @return the devices seen by any screen, shared by handle
+     */
+    public DeviceRegistry getDeviceRegistry() {
+        return deviceRegistry;
+    }
+
+    /**
+     * @return profiles of the people sharing the scales, readings are attributed to them by the measurement pipeline.
+     * The enrolled profiles are loaded on first use, the log primes them with the readings since.
+     */
+    public synchronized UserAttribution getUserAttribution() {
+        if (userAttribution == null) {
+            userAttribution = new UserAttribution(MAX_USERS);
+            //stored as "weight grams,impedance,epoch seconds" of the first weigh-in under the user id
+            for (Map.Entry<String, ?> entry : getSharedPreferences(USER_PROFILES_PREFERENCES, MODE_PRIVATE).getAll()
+                    .entrySet()) {
+                try {
+                    String[] fields = String.valueOf(entry.getValue()).split(",");
+                    userAttribution.enroll(Long.parseLong(entry.getKey()), Integer.parseInt(fields[0]),
+                            Integer.parseInt(fields[1]), Long.parseLong(fields[2]));
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Ignoring stored user profile " + entry.getKey() + " " + e);
+                }
+            }
+        }
+        return userAttribution;
+    }
+
+    /**
+     * Enrolls a new user from a weigh-in and stores the profile, the next readings close to it are attributed to them
+     *
+     * @param impedance impedance in ohms, 0 if the scale did not measure it
+     * @return id the statistics and the history of the user are kept under, or {@link UserAttribution#NO_USER} if
+     * all profiles are taken
+     */
+    public synchronized long enrollUser(int weightGrams, int impedance, long epochSeconds) {
+        UserAttribution users = getUserAttribution();
+        SharedPreferences preferences = getSharedPreferences(USER_PROFILES_PREFERENCES, MODE_PRIVATE);
+        long user = FIRST_USER_ID + preferences.getAll().size();
+        while (preferences.contains(Long.toString(user))) {
+            user++;
+        }
+        if (!users.enroll(user, weightGrams, impedance, epochSeconds)) {
+            return UserAttribution.NO_USER;
+        }
+        preferences.edit()
+                .putString(Long.toString(user), weightGrams + "," + impedance + "," + epochSeconds)
+                .apply();
+        return user;
+    }
+
+    /**
+     * @return running weight statistics per user, fed by the measurement pipeline of the ScaleService
+     */
+    public UserStatistics getUserStatistics() {
+        return userStatistics;
+    }
+
+    /**
+     * @return weight history per user at several resolutions for the charts, fed by the measurement pipeline
+     */
+    public DownsampledHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * @return how far the measurement log has been fed into the attribution, the statistics and the history
+     */
+    public MeasurementPipeline.Priming getPriming() {
+        return priming;
+    }
+
+    /**
+     * @return the body composition calculator of the stored profile, loaded on first use, or null if no height, age
+     * and sex have been entered yet
+     */
+    public synchronized BodyCompositionCalculator getBodyComposition() {
+        if (!bodyProfileLoaded) {
+            bodyProfileLoaded = true;
+            SharedPreferences preferences = getSharedPreferences(BODY_PROFILE_PREFERENCES, MODE_PRIVATE);
+            int height = preferences.getInt(KEY_HEIGHT, 0);
+            if (height > 0) {
+                try {
+                    bodyComposition = new BodyCompositionCalculator(height, preferences.getInt(KEY_AGE, 0),
+                            preferences.getBoolean(KEY_MALE, false));
+                } catch (IllegalArgumentException e) {
+                    Log.e(LOG_TAG, "Ignoring stored body profile " + e);
+                }
+            }
+        }
+        return bodyComposition;
+    }
+
+    /**
+     * Stores the body profile and computes its coefficients, readings with an impedance are then shown with their
+     * body composition
+     *
+     * @throws IllegalArgumentException if the height or age is out of range
+     */
+    public synchronized void setBodyProfile(int heightCm, int age, boolean male) {
+        bodyComposition = new BodyCompositionCalculator(heightCm, age, male);
+        bodyProfileLoaded = true;
+        getSharedPreferences(BODY_PROFILE_PREFERENCES, MODE_PRIVATE).edit()
+                .putInt(KEY_HEIGHT, heightCm)
+                .putInt(KEY_AGE, age)
+                .putBoolean(KEY_MALE, male)
+                .apply();
+    }
+
+    /**
+     * @return id this phone identifies itself with when downloading the history of a scale, chosen at random once so
+     * that the scale keeps a history of its own for every phone
+     */
+    public synchronized int getHistoryUserId() {
+        SharedPreferences preferences = getSharedPreferences(SCALE_HISTORY_PREFERENCES, MODE_PRIVATE);
+        int userId = preferences.getInt(KEY_HISTORY_USER_ID, 0);
+        if (userId == 0) {
+            userId = 1 + new Random().nextInt(0xFFFF);
+            preferences.edit().putInt(KEY_HISTORY_USER_ID, userId).apply();
+        }
+        return userId;
+    }
+
+    /**
+     * @return the scales connected before, loaded on first use
+     */
+    public synchronized KnownScaleStore getKnownScales() {
+        if (knownScales == null) {
+            knownScales = new KnownScaleStore(new File(getFilesDir(), KNOWN_SCALES_FILE), MAX_KNOWN_SCALES);
+            knownScales.load();
+        }
+        return knownScales;
+    }
+
+    /**
+     * @return the devices seen by recent scans, loaded on first use, so call it off the main thread
+     */
+    public synchronized ScanCache getScanCache() {
+        if (scanCache == null) {
+            scanCache = new ScanCache(new File(getFilesDir(), SCAN_CACHE_FILE), SCAN_CACHE_CAPACITY,
+                    SCAN_CACHE_MAX_AGE_MILLIS);
+            scanCache.load(System.currentTimeMillis());
+        }
+        return scanCache;
+    }
+
+    /**
+     * Records the time from the process start to the first scan list drawn, once per process. A process started
+     * earlier for the ScaleService is measured from its own start, which is not a cold start of the screen.
+     */
+    public synchronized void recordStartup(int listedDevices) {
+        if (startupRecorded) {
+            return;
+        }
+        startupRecorded = true;
+        long millis = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+        trace.event(Trace.LEVEL_INFO, Trace.LIST_DRAWN, 0, millis);
+        Log.i(LOG_TAG, "Scan list with " + listedDevices + " devices drawn " + millis + " ms after process start");
+    }
+
+    /**
+     * @return connection latencies of all scales since the process started
+     */
+    public LatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
+    /**
+     * @return counters and recent events of the scan, the GATT sessions and the measurement pipeline
+     */
+    public Trace getTrace() {
+        return trace;
+    }
+
+    public File getTraceFile() {
+        return new File(getExternalFilesDir(null), TRACE_FILE);
+    }
+
+    /**
+     * Formats the trace into {@link #getTraceFile()}, which can be pulled with adb. Runs off the main thread.
+     */
+    public void dumpTrace() {
+        try (Writer writer = new FileWriter(getTraceFile())) {
+            int events = trace.dump(writer);
+            Log.i(LOG_TAG, "Dumped " + events + " trace events to " + getTraceFile());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to write trace " + e);
+        }
+    }
+
+    public File getLatencyReportFile() {
+        return new File(getExternalFilesDir(null), LATENCY_REPORT_FILE);
+    }
+
+    /**
+     * Writes the latency percentiles to the debug log and to {@link #getLatencyReportFile()}, which can be pulled with adb
+     */
+    public void dumpLatencyReport() {
+        String report = latencyTracker.report();
+        Log.i(LOG_TAG, "Connection latency\n" + report);
+        try (Writer writer = new FileWriter(getLatencyReportFile())) {
+            writer.write(report);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to write latency report " + e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.btchallengeapp;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
+
+import com.example.btchallengeapp.core.GattUuids;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scan configuration used to look only for body composition scales. The filters are handed to the bluetooth controller,
+ * so advertisements from other devices are dropped in hardware and never wake the application. With a report delay the
+ * controller also queues the matching results and delivers them in batches through ScanCallback.onBatchScanResults.
+ */
+public class ScaleScanConfig {
+
+    /**
+     * Bluetooth SIG company identifier assigned to Xiaomi, used in the manufacturer specific advertising data
+     */
+    public static final int XIAOMI_MANUFACTURER_ID = 0x0157;
+
+    private int scanMode = ScanSettings.SCAN_MODE_BALANCED;
+    private long reportDelayMillis = 1000;
+    private boolean matchManufacturer;
+
+    public int getScanMode() {
+        return scanMode;
+    }
+
+    /**
+     * @param scanMode one of the ScanSettings.SCAN_MODE_ constants
+     */
+    public void setScanMode(int scanMode) {
+        this.scanMode = scanMode;
+    }
+
+    public long getReportDelayMillis() {
+        return reportDelayMillis;
+    }
+
+    /**
+     * @param reportDelayMillis how long the controller may hold results before delivering a batch, 0 delivers each result immediately
+     */
+    public void setReportDelayMillis(long reportDelayMillis) {
+        this.reportDelayMillis = reportDelayMillis;
+    }
+
+    public boolean isMatchManufacturer() {
+        return matchManufacturer;
+    }
+
+    /**
+     * @param matchManufacturer also report devices advertising Xiaomi manufacturer data, even without the body composition service
+     */
+    public void setMatchManufacturer(boolean matchManufacturer) {
+        this.matchManufacturer = matchManufacturer;
+    }
+
+    /**
+     * Builds the filters for the scan. A result is reported when any one of the filters matches.
+     * The scales announce the body composition or weight scale service either in their service UUID list or as service
+     * data, so both are matched.
+     */
+    public List<ScanFilter> buildFilters() {
+        List<ScanFilter> filters = new ArrayList<>();
+        for (ParcelUuid service : new ParcelUuid[]{new ParcelUuid(GattUuids.SERVICE_BODY_COMPOSITION),
+                new ParcelUuid(GattUuids.SERVICE_WEIGHT_SCALE)}) {
+            filters.add(new ScanFilter.Builder().setServiceUuid(service).build());
+            filters.add(new ScanFilter.Builder().setServiceData(service, new byte[0]).build());
+        }
+        if (matchManufacturer) {
+            filters.add(new ScanFilter.Builder().setManufacturerData(XIAOMI_MANUFACTURER_ID, new byte[0]).build());
+        }
+        return filters;
+    }
+
+    /**
+     * Builds the scan settings. Batching is only requested when the controller supports offloaded batching,
+     * otherwise results are delivered one by one.
+     *
+     * @param btAdapter adapter used to check the controller capabilities
+     */
+    public ScanSettings buildSettings(BluetoothAdapter btAdapter) {
+        return buildSettings(btAdapter, false);
+    }
+
+    /**
+     * @param lowLatency true to scan continuously and report every result at once, overriding the configured mode
+     */
+    public ScanSettings buildSettings(BluetoothAdapter btAdapter, boolean lowLatency) {
+        if (lowLatency) {
+            return new ScanSettings.Builder().setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY).build();
+        }
+        ScanSettings.Builder builder = new ScanSettings.Builder().setScanMode(scanMode);
+        if (reportDelayMillis > 0 && btAdapter.isOffloadedScanBatchingSupported()) {
+            builder.setReportDelay(reportDelayMillis);
+        }
+        return builder.build();
+    }
+}
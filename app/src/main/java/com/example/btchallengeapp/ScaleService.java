@@ -0,0 +1,583 @@
+package com.example.btchallengeapp;
+
+import android.app.AlarmManager;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.AsyncTask;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+
+import com.example.btchallengeapp.core.BodyCompositionMeasurement;
+import com.example.btchallengeapp.core.DeviceRegistry;
+import com.example.btchallengeapp.core.FrameCaptureWriter;
+import com.example.btchallengeapp.core.HistorySync;
+import com.example.btchallengeapp.core.HttpSyncTransport;
+import com.example.btchallengeapp.core.MacAddress;
+import com.example.btchallengeapp.core.MeasurementBatch;
+import com.example.btchallengeapp.core.MeasurementLogWriter;
+import com.example.btchallengeapp.core.MeasurementPipeline;
+import com.example.btchallengeapp.core.MeasurementSyncer;
+import com.example.btchallengeapp.core.ScaleConnectionManager;
+import com.example.btchallengeapp.core.ScaleSession;
+import com.example.btchallengeapp.core.ScanListener;
+import com.example.btchallengeapp.core.ScanScheduler;
+import com.example.btchallengeapp.core.ScanTransport;
+import com.example.btchallengeapp.core.Trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns scanning, the connections to the scales, the measurement pipeline and bond tracking for the whole process.
+ *
+ * Screens bind to the service and attach as {@link Observer}s, so a connection and its setup cost outlive rotation and
+ * navigation between screens. While any scale is connected the service runs in the foreground with a notification and
+ * also outlives the screens, once the last connection is closed it only lives while a screen is bound.
+ * While watching for weigh-ins it stays in the foreground as well, and a {@link ScanScheduler} duty cycles a background
+ * scan that connects a known scale as soon as someone steps on it.
+ * When a sync endpoint is configured, a {@link MeasurementSyncer} uploads the measurement log in the background.
+ * Observers are called on the main thread.
+ */
+public class ScaleService extends Service {
+
+    /**
+     * Screen attached to the service
+     */
+    public interface Observer {
+
+        void onConnectionStateChanged(String address, ScaleSession.State state);
+
+        /**
+         * Measurements are waiting to be taken with {@link #drainTo}. Not called again until they were taken.
+         */
+        void onMeasurementsReady();
+    }
+
+    public class LocalBinder extends Binder {
+        public ScaleService getService() {
+            return ScaleService.this;
+        }
+    }
+
+    private static final int MAX_SCALES = 8;
+    private static final int MAX_CONCURRENT_SETUPS = 2;
+    //raw frames buffered between the binder threads and the pipeline thread
+    private static final int PIPELINE_RING_CAPACITY = 256;
+    //measurements gathered between two drains of the screen showing them
+    private static final int PIPELINE_BATCH_CAPACITY = 200;
+    private static final String CAPTURE_DIRECTORY = "captures";
+    private static final String SYNC_STATE_FILE = "sync_state";
+    private static final int SYNC_BATCH_RECORDS = 500;
+    private static final int SYNC_MAX_IN_FLIGHT = 2;
+    private static final int SYNC_TIMEOUT_MILLIS = 15000;
+    //stored readings handed to the pipeline together, a longer history is delivered in several chunks
+    private static final int HISTORY_CHUNK_RECORDS = 1000;
+    private static final String NOTIFICATION_CHANNEL_ID = "scale_connections";
+    private static final int NOTIFICATION_ID = 1;
+    private static final String ACTION_BACKGROUND_SCAN_WAKE_UP = "com.example.btchallengeapp.BACKGROUND_SCAN_WAKE_UP";
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Observer> observers = new ArrayList<>();
+    private final ScheduledExecutorService gattTimer = Executors.newSingleThreadScheduledExecutor();
+    //checks downloaded histories against the log and waits for room in the pipeline, off the binder threads
+    private final ExecutorService historyExecutor = Executors.newSingleThreadExecutor();
+    private DeviceRegistry registry;
+    private ScaleConnectionManager connectionManager;
+    private MeasurementPipeline pipeline;
+    private MeasurementLogWriter measurementLog;
+    private ScanTransport scanTransport;
+    private final ScaleScanConfig scanConfig = new ScaleScanConfig();
+    private BTBondStateChangeReceiver bondStateChangeReceiver;
+    private FrameCaptureWriter frameCapture;
+    private ScanScheduler backgroundScan;
+    private AlarmManager alarmManager;
+    private PendingIntent backgroundScanAlarm;
+    private Trace trace;
+    private MeasurementSyncer syncer;
+    private HistorySync historySync;
+    private boolean watchingForWeighIns;
+    private boolean foreground;
+    private final String LOG_TAG = ScaleService.class.getName();
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        ScaleApplication application = (ScaleApplication) getApplication();
+        registry = application.getDeviceRegistry();
+        measurementLog = application.getMeasurementLog();
+
+        BluetoothAdapter btAdapter = ((BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE)).getAdapter();
+        trace = application.getTrace();
+        scanTransport = new AndroidScanTransport(btAdapter, scanConfig, trace);
+
+        pipeline = new MeasurementPipeline(PIPELINE_RING_CAPACITY, PIPELINE_BATCH_CAPACITY, MAX_SCALES, measurementLog,
+                () -> mainHandler.post(this::notifyMeasurementsReady));
+        pipeline.setUtcOffsetSeconds(utcOffsetSeconds());
+        //primed from the log on the pipeline thread, the screens only read the results
+        pipeline.setAttribution(application.getUserAttribution());
+        pipeline.setStatistics(application.getUserStatistics());
+        application.getHistory().setUtcOffsetSeconds(utcOffsetSeconds());
+        pipeline.setHistory(application.getHistory());
+        pipeline.setPriming(application.getPriming());
+        pipeline.setTrace(trace);
+        pipeline.start();
+
+        connectionManager = new ScaleConnectionManager(new AndroidScaleTransport(this, btAdapter), gattTimer,
+                MAX_SCALES, MAX_CONCURRENT_SETUPS, connectionListener);
+        //binder threads only copy the raw frames, decoding and storing happens on the pipeline thread
+        connectionManager.setFrameSink(pipeline);
+        connectionManager.setLatencyTracker(application.getLatencyTracker());
+        connectionManager.setTrace(trace);
+        //scales connected before are reconnected directly instead of waiting for a background connection
+        connectionManager.setKnownScaleStore(application.getKnownScales());
+        //readings taken while the phone was away are downloaded once a scale streams
+        historySync = new HistorySync(application.getHistoryUserId(), pipeline, measurementLog, historyExecutor,
+                HISTORY_CHUNK_RECORDS);
+        historySync.setUtcOffsetSeconds(utcOffsetSeconds());
+        connectionManager.setHistorySync(historySync);
+
+        //a single registration for the lifetime of the service, whatever number of scales get connected
+        bondStateChangeReceiver = new BTBondStateChangeReceiver();
+        registerReceiver(bondStateChangeReceiver, new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED));
+        createNotificationChannel();
+
+        //a transport of its own, so a scan started from a screen does not replace the background one
+        backgroundScan = new ScanScheduler(new AndroidScanTransport(btAdapter, scanConfig, trace), application.getKnownScales(),
+                SystemClock::elapsedRealtimeNanos, scanHost);
+        //no scan runs between the windows, so the next one is opened by an alarm which wakes the phone
+        alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        backgroundScanAlarm = PendingIntent.getBroadcast(this, 0,
+                new Intent(ACTION_BACKGROUND_SCAN_WAKE_UP).setPackage(getPackageName()), 0);
+        registerReceiver(backgroundScanWakeUpReceiver, new IntentFilter(ACTION_BACKGROUND_SCAN_WAKE_UP));
+
+        syncer = createSyncer(application);
+        if (syncer != null) {
+            syncer.start();
+        }
+    }
+
+    /**
+     * @return the uploader of the measurement log, or null if no endpoint is configured
+     */
+    private MeasurementSyncer createSyncer(ScaleApplication application) {
+        String endpoint = getString(R.string.sync_endpoint);
+        if (endpoint.isEmpty()) {
+            return null;
+        }
+        try {
+            return new MeasurementSyncer(application.getMeasurementLogFile(), new File(getFilesDir(), SYNC_STATE_FILE),
+                    new HttpSyncTransport(new URL(endpoint), SYNC_TIMEOUT_MILLIS, SYNC_TIMEOUT_MILLIS),
+                    SYNC_BATCH_RECORDS, SYNC_MAX_IN_FLIGHT);
+        } catch (MalformedURLException e) {
+            Log.e(LOG_TAG, "Invalid sync endpoint " + e);
+            return null;
+        }
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        //started only to keep connections alive without bound screens, not restarted once the process is gone
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        unregisterReceiver(bondStateChangeReceiver);
+        scanTransport.stopScan();
+        backgroundScan.stop();
+        alarmManager.cancel(backgroundScanAlarm);
+        unregisterReceiver(backgroundScanWakeUpReceiver);
+        connectionManager.disconnectAll();
+        gattTimer.shutdownNow();
+        //a delivery waiting for room in the pipeline is interrupted, the scale keeps the unacknowledged history
+        historyExecutor.shutdownNow();
+        try {
+            pipeline.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        AsyncTask.execute(this::stopFrameCapture);
+        persist();
+        if (syncer != null) {
+            Log.d(LOG_TAG, "Sync records: " + syncer.getSyncedRecords() + " requests: " + syncer.getSentBatches()
+                    + " retries: " + syncer.getRetries() + " rejected: " + syncer.getRejectedBatches()
+                    + " bytes per record: " + syncer.getBytesPerRecord());
+            //the sync request queued by persist() is not waited for on the main thread, what it did not send goes with
+            //the next start
+            syncer.stop();
+        }
+        Log.d(LOG_TAG, "History transfers: " + historySync.getCompletedTransfers() + " failed: "
+                + historySync.getFailedTransfers() + " records: " + historySync.getReceivedRecords() + " duplicates: "
+                + historySync.getDuplicateRecords() + " chunked: " + historySync.getChunkedTransfers());
+        Log.d(LOG_TAG, "Pipeline frames received: " + pipeline.getReceivedFrames() + " dropped: " + pipeline.getDroppedFrames()
+                + " max queue depth: " + pipeline.getMaxQueueDepth() + " invalid: " + pipeline.getInvalidFrames()
+                + " incomplete: " + pipeline.getIncompleteFrames() + " duplicates: " + pipeline.getDuplicateFrames()
+                + " unattributed: " + pipeline.getUnattributed());
+    }
+
+    /**
+     * Attaches a screen, call from the main thread
+     */
+    public void addObserver(Observer observer) {
+        observers.add(observer);
+    }
+
+    public void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * Queues a connection to the scale, the service keeps it up until {@link #disconnect} even without bound screens
+     */
+    public void connect(String address) {
+        connectionManager.connect(address);
+    }
+
+    public void disconnect(String address) {
+        connectionManager.disconnect(address);
+    }
+
+    /**
+     * Starts scanning, replacing the listener of a scan already running. Results are delivered on the main thread.
+     */
+    public void startScan(boolean scalesOnly, ScanListener listener) {
+        scanTransport.startScan(scalesOnly, listener);
+    }
+
+    public void stopScan() {
+        scanTransport.stopScan();
+    }
+
+    /**
+     * Starts or stops watching for weigh-ins on the known scales in the background, call from the main thread
+     */
+    public void setWatchForWeighIns(boolean watch) {
+        if (watch == watchingForWeighIns) {
+            return;
+        }
+        watchingForWeighIns = watch;
+        if (watch) {
+            backgroundScan.start();
+            backgroundScan.setConnected(connectionManager.getSessionCount() > 0);
+        } else {
+            backgroundScan.stop();
+            alarmManager.cancel(backgroundScanAlarm);
+        }
+        Log.d(LOG_TAG, "Watching for weigh-ins: " + watch);
+        updateForeground();
+    }
+
+    public boolean isWatchingForWeighIns() {
+        return watchingForWeighIns;
+    }
+
+    /**
+     * Moves the measurements gathered since the last call into the target batch
+     *
+     * @return number of measurements moved
+     */
+    public int drainTo(MeasurementBatch target) {
+        return pipeline.drainTo(target);
+    }
+
+    /**
+     * Starts recording every raw frame into a new capture file, which can be pulled with adb and replayed.
+     * Runs off the main thread.
+     */
+    public void startFrameCapture() {
+        File directory = getExternalFilesDir(CAPTURE_DIRECTORY);
+        File file = new File(directory, "capture-" + System.currentTimeMillis() + ".fcap");
+        try {
+            FrameCaptureWriter writer = new FrameCaptureWriter(file);
+            FrameCaptureWriter previous;
+            synchronized (this) {
+                previous = frameCapture;
+                frameCapture = writer;
+            }
+            pipeline.setCapture(writer);
+            if (previous != null) {
+                previous.close();
+            }
+            Log.d(LOG_TAG, "Recording raw frames to " + file);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to create frame capture " + e);
+        }
+    }
+
+    /**
+     * Stops recording and closes the capture file. Runs off the main thread.
+     */
+    public void stopFrameCapture() {
+        FrameCaptureWriter writer;
+        synchronized (this) {
+            writer = frameCapture;
+            frameCapture = null;
+        }
+        if (writer == null) {
+            return;
+        }
+        pipeline.setCapture(null);
+        try {
+            writer.close();
+            Log.d(LOG_TAG, "Recorded " + writer.getFrameCount() + " frames to " + writer.getFile());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to close frame capture " + e);
+        }
+    }
+
+    public synchronized boolean isCapturingFrames() {
+        return frameCapture != null;
+    }
+
+    /**
+     * Writes what is only buffered in memory to disk: the latency report, the frame capture, the known scales and the
+     * pending measurement log records. Called when the screens go to the background.
+     */
+    public void persist() {
+        ScaleApplication application = (ScaleApplication) getApplication();
+        AsyncTask.execute(application::dumpLatencyReport);
+        FrameCaptureWriter capture;
+        synchronized (this) {
+            capture = frameCapture;
+        }
+        if (capture != null) {
+            AsyncTask.execute(() -> {
+                try {
+                    capture.flush();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Unable to flush frame capture " + e);
+                }
+            });
+        }
+        AsyncTask.execute(() -> {
+            try {
+                application.getKnownScales().save();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Unable to save known scales " + e);
+            }
+        });
+        //records are synced in batches, make sure the pending ones reach the disk while the app is in the background
+        if (measurementLog != null) {
+            AsyncTask.execute(() -> {
+                try {
+                    measurementLog.flush();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Unable to flush measurement log " + e);
+                }
+                //uploads what was just written while the service runs, once it is destroyed the syncer is stopped and
+                //the records are sent from the saved cursor after the next start
+                MeasurementSyncer uploader = syncer;
+                if (uploader != null) {
+                    uploader.requestSync();
+                }
+            });
+        }
+    }
+
+    /**
+     * Receives the connection progress of all scales, called on the bluetooth binder threads
+     */
+    private final ScaleConnectionManager.Listener connectionListener = new ScaleConnectionManager.Listener() {
+        @Override
+        public void onStateChanged(String address, ScaleSession.State state) {
+            long device = MacAddress.pack(address);
+            trace.event(Trace.LEVEL_INFO, Trace.CONNECTION_STATE, device, state.ordinal());
+            registry.setConnectionState(registry.register(device), state);
+            mainHandler.post(() -> {
+                updateForeground();
+                for (int i = 0; i < observers.size(); i++) {
+                    observers.get(i).onConnectionStateChanged(address, state);
+                }
+            });
+        }
+
+        @Override
+        public void onMeasurement(String address, BodyCompositionMeasurement measurement) {
+            //not called, the frames are handed to the measurement pipeline instead
+        }
+    };
+
+    /**
+     * Receives the background scan alarm, on the main thread and while the alarm holds the phone awake
+     */
+    private final BroadcastReceiver backgroundScanWakeUpReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            backgroundScan.onWakeUp();
+        }
+    };
+
+    /**
+     * Runs the background scan on the main thread, where the scan results are delivered as well
+     */
+    private final ScanScheduler.Host scanHost = new ScanScheduler.Host() {
+        @Override
+        public void requestWakeUp(long delayNanos) {
+            //a handler delay stops with the CPU and the scan would never resume, the alarm runs on elapsed realtime and
+            //fires in doze as well, where the system spaces such alarms at least some minutes apart
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                    SystemClock.elapsedRealtime() + TimeUnit.NANOSECONDS.toMillis(delayNanos), backgroundScanAlarm);
+        }
+
+        @Override
+        public void onScaleFound(String address) {
+            Log.d(LOG_TAG, "Known scale " + address + " advertised, connecting");
+            connectionManager.connect(address);
+        }
+    };
+
+    private void notifyMeasurementsReady() {
+        //only schedules a pass on the syncer threads, records still buffered by the log are sent with the next one
+        if (syncer != null) {
+            syncer.requestSync();
+        }
+        for (int i = 0; i < observers.size(); i++) {
+            observers.get(i).onMeasurementsReady();
+        }
+    }
+
+    /**
+     * Keeps the service in the foreground while any scale has a session or weigh-ins are watched for, runs on the main
+     * thread
+     */
+    private void updateForeground() {
+        int sessions = connectionManager.getSessionCount();
+        if (watchingForWeighIns) {
+            backgroundScan.setConnected(sessions > 0);
+        }
+        if (sessions > 0 || watchingForWeighIns) {
+            if (!foreground) {
+                //started as well as bound, so that unbinding the last screen does not end the connections
+                startService(new Intent(this, ScaleService.class));
+                foreground = true;
+            }
+            startForeground(NOTIFICATION_ID, buildNotification(sessions));
+        } else if (foreground) {
+            foreground = false;
+            stopForeground(true);
+            stopSelf();
+        }
+    }
+
+    private void createNotificationChannel() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+        NotificationChannel channel = new NotificationChannel(NOTIFICATION_CHANNEL_ID,
+                getString(R.string.notification_channel_connections), NotificationManager.IMPORTANCE_LOW);
+        getSystemService(NotificationManager.class).createNotificationChannel(channel);
+    }
+
+    private Notification buildNotification(int sessions) {
+        Intent openScan = new Intent(this, DeviceScanActivity.class);
+        return new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_launcher_foreground)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(sessions > 0
+                        ? getResources().getQuantityString(R.plurals.notification_connected_scales, sessions, sessions)
+                        : getString(R.string.notification_watching))
+                .setContentIntent(PendingIntent.getActivity(this, 0, openScan, 0))
+                .setOngoing(true)
+                .build();
+    }
+
+    /**
+     * The scale clock runs on local time
+     */
+    private static int utcOffsetSeconds() {
+        return TimeZone.getDefault().getOffset(System.currentTimeMillis()) / 1000;
+    }
+
+    /**
+     * Broadcast receiver listening to bluetooth bond state change actions
+     */
+    private class BTBondStateChangeReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            try {
+                String action = intent.getAction();
+                Bundle bundle = intent.getExtras();
+                if (BluetoothDevice.ACTION_BOND_STATE_CHANGED.equals(action)) {
+                    Log.d(LOG_TAG, "ACTION_BOND_STATE_CHANGED");
+                    onPairingStateChanged(Objects.requireNonNull(bundle), intent);
+                }
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Exception in onReceive of BTBondStateChangeReceiver " + e);
+            }
+        }
+    }
+
+    /**
+     * Handling of pairing/bonding state changes action
+     * Note - For now, we have listened to the events, appropriate actions may be added under various bond actions as needed
+     * BOND_NONE --> BOND_BONDING: Pairing started
+     * BOND_BONDING --> BOND_NONE : Pairing error, as pairing was not completed to BOND_BONDED status
+     * BOND_BONDING --> BOND_BONDED : Pairing completed
+     *
+     * @param bundle broadcast bundle
+     **/
+    private void onPairingStateChanged(Bundle bundle, Intent intent) {
+        BluetoothDevice bluetoothDevice = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+
+        int newBondState = bundle.getInt(BluetoothDevice.EXTRA_BOND_STATE);
+        int previousBondState = bundle.getInt(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE);
+        Log.d(LOG_TAG, "Previous bond state: " + previousBondState + " ---> New bond state: " + newBondState);
+        String deviceInfoLog = bluetoothDevice.getName() + "| MACId: " + bluetoothDevice.getAddress();
+        switch (newBondState) {
+            case BluetoothDevice.BOND_NONE:
+                /* Possible pairing failed case as Pairing state changed from BOND_BONDING to BOND_NONE */
+                if (previousBondState == BluetoothDevice.BOND_BONDING) {
+                    Log.e(LOG_TAG, "********** Possible pairing failed as pairing state changed from BOND_BONDING to BOND_NONE **********");
+                    //@TODO Appropriate error handling can be added as per application requirement
+                }
+                break;
+
+            case BluetoothDevice.BOND_BONDING:
+                /* Pairing started for device, start a timeout handler */
+                Log.d(LOG_TAG, "********** Pairing Initiated with Device :" + deviceInfoLog + " **********");
+                break;
+
+            case BluetoothDevice.BOND_BONDED:
+                Log.d(LOG_TAG, "********** Device paired successfully :" + deviceInfoLog + " **********");
+                //@TODO Appropriate success flow can be added as per application requirement
+                break;
+            default:
+                break;
+        }
+    }
+}
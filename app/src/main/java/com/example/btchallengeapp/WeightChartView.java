@@ -0,0 +1,92 @@
+package com.example.btchallengeapp;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.example.btchallengeapp.core.DownsampledHistory;
+
+/**
+ * Weight chart of one user, with the lowest to highest weight of each point drawn as a band behind the line.
+ * The points are queried from the DownsampledHistory on every draw, one per pixel at most, so drawing costs the same
+ * for a week as for years of readings. Tapping the chart switches between the last month, year and five years.
+ */
+public class WeightChartView extends View {
+
+    private static final long DAY = 86_400;
+    private static final long[] SPANS = {30 * DAY, 365 * DAY, 5 * 365 * DAY};
+
+    private final DownsampledHistory.Points points = new DownsampledHistory.Points();
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint bandPaint = new Paint();
+    private final Path line = new Path();
+    private DownsampledHistory history;
+    private long user;
+    private int span;
+
+    public WeightChartView(Context context) {
+        this(context, null);
+    }
+
+    public WeightChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = getResources().getDisplayMetrics().density;
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeWidth(2 * density);
+        linePaint.setColor(Color.rgb(0x30, 0x6F, 0xC0));
+        bandPaint.setStrokeWidth(density);
+        bandPaint.setColor(Color.argb(0x50, 0x30, 0x6F, 0xC0));
+        setOnClickListener(v -> {
+            span = (span + 1) % SPANS.length;
+            invalidate();
+        });
+    }
+
+    /**
+     * @param user whose readings are drawn, readings which could not be attributed are kept under their scale
+     */
+    public void show(DownsampledHistory history, long user) {
+        this.history = history;
+        this.user = user;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        int height = getHeight() - getPaddingTop() - getPaddingBottom();
+        long to = System.currentTimeMillis() / 1000;
+        long from = to - SPANS[span];
+        if (history == null || width <= 0 || height <= 0 || !history.query(user, from, to, width, points)) {
+            return;
+        }
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < points.size(); i++) {
+            min = Math.min(min, points.minGrams(i));
+            max = Math.max(max, points.maxGrams(i));
+        }
+        //at least a kilogram high, so that a steady weight is not drawn as noise
+        float range = Math.max(max - min, 1000);
+        float bottom = getPaddingTop() + height;
+        float scaleX = (float) width / (to - from);
+        float scaleY = height / range;
+        line.rewind();
+        for (int i = 0; i < points.size(); i++) {
+            float x = getPaddingLeft() + (points.epochSeconds(i) - from) * scaleX;
+            canvas.drawLine(x, bottom - (points.minGrams(i) - min) * scaleY,
+                    x, bottom - (points.maxGrams(i) - min) * scaleY, bandPaint);
+            float y = bottom - (points.weightGrams(i) - min) * scaleY;
+            if (i == 0) {
+                line.moveTo(x, y);
+            } else {
+                line.lineTo(x, y);
+            }
+        }
+        canvas.drawPath(line, linePaint);
+    }
+}
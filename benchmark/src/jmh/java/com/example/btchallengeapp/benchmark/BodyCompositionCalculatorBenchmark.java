@@ -0,0 +1,61 @@
+package com.example.btchallengeapp.benchmark;
+
+import com.example.btchallengeapp.core.BodyComposition;
+import com.example.btchallengeapp.core.BodyCompositionCalculator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the body composition of one reading with the coefficients of a profile already computed, and computing the
+ * coefficients of a profile, which happens once per profile load.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BodyCompositionCalculatorBenchmark {
+
+    private static final int READINGS = 1024;
+
+    private final BodyComposition result = new BodyComposition();
+    private BodyCompositionCalculator calculator;
+    private float[] weights;
+    private int[] impedances;
+    private int[] heights;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        calculator = new BodyCompositionCalculator(172, 38, false);
+        Random random = new Random(42);
+        weights = new float[READINGS];
+        impedances = new int[READINGS];
+        heights = new int[READINGS];
+        for (int i = 0; i < READINGS; i++) {
+            weights[i] = (float) (70 + random.nextGaussian() * 15);
+            impedances[i] = (int) (500 + random.nextGaussian() * 80);
+            heights[i] = 150 + random.nextInt(50);
+        }
+    }
+
+    @Benchmark
+    public BodyComposition calculate() {
+        next = (next + 1) & (READINGS - 1);
+        calculator.calculate(weights[next], impedances[next], result);
+        return result;
+    }
+
+    @Benchmark
+    public BodyCompositionCalculator loadProfile() {
+        next = (next + 1) & (READINGS - 1);
+        return new BodyCompositionCalculator(heights[next], 18 + (next & 63), (next & 1) == 0);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.btchallengeapp.benchmark;
+
+import com.example.btchallengeapp.core.BodyCompositionDecoder;
+import com.example.btchallengeapp.core.BodyCompositionMeasurement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of decoding a single 0x2A9C frame. One operation is one frame, so the score is ns/frame and
+ * gc.alloc.rate.norm (from the gc profiler) is bytes allocated per frame, which should stay at zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BodyCompositionDecoderBenchmark {
+
+    private static final int FRAME_COUNT = 1024;
+
+    private final BodyCompositionDecoder decoder = new BodyCompositionDecoder();
+    private final BodyCompositionMeasurement measurement = new BodyCompositionMeasurement();
+    private byte[] frames;
+    private ByteBuffer heapFrames;
+    private ByteBuffer directFrames;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // Frames with varying flags and values so that the JIT cannot specialise on a single input
+        Random random = new Random(42);
+        frames = new byte[FRAME_COUNT * BodyCompositionDecoder.FRAME_LENGTH];
+        random.nextBytes(frames);
+        heapFrames = ByteBuffer.wrap(frames);
+        directFrames = ByteBuffer.allocateDirect(frames.length);
+        directFrames.put(frames);
+        directFrames.flip();
+    }
+
+    private int nextOffset() {
+        next = (next + 1) & (FRAME_COUNT - 1);
+        return next * BodyCompositionDecoder.FRAME_LENGTH;
+    }
+
+    @Benchmark
+    public int decodeByteArray() {
+        decoder.decode(frames, nextOffset(), measurement);
+        return measurement.getWeightRaw() + measurement.getFlags();
+    }
+
+    @Benchmark
+    public int decodeHeapBuffer() {
+        decoder.decode(heapFrames, nextOffset(), measurement);
+        return measurement.getWeightRaw() + measurement.getFlags();
+    }
+
+    @Benchmark
+    public int decodeDirectBuffer() {
+        decoder.decode(directFrames, nextOffset(), measurement);
+        return measurement.getWeightRaw() + measurement.getFlags();
+    }
+}
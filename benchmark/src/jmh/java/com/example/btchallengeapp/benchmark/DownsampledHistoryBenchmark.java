@@ -0,0 +1,60 @@
+package com.example.btchallengeapp.benchmark;
+
+import com.example.btchallengeapp.core.DownsampledHistory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a chart query over the whole history and over the last month, at a phone screen width, for histories of a
+ * few readings a day over one and ten years. The query should not grow with the history.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DownsampledHistoryBenchmark {
+
+    private static final long DAY = 86_400;
+    private static final long USER = 1;
+    private static final int WIDTH = 720;
+
+    @Param({"1", "10"})
+    public int years;
+
+    private DownsampledHistory history;
+    private final DownsampledHistory.Points points = new DownsampledHistory.Points();
+    private long start;
+    private long end;
+
+    @Setup
+    public void setUp() {
+        history = new DownsampledHistory(4);
+        Random random = new Random(42);
+        end = 1_600_000_000L;
+        start = end - years * 365 * DAY;
+        for (long time = start; time < end; time += 6 * 3600 + random.nextInt(3600)) {
+            history.add(USER, time, (int) (80_000 + random.nextGaussian() * 1500), 500);
+        }
+    }
+
+    @Benchmark
+    public DownsampledHistory.Points queryAll() {
+        history.query(USER, start, end, WIDTH, points);
+        return points;
+    }
+
+    @Benchmark
+    public DownsampledHistory.Points queryLastMonth() {
+        history.query(USER, end - 30 * DAY, end, WIDTH, points);
+        return points;
+    }
+}
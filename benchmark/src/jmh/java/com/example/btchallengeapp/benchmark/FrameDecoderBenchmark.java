@@ -0,0 +1,100 @@
+package com.example.btchallengeapp.benchmark;
+
+import com.example.btchallengeapp.core.BodyCompositionDecoder;
+import com.example.btchallengeapp.core.BodyCompositionMeasurement;
+import com.example.btchallengeapp.core.FrameDecoderRegistry;
+import com.example.btchallengeapp.core.WeightScaleDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding a frame of each registered decoder through the registry dispatch, as the pipeline does, and a mix
+ * of protocols and lengths interleaved the way frames of several scale models arrive. One operation is one frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameDecoderBenchmark {
+
+    private static final int FRAME_COUNT = 1024;
+    private static final int SLOT = FrameDecoderRegistry.MAX_FRAME_LENGTH;
+
+    private final FrameDecoderRegistry registry = FrameDecoderRegistry.createDefault();
+    private final BodyCompositionMeasurement measurement = new BodyCompositionMeasurement();
+    private FrameDecoderRegistry.Protocol bodyComposition;
+    private FrameDecoderRegistry.Protocol miScale;
+    private FrameDecoderRegistry.Protocol weightScale;
+    private byte[] frames;
+    private int[] protocols;
+    private int[] lengths;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        bodyComposition = registry.getProtocol(FrameDecoderRegistry.PROTOCOL_BODY_COMPOSITION);
+        miScale = registry.getProtocol(FrameDecoderRegistry.PROTOCOL_MI_SCALE);
+        weightScale = registry.getProtocol(FrameDecoderRegistry.PROTOCOL_WEIGHT_SCALE);
+        // random payloads with valid weight scale flags, so that the JIT cannot specialise on a single input
+        Random random = new Random(42);
+        frames = new byte[FRAME_COUNT * SLOT];
+        random.nextBytes(frames);
+        protocols = new int[FRAME_COUNT];
+        lengths = new int[FRAME_COUNT];
+        int[] weightScaleFlags = {0x22, 0xA2, 0x06, 0x0E};
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            if (random.nextBoolean()) {
+                protocols[i] = FrameDecoderRegistry.PROTOCOL_BODY_COMPOSITION;
+                lengths[i] = BodyCompositionDecoder.FRAME_LENGTH;
+            } else {
+                int flags = weightScaleFlags[random.nextInt(weightScaleFlags.length)];
+                frames[i * SLOT] = (byte) flags;
+                protocols[i] = (flags & 0x20) != 0
+                        ? FrameDecoderRegistry.PROTOCOL_MI_SCALE : FrameDecoderRegistry.PROTOCOL_WEIGHT_SCALE;
+                lengths[i] = WeightScaleDecoder.frameLength(flags);
+            }
+        }
+    }
+
+    private int nextFrame() {
+        next = (next + 1) & (FRAME_COUNT - 1);
+        return next;
+    }
+
+    @Benchmark
+    public int bodyComposition() {
+        bodyComposition.decode(frames, nextFrame() * SLOT, BodyCompositionDecoder.FRAME_LENGTH, measurement);
+        return measurement.getWeightRaw() + measurement.getFlags();
+    }
+
+    @Benchmark
+    public int miScale() {
+        int frame = nextFrame();
+        frames[frame * SLOT] = 0x22;
+        miScale.decode(frames, frame * SLOT, WeightScaleDecoder.MI_SCALE_FRAME_LENGTH, measurement);
+        return measurement.getWeightRaw() + measurement.getFlags();
+    }
+
+    @Benchmark
+    public int standardWeightScale() {
+        int frame = nextFrame();
+        frames[frame * SLOT] = 0x0E;
+        weightScale.decode(frames, frame * SLOT, WeightScaleDecoder.frameLength(0x0E), measurement);
+        return measurement.getWeightRaw() + measurement.getFlags();
+    }
+
+    @Benchmark
+    public int mixedProtocols() {
+        int frame = nextFrame();
+        registry.getProtocol(protocols[frame]).decode(frames, frame * SLOT, lengths[frame], measurement);
+        return measurement.getWeightRaw() + measurement.getFlags();
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.btchallengeapp.benchmark;
+
+import com.example.btchallengeapp.core.ProximityRanker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ranks a crowded room: advertisers each sending every 100 ms to 1 s, about 2,500 advertisements a second per thousand
+ * devices, with 6 dB of noise on a slowly drifting RSSI. One operation is one simulated second, the advertisements fed
+ * to the filters and the order updated on every scan delivery of 50 ms, which the ranker throttles to two resorts.
+ * The baseline sorts all devices on every delivery, which is what a list without throttling and without a
+ * nearly sorted order to start from would do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProximityRankerBenchmark {
+
+    private static final long MS = 1_000_000L;
+    private static final long PERIOD = 10_000 * MS;
+    private static final long DELIVERY = 50 * MS;
+
+    private static final ProximityRanker.Changes IGNORED = new ProximityRanker.Changes() {
+        @Override
+        public void onRemoved(int position) {
+        }
+
+        @Override
+        public void onInserted(int position) {
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+        }
+    };
+
+    @Param({"1000"})
+    public int advertisers;
+
+    // ten seconds of advertisements in time order, replayed with the time shifted on each round
+    private int[] handles;
+    private int[] rssis;
+    private long[] times;
+    private int next;
+    private long offset;
+
+    private ProximityRanker ranker;
+    private long[] sortKeys;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        long[] nextTime = new long[advertisers];
+        long[] interval = new long[advertisers];
+        float[] rssi = new float[advertisers];
+        int count = 0;
+        for (int i = 0; i < advertisers; i++) {
+            interval[i] = (100 + random.nextInt(900)) * MS;
+            nextTime[i] = random.nextInt(1000) * MS;
+            rssi[i] = -40 - random.nextInt(55);
+            count += (int) ((PERIOD - nextTime[i]) / interval[i]) + 1;
+        }
+        handles = new int[count];
+        rssis = new int[count];
+        times = new long[count];
+        long[] events = new long[count];
+        int e = 0;
+        for (int i = 0; i < advertisers; i++) {
+            for (long t = nextTime[i]; t < PERIOD; t += interval[i]) {
+                events[e++] = t << 20 | i;
+            }
+        }
+        events = Arrays.copyOf(events, e);
+        Arrays.sort(events);
+        for (int k = 0; k < events.length; k++) {
+            int handle = (int) (events[k] & 0xFFFFF);
+            rssi[handle] += random.nextFloat() * 0.2f - 0.1f;
+            handles[k] = handle;
+            rssis[k] = Math.round(rssi[handle] + (float) random.nextGaussian() * 6);
+            times[k] = events[k] >>> 20;
+        }
+        handles = Arrays.copyOf(handles, e);
+        rssis = Arrays.copyOf(rssis, e);
+        times = Arrays.copyOf(times, e);
+
+        ranker = new ProximityRanker(advertisers, 500 * MS, 10_000 * MS, 3f);
+        sortKeys = new long[advertisers];
+        // the order is built up once, the benchmark measures a scan which has been running for a while
+        for (int round = 0; round < 2; round++) {
+            oneSecond();
+        }
+    }
+
+    @Benchmark
+    public int oneSecond() {
+        int changes = 0;
+        long end = currentTime() + 1000 * MS;
+        while (currentTime() < end) {
+            long delivered = currentTime() + DELIVERY;
+            while (currentTime() < delivered) {
+                ranker.observe(handles[next], rssis[next], currentTime());
+                advance();
+            }
+            changes += ranker.update(delivered, IGNORED);
+        }
+        return changes;
+    }
+
+    @Benchmark
+    public long fullSortEveryDelivery() {
+        long end = currentTime() + 1000 * MS;
+        long first = 0;
+        while (currentTime() < end) {
+            long delivered = currentTime() + DELIVERY;
+            while (currentTime() < delivered) {
+                ranker.observe(handles[next], rssis[next], currentTime());
+                advance();
+            }
+            for (int i = 0; i < advertisers; i++) {
+                // strongest first, the handle in the low bits
+                sortKeys[i] = (long) Math.round(-ranker.getRssi(i) * 16) << 20 | i;
+            }
+            Arrays.sort(sortKeys);
+            first += sortKeys[0];
+        }
+        return first;
+    }
+
+    private long currentTime() {
+        return offset + times[next];
+    }
+
+    private void advance() {
+        if (++next == times.length) {
+            next = 0;
+            offset += PERIOD;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.btchallengeapp.benchmark;
+
+import com.example.btchallengeapp.core.MonotonicClock;
+import com.example.btchallengeapp.core.Trace;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost a scan result callback pays for tracing, with the debug events recorded and with only the counter
+ * incremented. Run with -prof gc to see that neither allocates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TraceBenchmark {
+
+    @Param({"3", "1"})
+    public int level;
+
+    private Trace trace;
+    private int rssi;
+
+    @Setup
+    public void setUp() {
+        trace = new Trace(4096, level, MonotonicClock.SYSTEM);
+    }
+
+    @Benchmark
+    public Trace scanResult() {
+        trace.event(Trace.LEVEL_DEBUG, Trace.SCAN_RESULT, 0xC8478C000001L, -40 - (++rssi & 31));
+        return trace;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.btchallengeapp.benchmark;
+
+import com.example.btchallengeapp.core.UserAttribution;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures attributing a reading among a family and among a gym of members, with and without impedance, and a profile
+ * following a reading, which moves its entry in the index. One operation is one reading.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UserAttributionBenchmark {
+
+    private static final int READINGS = 1024;
+    private static final long START = 1_600_000_000L;
+
+    @Param({"4", "5000"})
+    public int members;
+
+    private UserAttribution attribution;
+    private final UserAttribution.Result result = new UserAttribution.Result();
+    private int[] users;
+    private int[] weights;
+    private int[] impedances;
+    private long time = START;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        attribution = new UserAttribution(members);
+        Random random = new Random(42);
+        int[] memberWeights = new int[members];
+        int[] memberImpedances = new int[members];
+        for (int i = 0; i < members; i++) {
+            memberWeights[i] = (int) (80_000 + random.nextGaussian() * 15_000);
+            memberImpedances[i] = (int) (500 + random.nextGaussian() * 80);
+            attribution.enroll(i, memberWeights[i], memberImpedances[i], START);
+        }
+        users = new int[READINGS];
+        weights = new int[READINGS];
+        impedances = new int[READINGS];
+        for (int i = 0; i < READINGS; i++) {
+            users[i] = random.nextInt(members);
+            weights[i] = memberWeights[users[i]] + (int) (random.nextGaussian() * 300);
+            impedances[i] = memberImpedances[users[i]] + (int) (random.nextGaussian() * 5);
+        }
+    }
+
+    @Benchmark
+    public long attribute() {
+        next = (next + 1) & (READINGS - 1);
+        attribution.attribute(START, weights[next], impedances[next], result);
+        return result.getUser();
+    }
+
+    @Benchmark
+    public long attributeWithoutImpedance() {
+        next = (next + 1) & (READINGS - 1);
+        attribution.attribute(START, weights[next], 0, result);
+        return result.getUser();
+    }
+
+    @Benchmark
+    public boolean learn() {
+        next = (next + 1) & (READINGS - 1);
+        time += 3600;
+        return attribution.learn(users[next], time, weights[next], impedances[next]);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.btchallengeapp.benchmark;
+
+import com.example.btchallengeapp.core.UserStatistics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures adding a reading to the statistics and reading a summary back, with readings spread over many users so
+ * that the arrays of a user are rarely in cache. The cost must not grow with the number of readings taken before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UserStatisticsBenchmark {
+
+    private static final int READINGS = 4096;
+
+    @Param({"16", "4096"})
+    public int users;
+
+    private UserStatistics statistics;
+    private final UserStatistics.Summary summary = new UserStatistics.Summary();
+    private long[] userIds;
+    private int[] weights;
+    private long time;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        statistics = new UserStatistics(users, 30, 7);
+        Random random = new Random(42);
+        userIds = new long[READINGS];
+        weights = new int[READINGS];
+        for (int i = 0; i < READINGS; i++) {
+            userIds[i] = random.nextInt(users);
+            weights[i] = 60_000 + random.nextInt(20_000);
+            statistics.add(userIds[i], i * 60L, weights[i]);
+        }
+        time = READINGS * 60L;
+    }
+
+    @Benchmark
+    public boolean add() {
+        next = (next + 1) & (READINGS - 1);
+        time += 60;
+        return statistics.add(userIds[next], time, weights[next]);
+    }
+
+    @Benchmark
+    public double read() {
+        next = (next + 1) & (READINGS - 1);
+        statistics.read(userIds[next], summary);
+        return summary.getAverageGrams() + summary.getTrendGramsPerDay() + summary.getMinWeightGrams();
+    }
+}
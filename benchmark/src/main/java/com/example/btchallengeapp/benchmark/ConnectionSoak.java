@@ -0,0 +1,105 @@
+package com.example.btchallengeapp.benchmark;
+
+import com.example.btchallengeapp.core.BodyCompositionMeasurement;
+import com.example.btchallengeapp.core.KnownScaleStore;
+import com.example.btchallengeapp.core.LatencyTracker;
+import com.example.btchallengeapp.core.ScaleConnectionManager;
+import com.example.btchallengeapp.core.ScaleSession;
+import com.example.btchallengeapp.core.SimulatedScaleTransport;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Soak run of the connection manager against simulated scales. Reports per session setup latency, the
+ * measurement throughput of all sessions together and the latency percentiles of each connection phase.
+ *
+ * After the first round all scales are disconnected and connected again. They are known by then, so the second round
+ * takes the fast reconnect path, and the report shows the time to first measurement of both rounds side by side.
+ *
+ * Arguments: scales, max concurrent setups, link latency ms, frame interval ms, duration s, autoConnect latency ms.
+ * Run with ./gradlew :benchmark:soak --args="48 4 20 20 30 500"
+ */
+public class ConnectionSoak {
+
+    public static void main(String[] args) throws Exception {
+        int scales = args.length > 0 ? Integer.parseInt(args[0]) : 24;
+        int maxSetups = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long linkLatencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        long frameIntervalMillis = args.length > 3 ? Long.parseLong(args[3]) : 50;
+        long durationSeconds = args.length > 4 ? Long.parseLong(args[4]) : 10;
+        long autoConnectLatencyMillis = args.length > 5 ? Long.parseLong(args[5]) : linkLatencyMillis * 10;
+
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+        AtomicLong measurements = new AtomicLong();
+        ScaleConnectionManager manager = new ScaleConnectionManager(
+                new SimulatedScaleTransport(executor, linkLatencyMillis, frameIntervalMillis, autoConnectLatencyMillis), executor, scales, maxSetups,
+                new ScaleConnectionManager.Listener() {
+                    @Override
+                    public void onStateChanged(String address, ScaleSession.State state) {
+                    }
+
+                    @Override
+                    public void onMeasurement(String address, BodyCompositionMeasurement measurement) {
+                        measurements.incrementAndGet();
+                    }
+                });
+
+        LatencyTracker latencyTracker = new LatencyTracker();
+        manager.setLatencyTracker(latencyTracker);
+        File knownScalesFile = File.createTempFile("known_scales", null);
+        knownScalesFile.deleteOnExit();
+        manager.setKnownScaleStore(new KnownScaleStore(knownScalesFile, scales));
+
+        long start = System.nanoTime();
+        connectAll(manager, scales);
+        Thread.sleep(durationSeconds * 1000);
+        long elapsed = System.nanoTime() - start;
+
+        List<ScaleSession> sessions = manager.getSessions();
+        long[] setupMillis = new long[sessions.size()];
+        long minFrames = Long.MAX_VALUE;
+        long maxFrames = 0;
+        int streaming = 0;
+        for (int i = 0; i < sessions.size(); i++) {
+            ScaleSession session = sessions.get(i);
+            setupMillis[i] = session.getSetupNanos() / 1_000_000;
+            minFrames = Math.min(minFrames, session.getFrameCount());
+            maxFrames = Math.max(maxFrames, session.getFrameCount());
+            if (session.getState() == ScaleSession.State.STREAMING) {
+                streaming++;
+            }
+        }
+        manager.disconnectAll();
+        connectAll(manager, scales);
+        Thread.sleep(durationSeconds * 1000);
+        manager.disconnectAll();
+        executor.shutdownNow();
+
+        Arrays.sort(setupMillis);
+        System.out.printf("sessions streaming   : %d / %d%n", streaming, scales);
+        System.out.printf("setup latency ms     : p50 %d  p95 %d  max %d%n", percentile(setupMillis, 0.50),
+                percentile(setupMillis, 0.95), setupMillis.length > 0 ? setupMillis[setupMillis.length - 1] : 0);
+        System.out.printf("frames per session   : min %d  max %d%n", minFrames, maxFrames);
+        System.out.printf("throughput           : %.1f measurements/s%n", measurements.get() * 1e9 / elapsed);
+        System.out.println();
+        latencyTracker.writeReport(System.out);
+    }
+
+    private static void connectAll(ScaleConnectionManager manager, int scales) {
+        for (int i = 0; i < scales; i++) {
+            manager.connect(String.format("C8:47:8C:%02X:%02X:%02X", (i >> 16) & 0xFF, (i >> 8) & 0xFF, i & 0xFF));
+        }
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(percentile * (sorted.length - 1)))];
+    }
+}
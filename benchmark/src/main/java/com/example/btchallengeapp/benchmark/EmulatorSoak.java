@@ -0,0 +1,132 @@
+package com.example.btchallengeapp.benchmark;
+
+import com.example.btchallengeapp.core.BodyCompositionMeasurement;
+import com.example.btchallengeapp.core.ConnectionPhase;
+import com.example.btchallengeapp.core.DeviceRegistry;
+import com.example.btchallengeapp.core.LatencyTracker;
+import com.example.btchallengeapp.core.LogHistogram;
+import com.example.btchallengeapp.core.MacAddress;
+import com.example.btchallengeapp.core.MeasurementBatch;
+import com.example.btchallengeapp.core.MeasurementLogWriter;
+import com.example.btchallengeapp.core.MeasurementPipeline;
+import com.example.btchallengeapp.core.ScaleConnectionManager;
+import com.example.btchallengeapp.core.ScaleEmulator;
+import com.example.btchallengeapp.core.ScaleSession;
+import com.example.btchallengeapp.core.ScanListener;
+import com.example.btchallengeapp.core.SimulatedScaleTransport;
+import com.example.btchallengeapp.core.SimulatedScanner;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the whole stack against emulated scales, the same way the app is wired: scan results go into the device
+ * registry, every scale found is connected through the connection manager, raw frames run through the measurement
+ * pipeline into a measurement log, and a UI stand-in drains the batches every 16 ms.
+ *
+ * The scales emulate complete weigh-ins in kg, lbs and catty, so the pipeline sees unstabilized, weight removed and
+ * repeated frames as well. Reports throughput, drop and reject counts, setup latency and the heap in use.
+ *
+ * Arguments: scales, other advertisers, frame interval ms, duration s, advertising interval ms, scan report delay ms.
+ * Run with ./gradlew :benchmark:emulatorSoak --args="200 500 20 60 100 1000"
+ */
+public class EmulatorSoak {
+
+    private static final long UI_FRAME_MILLIS = 16;
+
+    public static void main(String[] args) throws Exception {
+        int scales = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int otherDevices = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        long frameIntervalMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        long durationSeconds = args.length > 3 ? Long.parseLong(args[3]) : 20;
+        long advertisingIntervalMillis = args.length > 4 ? Long.parseLong(args[4]) : 100;
+        long reportDelayMillis = args.length > 5 ? Long.parseLong(args[5]) : 0;
+
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+        DeviceRegistry registry = new DeviceRegistry();
+        LatencyTracker latencyTracker = new LatencyTracker();
+        File logFile = File.createTempFile("measurements", ".log");
+        logFile.deleteOnExit();
+        MeasurementLogWriter log = new MeasurementLogWriter(logFile, 64);
+
+        MeasurementPipeline pipeline = new MeasurementPipeline(4096, 4096, scales, log, null);
+        pipeline.start();
+
+        SimulatedScaleTransport transport = new SimulatedScaleTransport(executor, 10, frameIntervalMillis);
+        transport.setEmulation(true, ScaleEmulator.Unit.KG, ScaleEmulator.Unit.LBS, ScaleEmulator.Unit.CATTY);
+        ScaleConnectionManager manager = new ScaleConnectionManager(transport, executor, scales, 4,
+                new ScaleConnectionManager.Listener() {
+                    @Override
+                    public void onStateChanged(String address, ScaleSession.State state) {
+                        registry.setConnectionState(registry.register(MacAddress.pack(address)), state);
+                    }
+
+                    @Override
+                    public void onMeasurement(String address, BodyCompositionMeasurement measurement) {
+                    }
+                });
+        manager.setFrameSink(pipeline);
+        manager.setLatencyTracker(latencyTracker);
+
+        SimulatedScanner scanner = new SimulatedScanner(executor, scales, otherDevices, advertisingIntervalMillis,
+                reportDelayMillis);
+        scanner.startScan(false, new ScanListener() {
+            @Override
+            public void onAdvertisement(String address, String name, int rssi, long timestampNanos) {
+                int handle = registry.recordAdvertisement(address, name, rssi, timestampNanos);
+                if (SimulatedScanner.SCALE_NAME.equals(name)
+                        && registry.getConnectionState(handle) == ScaleSession.State.CLOSED) {
+                    manager.connect(address);
+                }
+            }
+
+            @Override
+            public void onAdvertisementsDelivered() {
+            }
+
+            @Override
+            public void onScanFailed(int errorCode) {
+            }
+        });
+
+        MeasurementBatch uiBatch = new MeasurementBatch(4096);
+        long shown = 0;
+        long overflowed = 0;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        while (System.nanoTime() < end) {
+            Thread.sleep(UI_FRAME_MILLIS);
+            shown += pipeline.drainTo(uiBatch);
+            overflowed += uiBatch.overflow();
+            uiBatch.clear();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        scanner.stopScan();
+        manager.disconnectAll();
+        pipeline.stop();
+        shown += pipeline.drainTo(uiBatch);
+        executor.shutdownNow();
+        log.close();
+
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long heapMegabytes = (runtime.totalMemory() - runtime.freeMemory()) >> 20;
+
+        double seconds = elapsed / 1e9;
+        System.out.printf("advertisements       : %.0f/s from %d devices%n", scanner.getAdvertisementCount() / seconds,
+                registry.size());
+        System.out.printf("frames received      : %.0f/s, dropped %d, max queue depth %d%n",
+                pipeline.getReceivedFrames() / seconds, pipeline.getDroppedFrames(), pipeline.getMaxQueueDepth());
+        System.out.printf("frames rejected      : %d invalid, %d incomplete, %d repeated%n", pipeline.getInvalidFrames(),
+                pipeline.getIncompleteFrames(), pipeline.getDuplicateFrames());
+        System.out.printf("measurements         : %.1f/s shown, %d logged, %d overflowed%n", shown / seconds,
+                log.size(), overflowed);
+        LogHistogram ttfm = latencyTracker.getHistogram(ConnectionPhase.TIME_TO_FIRST_MEASUREMENT);
+        System.out.printf("time to first frame  : p50 %.1f ms  p99 %.1f ms over %d connections%n",
+                ttfm.getPercentile(50) / 1e6, ttfm.getPercentile(99) / 1e6, ttfm.getCount());
+        System.out.printf("heap after gc        : %d MB%n", heapMegabytes);
+    }
+}
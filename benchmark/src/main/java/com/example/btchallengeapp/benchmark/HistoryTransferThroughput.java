@@ -0,0 +1,74 @@
+package com.example.btchallengeapp.benchmark;
+
+import com.example.btchallengeapp.core.BodyCompositionMeasurement;
+import com.example.btchallengeapp.core.GattClient;
+import com.example.btchallengeapp.core.HistorySync;
+import com.example.btchallengeapp.core.MeasurementPipeline;
+import com.example.btchallengeapp.core.ScaleConnectionManager;
+import com.example.btchallengeapp.core.ScaleSession;
+import com.example.btchallengeapp.core.SimulatedScaleTransport;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Time to download the offline history of a simulated scale, for each combination of MTU and connection priority of
+ * the bulk phase.
+ *
+ * The simulated scale sends up to four notifications per connection event, each packing as many 13 byte records as
+ * the MTU allows, so the printed records per second show what the larger MTU and the shorter connection interval are
+ * worth on their own and together. The time is measured from the first request of the bulk phase to the end of the
+ * history, the setup requests included.
+ *
+ * Arguments: records stored on the scale, link latency in milliseconds.
+ * Run with ./gradlew :benchmark:historyTransfer --args="1000 15"
+ */
+public class HistoryTransferThroughput {
+
+    private static final String ADDRESS = "C8:47:8C:00:00:01";
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        long latencyMillis = args.length > 1 ? Long.parseLong(args[1]) : 15;
+
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+        ExecutorService delivery = Executors.newSingleThreadExecutor();
+        MeasurementPipeline pipeline = new MeasurementPipeline(1024, 16, 4, null, null);
+        pipeline.start();
+
+        System.out.printf("records              : %d, link latency %d ms%n", records, latencyMillis);
+        int[] mtus = {GattClient.DEFAULT_MTU, 247};
+        for (boolean highPriority : new boolean[]{false, true}) {
+            for (int mtu : mtus) {
+                HistorySync sync = new HistorySync(1, pipeline, null, delivery, records);
+                sync.setBulkParameters(mtu, highPriority);
+                SimulatedScaleTransport transport = new SimulatedScaleTransport(executor, latencyMillis, 60_000);
+                transport.setHistory(records);
+                ScaleConnectionManager manager = new ScaleConnectionManager(transport, executor, 1, 1,
+                        new ScaleConnectionManager.Listener() {
+                            @Override
+                            public void onStateChanged(String address, ScaleSession.State state) {
+                            }
+
+                            @Override
+                            public void onMeasurement(String address, BodyCompositionMeasurement measurement) {
+                            }
+                        });
+                manager.setHistorySync(sync);
+                manager.connect(ADDRESS);
+                while (sync.getCompletedTransfers() + sync.getFailedTransfers() == 0) {
+                    Thread.sleep(1);
+                }
+                manager.disconnectAll();
+                double seconds = sync.getTransferNanos() / 1e9;
+                System.out.printf("MTU %3d, %-8s     : %,8.0f records/s, %.2f s%s%n", mtu,
+                        highPriority ? "high" : "balanced", sync.getReceivedRecords() / seconds, seconds,
+                        sync.getFailedTransfers() > 0 ? ", failed" : "");
+            }
+        }
+        pipeline.stop();
+        executor.shutdownNow();
+        delivery.shutdown();
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.btchallengeapp.benchmark;
+
+import com.example.btchallengeapp.core.BodyCompositionDecoder;
+import com.example.btchallengeapp.core.BodyCompositionMeasurement;
+import com.example.btchallengeapp.core.FrameCaptureReader;
+import com.example.btchallengeapp.core.FrameCaptureWriter;
+import com.example.btchallengeapp.core.FrameDecoderRegistry;
+import com.example.btchallengeapp.core.FrameReplayer;
+import com.example.btchallengeapp.core.MeasurementPipeline;
+import com.example.btchallengeapp.core.ScaleEmulator;
+
+import java.io.File;
+
+/**
+ * Throughput of the frame parsing path, measured by replaying a capture at full speed.
+ *
+ * Replays the capture three times: reading the file only, reading and decoding each frame on the replaying thread,
+ * and through the complete measurement pipeline (ring buffer, decoder, filters, batch) without a measurement log.
+ * Without a capture file argument a capture of emulated weigh-ins from 16 scales is generated first.
+ *
+ * Arguments: millions of frames to generate, or the path of a capture file recorded by the app.
+ * Run with ./gradlew :benchmark:replay --args="5"
+ */
+public class ReplayThroughput {
+
+    private static final int SCALES = 16;
+
+    public static void main(String[] args) throws Exception {
+        File capture;
+        if (args.length > 0 && new File(args[0]).isFile()) {
+            capture = new File(args[0]);
+        } else {
+            long frames = (long) ((args.length > 0 ? Double.parseDouble(args[0]) : 2) * 1_000_000);
+            capture = File.createTempFile("replay", ".fcap");
+            capture.deleteOnExit();
+            generate(capture, frames);
+        }
+        System.out.printf("capture              : %s, %d MB%n", capture, capture.length() >> 20);
+
+        // the first round warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            report(round, "read only", capture, (device, protocol, timestampNanos, data, offset, length) -> {
+            });
+            FrameDecoderRegistry decoders = FrameDecoderRegistry.createDefault();
+            BodyCompositionMeasurement measurement = new BodyCompositionMeasurement();
+            long[] complete = new long[1];
+            report(round, "read and decode", capture, (device, protocol, timestampNanos, data, offset, length) -> {
+                if (decoders.getProtocol(protocol).decode(data, offset, length, measurement)
+                        && measurement.isComplete()) {
+                    complete[0]++;
+                }
+            });
+            MeasurementPipeline pipeline = new MeasurementPipeline(4096, 1024, SCALES, null, () -> {
+            });
+            pipeline.start();
+            report(round, "full pipeline", capture, FrameReplayer.into(pipeline));
+            pipeline.stop();
+        }
+    }
+
+    private static void report(int round, String label, File capture, FrameReplayer.Target target) throws Exception {
+        long start = System.nanoTime();
+        long frames;
+        try (FrameCaptureReader reader = new FrameCaptureReader(capture)) {
+            frames = new FrameReplayer().replay(reader, target, false);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (round > 0) {
+            System.out.printf("%-20s : %6.2f M frames/s, %6.1f MB/s%n", label, frames * 1e3 / elapsed,
+                    capture.length() * 1e9 / elapsed / (1 << 20));
+        }
+    }
+
+    private static void generate(File capture, long frames) throws Exception {
+        ScaleEmulator[] scales = new ScaleEmulator[SCALES];
+        ScaleEmulator.Unit[] units = ScaleEmulator.Unit.values();
+        for (int i = 0; i < SCALES; i++) {
+            scales[i] = new ScaleEmulator(i, units[i % units.length], true);
+        }
+        byte[] frame = new byte[BodyCompositionDecoder.FRAME_LENGTH];
+        try (FrameCaptureWriter writer = new FrameCaptureWriter(capture)) {
+            for (long i = 0; i < frames; i++) {
+                int scale = (int) (i % SCALES);
+                scales[scale].nextFrame(frame, 0);
+                // every scale sends a frame each 20 ms
+                writer.write(0xC8478C000000L + scale, FrameDecoderRegistry.PROTOCOL_BODY_COMPOSITION,
+                        i * 20_000_000L / SCALES, frame, 0, frame.length);
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.btchallengeapp.benchmark;
+
+import com.example.btchallengeapp.core.KnownScaleStore;
+import com.example.btchallengeapp.core.LogHistogram;
+import com.example.btchallengeapp.core.MacAddress;
+import com.example.btchallengeapp.core.ScanListener;
+import com.example.btchallengeapp.core.ScanScheduler;
+import com.example.btchallengeapp.core.ScanTransport;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the background scan scheduler over days of virtual time and compares scheduling policies by radio duty cycle,
+ * CPU wake-ups and how quickly a weigh-in is caught.
+ *
+ * A known scale is stepped on at random times. It advertises every 100 ms for a minute, or until it is connected, and
+ * stays connected until the weigh-in is over. A low latency scan hears every advertisement, a low power scan only
+ * those falling into its 512 ms window of every 5120 ms, the platform defaults, so it keeps the radio on a tenth of the
+ * time. Nothing sleeps, a year of policy runs in well under a second.
+ *
+ * Arguments: days, weigh-ins per day, random seed.
+ * Run with ./gradlew :benchmark:scanSimulation --args="30 6 1"
+ */
+public class ScanSchedulerSimulation {
+
+    private static final String SCALE = "C8:47:8C:00:00:01";
+    private static final long ADVERTISING_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long ADVERTISING_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final long LOW_POWER_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(512);
+    private static final long LOW_POWER_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(5120);
+    private static final double LOW_POWER_DUTY = 0.1;
+
+    /**
+     * Low power window, aggressive window, minimum and maximum interval, in milliseconds
+     */
+    private static final long[][] POLICIES = {
+            {10_000, 20_000, 10_000, 50_000},
+            {5_000, 10_000, 10_000, 120_000},
+            {10_000, 20_000, 30_000, 300_000},
+            {20_000, 20_000, 0, 0},
+    };
+
+    public static void main(String[] args) throws Exception {
+        int days = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        int weighInsPerDay = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        long duration = TimeUnit.DAYS.toNanos(days);
+        Random random = new Random(seed);
+        long[] weighIns = new long[days * weighInsPerDay];
+        for (int i = 0; i < weighIns.length; i++) {
+            weighIns[i] = (long) (random.nextDouble() * (duration - ADVERTISING_NANOS));
+        }
+        Arrays.sort(weighIns);
+
+        File knownFile = File.createTempFile("known", ".bin");
+        knownFile.deleteOnExit();
+        KnownScaleStore knownScales = new KnownScaleStore(knownFile, 4);
+        knownScales.recordConnected(MacAddress.pack(SCALE), 0, 0);
+
+        System.out.printf("%d days, %d weigh-ins%n", days, weighIns.length);
+        System.out.println("low/aggressive/min/max s   radio duty   wake-ups/h   caught   p50 s    p99 s    max s");
+        for (long[] policy : POLICIES) {
+            Simulation simulation = new Simulation(knownScales, policy);
+            simulation.run(weighIns, duration);
+            ScanScheduler scheduler = simulation.scheduler;
+            double radio = scheduler.getModeNanos(ScanScheduler.Mode.LOW_POWER) * LOW_POWER_DUTY
+                    + scheduler.getModeNanos(ScanScheduler.Mode.AGGRESSIVE);
+            LogHistogram latency = simulation.detectionLatency;
+            System.out.printf("%-26s %9.2f%% %12.1f %5d/%d %8.1f %8.1f %8.1f%n",
+                    policy[0] / 1000 + "/" + policy[1] / 1000 + "/" + policy[2] / 1000 + "/" + policy[3] / 1000,
+                    100 * radio / duration, scheduler.getWakeUpCount() / (days * 24.0), latency.getCount(),
+                    weighIns.length, latency.getPercentile(50) / 1e9, latency.getPercentile(99) / 1e9,
+                    latency.getMax() / 1e9);
+        }
+    }
+
+    /**
+     * One policy on a virtual clock, standing in for the scanner, the wake-up alarm and the connection of the scale
+     */
+    private static final class Simulation implements ScanTransport, ScanScheduler.Host {
+
+        final ScanScheduler scheduler;
+        final LogHistogram detectionLatency = new LogHistogram();
+
+        private long now;
+        private long wakeUpAt = Long.MAX_VALUE;
+        private boolean scanning;
+        private boolean lowLatency;
+        private ScanListener listener;
+        private long weighInStart;
+        private boolean connected;
+
+        Simulation(KnownScaleStore knownScales, long[] policy) {
+            scheduler = new ScanScheduler(this, knownScales, () -> now, this);
+            scheduler.setWindows(policy[0], policy[1], policy[2], policy[3]);
+        }
+
+        void run(long[] weighIns, long duration) {
+            scheduler.start();
+            for (long start : weighIns) {
+                advanceTo(start);
+                weighInStart = start;
+                long end = start + ADVERTISING_NANOS;
+                for (long t = start; t < end && !connected; t += ADVERTISING_INTERVAL_NANOS) {
+                    advanceTo(t);
+                    if (scanning && (lowLatency || t % LOW_POWER_INTERVAL_NANOS < LOW_POWER_WINDOW_NANOS)) {
+                        listener.onAdvertisement(SCALE, null, -60, t);
+                    }
+                }
+                advanceTo(end);
+                if (connected) {
+                    connected = false;
+                    scheduler.setConnected(false);
+                }
+            }
+            advanceTo(duration);
+        }
+
+        private void advanceTo(long time) {
+            while (wakeUpAt <= time) {
+                now = wakeUpAt;
+                wakeUpAt = Long.MAX_VALUE;
+                scheduler.onWakeUp();
+            }
+            now = time;
+        }
+
+        @Override
+        public void startScan(boolean scalesOnly, ScanListener listener) {
+            startScan(scalesOnly, false, listener);
+        }
+
+        @Override
+        public void startScan(boolean scalesOnly, boolean lowLatency, ScanListener listener) {
+            this.listener = listener;
+            this.lowLatency = lowLatency;
+            scanning = true;
+        }
+
+        @Override
+        public void stopScan() {
+            scanning = false;
+        }
+
+        @Override
+        public void requestWakeUp(long delayNanos) {
+            wakeUpAt = now + delayNanos;
+        }
+
+        @Override
+        public void onScaleFound(String address) {
+            //connecting takes no time here, the latency measured is the scan schedule alone
+            detectionLatency.record(now - weighInStart);
+            connected = true;
+            scheduler.setConnected(true);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.btchallengeapp.benchmark;
+
+import com.example.btchallengeapp.core.BodyCompositionMeasurement;
+import com.example.btchallengeapp.core.HttpSyncTransport;
+import com.example.btchallengeapp.core.MeasurementBatch;
+import com.example.btchallengeapp.core.MeasurementLog;
+import com.example.btchallengeapp.core.MeasurementLogWriter;
+import com.example.btchallengeapp.core.MeasurementSyncer;
+import com.example.btchallengeapp.core.SyncPayload;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput and size of the measurement upload, against a local HTTP server which decompresses and decodes every
+ * batch like the real one would.
+ *
+ * A log of readings from 4 scales, two a day each, is generated and uploaded from an empty cursor, and the records per
+ * second, compressed bytes per record and compression ratio are printed. The server can add a delay to each response
+ * to show how the number of batches in flight hides the round trip time.
+ *
+ * Arguments: thousands of records, records per batch, batches in flight, server delay in milliseconds.
+ * Run with ./gradlew :benchmark:syncThroughput --args="200 500 4 20"
+ */
+public class SyncThroughput {
+
+    private static final int SCALES = 4;
+
+    public static void main(String[] args) throws Exception {
+        int records = (int) ((args.length > 0 ? Double.parseDouble(args[0]) : 100) * 1000);
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int inFlight = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        long delayMillis = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+        File log = File.createTempFile("sync", ".log");
+        log.delete();
+        log.deleteOnExit();
+        Random random = new Random(42);
+        int[] grams = new int[SCALES];
+        try (MeasurementLogWriter writer = new MeasurementLogWriter(log, 10_000)) {
+            for (int i = 0; i < records; i++) {
+                int scale = i % SCALES;
+                // each scale weighs one person drifting by up to 300 g between readings, taken at about the same time
+                grams[scale] = Math.max(40_000, Math.min(120_000, (grams[scale] == 0 ? 60_000 + scale * 8_000
+                        : grams[scale]) + random.nextInt(601) - 300));
+                writer.append(1_500_000_000L + i / SCALES * 43_200L + random.nextInt(3_600), 0xC8478C000000L + scale,
+                        grams[scale], scale % 2 == 0 ? 450 + random.nextInt(60) : 0,
+                        BodyCompositionMeasurement.FLAG_STABILIZED);
+            }
+        }
+
+        AtomicLong received = new AtomicLong();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/measurements", exchange -> {
+            try {
+                MeasurementBatch batch = new MeasurementBatch(batchSize);
+                SyncPayload.decode(SyncPayload.decompress(readAll(exchange.getRequestBody())), batch);
+                received.addAndGet(batch.size());
+                if (delayMillis > 0) {
+                    Thread.sleep(delayMillis);
+                }
+                exchange.sendResponseHeaders(200, -1);
+            } catch (IOException | InterruptedException e) {
+                exchange.sendResponseHeaders(400, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+        ExecutorService handlers = Executors.newFixedThreadPool(inFlight);
+        server.setExecutor(handlers);
+        server.start();
+        URL endpoint = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/measurements");
+
+        // the first round warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            File state = File.createTempFile("sync", ".state");
+            state.delete();
+            MeasurementSyncer syncer = new MeasurementSyncer(log, state, new HttpSyncTransport(endpoint, 5000, 5000),
+                    batchSize, inFlight);
+            long start = System.nanoTime();
+            syncer.start();
+            while (syncer.getCursor() < records) {
+                Thread.sleep(1);
+            }
+            long elapsed = System.nanoTime() - start;
+            syncer.stop();
+            state.delete();
+            if (round > 0) {
+                System.out.printf("records              : %d in batches of %d, %d in flight%n", records, batchSize,
+                        inFlight);
+                System.out.printf("throughput           : %,.0f records/s%n", records * 1e9 / elapsed);
+                System.out.printf("size                 : %.2f bytes/record compressed, %.2f encoded%n",
+                        syncer.getBytesPerRecord(), (double) syncer.getPayloadBytes() / records);
+                System.out.printf("compression          : %.2f x against the %d byte log records%n",
+                        (double) records * MeasurementLog.RECORD_SIZE / syncer.getCompressedBytes(),
+                        MeasurementLog.RECORD_SIZE);
+            }
+        }
+        System.out.printf("received             : %d records%n", received.get());
+        server.stop(0);
+        handlers.shutdown();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        for (int n; (n = in.read(chunk)) >= 0; ) {
+            out.write(chunk, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
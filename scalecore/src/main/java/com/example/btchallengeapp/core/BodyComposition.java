@@ -0,0 +1,61 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Body composition derived from one reading by a {@link BodyCompositionCalculator}. Mutable so that a single instance
+ * is reused for every reading.
+ */
+public final class BodyComposition {
+
+    float bmi;
+    float fatPercent;
+    float leanMassKg;
+    float muscleMassKg;
+    float waterPercent;
+    float boneMassKg;
+    float visceralFat;
+    float bmrKcal;
+
+    public float getBmi() {
+        return bmi;
+    }
+
+    public float getFatPercent() {
+        return fatPercent;
+    }
+
+    /**
+     * @return fat free mass, the weight less the fat
+     */
+    public float getLeanMassKg() {
+        return leanMassKg;
+    }
+
+    /**
+     * @return muscle mass as the Mi Fit app reports it, the fat free mass less the bone mass
+     */
+    public float getMuscleMassKg() {
+        return muscleMassKg;
+    }
+
+    public float getWaterPercent() {
+        return waterPercent;
+    }
+
+    public float getBoneMassKg() {
+        return boneMassKg;
+    }
+
+    /**
+     * @return visceral fat rating, from 1 to 50
+     */
+    public float getVisceralFat() {
+        return visceralFat;
+    }
+
+    /**
+     * @return basal metabolic rate in kcal per day
+     */
+    public float getBmrKcal() {
+        return bmrKcal;
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Derives body fat, lean mass, muscle mass, water, bone mass, visceral fat and basal metabolic rate from the weight and
+ * impedance of a reading, with the formulas of the Mi Body Composition Scale as documented by the openScale project.
+ *
+ * Everything that depends only on height, age and sex is folded into coefficients when the calculator is created for a
+ * profile: the lean body mass coefficient becomes an offset plus two slopes, the weight dependent fat correction a pair
+ * of thresholds, and each branch of the visceral fat and BMR formulas a slope and an intercept. Evaluating a reading
+ * then takes a division and a handful of multiply-adds and comparisons. The results are clamped to the ranges the
+ * reference implementation reports.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public final class BodyCompositionCalculator {
+
+    /**
+     * Impedances outside (0, MAX_IMPEDANCE) are not a body measurement
+     */
+    public static final int MAX_IMPEDANCE = 3000;
+
+    private final boolean male;
+    private final float inverseHeightSquared;
+
+    // lean body mass coefficient = lbmOffset + LBM_WEIGHT_SLOPE * weight - LBM_IMPEDANCE_SLOPE * impedance
+    private static final float LBM_WEIGHT_SLOPE = 0.32f;
+    private static final float LBM_IMPEDANCE_SLOPE = 0.0068f;
+    private final float lbmOffset;
+
+    // fat = 100 - fatScale(weight) * (lbm coefficient - fatSubtrahend) / weight
+    private final float fatSubtrahend;
+    private final float lightWeightLimit;
+    private final float lightFatScale;
+    private final float heavyWeightLimit;
+    private final float heavyFatScale;
+
+    private final float boneOffset;
+    private final float boneCap;
+    private final float muscleCap;
+
+    // visceral fat is linear in the weight, with a different line above the threshold
+    private final float visceralThreshold;
+    private final float visceralHeavySlope;
+    private final float visceralHeavyIntercept;
+    private final float visceralLightSlope;
+    private final float visceralLightIntercept;
+
+    private final float bmrIntercept;
+    private final float bmrSlope;
+    private final float bmrCap;
+
+    /**
+     * @param heightCm height in centimeters
+     * @param age      age in years
+     * @param male     true for a man, false for a woman
+     * @throws IllegalArgumentException if the height or age is out of range
+     */
+    public BodyCompositionCalculator(int heightCm, int age, boolean male) {
+        if (heightCm <= 0 || heightCm > 300 || age < 0 || age > 150) {
+            throw new IllegalArgumentException("Height " + heightCm + " age " + age);
+        }
+        float height = heightCm;
+        this.male = male;
+        inverseHeightSquared = 10_000f / (height * height);
+        lbmOffset = (height * 9.058f / 100.0f) * (height / 100.0f) + 12.226f - age * 0.0542f;
+
+        fatSubtrahend = male ? 0.8f : age <= 49 ? 9.25f : 7.25f;
+        if (male) {
+            lightWeightLimit = 61.0f;
+            lightFatScale = 98.0f;
+            heavyWeightLimit = Float.POSITIVE_INFINITY;
+            heavyFatScale = 100.0f;
+        } else {
+            float tall = height > 160.0f ? 1.03f : 1.0f;
+            lightWeightLimit = 50.0f;
+            lightFatScale = 102.0f * tall;
+            heavyWeightLimit = 60.0f;
+            heavyFatScale = 96.0f * tall;
+        }
+
+        boneOffset = male ? -0.18016894f : -0.245691014f;
+        boneCap = male ? 5.2f : 5.1f;
+        muscleCap = male ? 93.5f : 84.0f;
+
+        if (male) {
+            visceralThreshold = height / 1.6f;
+            visceralHeavySlope = 305.0f / (height * height * 0.0826f - height * 0.4f + 48.0f);
+            visceralHeavyIntercept = -2.9f + age * 0.15f;
+            visceralLightSlope = 0.765f - height * 0.0015f;
+            visceralLightIntercept = -height * 0.143f + age * 0.15f - 5.0f;
+        } else {
+            visceralThreshold = height * 0.5f - 13.0f;
+            visceralHeavySlope = 500.0f / (height * 1.45f + height * 0.1158f * height - 120.0f);
+            visceralHeavyIntercept = -6.0f + age * 0.07f;
+            visceralLightSlope = 0.691f - height * 0.0048f;
+            visceralLightIntercept = -height * 0.027f + age * 0.07f - age;
+        }
+
+        if (male) {
+            bmrIntercept = 877.8f - height * 0.726f - age * 8.976f;
+            bmrSlope = 14.916f;
+            bmrCap = 2322.0f;
+        } else {
+            bmrIntercept = 864.6f - height * 0.39336f - age * 6.204f;
+            bmrSlope = 10.2036f;
+            bmrCap = 2996.0f;
+        }
+    }
+
+    /**
+     * @param weightKg  weight in kilograms
+     * @param impedance impedance in ohms, as sent by the scale
+     * @return false, leaving the result untouched, if the reading has no usable impedance or weight
+     */
+    public boolean calculate(float weightKg, int impedance, BodyComposition out) {
+        if (impedance <= 0 || impedance >= MAX_IMPEDANCE || !(weightKg > 0)) {
+            return false;
+        }
+        float lbm = lbmOffset + LBM_WEIGHT_SLOPE * weightKg - LBM_IMPEDANCE_SLOPE * impedance;
+
+        float fatScale = weightKg < lightWeightLimit ? lightFatScale
+                : weightKg > heavyWeightLimit ? heavyFatScale : 100.0f;
+        float fat = 100.0f - fatScale * (lbm - fatSubtrahend) / weightKg;
+        if (fat > 63.0f) {
+            fat = 75.0f;
+        }
+        fat = clamp(fat, 5.0f, 75.0f);
+
+        float bone = lbm * 0.05158f + boneOffset;
+        bone += bone > 2.2f ? 0.1f : -0.1f;
+        if (bone > boneCap) {
+            bone = 8.0f;
+        }
+        // the muscle mass is what remains of the lean mass after the bone mass as reported
+        bone = clamp(bone, 0.5f, 8.0f);
+
+        float lean = weightKg - fat * 0.01f * weightKg;
+        float muscle = lean - bone;
+        if (muscle >= muscleCap) {
+            muscle = 120.0f;
+        }
+
+        float water = (100.0f - fat) * 0.7f;
+        water *= water < 50.0f ? 1.02f : 0.98f;
+
+        float visceral = weightKg > visceralThreshold
+                ? visceralHeavySlope * weightKg + visceralHeavyIntercept
+                : visceralLightSlope * weightKg + visceralLightIntercept;
+
+        float bmr = bmrIntercept + bmrSlope * weightKg;
+        if (bmr > bmrCap) {
+            bmr = 5000.0f;
+        }
+
+        out.bmi = weightKg * inverseHeightSquared;
+        out.fatPercent = fat;
+        out.leanMassKg = lean;
+        out.muscleMassKg = clamp(muscle, 10.0f, 120.0f);
+        out.waterPercent = clamp(water, 35.0f, 75.0f);
+        out.boneMassKg = bone;
+        out.visceralFat = clamp(visceral, 1.0f, 50.0f);
+        out.bmrKcal = clamp(bmr, 500.0f, 10_000.0f);
+        return true;
+    }
+
+    public boolean isMale() {
+        return male;
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return value < min ? min : value > max ? max : value;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.btchallengeapp.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decoder for the 13 byte Body Composition Measurement (0x2A9C) payload sent by the Xiaomi Mi Body Composition Scale.
+ *
+ * Layout (little endian):
+ * byte 0-1 : control bytes (unit, stabilized, weight removed, impedance present flags)
+ * byte 2-3 : year, byte 4 : month, byte 5 : day, byte 6 : hours, byte 7 : minutes, byte 8 : seconds
+ * byte 9-10 : impedance, byte 11-12 : weight
+ *
+ * The decoder keeps no state and writes into a caller supplied {@link BodyCompositionMeasurement},
+ * so decoding a frame does not allocate.
+ */
+public final class BodyCompositionDecoder implements FrameDecoder {
+
+    public static final int FRAME_LENGTH = 13;
+
+    /**
+     * Decodes a frame from a byte array.
+     *
+     * @param data   buffer holding the frame
+     * @param offset index of the first byte of the frame
+     * @param out    measurement to overwrite
+     * @return false if the buffer does not hold a complete frame at offset, in which case out is left untouched
+     */
+    public boolean decode(byte[] data, int offset, BodyCompositionMeasurement out) {
+        if (data == null || offset < 0 || data.length - offset < FRAME_LENGTH) {
+            return false;
+        }
+        out.set(flags(data[offset], data[offset + 1]),
+                u16(data[offset + 2], data[offset + 3]),
+                data[offset + 4],
+                data[offset + 5],
+                data[offset + 6],
+                data[offset + 7],
+                data[offset + 8],
+                u16(data[offset + 11], data[offset + 12]),
+                isBitSet(data[offset + 1], 1) ? u16(data[offset + 9], data[offset + 10]) : 0);
+        return true;
+    }
+
+    @Override
+    public boolean decode(byte[] data, int offset, int length, BodyCompositionMeasurement out) {
+        return length == FRAME_LENGTH && decode(data, offset, out);
+    }
+
+    /**
+     * Decodes a frame from a heap or direct buffer using absolute reads, so the buffer position and limit are not changed.
+     *
+     * @see #decode(byte[], int, BodyCompositionMeasurement)
+     */
+    public boolean decode(ByteBuffer data, int offset, BodyCompositionMeasurement out) {
+        if (data == null || offset < 0 || data.limit() - offset < FRAME_LENGTH) {
+            return false;
+        }
+        byte ctrlByte1 = data.get(offset + 1);
+        out.set(flags(data.get(offset), ctrlByte1),
+                u16(data.get(offset + 2), data.get(offset + 3)),
+                data.get(offset + 4),
+                data.get(offset + 5),
+                data.get(offset + 6),
+                data.get(offset + 7),
+                data.get(offset + 8),
+                u16(data.get(offset + 11), data.get(offset + 12)),
+                isBitSet(ctrlByte1, 1) ? u16(data.get(offset + 9), data.get(offset + 10)) : 0);
+        return true;
+    }
+
+    private static int flags(byte ctrlByte0, byte ctrlByte1) {
+        int flags = 0;
+        if (isBitSet(ctrlByte0, 0)) {
+            flags |= BodyCompositionMeasurement.FLAG_LBS_UNIT;
+        }
+        // The scale uses bit 6 for both the catty unit and an unset clock, so both flags are raised together
+        if (isBitSet(ctrlByte1, 6)) {
+            flags |= BodyCompositionMeasurement.FLAG_CATTY_UNIT | BodyCompositionMeasurement.FLAG_DATE_INVALID;
+        }
+        if (isBitSet(ctrlByte1, 5)) {
+            flags |= BodyCompositionMeasurement.FLAG_STABILIZED;
+        }
+        if (isBitSet(ctrlByte1, 7)) {
+            flags |= BodyCompositionMeasurement.FLAG_WEIGHT_REMOVED;
+        }
+        if (isBitSet(ctrlByte1, 1)) {
+            flags |= BodyCompositionMeasurement.FLAG_IMPEDANCE;
+        }
+        return flags;
+    }
+
+    private static int u16(byte low, byte high) {
+        return ((high & 0xFF) << 8) | (low & 0xFF);
+    }
+
+    private static boolean isBitSet(byte value, int bit) {
+        return (value & (1 << bit)) != 0;
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Mutable holder for one reading decoded from a body composition scale.
+ * A decoder overwrites every field on each frame, so a single instance can be reused for the whole
+ * connection instead of allocating a new object for every indication.
+ */
+public final class BodyCompositionMeasurement {
+
+    public static final int FLAG_LBS_UNIT = 1;
+    public static final int FLAG_CATTY_UNIT = 1 << 1;
+    public static final int FLAG_STABILIZED = 1 << 2;
+    public static final int FLAG_WEIGHT_REMOVED = 1 << 3;
+    public static final int FLAG_DATE_INVALID = 1 << 4;
+    public static final int FLAG_IMPEDANCE = 1 << 5;
+
+    private int flags;
+    private int year;
+    private int month;
+    private int day;
+    private int hours;
+    private int minutes;
+    private int seconds;
+    private int weightRaw;
+    private int impedance;
+
+    /**
+     * Overwrites all fields of this measurement. Decoders call this once per frame.
+     *
+     * @param flags     combination of the FLAG_ constants
+     * @param weightRaw weight as sent by the scale, in 1/100 of a unit for lbs/catty and 1/200 kg otherwise
+     * @param impedance impedance in ohms, 0 if the frame did not carry one
+     */
+    public void set(int flags, int year, int month, int day, int hours, int minutes, int seconds,
+                    int weightRaw, int impedance) {
+        this.flags = flags;
+        this.year = year;
+        this.month = month;
+        this.day = day;
+        this.hours = hours;
+        this.minutes = minutes;
+        this.seconds = seconds;
+        this.weightRaw = weightRaw;
+        this.impedance = impedance;
+    }
+
+    public void copyFrom(BodyCompositionMeasurement other) {
+        set(other.flags, other.year, other.month, other.day, other.hours, other.minutes, other.seconds,
+                other.weightRaw, other.impedance);
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    public boolean isLbsUnit() {
+        return hasFlag(FLAG_LBS_UNIT);
+    }
+
+    public boolean isCattyUnit() {
+        return hasFlag(FLAG_CATTY_UNIT);
+    }
+
+    public boolean isStabilized() {
+        return hasFlag(FLAG_STABILIZED);
+    }
+
+    public boolean isWeightRemoved() {
+        return hasFlag(FLAG_WEIGHT_REMOVED);
+    }
+
+    public boolean isDateInvalid() {
+        return hasFlag(FLAG_DATE_INVALID);
+    }
+
+    public boolean hasImpedance() {
+        return hasFlag(FLAG_IMPEDANCE);
+    }
+
+    /**
+     * A reading is worth showing to the user only once the scale has settled, the person is still on it and
+     * the scale clock has been set.
+     */
+    public boolean isComplete() {
+        return (flags & (FLAG_STABILIZED | FLAG_WEIGHT_REMOVED | FLAG_DATE_INVALID)) == FLAG_STABILIZED;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public int getMonth() {
+        return month;
+    }
+
+    public int getDay() {
+        return day;
+    }
+
+    public int getHours() {
+        return hours;
+    }
+
+    public int getMinutes() {
+        return minutes;
+    }
+
+    public int getSeconds() {
+        return seconds;
+    }
+
+    public int getWeightRaw() {
+        return weightRaw;
+    }
+
+    /**
+     * @return the weight in the unit reported by the scale (pounds, catty or kilograms)
+     */
+    public float getWeight() {
+        if ((flags & (FLAG_LBS_UNIT | FLAG_CATTY_UNIT)) != 0) {
+            return weightRaw / 100.0f;
+        }
+        return weightRaw / 200.0f;
+    }
+
+    /**
+     * @return the weight converted to grams, whatever unit the scale reported
+     */
+    public int getWeightGrams() {
+        if (isLbsUnit()) {
+            // hundredths of a pound
+            return Math.round(weightRaw * 4.5359237f);
+        }
+        // 1/200 kg, or hundredths of a catty (500 g), are both 5 g steps
+        return weightRaw * 5;
+    }
+
+    public int getImpedance() {
+        return impedance;
+    }
+
+    /**
+     * Converts the scale timestamp to seconds since the epoch. The scale clock runs on local time without any zone
+     * information, so the offset of the phone's time zone has to be supplied.
+     *
+     * @param utcOffsetSeconds offset of the scale's local time from UTC
+     */
+    public long getEpochSeconds(int utcOffsetSeconds) {
+        // days from civil, see http://howardhinnant.github.io/date_algorithms.html
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+        return days * 86400 + hours * 3600 + minutes * 60 + seconds - utcOffsetSeconds;
+    }
+}
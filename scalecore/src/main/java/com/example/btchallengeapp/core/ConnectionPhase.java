@@ -0,0 +1,36 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Phases of getting from a scanned advertisement to the first measurement, as timed by {@link LatencyTracker}.
+ */
+public enum ConnectionPhase {
+    /**
+     * First advertisement of the device until the user selected it in the list
+     */
+    ADVERTISEMENT_TO_SELECTION,
+    /**
+     * connectGatt until the link reported connected
+     */
+    CONNECT,
+    /**
+     * discoverServices until onServicesDiscovered
+     */
+    SERVICE_DISCOVERY,
+    /**
+     * Client configuration descriptor write until its callback
+     */
+    ENABLE_INDICATION,
+    /**
+     * Indications enabled until the first measurement indication
+     */
+    FIRST_INDICATION,
+    /**
+     * connectGatt until the first measurement indication, the sum of the phases above, for scales connected without
+     * prior knowledge
+     */
+    TIME_TO_FIRST_MEASUREMENT,
+    /**
+     * connectGatt until the first measurement indication, for known scales reconnected through the fast path
+     */
+    RECONNECT_TO_FIRST_MEASUREMENT
+}
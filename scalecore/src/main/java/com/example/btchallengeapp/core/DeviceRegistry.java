@@ -0,0 +1,241 @@
+package com.example.btchallengeapp.core;
+
+import java.util.Arrays;
+
+/**
+ * Process wide registry of the bluetooth devices seen so far, handing out a small integer handle per device.
+ *
+ * Screens pass the handle around instead of copying device objects, and read the live state of the device from the
+ * registry: name, last RSSI readings, first and last time an advertisement was received and the state of its
+ * connection. The state is kept in primitive arrays indexed by handle, the RSSI history of a device is a ring of
+ * RSSI_HISTORY slots in one shared array. Handles are never reused while the process lives.
+ *
+ * The registry is thread safe.
+ */
+public final class DeviceRegistry {
+
+    public static final int NO_HANDLE = -1;
+
+    /**
+     * Number of RSSI readings kept per device
+     */
+    public static final int RSSI_HISTORY = 16;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final ScaleSession.State[] STATES = ScaleSession.State.values();
+
+    private long[] devices = new long[INITIAL_CAPACITY];
+    private String[] names = new String[INITIAL_CAPACITY];
+    private long[] firstSeenNanos = new long[INITIAL_CAPACITY];
+    private long[] lastSeenNanos = new long[INITIAL_CAPACITY];
+    private int[] advertisementCounts = new int[INITIAL_CAPACITY];
+    private byte[] rssiHistory = new byte[INITIAL_CAPACITY * RSSI_HISTORY];
+    private byte[] connectionStates = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    // open addressing from device to handle + 1, 0 marks a free slot
+    private long[] tableDevices = new long[INITIAL_CAPACITY * 2];
+    private int[] tableHandles = new int[INITIAL_CAPACITY * 2];
+
+    /**
+     * @param device packed MAC address, see {@link MacAddress}
+     * @return the handle of the device, registering it if it was not seen before
+     */
+    public synchronized int register(long device) {
+        int handle = handleOf(device);
+        if (handle != NO_HANDLE) {
+            return handle;
+        }
+        if (size == devices.length) {
+            grow();
+        }
+        handle = size++;
+        devices[handle] = device;
+        connectionStates[handle] = (byte) ScaleSession.State.CLOSED.ordinal();
+        insert(device, handle);
+        return handle;
+    }
+
+    /**
+     * @return the handle of the device, or NO_HANDLE if it was never registered
+     */
+    public synchronized int handleOf(long device) {
+        int mask = tableDevices.length - 1;
+        int slot = slotOf(device, mask);
+        while (tableHandles[slot] != 0) {
+            if (tableDevices[slot] == device) {
+                return tableHandles[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NO_HANDLE;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return packed MAC address of the device
+     */
+    public synchronized long getDevice(int handle) {
+        check(handle);
+        return devices[handle];
+    }
+
+    public String getAddress(int handle) {
+        return MacAddress.format(getDevice(handle));
+    }
+
+    /**
+     * @return advertised name, or null if the device did not advertise one
+     */
+    public synchronized String getName(int handle) {
+        check(handle);
+        return names[handle];
+    }
+
+    public synchronized void setName(int handle, String name) {
+        check(handle);
+        names[handle] = name;
+    }
+
+    /**
+     * Registers the advertiser if needed and records its advertisement, as done for every scan result
+     *
+     * @param name advertised name, or null to keep the known one
+     * @return handle of the advertiser
+     * @throws IllegalArgumentException if the address is not a valid MAC address
+     */
+    public synchronized int recordAdvertisement(String address, String name, int rssi, long timestampNanos) {
+        int handle = register(MacAddress.pack(address));
+        if (name != null) {
+            names[handle] = name;
+        }
+        recordAdvertisement(handle, rssi, timestampNanos);
+        return handle;
+    }
+
+    /**
+     * Records an advertisement of the device
+     *
+     * @param timestampNanos time the advertisement was received, in the elapsed realtime base of the scan results
+     */
+    public synchronized void recordAdvertisement(int handle, int rssi, long timestampNanos) {
+        check(handle);
+        int count = advertisementCounts[handle];
+        if (count == 0) {
+            firstSeenNanos[handle] = timestampNanos;
+        }
+        lastSeenNanos[handle] = timestampNanos;
+        rssiHistory[handle * RSSI_HISTORY + count % RSSI_HISTORY] = (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, rssi));
+        advertisementCounts[handle] = count == Integer.MAX_VALUE ? RSSI_HISTORY : count + 1;
+    }
+
+    public synchronized int getAdvertisementCount(int handle) {
+        check(handle);
+        return advertisementCounts[handle];
+    }
+
+    /**
+     * @return RSSI of the last advertisement, 0 if none was received
+     */
+    public synchronized int getRssi(int handle) {
+        check(handle);
+        int count = advertisementCounts[handle];
+        return count == 0 ? 0 : rssiHistory[handle * RSSI_HISTORY + (count - 1) % RSSI_HISTORY];
+    }
+
+    /**
+     * @return mean RSSI of the last RSSI_HISTORY advertisements, 0 if none was received
+     */
+    public synchronized int getAverageRssi(int handle) {
+        check(handle);
+        int readings = Math.min(advertisementCounts[handle], RSSI_HISTORY);
+        if (readings == 0) {
+            return 0;
+        }
+        int sum = 0;
+        for (int i = 0; i < readings; i++) {
+            sum += rssiHistory[handle * RSSI_HISTORY + i];
+        }
+        return Math.round(sum / (float) readings);
+    }
+
+    /**
+     * Copies the RSSI readings of the device, oldest first
+     *
+     * @param out receives up to RSSI_HISTORY readings
+     * @return number of readings copied
+     */
+    public synchronized int getRssiHistory(int handle, int[] out) {
+        check(handle);
+        int count = advertisementCounts[handle];
+        int readings = Math.min(Math.min(count, RSSI_HISTORY), out.length);
+        int first = count - readings;
+        for (int i = 0; i < readings; i++) {
+            out[i] = rssiHistory[handle * RSSI_HISTORY + (first + i) % RSSI_HISTORY];
+        }
+        return readings;
+    }
+
+    public synchronized long getFirstSeenNanos(int handle) {
+        check(handle);
+        return firstSeenNanos[handle];
+    }
+
+    public synchronized long getLastSeenNanos(int handle) {
+        check(handle);
+        return lastSeenNanos[handle];
+    }
+
+    public synchronized void setConnectionState(int handle, ScaleSession.State state) {
+        check(handle);
+        connectionStates[handle] = (byte) state.ordinal();
+    }
+
+    /**
+     * @return state of the connection to the device, CLOSED if it was never connected
+     */
+    public synchronized ScaleSession.State getConnectionState(int handle) {
+        check(handle);
+        return STATES[connectionStates[handle]];
+    }
+
+    private void check(int handle) {
+        if (handle < 0 || handle >= size) {
+            throw new IllegalArgumentException("Unknown device handle " + handle);
+        }
+    }
+
+    private static int slotOf(long device, int mask) {
+        long hash = device * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & mask;
+    }
+
+    private void insert(long device, int handle) {
+        int mask = tableDevices.length - 1;
+        int slot = slotOf(device, mask);
+        while (tableHandles[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        tableDevices[slot] = device;
+        tableHandles[slot] = handle + 1;
+    }
+
+    private void grow() {
+        int capacity = devices.length * 2;
+        devices = Arrays.copyOf(devices, capacity);
+        names = Arrays.copyOf(names, capacity);
+        firstSeenNanos = Arrays.copyOf(firstSeenNanos, capacity);
+        lastSeenNanos = Arrays.copyOf(lastSeenNanos, capacity);
+        advertisementCounts = Arrays.copyOf(advertisementCounts, capacity);
+        rssiHistory = Arrays.copyOf(rssiHistory, capacity * RSSI_HISTORY);
+        connectionStates = Arrays.copyOf(connectionStates, capacity);
+        tableDevices = new long[capacity * 2];
+        tableHandles = new int[capacity * 2];
+        for (int handle = 0; handle < size; handle++) {
+            insert(devices[handle], handle);
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package com.example.btchallengeapp.core;
+
+import java.util.Arrays;
+
+/**
+ * Weight history of every user at several resolutions, for charts over any time range.
+ *
+ * Next to the raw readings, daily, weekly and monthly tiers keep the count, minimum, maximum and sums of each calendar
+ * bucket. They are updated incrementally as readings arrive, in constant time for readings in time order; an older
+ * reading, such as one synced from the scale memory, is inserted into its place. Days start at local midnight for the
+ * configured UTC offset, weeks on Monday.
+ *
+ * A chart query picks the finest tier with at most a few points per pixel in the requested range, found by binary
+ * search, and reduces those points to the requested width with Largest-Triangle-Three-Buckets, which keeps the peaks and
+ * dips a plain average would flatten. Each resulting point also carries the lowest and highest weight of the points it
+ * stands for. A query therefore costs O(width) whatever the number of readings, a multi-year chart reads monthly
+ * buckets.
+ *
+ * Users are found by their id through open addressing. The arrays of a user grow with their history, a daily reading
+ * for ten years takes about a quarter of a megabyte across all tiers. The history is thread safe.
+ */
+public final class DownsampledHistory {
+
+    public static final int RAW = 0;
+    public static final int DAILY = 1;
+    public static final int WEEKLY = 2;
+    public static final int MONTHLY = 3;
+
+    /**
+     * Chart points filled by {@link #query}, oldest first
+     */
+    public static final class Points {
+        int size;
+        int tier;
+        long[] epochSeconds = new long[0];
+        float[] weightGrams = new float[0];
+        int[] minGrams = new int[0];
+        int[] maxGrams = new int[0];
+        int[] impedances = new int[0];
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return the tier the points were taken from, {@link #RAW} to {@link #MONTHLY}
+         */
+        public int getTier() {
+            return tier;
+        }
+
+        /**
+         * @return time of the reading, or the mean time of the readings in the bucket
+         */
+        public long epochSeconds(int index) {
+            return epochSeconds[index];
+        }
+
+        /**
+         * @return weight of the reading, or the mean weight of the bucket
+         */
+        public float weightGrams(int index) {
+            return weightGrams[index];
+        }
+
+        /**
+         * @return lowest weight among the readings the point stands for
+         */
+        public int minGrams(int index) {
+            return minGrams[index];
+        }
+
+        /**
+         * @return highest weight among the readings the point stands for
+         */
+        public int maxGrams(int index) {
+            return maxGrams[index];
+        }
+
+        /**
+         * @return impedance of the reading or mean impedance of the bucket, 0 if none was measured
+         */
+        public int impedance(int index) {
+            return impedances[index];
+        }
+
+        void ensureCapacity(int capacity) {
+            if (epochSeconds.length < capacity) {
+                epochSeconds = new long[capacity];
+                weightGrams = new float[capacity];
+                minGrams = new int[capacity];
+                maxGrams = new int[capacity];
+                impedances = new int[capacity];
+            }
+        }
+
+        void set(int index, long epochSeconds, float weightGrams, int minGrams, int maxGrams, int impedance) {
+            this.epochSeconds[index] = epochSeconds;
+            this.weightGrams[index] = weightGrams;
+            this.minGrams[index] = minGrams;
+            this.maxGrams[index] = maxGrams;
+            this.impedances[index] = impedance;
+        }
+    }
+
+    private static final long NO_USER = Long.MIN_VALUE;
+    private static final long SECONDS_PER_DAY = 86_400;
+    private static final int INITIAL_CAPACITY = 16;
+    // source points allowed per output point before a coarser tier is used
+    private static final int OVERSAMPLING = 4;
+
+    /**
+     * Aggregates of one resolution, buckets sorted by key
+     */
+    private static final class Tier {
+        long[] keys = new long[INITIAL_CAPACITY];
+        int[] counts = new int[INITIAL_CAPACITY];
+        long[] timeSums = new long[INITIAL_CAPACITY];
+        long[] gramSums = new long[INITIAL_CAPACITY];
+        int[] minGrams = new int[INITIAL_CAPACITY];
+        int[] maxGrams = new int[INITIAL_CAPACITY];
+        long[] impedanceSums = new long[INITIAL_CAPACITY];
+        int[] impedanceCounts = new int[INITIAL_CAPACITY];
+        int size;
+
+        void add(long key, long epochSeconds, int weightGrams, int impedance) {
+            int index = size > 0 && keys[size - 1] == key ? size - 1 : Arrays.binarySearch(keys, 0, size, key);
+            if (index < 0) {
+                index = -index - 1;
+                insert(index, key);
+            }
+            counts[index]++;
+            timeSums[index] += epochSeconds;
+            gramSums[index] += weightGrams;
+            minGrams[index] = Math.min(minGrams[index], weightGrams);
+            maxGrams[index] = Math.max(maxGrams[index], weightGrams);
+            if (impedance > 0) {
+                impedanceSums[index] += impedance;
+                impedanceCounts[index]++;
+            }
+        }
+
+        private void insert(int index, long key) {
+            if (size == keys.length) {
+                int capacity = size * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+                timeSums = Arrays.copyOf(timeSums, capacity);
+                gramSums = Arrays.copyOf(gramSums, capacity);
+                minGrams = Arrays.copyOf(minGrams, capacity);
+                maxGrams = Arrays.copyOf(maxGrams, capacity);
+                impedanceSums = Arrays.copyOf(impedanceSums, capacity);
+                impedanceCounts = Arrays.copyOf(impedanceCounts, capacity);
+            }
+            int moved = size - index;
+            System.arraycopy(keys, index, keys, index + 1, moved);
+            System.arraycopy(counts, index, counts, index + 1, moved);
+            System.arraycopy(timeSums, index, timeSums, index + 1, moved);
+            System.arraycopy(gramSums, index, gramSums, index + 1, moved);
+            System.arraycopy(minGrams, index, minGrams, index + 1, moved);
+            System.arraycopy(maxGrams, index, maxGrams, index + 1, moved);
+            System.arraycopy(impedanceSums, index, impedanceSums, index + 1, moved);
+            System.arraycopy(impedanceCounts, index, impedanceCounts, index + 1, moved);
+            keys[index] = key;
+            counts[index] = 0;
+            timeSums[index] = 0;
+            gramSums[index] = 0;
+            minGrams[index] = Integer.MAX_VALUE;
+            maxGrams[index] = Integer.MIN_VALUE;
+            impedanceSums[index] = 0;
+            impedanceCounts[index] = 0;
+            size++;
+        }
+    }
+
+    /**
+     * All readings of one user sorted by time, and their tiers
+     */
+    private static final class Series {
+        long[] times = new long[INITIAL_CAPACITY];
+        int[] grams = new int[INITIAL_CAPACITY];
+        int[] impedances = new int[INITIAL_CAPACITY];
+        int size;
+        final Tier[] tiers = {null, new Tier(), new Tier(), new Tier()};
+
+        void add(long epochSeconds, int weightGrams, int impedance) {
+            int index = size;
+            if (size > 0 && times[size - 1] > epochSeconds) {
+                index = upperBound(times, size, epochSeconds);
+            }
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                grams = Arrays.copyOf(grams, size * 2);
+                impedances = Arrays.copyOf(impedances, size * 2);
+            }
+            System.arraycopy(times, index, times, index + 1, size - index);
+            System.arraycopy(grams, index, grams, index + 1, size - index);
+            System.arraycopy(impedances, index, impedances, index + 1, size - index);
+            times[index] = epochSeconds;
+            grams[index] = weightGrams;
+            impedances[index] = impedance;
+            size++;
+        }
+    }
+
+    // open addressing from user id to user index
+    private final long[] slotUsers;
+    private final int[] slotIndexes;
+    private final Series[] series;
+    private int size;
+    private int utcOffsetSeconds;
+
+    // points of the chosen tier within the queried range, reused between queries
+    private double[] sourceTimes = new double[0];
+    private double[] sourceGrams = new double[0];
+    private int[] sourceMins = new int[0];
+    private int[] sourceMaxs = new int[0];
+    private int[] sourceImpedances = new int[0];
+
+    /**
+     * @param maxUsers number of users tracked, readings of further users are refused
+     */
+    public DownsampledHistory(int maxUsers) {
+        if (maxUsers <= 0) {
+            throw new IllegalArgumentException("maxUsers " + maxUsers);
+        }
+        int tableSize = Integer.highestOneBit(Math.max(2, maxUsers * 2) - 1) << 1;
+        slotUsers = new long[tableSize];
+        slotIndexes = new int[tableSize];
+        Arrays.fill(slotUsers, NO_USER);
+        series = new Series[maxUsers];
+    }
+
+    /**
+     * @param utcOffsetSeconds offset of local time from UTC, readings added afterwards are put into the local day
+     */
+    public synchronized void setUtcOffsetSeconds(int utcOffsetSeconds) {
+        this.utcOffsetSeconds = utcOffsetSeconds;
+    }
+
+    /**
+     * @return number of users with readings
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @param user      any id but Long.MIN_VALUE
+     * @param impedance impedance of the reading, 0 if none was measured
+     * @return false if the user is new and maxUsers users are tracked already
+     */
+    public synchronized boolean add(long user, long epochSeconds, int weightGrams, int impedance) {
+        int index = indexOf(user, true);
+        if (index < 0) {
+            return false;
+        }
+        Series userSeries = series[index];
+        userSeries.add(epochSeconds, weightGrams, impedance);
+        long day = Math.floorDiv(epochSeconds + utcOffsetSeconds, SECONDS_PER_DAY);
+        userSeries.tiers[DAILY].add(day, epochSeconds, weightGrams, impedance);
+        // 1970-01-01 was a Thursday, shift so that weeks start on Monday
+        userSeries.tiers[WEEKLY].add(Math.floorDiv(day + 3, 7), epochSeconds, weightGrams, impedance);
+        userSeries.tiers[MONTHLY].add(monthOf(day), epochSeconds, weightGrams, impedance);
+        return true;
+    }
+
+    /**
+     * @return number of readings, or buckets with readings, of the user in the tier
+     */
+    public synchronized int getCount(long user, int tier) {
+        int index = indexOf(user, false);
+        if (index < 0) {
+            return 0;
+        }
+        return tier == RAW ? series[index].size : series[index].tiers[tier].size;
+    }
+
+    /**
+     * Fills the points of a chart of the user's weight between two times, inclusive
+     *
+     * @param width number of points wanted, usually the chart width in pixels
+     * @return false if the user has no readings in the range, out is then empty
+     */
+    public synchronized boolean query(long user, long fromEpochSeconds, long toEpochSeconds, int width, Points out) {
+        out.size = 0;
+        int index = indexOf(user, false);
+        if (index < 0 || width <= 0 || toEpochSeconds < fromEpochSeconds) {
+            return false;
+        }
+        Series userSeries = series[index];
+        int budget = Math.max(width * OVERSAMPLING, 2);
+        int first = lowerBound(userSeries.times, userSeries.size, fromEpochSeconds);
+        int end = upperBound(userSeries.times, userSeries.size, toEpochSeconds);
+        int tier = RAW;
+        if (end - first > budget) {
+            long fromDay = Math.floorDiv(fromEpochSeconds + utcOffsetSeconds, SECONDS_PER_DAY);
+            long toDay = Math.floorDiv(toEpochSeconds + utcOffsetSeconds, SECONDS_PER_DAY);
+            for (tier = DAILY; tier <= MONTHLY; tier++) {
+                Tier aggregates = userSeries.tiers[tier];
+                first = lowerBound(aggregates.keys, aggregates.size, keyOf(tier, fromDay));
+                end = upperBound(aggregates.keys, aggregates.size, keyOf(tier, toDay));
+                if (end - first <= budget || tier == MONTHLY) {
+                    break;
+                }
+            }
+        }
+        int count = end - first;
+        if (count <= 0) {
+            return false;
+        }
+        copySource(userSeries, tier, first, count);
+        out.tier = tier;
+        if (count <= width || width < 3) {
+            out.ensureCapacity(count);
+            for (int i = 0; i < count; i++) {
+                setPoint(out, i, i, i, i + 1);
+            }
+            out.size = count;
+        } else {
+            largestTriangleThreeBuckets(count, width, out);
+        }
+        return true;
+    }
+
+    private void copySource(Series userSeries, int tier, int first, int count) {
+        if (sourceTimes.length < count) {
+            int capacity = Math.max(count, sourceTimes.length * 2);
+            sourceTimes = new double[capacity];
+            sourceGrams = new double[capacity];
+            sourceMins = new int[capacity];
+            sourceMaxs = new int[capacity];
+            sourceImpedances = new int[capacity];
+        }
+        for (int i = 0; i < count; i++) {
+            int at = first + i;
+            if (tier == RAW) {
+                sourceTimes[i] = userSeries.times[at];
+                sourceGrams[i] = userSeries.grams[at];
+                sourceMins[i] = userSeries.grams[at];
+                sourceMaxs[i] = userSeries.grams[at];
+                sourceImpedances[i] = userSeries.impedances[at];
+            } else {
+                Tier aggregates = userSeries.tiers[tier];
+                int bucketCount = aggregates.counts[at];
+                sourceTimes[i] = (double) aggregates.timeSums[at] / bucketCount;
+                sourceGrams[i] = (double) aggregates.gramSums[at] / bucketCount;
+                sourceMins[i] = aggregates.minGrams[at];
+                sourceMaxs[i] = aggregates.maxGrams[at];
+                int impedanceCount = aggregates.impedanceCounts[at];
+                sourceImpedances[i] = impedanceCount == 0 ? 0 : (int) (aggregates.impedanceSums[at] / impedanceCount);
+            }
+        }
+    }
+
+    /**
+     * Keeps the first and last point and, from each of width - 2 equal runs of points in between, the one forming the
+     * largest triangle with the point kept before it and the mean of the next run
+     */
+    private void largestTriangleThreeBuckets(int count, int width, Points out) {
+        out.ensureCapacity(width);
+        double origin = sourceTimes[0];
+        double every = (double) (count - 2) / (width - 2);
+        int kept = 0;
+        setPoint(out, 0, 0, 0, 1);
+        for (int bucket = 0; bucket < width - 2; bucket++) {
+            int nextStart = (int) ((bucket + 1) * every) + 1;
+            int nextEnd = Math.min((int) ((bucket + 2) * every) + 1, count);
+            double meanTime = 0;
+            double meanGrams = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                meanTime += sourceTimes[i] - origin;
+                meanGrams += sourceGrams[i];
+            }
+            meanTime /= nextEnd - nextStart;
+            meanGrams /= nextEnd - nextStart;
+
+            int start = (int) (bucket * every) + 1;
+            double keptTime = sourceTimes[kept] - origin;
+            double keptGrams = sourceGrams[kept];
+            double largestArea = -1;
+            int largest = start;
+            for (int i = start; i < nextStart; i++) {
+                double area = Math.abs((keptTime - meanTime) * (sourceGrams[i] - keptGrams)
+                        - (keptTime - (sourceTimes[i] - origin)) * (meanGrams - keptGrams));
+                if (area > largestArea) {
+                    largestArea = area;
+                    largest = i;
+                }
+            }
+            setPoint(out, bucket + 1, largest, start, nextStart);
+            kept = largest;
+        }
+        setPoint(out, width - 1, count - 1, count - 1, count);
+        out.size = width;
+    }
+
+    /**
+     * Sets the output point to the source point, with the envelope of the source points from start to end
+     */
+    private void setPoint(Points out, int index, int source, int start, int end) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = start; i < end; i++) {
+            min = Math.min(min, sourceMins[i]);
+            max = Math.max(max, sourceMaxs[i]);
+        }
+        out.set(index, Math.round(sourceTimes[source]), (float) sourceGrams[source], min, max,
+                sourceImpedances[source]);
+    }
+
+    private static long keyOf(int tier, long day) {
+        switch (tier) {
+            case DAILY:
+                return day;
+            case WEEKLY:
+                return Math.floorDiv(day + 3, 7);
+            default:
+                return monthOf(day);
+        }
+    }
+
+    /**
+     * @return months since year 0 of the day counted from 1970-01-01, from the civil calendar algorithm of Howard
+     * Hinnant, as java.time is not available on all supported Android versions
+     */
+    static long monthOf(long day) {
+        long z = day + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long dayOfEra = z - era * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 12 + month - 1;
+    }
+
+    private static int lowerBound(long[] values, int size, long value) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int upperBound(long[] values, int size, long value) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int indexOf(long user, boolean create) {
+        if (user == NO_USER) {
+            throw new IllegalArgumentException("Reserved user id");
+        }
+        int mask = slotUsers.length - 1;
+        int slot = (int) (user ^ (user >>> 17) ^ (user >>> 35)) & mask;
+        while (true) {
+            if (slotUsers[slot] == user) {
+                return slotIndexes[slot];
+            }
+            if (slotUsers[slot] == NO_USER) {
+                if (!create || size == series.length) {
+                    return -1;
+                }
+                slotUsers[slot] = user;
+                slotIndexes[slot] = size;
+                series[size] = new Series();
+                return size++;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Layout of a raw frame capture file, written by {@link FrameCaptureWriter} and read by {@link FrameCaptureReader}.
+ *
+ * The file starts with a 16 byte little endian header followed by variable length records:
+ * <pre>
+ * header : int magic, short version, short reserved, long wall clock start in epoch milliseconds
+ * record : varint microseconds since the previous record, varint device index,
+ *          [long device MAC, u8 protocol, only when the index is one past the last device seen], u8 length, payload
+ * </pre>
+ * Devices are numbered in order of their first frame, with the protocol their frames are decoded with, see
+ * {@link FrameDecoderRegistry}. A 13 byte frame from a known scale arriving within 2 seconds of the previous frame
+ * takes 16 to 18 bytes. Version 1 files have no protocol byte, all their frames are body composition frames.
+ */
+public final class FrameCapture {
+
+    public static final int MAGIC = 0x50414346; // "FCAP"
+    public static final short VERSION = 2;
+    public static final int HEADER_SIZE = 16;
+
+    /**
+     * Longest payload a record can hold
+     */
+    public static final int MAX_PAYLOAD = 255;
+
+    private FrameCapture() {
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.btchallengeapp.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads the frames of a {@link FrameCapture} file in recorded order.
+ *
+ * The file is memory mapped and the frames are read into a caller supplied holder, so reading does not allocate per
+ * frame. A record cut off at the end of the file, as left by a crash, ends the capture. Not thread safe.
+ */
+public final class FrameCaptureReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final long startEpochMillis;
+    private final boolean hasProtocols;
+    private long[] devices = new long[16];
+    private int[] protocols = new int[16];
+    private int deviceCount;
+    private long timestampMicros;
+    private long frameCount;
+
+    /**
+     * @throws IOException if the file can not be read or is not a frame capture
+     */
+    public FrameCaptureReader(File captureFile) throws IOException {
+        file = new RandomAccessFile(captureFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.limit() < FrameCapture.HEADER_SIZE || buffer.getInt(0) != FrameCapture.MAGIC) {
+                throw new IOException("Not a frame capture " + captureFile);
+            }
+            short version = buffer.getShort(4);
+            if (version < 1 || version > FrameCapture.VERSION) {
+                throw new IOException("Unsupported frame capture version " + version);
+            }
+            hasProtocols = version >= 2;
+            startEpochMillis = buffer.getLong(8);
+            buffer.position(FrameCapture.HEADER_SIZE);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return wall clock time the capture was started at
+     */
+    public long getStartEpochMillis() {
+        return startEpochMillis;
+    }
+
+    /**
+     * @return frames read so far
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Reads the next frame. Its timestamp is relative to the first frame of the capture.
+     *
+     * @return false at the end of the capture
+     * @throws IOException if a frame is longer than the holder or references an unknown device
+     */
+    public boolean next(FrameRingBuffer.Frame into) throws IOException {
+        int start = buffer.position();
+        try {
+            long delta = readVarint();
+            int index = (int) readVarint();
+            if (index == deviceCount) {
+                long device = buffer.getLong();
+                int protocol = hasProtocols ? buffer.get() & 0xFF : FrameDecoderRegistry.PROTOCOL_BODY_COMPOSITION;
+                if (deviceCount == devices.length) {
+                    devices = Arrays.copyOf(devices, deviceCount * 2);
+                    protocols = Arrays.copyOf(protocols, deviceCount * 2);
+                }
+                devices[deviceCount] = device;
+                protocols[deviceCount++] = protocol;
+            } else if (index > deviceCount || index < 0) {
+                throw new IOException("Unknown device index " + index + " at " + start);
+            }
+            int length = buffer.get() & 0xFF;
+            if (length > into.data.length) {
+                throw new IOException("Frame of " + length + " bytes at " + start);
+            }
+            buffer.get(into.data, 0, length);
+            timestampMicros += delta;
+            into.device = devices[index];
+            into.protocol = protocols[index];
+            into.length = length;
+            into.timestampNanos = timestampMicros * 1000;
+            frameCount++;
+            return true;
+        } catch (BufferUnderflowException e) {
+            // torn last record
+            buffer.position(buffer.limit());
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private long readVarint() {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.btchallengeapp.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Records raw frames into a {@link FrameCapture} file.
+ *
+ * Records are encoded into a buffer that is written out whenever it fills up, on {@link #flush()} and on close, so a
+ * crash loses at most one buffer. Timestamps only need to come from a monotonic clock, the file keeps their
+ * differences. The writer is thread safe.
+ */
+public final class FrameCaptureWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // largest record: a 10 byte time varint, a 5 byte index varint, a device and protocol, the length and the payload
+    private static final int MAX_RECORD_SIZE = 10 + 5 + 8 + 1 + 1 + FrameCapture.MAX_PAYLOAD;
+
+    private final File file;
+    private final FileOutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private long[] devices = new long[16];
+    private int[] protocols = new int[16];
+    private int deviceCount;
+    private int lastDeviceIndex;
+    private long lastTimestampMicros = Long.MIN_VALUE;
+    private long frameCount;
+    private boolean closed;
+
+    /**
+     * Creates the file, replacing an existing one
+     */
+    public FrameCaptureWriter(File file) throws IOException {
+        this.file = file;
+        this.out = new FileOutputStream(file);
+        putInt(FrameCapture.MAGIC);
+        buffer[position++] = (byte) FrameCapture.VERSION;
+        buffer[position++] = (byte) (FrameCapture.VERSION >> 8);
+        buffer[position++] = 0;
+        buffer[position++] = 0;
+        putLong(System.currentTimeMillis());
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @param device         packed MAC address of the sender, see {@link MacAddress}
+     * @param protocol       id of the protocol the frame is decoded with, 0 to 255
+     * @param timestampNanos arrival time of the frame on a monotonic clock
+     * @throws IllegalArgumentException if the payload is longer than MAX_PAYLOAD or the protocol out of range
+     */
+    public synchronized void write(long device, int protocol, long timestampNanos, byte[] data, int offset, int length)
+            throws IOException {
+        if (closed) {
+            throw new IOException("Capture closed " + file);
+        }
+        if (length < 0 || length > FrameCapture.MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Frame length " + length);
+        }
+        if (protocol < 0 || protocol > 0xFF) {
+            throw new IllegalArgumentException("Protocol " + protocol);
+        }
+        if (BUFFER_SIZE - position < MAX_RECORD_SIZE) {
+            writeBuffer();
+        }
+        long timestampMicros = timestampNanos / 1000;
+        putVarint(lastTimestampMicros == Long.MIN_VALUE ? 0 : Math.max(0, timestampMicros - lastTimestampMicros));
+        lastTimestampMicros = timestampMicros;
+        int index = indexOf(device, protocol);
+        putVarint(index);
+        if (index == deviceCount) {
+            if (deviceCount == devices.length) {
+                devices = Arrays.copyOf(devices, deviceCount * 2);
+                protocols = Arrays.copyOf(protocols, deviceCount * 2);
+            }
+            devices[deviceCount] = device;
+            protocols[deviceCount++] = protocol;
+            putLong(device);
+            buffer[position++] = (byte) protocol;
+        }
+        buffer[position++] = (byte) length;
+        System.arraycopy(data, offset, buffer, position, length);
+        position += length;
+        frameCount++;
+    }
+
+    /**
+     * Writes the buffered records to the file
+     */
+    public synchronized void flush() throws IOException {
+        if (!closed) {
+            writeBuffer();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            writeBuffer();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    /**
+     * @return index of a known device and protocol, or deviceCount for a new one
+     */
+    private int indexOf(long device, int protocol) {
+        // frames usually come in runs from the same scale
+        if (lastDeviceIndex < deviceCount && devices[lastDeviceIndex] == device
+                && protocols[lastDeviceIndex] == protocol) {
+            return lastDeviceIndex;
+        }
+        for (int i = 0; i < deviceCount; i++) {
+            if (devices[i] == device && protocols[i] == protocol) {
+                lastDeviceIndex = i;
+                return i;
+            }
+        }
+        lastDeviceIndex = deviceCount;
+        return deviceCount;
+    }
+
+    private void writeBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void putInt(int value) {
+        for (int i = 0; i < 4; i++) {
+            buffer[position++] = (byte) (value >> (i * 8));
+        }
+    }
+
+    private void putLong(long value) {
+        for (int i = 0; i < 8; i++) {
+            buffer[position++] = (byte) (value >> (i * 8));
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Decodes one kind of measurement payload into a {@link BodyCompositionMeasurement}.
+ *
+ * Decoders are registered in a {@link FrameDecoderRegistry} for the payload lengths they understand. They run for
+ * every frame, so they keep no state and do not allocate.
+ */
+public interface FrameDecoder {
+
+    /**
+     * @param length length of the frame, one of the lengths the decoder was registered for
+     * @return false if the frame is malformed, in which case out is left untouched
+     */
+    boolean decode(byte[] data, int offset, int length, BodyCompositionMeasurement out);
+}
@@ -0,0 +1,186 @@
+package com.example.btchallengeapp.core;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Decoders of the supported scale models, keyed by measurement service, characteristic and payload length.
+ *
+ * Each service and characteristic pair registered is a {@link Protocol} with a small integer id, in registration
+ * order. Models sharing a standard service are told apart by a vendor service only one of them offers, the protocol
+ * registered with it comes first. A session resolves the protocol of its scale once, when it subscribes, and from then
+ * on a frame is decoded by indexing the decoder table of the protocol with the frame length. Raw frames carry the
+ * protocol id through the pipeline and into captures, so they are decoded the same way later. Supporting another model
+ * only takes registering its decoder, the callbacks stay untouched.
+ *
+ * Registering is thread safe and publishes a new table, protocols already resolved keep the table they were given.
+ */
+public final class FrameDecoderRegistry {
+
+    /**
+     * Protocol of the Mi Body Composition Scale, 13 byte frames of 0x2A9C
+     */
+    public static final int PROTOCOL_BODY_COMPOSITION = 0;
+
+    /**
+     * Protocol of the first generation Mi Scale, 10 byte frames of 0x2A9D with its state in the reserved flag bits
+     */
+    public static final int PROTOCOL_MI_SCALE = 1;
+
+    /**
+     * Protocol of standard weight scales, frames of 0x2A9D in every length the flags allow
+     */
+    public static final int PROTOCOL_WEIGHT_SCALE = 2;
+
+    /**
+     * Longest payload a decoder can be registered for
+     */
+    public static final int MAX_FRAME_LENGTH = FrameRingBuffer.MAX_FRAME_LENGTH;
+
+    private volatile Protocol[] protocols = new Protocol[0];
+
+    /**
+     * @return a registry with the decoders of all scale models the app supports, the body composition scale first
+     */
+    public static FrameDecoderRegistry createDefault() {
+        FrameDecoderRegistry registry = new FrameDecoderRegistry();
+        registry.register(GattUuids.SERVICE_BODY_COMPOSITION, GattUuids.BODY_COMPOSITION_MEASUREMENT,
+                BodyCompositionDecoder.FRAME_LENGTH, new BodyCompositionDecoder());
+        registry.register(GattUuids.SERVICE_WEIGHT_SCALE, GattUuids.SERVICE_MI_SCALE, GattUuids.WEIGHT_MEASUREMENT,
+                WeightScaleDecoder.MI_SCALE_FRAME_LENGTH, new WeightScaleDecoder(true));
+        // standard scales may leave out the time stamp, the user id and the BMI and height, in any combination
+        WeightScaleDecoder standard = new WeightScaleDecoder(false);
+        for (int flags = 0; flags <= 0x0E; flags += 2) {
+            registry.register(GattUuids.SERVICE_WEIGHT_SCALE, GattUuids.WEIGHT_MEASUREMENT,
+                    WeightScaleDecoder.frameLength(flags), standard);
+        }
+        return registry;
+    }
+
+    /**
+     * Registers the decoder for frames of the given length on the characteristic
+     *
+     * @return id of the protocol of the service and characteristic
+     * @throws IllegalArgumentException if the length is out of range or already has a decoder
+     */
+    public int register(UUID service, UUID characteristic, int length, FrameDecoder decoder) {
+        return register(service, null, characteristic, length, decoder);
+    }
+
+    /**
+     * Registers the decoder for frames of the given length on the characteristic, for scales which also offer the
+     * vendor service
+     *
+     * @param vendorService service which tells the model apart from others with the same measurement service, or null
+     * @return id of the protocol of the service, vendor service and characteristic
+     * @throws IllegalArgumentException if the length is out of range or already has a decoder
+     */
+    public synchronized int register(UUID service, UUID vendorService, UUID characteristic, int length,
+                                     FrameDecoder decoder) {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Frame length " + length);
+        }
+        Protocol[] current = protocols;
+        int id = 0;
+        while (id < current.length && !current[id].matches(service, vendorService, characteristic)) {
+            id++;
+        }
+        FrameDecoder[] decoders = id < current.length
+                ? current[id].decoders.clone() : new FrameDecoder[MAX_FRAME_LENGTH + 1];
+        if (decoders[length] != null) {
+            throw new IllegalArgumentException("Length " + length + " of " + characteristic + " already registered");
+        }
+        decoders[length] = decoder;
+        Protocol[] next = Arrays.copyOf(current, Math.max(current.length, id + 1));
+        next[id] = new Protocol(id, service, vendorService, characteristic, decoders);
+        protocols = next;
+        return id;
+    }
+
+    /**
+     * @return number of protocols registered
+     */
+    public int size() {
+        return protocols.length;
+    }
+
+    /**
+     * @return the protocol with the given id, or null if there is none
+     */
+    public Protocol getProtocol(int id) {
+        Protocol[] current = protocols;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    /**
+     * Picks the protocol of a connected scale after service discovery
+     *
+     * @return the first protocol registered whose services the scale offers, or null if it offers none
+     */
+    public Protocol resolve(GattClient client) {
+        for (Protocol protocol : protocols) {
+            if (client.hasService(protocol.service)
+                    && (protocol.vendorService == null || client.hasService(protocol.vendorService))) {
+                return protocol;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decoder table of one measurement characteristic, indexed by frame length. Immutable.
+     */
+    public static final class Protocol {
+
+        private final int id;
+        private final UUID service;
+        private final UUID vendorService;
+        private final UUID characteristic;
+        private final FrameDecoder[] decoders;
+
+        Protocol(int id, UUID service, UUID vendorService, UUID characteristic, FrameDecoder[] decoders) {
+            this.id = id;
+            this.service = service;
+            this.vendorService = vendorService;
+            this.characteristic = characteristic;
+            this.decoders = decoders;
+        }
+
+        boolean matches(UUID service, UUID vendorService, UUID characteristic) {
+            return this.service.equals(service) && this.characteristic.equals(characteristic)
+                    && (this.vendorService == null ? vendorService == null : this.vendorService.equals(vendorService));
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public UUID getService() {
+            return service;
+        }
+
+        /**
+         * @return service the scale must offer besides the measurement service, or null
+         */
+        public UUID getVendorService() {
+            return vendorService;
+        }
+
+        public UUID getCharacteristic() {
+            return characteristic;
+        }
+
+        /**
+         * Decodes a frame with the decoder registered for its length
+         *
+         * @return false if no decoder handles frames of this length or the frame is malformed
+         */
+        public boolean decode(byte[] data, int offset, int length, BodyCompositionMeasurement out) {
+            if (length < 0 || length >= decoders.length) {
+                return false;
+            }
+            FrameDecoder decoder = decoders[length];
+            return decoder != null && decoder.decode(data, offset, length, out);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.btchallengeapp.core;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams the frames of a capture into the decoding stages, either at the pace they were recorded at or as fast as the
+ * target takes them. Replaying at full speed measures the throughput of everything behind the target.
+ */
+public final class FrameReplayer {
+
+    /**
+     * Receives the replayed frames. The data array is reused for the next frame.
+     */
+    public interface Target {
+        void accept(long device, int protocol, long timestampNanos, byte[] data, int offset, int length)
+                throws InterruptedException;
+    }
+
+    private final FrameRingBuffer.Frame frame = new FrameRingBuffer.Frame();
+
+    /**
+     * Replays the remaining frames of the capture
+     *
+     * @param recordedPace true to keep the recorded time between frames, false to replay at full speed
+     * @return number of frames replayed
+     */
+    public long replay(FrameCaptureReader reader, Target target, boolean recordedPace)
+            throws IOException, InterruptedException {
+        long count = 0;
+        long startNanos = System.nanoTime();
+        long firstTimestamp = -1;
+        while (reader.next(frame)) {
+            if (recordedPace) {
+                if (firstTimestamp < 0) {
+                    firstTimestamp = frame.timestampNanos;
+                }
+                long due = startNanos + frame.timestampNanos - firstTimestamp;
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            }
+            target.accept(frame.device, frame.protocol, frame.timestampNanos, frame.data, 0, frame.length);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return a target queueing the frames into the pipeline, waiting whenever it falls behind
+     */
+    public static Target into(MeasurementPipeline pipeline) {
+        return (device, protocol, timestampNanos, data, offset, length) ->
+                pipeline.put(device, protocol, data, offset, length);
+    }
+}
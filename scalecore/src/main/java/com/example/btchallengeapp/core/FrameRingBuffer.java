@@ -0,0 +1,157 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Bounded queue of raw frames backed by arrays allocated once up front. Any number of threads may offer frames,
+ * a single consumer polls them. When the buffer is full new frames are dropped and counted, the producers never block.
+ * Only {@link #put}, meant for replaying recorded frames, waits for space instead.
+ */
+public final class FrameRingBuffer {
+
+    /**
+     * Longest payload a slot can hold, larger frames are dropped
+     */
+    public static final int MAX_FRAME_LENGTH = 32;
+
+    private final int capacity;
+    private final int mask;
+    private final byte[] payloads;
+    private final int[] lengths;
+    private final long[] devices;
+    private final int[] protocols;
+    private final long[] timestamps;
+
+    private long head;
+    private long tail;
+    private long offered;
+    private long dropped;
+    private int maxDepth;
+    private boolean consumerWaiting;
+    private boolean producerWaiting;
+
+    /**
+     * @param capacity number of frames the buffer holds, rounded up to a power of two
+     */
+    public FrameRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        payloads = new byte[size * MAX_FRAME_LENGTH];
+        lengths = new int[size];
+        devices = new long[size];
+        protocols = new int[size];
+        timestamps = new long[size];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Copies a frame into the next free slot.
+     *
+     * @param protocol       id of the protocol the frame is decoded with
+     * @param timestampNanos arrival time of the frame
+     * @return false if the buffer was full or the frame too long
+     */
+    public synchronized boolean offer(long device, int protocol, long timestampNanos, byte[] data, int offset,
+                                      int length) {
+        offered++;
+        if (tail - head == capacity || length > MAX_FRAME_LENGTH || length < 0) {
+            dropped++;
+            return false;
+        }
+        int slot = (int) (tail & mask);
+        System.arraycopy(data, offset, payloads, slot * MAX_FRAME_LENGTH, length);
+        lengths[slot] = length;
+        devices[slot] = device;
+        protocols[slot] = protocol;
+        timestamps[slot] = timestampNanos;
+        tail++;
+        int depth = (int) (tail - head);
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+        if (consumerWaiting) {
+            consumerWaiting = false;
+            notify();
+        }
+        return true;
+    }
+
+    /**
+     * Like {@link #offer}, but waits for a free slot when the buffer is full instead of dropping the frame
+     *
+     * @return false if the frame was too long
+     */
+    public synchronized boolean put(long device, int protocol, long timestampNanos, byte[] data, int offset,
+                                    int length) throws InterruptedException {
+        while (tail - head == capacity) {
+            producerWaiting = true;
+            wait();
+        }
+        return offer(device, protocol, timestampNanos, data, offset, length);
+    }
+
+    /**
+     * Moves the oldest frame into the given holder.
+     *
+     * @param timeoutMillis how long to wait for a frame when the buffer is empty, 0 returns immediately
+     * @return false if no frame arrived in time
+     */
+    public synchronized boolean poll(Frame into, long timeoutMillis) throws InterruptedException {
+        if (head == tail && timeoutMillis > 0) {
+            consumerWaiting = true;
+            wait(timeoutMillis);
+            consumerWaiting = false;
+        }
+        if (head == tail) {
+            return false;
+        }
+        int slot = (int) (head & mask);
+        System.arraycopy(payloads, slot * MAX_FRAME_LENGTH, into.data, 0, lengths[slot]);
+        into.length = lengths[slot];
+        into.device = devices[slot];
+        into.protocol = protocols[slot];
+        into.timestampNanos = timestamps[slot];
+        head++;
+        if (producerWaiting) {
+            producerWaiting = false;
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Wakes up a consumer waiting in poll
+     */
+    public synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    public synchronized int depth() {
+        return (int) (tail - head);
+    }
+
+    public synchronized int maxDepth() {
+        return maxDepth;
+    }
+
+    public synchronized long offeredCount() {
+        return offered;
+    }
+
+    public synchronized long droppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Reusable holder a frame is polled into
+     */
+    public static final class Frame {
+        public final byte[] data = new byte[MAX_FRAME_LENGTH];
+        public int length;
+        public long device;
+        public int protocol;
+        public long timestampNanos;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Accepts raw measurement payloads as they arrive from the scales.
+ */
+public interface FrameSink {
+
+    /**
+     * Takes a copy of a raw frame. Called on the bluetooth callback threads, so implementations must return quickly.
+     *
+     * @param device   packed MAC address of the scale, see {@link MacAddress}
+     * @param protocol id of the protocol the frame is decoded with, see {@link FrameDecoderRegistry}
+     * @return false if the frame was dropped
+     */
+    boolean offer(long device, int protocol, byte[] data, int offset, int length);
+}
@@ -0,0 +1,34 @@
+package com.example.btchallengeapp.core;
+
+import java.util.UUID;
+
+/**
+ * Events of one GATT connection, as delivered by a {@link ScaleTransport}. Mirrors the parts of
+ * android.bluetooth.BluetoothGattCallback the application uses, without depending on the Android framework.
+ */
+public interface GattCallback {
+
+    /**
+     * @param status    GATT status of the change, {@link GattClient#GATT_SUCCESS} when it went as requested
+     * @param connected true when the link is up
+     */
+    void onConnectionStateChange(int status, boolean connected);
+
+    void onServicesDiscovered(int status);
+
+    void onDescriptorWrite(int status);
+
+    void onCharacteristicRead(UUID characteristic, byte[] value, int status);
+
+    void onCharacteristicWrite(UUID characteristic, int status);
+
+    /**
+     * @param mtu MTU agreed on with the peripheral
+     */
+    void onMtuChanged(int mtu, int status);
+
+    /**
+     * A notification or indication arrived. The value array may be reused by the transport after this call returns.
+     */
+    void onCharacteristicChanged(UUID characteristic, byte[] value);
+}
@@ -0,0 +1,67 @@
+package com.example.btchallengeapp.core;
+
+import java.util.UUID;
+
+/**
+ * The GATT requests the application issues to a connected peripheral. On the phone this wraps a BluetoothGatt, in tests
+ * and simulations it is backed by a fake peripheral.
+ *
+ * Every request only starts the operation and reports whether the stack accepted it, the result arrives later through
+ * the matching GATT callback. Requests must not overlap, use a {@link GattOperationQueue} to serialize them.
+ */
+public interface GattClient {
+
+    int GATT_SUCCESS = 0;
+
+    /**
+     * Connection priorities, with the values of the BluetoothGatt constants
+     */
+    int CONNECTION_PRIORITY_BALANCED = 0;
+    int CONNECTION_PRIORITY_HIGH = 1;
+    int CONNECTION_PRIORITY_LOW_POWER = 2;
+
+    /**
+     * MTU every connection starts with, 20 bytes of payload per notification
+     */
+    int DEFAULT_MTU = 23;
+
+    boolean discoverServices();
+
+    /**
+     * @return true if service discovery found the given service
+     */
+    boolean hasService(UUID service);
+
+    /**
+     * Enables indications locally and writes the client characteristic configuration descriptor. Completes with the descriptor write callback.
+     */
+    boolean enableIndication(UUID service, UUID characteristic);
+
+    /**
+     * Enables notifications locally and writes the client characteristic configuration descriptor. Completes with the descriptor write callback.
+     */
+    boolean enableNotification(UUID service, UUID characteristic);
+
+    boolean readCharacteristic(UUID service, UUID characteristic);
+
+    /**
+     * @param withResponse false for a write without response, which is reported by the write callback as soon as the
+     *                     stack sent it rather than once the peripheral confirmed it
+     */
+    boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, boolean withResponse);
+
+    /**
+     * Asks the peripheral for a larger MTU. Completes with the MTU changed callback, which reports the MTU agreed on.
+     */
+    boolean requestMtu(int mtu);
+
+    /**
+     * Asks for a shorter or longer connection interval, one of the CONNECTION_PRIORITY values. Has no completion
+     * callback, the new interval applies after a few connection events.
+     */
+    boolean requestConnectionPriority(int priority);
+
+    void disconnect();
+
+    void close();
+}
@@ -0,0 +1,36 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Failure of a queued GATT operation, either reported by the stack or raised by the queue itself.
+ */
+public class GattException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * No callback arrived within the operation timeout
+     */
+    public static final int STATUS_TIMEOUT = -1;
+    /**
+     * The stack refused to start the operation
+     */
+    public static final int STATUS_NOT_STARTED = -2;
+    /**
+     * The operation was dropped because the connection went away
+     */
+    public static final int STATUS_CANCELLED = -3;
+
+    private final int status;
+
+    public GattException(String operation, int status) {
+        super(operation + " failed with status " + status);
+        this.status = status;
+    }
+
+    /**
+     * @return the GATT status from the callback, or one of the STATUS_ constants
+     */
+    public int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * A single GATT request waiting in a {@link GattOperationQueue}.
+ */
+public interface GattOperation {
+
+    /**
+     * Starts the request.
+     *
+     * @return false if the stack refused to start it
+     */
+    boolean start(GattClient client);
+}
@@ -0,0 +1,276 @@
+package com.example.btchallengeapp.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes GATT operations for one connection. Android silently drops a request issued while another one is still
+ * in flight, so operations are started strictly one after the other, in submission order.
+ *
+ * Each operation that expects a callback stays in flight until the GATT callback it names reports its status through
+ * {@link #onOperationCompleted(Callback, int)}. If no callback arrives within the timeout, or the stack refuses to start
+ * the operation, it is retried up to the configured number of times before its future fails with a
+ * {@link GattException}.
+ * The next operation is started directly from the completion callback, so there is no extra thread hop between
+ * consecutive requests. Requests without any callback, such as a connection priority change, complete as soon as they
+ * are started, which lets a series of them go out back to back. A write without response does get a write callback on
+ * Android, so it goes through {@link #submit} like any other write.
+ *
+ * Futures are completed after the queue lock is released, so their dependent actions may submit further operations
+ * or close the connection.
+ *
+ * A callback that arrives after its operation has already timed out is dropped unless the operation in flight expects
+ * the same kind of callback, a late write callback can not complete a descriptor write for instance. Between two
+ * operations of the same kind it cannot be told apart, so the timeout should be well above the slowest expected round
+ * trip.
+ */
+public final class GattOperationQueue {
+
+    /**
+     * The GATT callbacks that complete an operation
+     */
+    public enum Callback {
+        SERVICES_DISCOVERED,
+        DESCRIPTOR_WRITE,
+        CHARACTERISTIC_READ,
+        CHARACTERISTIC_WRITE,
+        MTU_CHANGED
+    }
+
+    private final GattClient client;
+    private final ScheduledExecutorService timer;
+    private final long timeoutMillis;
+    private final int maxRetries;
+
+    private final ArrayDeque<Entry> pending = new ArrayDeque<>();
+    private final ArrayList<Entry> finished = new ArrayList<>();
+    private Entry inFlight;
+    private boolean closed;
+
+    /**
+     * @param client        connection the operations run against
+     * @param timer         executor used for timeouts and retry delays
+     * @param timeoutMillis time to wait for the callback of an operation
+     * @param maxRetries    number of times an operation is retried after a timeout, a refusal or an error status
+     */
+    public GattOperationQueue(GattClient client, ScheduledExecutorService timer, long timeoutMillis, int maxRetries) {
+        this.client = client;
+        this.timer = timer;
+        this.timeoutMillis = timeoutMillis;
+        this.maxRetries = maxRetries;
+    }
+
+    public GattClient getClient() {
+        return client;
+    }
+
+    /**
+     * Queues an operation whose completion is reported by a GATT callback.
+     *
+     * @param label    name used in errors and logs
+     * @param callback the callback reporting the operation, other callbacks do not complete it
+     * @return future completed with the GATT status once the callback reports success
+     */
+    public CompletableFuture<Integer> submit(String label, Callback callback, GattOperation operation) {
+        return enqueue(new Entry(label, operation, callback));
+    }
+
+    /**
+     * Queues an operation the stack never reports back on, such as a connection priority change.
+     * It is complete once the stack accepts it. Operations with a callback must not be queued this way, their callback
+     * would complete whatever operation is in flight when it arrives.
+     */
+    public CompletableFuture<Integer> submitWithoutCallback(String label, GattOperation operation) {
+        return enqueue(new Entry(label, operation, null));
+    }
+
+    /**
+     * To be called from every GATT callback that completes an operation. A callback the operation in flight does not
+     * expect is the late answer to an operation that timed out, and is dropped.
+     *
+     * @param callback the callback called
+     * @param status   status reported by the callback
+     */
+    public void onOperationCompleted(Callback callback, int status) {
+        synchronized (this) {
+            Entry entry = inFlight;
+            if (entry == null || entry.callback != callback) {
+                return;
+            }
+            cancelTimeout(entry);
+            inFlight = null;
+            if (status == GattClient.GATT_SUCCESS) {
+                finish(entry, status);
+            } else if (!retry(entry)) {
+                finish(entry, status);
+            }
+            startNext();
+        }
+        completeFinished();
+    }
+
+    /**
+     * Fails the operation in flight and all pending ones, and rejects further submissions.
+     * To be called once the connection is gone.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (inFlight != null) {
+                cancelTimeout(inFlight);
+                finish(inFlight, GattException.STATUS_CANCELLED);
+                inFlight = null;
+            }
+            Entry entry;
+            while ((entry = pending.poll()) != null) {
+                finish(entry, GattException.STATUS_CANCELLED);
+            }
+        }
+        completeFinished();
+    }
+
+    /**
+     * @return number of operations waiting, including the one in flight
+     */
+    public synchronized int size() {
+        return pending.size() + (inFlight != null ? 1 : 0);
+    }
+
+    private CompletableFuture<Integer> enqueue(Entry entry) {
+        synchronized (this) {
+            if (closed) {
+                finish(entry, GattException.STATUS_CANCELLED);
+            } else {
+                pending.add(entry);
+                startNext();
+            }
+        }
+        completeFinished();
+        return entry.future;
+    }
+
+    private void startNext() {
+        while (inFlight == null && !pending.isEmpty()) {
+            start(pending.poll());
+        }
+    }
+
+    private void start(Entry entry) {
+        entry.attempts++;
+        boolean started;
+        try {
+            started = entry.operation.start(client);
+        } catch (RuntimeException e) {
+            started = false;
+        }
+        if (!started) {
+            // The stack is usually busy finishing something else, give it a moment before the next attempt.
+            // The entry stays in flight meanwhile so that later operations do not overtake it.
+            if (entry.attempts <= maxRetries) {
+                inFlight = entry;
+                entry.timeout = timer.schedule(() -> retryAfterRefusal(entry), retryDelayMillis(), TimeUnit.MILLISECONDS);
+            } else {
+                finish(entry, GattException.STATUS_NOT_STARTED);
+            }
+            return;
+        }
+        if (entry.callback == null) {
+            finish(entry, GattClient.GATT_SUCCESS);
+            return;
+        }
+        inFlight = entry;
+        entry.timeout = timer.schedule(() -> onTimeout(entry), timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private long retryDelayMillis() {
+        return Math.max(1, timeoutMillis / 10);
+    }
+
+    private void retryAfterRefusal(Entry entry) {
+        synchronized (this) {
+            if (inFlight != entry) {
+                return;
+            }
+            inFlight = null;
+            start(entry);
+            startNext();
+        }
+        completeFinished();
+    }
+
+    private void onTimeout(Entry entry) {
+        synchronized (this) {
+            if (inFlight != entry) {
+                return;
+            }
+            inFlight = null;
+            if (!retry(entry)) {
+                finish(entry, GattException.STATUS_TIMEOUT);
+            }
+            startNext();
+        }
+        completeFinished();
+    }
+
+    private boolean retry(Entry entry) {
+        if (entry.attempts > maxRetries) {
+            return false;
+        }
+        start(entry);
+        return true;
+    }
+
+    /**
+     * Records the outcome of an entry, its future is completed by {@link #completeFinished()} once the lock is released
+     */
+    private void finish(Entry entry, int status) {
+        entry.status = status;
+        finished.add(entry);
+    }
+
+    private void completeFinished() {
+        Entry[] done;
+        synchronized (this) {
+            if (finished.isEmpty()) {
+                return;
+            }
+            done = finished.toArray(new Entry[0]);
+            finished.clear();
+        }
+        for (Entry entry : done) {
+            if (entry.status == GattClient.GATT_SUCCESS) {
+                entry.future.complete(entry.status);
+            } else {
+                entry.future.completeExceptionally(new GattException(entry.label, entry.status));
+            }
+        }
+    }
+
+    private static void cancelTimeout(Entry entry) {
+        if (entry.timeout != null) {
+            entry.timeout.cancel(false);
+            entry.timeout = null;
+        }
+    }
+
+    private static final class Entry {
+        final String label;
+        final GattOperation operation;
+        // null for an operation without callback
+        final Callback callback;
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        int attempts;
+        int status;
+        ScheduledFuture<?> timeout;
+
+        Entry(String label, GattOperation operation, Callback callback) {
+            this.label = label;
+            this.operation = operation;
+            this.callback = callback;
+        }
+    }
+}
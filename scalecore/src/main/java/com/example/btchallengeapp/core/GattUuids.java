@@ -0,0 +1,28 @@
+package com.example.btchallengeapp.core;
+
+import java.util.UUID;
+
+/**
+ * GATT service, characteristic and descriptor UUIDs used by the scales.
+ */
+public final class GattUuids {
+
+    public static final UUID SERVICE_BODY_COMPOSITION = UUID.fromString("0000181b-0000-1000-8000-00805f9b34fb");
+    public static final UUID BODY_COMPOSITION_MEASUREMENT = UUID.fromString("00002a9c-0000-1000-8000-00805f9b34fb");
+    /**
+     * Vendor characteristic of the Mi Body Composition Scale, in the body composition service, which hands out the
+     * readings taken while no phone was connected, see {@link HistorySync}
+     */
+    public static final UUID BODY_COMPOSITION_HISTORY = UUID.fromString("00002a2f-0000-3512-2118-0009af100700");
+    public static final UUID SERVICE_WEIGHT_SCALE = UUID.fromString("0000181d-0000-1000-8000-00805f9b34fb");
+    public static final UUID WEIGHT_MEASUREMENT = UUID.fromString("00002a9d-0000-1000-8000-00805f9b34fb");
+    /**
+     * Vendor service of the first generation Mi Scale, next to its weight scale service, which tells it apart from
+     * standard weight scales
+     */
+    public static final UUID SERVICE_MI_SCALE = UUID.fromString("00001530-0000-3512-2118-0009af100700");
+    public static final UUID CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private GattUuids() {
+    }
+}
@@ -0,0 +1,434 @@
+package com.example.btchallengeapp.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads the readings a Mi Body Composition Scale stored while no phone was connected.
+ *
+ * Once a session streams live measurements, {@link ScaleSession} starts a {@link Transfer} over the history
+ * characteristic of the scale, see {@link GattUuids#BODY_COMPOSITION_HISTORY}. The bulk phase asks for a larger MTU and
+ * high connection priority, so that the scale packs several records into one notification and sends notifications in
+ * short connection intervals, then subscribes and writes the user and start commands. All of these requests are queued
+ * at once and go out back to back from the GATT callbacks, with no thread hop in between. The scale then notifies its
+ * records, 13 byte frames in the format of the live measurement characteristic, and ends with a single 0x03 byte.
+ *
+ * The records are copied into a preallocated buffer on the callback thread and handed over once the end marker
+ * arrived, or in chunks whenever the buffer fills up on a longer history. On the delivery executor, records already in
+ * the measurement log are dropped, the rest go through the {@link MeasurementPipeline} like live frames, waiting for
+ * space instead of being dropped when its ring is full. Once every chunk is delivered the transfer is acknowledged,
+ * which lets the scale delete the records, and the connection dropped to low power priority for the live stream.
+ * A scale which does not reach its end marker within the transfer timeout is told to stop, and the transfer fails
+ * without acknowledgement, so that the connection does not stay at high priority.
+ *
+ * The user id identifies the phone to the scale, which keeps a history per id.
+ */
+public final class HistorySync {
+
+    private static final byte COMMAND_USER = 0x01;
+    private static final byte COMMAND_START = 0x02;
+    private static final byte COMMAND_STOP = 0x03;
+    private static final byte COMMAND_ACKNOWLEDGE = 0x04;
+    private static final byte END_OF_HISTORY = 0x03;
+    private static final int RECORD_LENGTH = BodyCompositionDecoder.FRAME_LENGTH;
+
+    private final int userId;
+    private final MeasurementPipeline pipeline;
+    private final MeasurementLogWriter log;
+    private final Executor executor;
+    private final int chunkRecords;
+    private final FrameDecoderRegistry.Protocol protocol =
+            FrameDecoderRegistry.createDefault().getProtocol(FrameDecoderRegistry.PROTOCOL_BODY_COMPOSITION);
+
+    private volatile int utcOffsetSeconds;
+    private volatile int mtu = 247;
+    private volatile boolean highPriority = true;
+    private volatile long transferTimeoutMillis = 60_000;
+
+    private final AtomicLong completedTransfers = new AtomicLong();
+    private final AtomicLong failedTransfers = new AtomicLong();
+    private final AtomicLong receivedRecords = new AtomicLong();
+    private final AtomicLong duplicateRecords = new AtomicLong();
+    private final AtomicLong chunkedTransfers = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicLong transferNanos = new AtomicLong();
+
+    /**
+     * @param userId     16 bit id the phone uses towards the scale
+     * @param pipeline   decodes and stores the downloaded records
+     * @param log        log the pipeline appends to, checked for records already stored, or null to keep all records
+     * @param executor   delivers the records, may block on the pipeline
+     * @param chunkRecords records buffered before they are delivered, a longer history is delivered in several chunks
+     */
+    public HistorySync(int userId, MeasurementPipeline pipeline, MeasurementLogWriter log, Executor executor,
+                       int chunkRecords) {
+        this.userId = userId & 0xFFFF;
+        this.pipeline = pipeline;
+        this.log = log;
+        this.executor = executor;
+        this.chunkRecords = chunkRecords;
+    }
+
+    /**
+     * @param utcOffsetSeconds offset of the scale clock from UTC, the one the pipeline uses
+     */
+    public void setUtcOffsetSeconds(int utcOffsetSeconds) {
+        this.utcOffsetSeconds = utcOffsetSeconds;
+    }
+
+    /**
+     * Link parameters of the bulk phase
+     *
+     * @param mtu          MTU asked for, {@link GattClient#DEFAULT_MTU} to keep the default
+     * @param highPriority true to ask for high connection priority during the transfer
+     */
+    public void setBulkParameters(int mtu, boolean highPriority) {
+        this.mtu = mtu;
+        this.highPriority = highPriority;
+    }
+
+    /**
+     * @param millis time from the start of a transfer to the end marker after which the transfer fails
+     */
+    public void setTransferTimeout(long millis) {
+        this.transferTimeoutMillis = millis;
+    }
+
+    Transfer begin(long device, GattOperationQueue queue, ScheduledExecutorService timer) {
+        return new Transfer(device, queue, timer);
+    }
+
+    private byte[] userCommand(byte command) {
+        return new byte[]{command, (byte) 0xFF, (byte) 0xFF, (byte) (userId >> 8), (byte) userId};
+    }
+
+    /**
+     * @return number of transfers delivered and acknowledged
+     */
+    public long getCompletedTransfers() {
+        return completedTransfers.get();
+    }
+
+    /**
+     * @return number of transfers which failed or were cut off by a disconnection
+     */
+    public long getFailedTransfers() {
+        return failedTransfers.get();
+    }
+
+    public long getReceivedRecords() {
+        return receivedRecords.get();
+    }
+
+    /**
+     * @return number of received records which were already in the log
+     */
+    public long getDuplicateRecords() {
+        return duplicateRecords.get();
+    }
+
+    /**
+     * @return number of transfers longer than one chunk
+     */
+    public long getChunkedTransfers() {
+        return chunkedTransfers.get();
+    }
+
+    /**
+     * @return bytes received on the history characteristic, end markers included
+     */
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    /**
+     * @return time from the first request of the bulk phase to the end marker, summed over the transfers which got
+     * there
+     */
+    public long getTransferNanos() {
+        return transferNanos.get();
+    }
+
+    /**
+     * One download from one scale, driven by the callbacks of its session
+     */
+    final class Transfer {
+
+        private final long device;
+        private final GattOperationQueue queue;
+        private final ScheduledExecutorService timer;
+        private byte[] records = new byte[chunkRecords * RECORD_LENGTH];
+        private int recordCount;
+        // completes once every chunk handed over so far is delivered
+        private CompletableFuture<Void> delivered = CompletableFuture.completedFuture(null);
+        private boolean chunked;
+        private boolean bulkPriority;
+        private long startNanos;
+        private boolean receiving;
+        private boolean finished;
+        private ScheduledFuture<?> timeout;
+
+        Transfer(long device, GattOperationQueue queue, ScheduledExecutorService timer) {
+            this.device = device;
+            this.queue = queue;
+            this.timer = timer;
+        }
+
+        /**
+         * Queues the requests of the bulk phase
+         */
+        void start() {
+            int bulkMtu = mtu;
+            synchronized (this) {
+                startNanos = System.nanoTime();
+                receiving = true;
+                bulkPriority = highPriority;
+                timeout = timer.schedule(this::onTimeout, transferTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            if (bulkMtu > GattClient.DEFAULT_MTU) {
+                // a scale refusing a larger MTU still sends its history, in more notifications
+                queue.submit("requestMtu", GattOperationQueue.Callback.MTU_CHANGED, c -> c.requestMtu(bulkMtu));
+            }
+            if (bulkPriority) {
+                queue.submitWithoutCallback("highPriority",
+                        c -> c.requestConnectionPriority(GattClient.CONNECTION_PRIORITY_HIGH));
+            }
+            expect(queue.submit("enableHistory", GattOperationQueue.Callback.DESCRIPTOR_WRITE,
+                    c -> c.enableNotification(GattUuids.SERVICE_BODY_COMPOSITION, GattUuids.BODY_COMPOSITION_HISTORY)));
+            expect(write("historyUser", userCommand(COMMAND_USER)));
+            expect(write("historyStart", new byte[]{COMMAND_START}));
+        }
+
+        private CompletableFuture<Integer> write(String label, byte[] command) {
+            return queue.submit(label, GattOperationQueue.Callback.CHARACTERISTIC_WRITE,
+                    c -> c.writeCharacteristic(GattUuids.SERVICE_BODY_COMPOSITION, GattUuids.BODY_COMPOSITION_HISTORY,
+                            command, true));
+        }
+
+        private void expect(CompletableFuture<Integer> request) {
+            request.whenComplete((status, error) -> {
+                if (error != null) {
+                    fail();
+                }
+            });
+        }
+
+        /**
+         * Stops a scale still sending its history when the transfer timeout expires
+         */
+        private void onTimeout() {
+            synchronized (this) {
+                if (!receiving) {
+                    return;
+                }
+            }
+            write("historyStop", new byte[]{COMMAND_STOP});
+            fail();
+        }
+
+        /**
+         * Ends the transfer without acknowledging it, the scale keeps the records for the next connection
+         */
+        void fail() {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                receiving = false;
+                cancelTimeout();
+            }
+            failedTransfers.incrementAndGet();
+            lowPower();
+        }
+
+        /**
+         * Takes a notification of the history characteristic, on the callback thread
+         */
+        void onNotification(byte[] value) {
+            receivedBytes.addAndGet(value.length);
+            long elapsed;
+            CompletableFuture<Void> all;
+            synchronized (this) {
+                if (!receiving) {
+                    return;
+                }
+                if (value.length != 1 || value[0] != END_OF_HISTORY) {
+                    for (int offset = 0; offset + RECORD_LENGTH <= value.length; offset += RECORD_LENGTH) {
+                        if (recordCount == chunkRecords) {
+                            handOver();
+                        }
+                        System.arraycopy(value, offset, records, recordCount++ * RECORD_LENGTH, RECORD_LENGTH);
+                    }
+                    return;
+                }
+                receiving = false;
+                cancelTimeout();
+                elapsed = System.nanoTime() - startNanos;
+                handOver();
+                all = delivered;
+            }
+            transferNanos.addAndGet(elapsed);
+            all.whenComplete((done, error) -> {
+                if (error != null) {
+                    fail();
+                } else {
+                    acknowledge();
+                }
+            });
+        }
+
+        /**
+         * Called with the lock held
+         */
+        private void cancelTimeout() {
+            if (timeout != null) {
+                timeout.cancel(false);
+                timeout = null;
+            }
+        }
+
+        /**
+         * Queues the buffered records for delivery behind the chunks before them, and starts a new buffer. Called with
+         * the lock held.
+         */
+        private void handOver() {
+            byte[] chunk = records;
+            int count = recordCount;
+            if (receiving) {
+                // a longer history is rare, the buffer of a chunk in delivery is not reused
+                records = new byte[chunkRecords * RECORD_LENGTH];
+                if (!chunked) {
+                    chunked = true;
+                    chunkedTransfers.incrementAndGet();
+                }
+            }
+            recordCount = 0;
+            delivered = delivered.thenRunAsync(() -> deliver(chunk, count), executor);
+        }
+
+        private void deliver(byte[] chunk, int count) {
+            boolean[] stored = findStored(chunk, count);
+            try {
+                for (int i = 0; i < count; i++) {
+                    if (stored[i]) {
+                        duplicateRecords.incrementAndGet();
+                    } else {
+                        pipeline.put(device, FrameDecoderRegistry.PROTOCOL_BODY_COMPOSITION, chunk, i * RECORD_LENGTH,
+                                RECORD_LENGTH);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+            receivedRecords.addAndGet(count);
+        }
+
+        /**
+         * Stops the history and acknowledges it once every record is delivered, which deletes the records on the scale
+         */
+        private void acknowledge() {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+            }
+            write("historyStop", new byte[]{COMMAND_STOP});
+            write("historyAcknowledge", userCommand(COMMAND_ACKNOWLEDGE)).whenComplete((status, error) -> {
+                synchronized (this) {
+                    if (finished) {
+                        return;
+                    }
+                    finished = true;
+                }
+                if (error != null) {
+                    failedTransfers.incrementAndGet();
+                } else {
+                    completedTransfers.incrementAndGet();
+                }
+                lowPower();
+            });
+        }
+
+        /**
+         * @return for each record of the chunk, true if the log already holds a reading of the scale with its time and
+         * weight
+         */
+        private boolean[] findStored(byte[] chunk, int count) {
+            boolean[] stored = new boolean[count];
+            if (log == null || count == 0) {
+                return stored;
+            }
+            BodyCompositionMeasurement measurement = new BodyCompositionMeasurement();
+            int offset = utcOffsetSeconds;
+            long[] keys = new long[count];
+            long from = Long.MAX_VALUE;
+            long to = Long.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                // incomplete records are left to the pipeline, which counts and drops them
+                if (protocol.decode(chunk, i * RECORD_LENGTH, RECORD_LENGTH, measurement) && measurement.isComplete()) {
+                    long epochSeconds = measurement.getEpochSeconds(offset);
+                    keys[i] = key(epochSeconds, measurement.getWeightGrams());
+                    from = Math.min(from, epochSeconds);
+                    to = Math.max(to, epochSeconds);
+                } else {
+                    keys[i] = Long.MIN_VALUE;
+                }
+            }
+            if (from > to) {
+                return stored;
+            }
+            try {
+                log.flush();
+                MeasurementLogView view = MeasurementLogView.open(log.getFile());
+                KeyCollector logged = new KeyCollector();
+                // the range of the query ends before its upper bound
+                view.query(from, to + 1, device, logged);
+                long[] sorted = Arrays.copyOf(logged.keys, logged.size);
+                Arrays.sort(sorted);
+                for (int i = 0; i < count; i++) {
+                    stored[i] = keys[i] != Long.MIN_VALUE && Arrays.binarySearch(sorted, keys[i]) >= 0;
+                }
+            } catch (IOException e) {
+                // without the log nothing is known to be stored, the pipeline still drops direct repeats
+            }
+            return stored;
+        }
+
+        private void lowPower() {
+            boolean raised;
+            synchronized (this) {
+                raised = bulkPriority;
+            }
+            if (raised) {
+                queue.submitWithoutCallback("lowPower",
+                        c -> c.requestConnectionPriority(GattClient.CONNECTION_PRIORITY_LOW_POWER));
+            }
+        }
+    }
+
+    private static long key(long epochSeconds, int weightGrams) {
+        return (epochSeconds << 20) ^ weightGrams;
+    }
+
+    private static final class KeyCollector implements MeasurementLogView.RecordVisitor {
+        long[] keys = new long[64];
+        int size;
+
+        @Override
+        public void visit(MeasurementLogView view, int index) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            keys[size++] = key(view.epochSeconds(index), view.weightGrams(index));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.btchallengeapp.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Posts payloads to an HTTP endpoint with HttpURLConnection. The batch id is sent as the Idempotency-Key header and the
+ * payload with Content-Encoding deflate. Response bodies are read to the end so that the connection is kept alive for
+ * the next batch.
+ */
+public final class HttpSyncTransport implements SyncTransport {
+
+    public static final String CONTENT_TYPE = "application/x-scale-measurements";
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    public static final String RECORD_COUNT = "X-Record-Count";
+
+    private final URL endpoint;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    public HttpSyncTransport(URL endpoint, int connectTimeoutMillis, int readTimeoutMillis) {
+        this.endpoint = endpoint;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public int post(String batchId, byte[] payload, int recordCount) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(payload.length);
+        connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+        connection.setRequestProperty("Content-Encoding", "deflate");
+        connection.setRequestProperty(IDEMPOTENCY_KEY, batchId);
+        connection.setRequestProperty(RECORD_COUNT, Integer.toString(recordCount));
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(payload);
+        }
+        int status = connection.getResponseCode();
+        InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (body != null) {
+            try (InputStream in = body) {
+                byte[] skip = new byte[512];
+                while (in.read(skip) >= 0) {
+                    // drained so the connection can be reused
+                }
+            }
+        }
+        return status;
+    }
+}
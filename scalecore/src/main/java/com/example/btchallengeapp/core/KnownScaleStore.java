@@ -0,0 +1,216 @@
+package com.example.btchallengeapp.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Scales that were connected before, keyed by packed MAC address, and what was learned about their GATT layout.
+ *
+ * A scale whose measurement service and characteristic were found on its last connection is marked validated, together
+ * with the id of its protocol in the {@link FrameDecoderRegistry}. {@link ScaleConnectionManager} reconnects such a
+ * scale directly instead of waiting for a background connection, and enables indications on the characteristic of that
+ * protocol right behind service discovery without checking the layout again. If that fails the mark is cleared and the
+ * next connection takes the slow path.
+ *
+ * The store holds a bounded number of scales in primitive arrays, the least recently connected one is replaced when
+ * it is full. It lives in memory and is written with {@link #save()}, the file is small enough to be replaced whole.
+ * The store is thread safe.
+ */
+public final class KnownScaleStore {
+
+    /**
+     * The measurement service and characteristic were found on the last connection
+     */
+    public static final int FLAG_SERVICES_VALIDATED = 1;
+
+    // the protocol id is kept in the second byte of the flags, files written before it existed hold protocol 0
+    private static final int PROTOCOL_SHIFT = 8;
+    private static final int PROTOCOL_MASK = 0xFF << PROTOCOL_SHIFT;
+
+    private static final int MAGIC = 0x4B4E5343; // "KNSC"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    // long device, long last connected millis, int flags, int connection count
+    private static final int RECORD_SIZE = 24;
+
+    private final File file;
+    private final long[] devices;
+    private final long[] lastConnectedMillis;
+    private final int[] flags;
+    private final int[] connectionCounts;
+    private int size;
+    private boolean dirty;
+
+    /**
+     * @param capacity maximum number of scales remembered
+     */
+    public KnownScaleStore(File file, int capacity) {
+        this.file = file;
+        devices = new long[capacity];
+        lastConnectedMillis = new long[capacity];
+        flags = new int[capacity];
+        connectionCounts = new int[capacity];
+    }
+
+    /**
+     * Reads the scales saved in the file. A missing or unreadable file leaves the store empty.
+     *
+     * @return true if the file was read
+     */
+    public synchronized boolean load() {
+        size = 0;
+        if (!file.exists()) {
+            return false;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] bytes = new byte[(int) Math.min(in.length(), HEADER_SIZE + (long) devices.length * RECORD_SIZE)];
+            in.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            if (bytes.length < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+                return false;
+            }
+            int count = Math.min(buffer.getInt(8), (bytes.length - HEADER_SIZE) / RECORD_SIZE);
+            for (int i = 0; i < count; i++) {
+                int offset = HEADER_SIZE + i * RECORD_SIZE;
+                devices[i] = buffer.getLong(offset);
+                lastConnectedMillis[i] = buffer.getLong(offset + 8);
+                flags[i] = buffer.getInt(offset + 16);
+                connectionCounts[i] = buffer.getInt(offset + 20);
+            }
+            size = count;
+            dirty = false;
+            return true;
+        } catch (IOException e) {
+            size = 0;
+            return false;
+        }
+    }
+
+    /**
+     * Writes the store if it changed since it was loaded or last saved. The file is replaced atomically, so a crash
+     * leaves either the old or the new content.
+     */
+    public void save() throws IOException {
+        byte[] bytes;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + size * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE).putInt(size);
+            for (int i = 0; i < size; i++) {
+                buffer.putLong(devices[i]).putLong(lastConnectedMillis[i]).putInt(flags[i]).putInt(connectionCounts[i]);
+            }
+            bytes = buffer.array();
+            dirty = false;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(bytes);
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            synchronized (this) {
+                dirty = true;
+            }
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isKnown(long device) {
+        return indexOf(device) >= 0;
+    }
+
+    /**
+     * @return true if the scale can take the fast reconnect path
+     */
+    public synchronized boolean hasValidatedServices(long device) {
+        int index = indexOf(device);
+        return index >= 0 && (flags[index] & FLAG_SERVICES_VALIDATED) != 0;
+    }
+
+    /**
+     * @return id of the protocol subscribed on the last connection, or -1 if the scale can not take the fast path
+     */
+    public synchronized int getProtocol(long device) {
+        int index = indexOf(device);
+        if (index < 0 || (flags[index] & FLAG_SERVICES_VALIDATED) == 0) {
+            return -1;
+        }
+        return (flags[index] & PROTOCOL_MASK) >>> PROTOCOL_SHIFT;
+    }
+
+    /**
+     * @return number of successful connections to the scale, 0 if it is not known
+     */
+    public synchronized int getConnectionCount(long device) {
+        int index = indexOf(device);
+        return index >= 0 ? connectionCounts[index] : 0;
+    }
+
+    /**
+     * @return wall clock time of the last successful connection, or 0 if the scale is not known
+     */
+    public synchronized long getLastConnectedMillis(long device) {
+        int index = indexOf(device);
+        return index >= 0 ? lastConnectedMillis[index] : 0;
+    }
+
+    /**
+     * Remembers that the scale was connected and its measurement characteristic subscribed
+     *
+     * @param protocol id of the protocol that was subscribed, 0 to 255
+     */
+    public synchronized void recordConnected(long device, long timeMillis, int protocol) {
+        int index = indexOf(device);
+        if (index < 0) {
+            index = size < devices.length ? size++ : leastRecentlyConnected();
+            devices[index] = device;
+            connectionCounts[index] = 0;
+        }
+        lastConnectedMillis[index] = timeMillis;
+        flags[index] = (flags[index] & ~PROTOCOL_MASK) | FLAG_SERVICES_VALIDATED
+                | ((protocol << PROTOCOL_SHIFT) & PROTOCOL_MASK);
+        connectionCounts[index]++;
+        dirty = true;
+    }
+
+    /**
+     * Forgets the GATT layout of the scale after it did not match, the next connection validates it again
+     */
+    public synchronized void invalidate(long device) {
+        int index = indexOf(device);
+        if (index >= 0 && (flags[index] & FLAG_SERVICES_VALIDATED) != 0) {
+            flags[index] &= ~FLAG_SERVICES_VALIDATED;
+            dirty = true;
+        }
+    }
+
+    // a handful of scales per phone, a scan beats hashing
+    private int indexOf(long device) {
+        for (int i = 0; i < size; i++) {
+            if (devices[i] == device) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int leastRecentlyConnected() {
+        int oldest = 0;
+        for (int i = 1; i < size; i++) {
+            if (lastConnectedMillis[i] < lastConnectedMillis[oldest]) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.btchallengeapp.core;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Collects connection lifecycle durations, one {@link LogHistogram} per {@link ConnectionPhase}. Durations are measured
+ * by the callers with a monotonic clock. Recording does not allocate and is safe from any thread.
+ */
+public final class LatencyTracker {
+
+    private final LogHistogram[] histograms = new LogHistogram[ConnectionPhase.values().length];
+
+    public LatencyTracker() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LogHistogram();
+        }
+    }
+
+    /**
+     * @param durationNanos duration of the phase, negative values are recorded as 0
+     */
+    public void record(ConnectionPhase phase, long durationNanos) {
+        histograms[phase.ordinal()].record(durationNanos);
+    }
+
+    public LogHistogram getHistogram(ConnectionPhase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    public void reset() {
+        for (LogHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Writes one line per phase with the sample count and the p50, p95, p99 and max durations in milliseconds
+     */
+    public void writeReport(Appendable out) throws IOException {
+        out.append(String.format(Locale.US, "%-32s %7s %9s %9s %9s %9s%n", "phase", "count", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+        for (ConnectionPhase phase : ConnectionPhase.values()) {
+            LogHistogram histogram = getHistogram(phase);
+            out.append(String.format(Locale.US, "%-32s %7d %9.1f %9.1f %9.1f %9.1f%n", phase.name(), histogram.getCount(),
+                    histogram.getPercentile(50) / 1e6, histogram.getPercentile(95) / 1e6,
+                    histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6));
+        }
+    }
+
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        try {
+            writeReport(builder);
+        } catch (IOException e) {
+            // a StringBuilder does not throw
+        }
+        return builder.toString();
+    }
+}
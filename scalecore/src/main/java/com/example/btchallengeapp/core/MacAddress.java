@@ -0,0 +1,43 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Conversions between the textual MAC address form "C8:47:8C:01:02:03" and a 48 bit value packed in a long,
+ * which is what the binary formats store.
+ */
+public final class MacAddress {
+
+    private MacAddress() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the address is not six colon separated hex bytes
+     */
+    public static long pack(String address) {
+        if (address == null || address.length() != 17) {
+            throw new IllegalArgumentException("Invalid MAC address: " + address);
+        }
+        long value = 0;
+        for (int i = 0; i < 6; i++) {
+            int high = Character.digit(address.charAt(i * 3), 16);
+            int low = Character.digit(address.charAt(i * 3 + 1), 16);
+            if (high < 0 || low < 0 || (i < 5 && address.charAt(i * 3 + 2) != ':')) {
+                throw new IllegalArgumentException("Invalid MAC address: " + address);
+            }
+            value = (value << 8) | (high << 4) | low;
+        }
+        return value;
+    }
+
+    public static String format(long value) {
+        char[] chars = new char[17];
+        for (int i = 0; i < 6; i++) {
+            int octet = (int) (value >>> (40 - i * 8)) & 0xFF;
+            chars[i * 3] = Character.toUpperCase(Character.forDigit(octet >> 4, 16));
+            chars[i * 3 + 1] = Character.toUpperCase(Character.forDigit(octet & 0xF, 16));
+            if (i < 5) {
+                chars[i * 3 + 2] = ':';
+            }
+        }
+        return new String(chars);
+    }
+}
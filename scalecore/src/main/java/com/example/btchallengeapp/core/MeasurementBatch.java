@@ -0,0 +1,113 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Fixed capacity set of measurements, stored in primitive arrays, handed from the pipeline to the UI in one piece.
+ * When more measurements arrive than fit, the oldest ones are overwritten and counted as overflow.
+ */
+public final class MeasurementBatch {
+
+    private final int capacity;
+    private final long[] devices;
+    private final long[] users;
+    private final long[] epochSeconds;
+    private final int[] weightGrams;
+    private final int[] impedances;
+    private final int[] flags;
+    private int start;
+    private int size;
+    private int overflow;
+
+    public MeasurementBatch(int capacity) {
+        this.capacity = capacity;
+        devices = new long[capacity];
+        users = new long[capacity];
+        epochSeconds = new long[capacity];
+        weightGrams = new int[capacity];
+        impedances = new int[capacity];
+        flags = new int[capacity];
+    }
+
+    /**
+     * @param user who took the measurement, see {@link #user}
+     */
+    public void add(long device, long user, long epochSeconds, int weightGrams, int impedance, int flags) {
+        int slot;
+        if (size == capacity) {
+            slot = start;
+            start = (start + 1) % capacity;
+            overflow++;
+        } else {
+            slot = (start + size) % capacity;
+            size++;
+        }
+        this.devices[slot] = device;
+        this.users[slot] = user;
+        this.epochSeconds[slot] = epochSeconds;
+        this.weightGrams[slot] = weightGrams;
+        this.impedances[slot] = impedance;
+        this.flags[slot] = flags;
+    }
+
+    /**
+     * Moves all measurements into the target batch, oldest first, leaving this batch empty
+     */
+    public void moveTo(MeasurementBatch target) {
+        for (int i = 0; i < size; i++) {
+            int slot = (start + i) % capacity;
+            target.add(devices[slot], users[slot], epochSeconds[slot], weightGrams[slot], impedances[slot], flags[slot]);
+        }
+        target.overflow += overflow;
+        clear();
+    }
+
+    public void clear() {
+        start = 0;
+        size = 0;
+        overflow = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of measurements which were overwritten before the batch was consumed
+     */
+    public int overflow() {
+        return overflow;
+    }
+
+    public long device(int index) {
+        return devices[slot(index)];
+    }
+
+    /**
+     * @return the user the measurement was attributed to, or the device when it could not be attributed
+     */
+    public long user(int index) {
+        return users[slot(index)];
+    }
+
+    public long epochSeconds(int index) {
+        return epochSeconds[slot(index)];
+    }
+
+    public int weightGrams(int index) {
+        return weightGrams[slot(index)];
+    }
+
+    public int impedance(int index) {
+        return impedances[slot(index)];
+    }
+
+    public int flags(int index) {
+        return flags[slot(index)];
+    }
+
+    private int slot(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Measurement " + index + " of " + size);
+        }
+        return (start + index) % capacity;
+    }
+}
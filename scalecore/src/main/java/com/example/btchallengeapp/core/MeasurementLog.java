@@ -0,0 +1,48 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Binary layout of the measurement log file shared by {@link MeasurementLogWriter} and {@link MeasurementLogView}.
+ *
+ * The file starts with a 16 byte header followed by fixed width 24 byte records, all little endian:
+ * <pre>
+ * header : int magic, short version, short record size, int flags, int max lag seconds
+ * record : long epoch seconds, long device MAC (48 bit), int weight in grams, u16 impedance, u16 measurement flags
+ * </pre>
+ * Because every record has the same width, record i starts at HEADER_SIZE + i * RECORD_SIZE and can be read in place
+ * without parsing the records before it.
+ *
+ * The max lag is how far the oldest record lies behind the newest one appended before it, 0 while the log is time
+ * ordered. Readings downloaded from the history of a scale are appended after newer live ones, and with the lag known
+ * a time range query still binary searches, over a range widened by the lag, instead of scanning the whole log.
+ */
+public final class MeasurementLog {
+
+    public static final int MAGIC = 0x474F4C4D; // "MLOG"
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 24;
+
+    /**
+     * Header flag, set while every record was appended in non decreasing time order.
+     * Time range queries can then use a binary search instead of a scan.
+     */
+    public static final int HEADER_FLAG_TIME_ORDERED = 1;
+
+    /**
+     * Header flag, set while the max lag field holds the lag of every record. Logs written before the field was
+     * maintained leave it 0 without the flag.
+     */
+    public static final int HEADER_FLAG_LAG_BOUNDED = 2;
+
+    static final int HEADER_FLAGS_OFFSET = 8;
+    static final int HEADER_MAX_LAG_OFFSET = 12;
+
+    static final int EPOCH_SECONDS_OFFSET = 0;
+    static final int DEVICE_OFFSET = 8;
+    static final int WEIGHT_OFFSET = 16;
+    static final int IMPEDANCE_OFFSET = 20;
+    static final int FLAGS_OFFSET = 22;
+
+    private MeasurementLog() {
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.btchallengeapp.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only, memory mapped view of a {@link MeasurementLog} file. Records are addressed by index and their fields read
+ * straight from the mapping, so opening a log of any size costs no parsing and no objects per record.
+ *
+ * The view is a snapshot of the records on disk when it was opened; open a new one to see later appends.
+ */
+public final class MeasurementLogView {
+
+    /**
+     * Receives the indexes of the records matching a query
+     */
+    public interface RecordVisitor {
+        void visit(MeasurementLogView view, int index);
+    }
+
+    /**
+     * Device value matching records of any device
+     */
+    public static final long ANY_DEVICE = -1;
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private final boolean timeOrdered;
+    // -1 if not known
+    private final long maxLagSeconds;
+
+    private MeasurementLogView(MappedByteBuffer buffer, int size, boolean timeOrdered, long maxLagSeconds) {
+        this.buffer = buffer;
+        this.size = size;
+        this.timeOrdered = timeOrdered;
+        this.maxLagSeconds = maxLagSeconds;
+    }
+
+    /**
+     * Maps the records currently stored in the log. A log which does not exist yet gives an empty view.
+     *
+     * @throws IOException if the file can not be read or is not a measurement log
+     */
+    public static MeasurementLogView open(File file) throws IOException {
+        if (!file.exists()) {
+            return new MeasurementLogView(null, 0, true, 0);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            long length = channel.size();
+            if (length < MeasurementLog.HEADER_SIZE) {
+                return new MeasurementLogView(null, 0, true, 0);
+            }
+            int size = (int) Math.min(Integer.MAX_VALUE / MeasurementLog.RECORD_SIZE - 1,
+                    (length - MeasurementLog.HEADER_SIZE) / MeasurementLog.RECORD_SIZE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    MeasurementLog.HEADER_SIZE + (long) size * MeasurementLog.RECORD_SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MeasurementLog.MAGIC || buffer.getShort(6) != MeasurementLog.RECORD_SIZE) {
+                throw new IOException("Not a measurement log: " + file);
+            }
+            int flags = buffer.getInt(MeasurementLog.HEADER_FLAGS_OFFSET);
+            boolean timeOrdered = (flags & MeasurementLog.HEADER_FLAG_TIME_ORDERED) != 0;
+            long maxLagSeconds = timeOrdered ? 0
+                    : (flags & MeasurementLog.HEADER_FLAG_LAG_BOUNDED) != 0
+                    ? buffer.getInt(MeasurementLog.HEADER_MAX_LAG_OFFSET) : -1;
+            return new MeasurementLogView(buffer, size, timeOrdered, maxLagSeconds);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isTimeOrdered() {
+        return timeOrdered;
+    }
+
+    /**
+     * @return how far any record lies behind the newest record before it, 0 for a time ordered log, -1 if not known
+     */
+    public long getMaxLagSeconds() {
+        return maxLagSeconds;
+    }
+
+    public long epochSeconds(int index) {
+        return buffer.getLong(offset(index) + MeasurementLog.EPOCH_SECONDS_OFFSET);
+    }
+
+    /**
+     * @return packed MAC address of the scale, see {@link MacAddress}
+     */
+    public long device(int index) {
+        return buffer.getLong(offset(index) + MeasurementLog.DEVICE_OFFSET);
+    }
+
+    public int weightGrams(int index) {
+        return buffer.getInt(offset(index) + MeasurementLog.WEIGHT_OFFSET);
+    }
+
+    public int impedance(int index) {
+        return buffer.getShort(offset(index) + MeasurementLog.IMPEDANCE_OFFSET) & 0xFFFF;
+    }
+
+    /**
+     * @return measurement flags, see the FLAG_ constants of {@link BodyCompositionMeasurement}
+     */
+    public int flags(int index) {
+        return buffer.getShort(offset(index) + MeasurementLog.FLAGS_OFFSET) & 0xFFFF;
+    }
+
+    /**
+     * Visits, in log order, the records taken in [fromEpochSeconds, toEpochSeconds) by the given device.
+     * Only the matching time range is read, widened by the max lag of a log which is not time ordered. If that lag is
+     * not known every record is checked.
+     *
+     * @param device packed MAC address, or {@link #ANY_DEVICE}
+     * @return number of records visited
+     */
+    public int query(long fromEpochSeconds, long toEpochSeconds, long device, RecordVisitor visitor) {
+        int start = 0;
+        int end = size;
+        if (maxLagSeconds >= 0) {
+            // every record before the first index is earlier than from, every one from the second index on is at or
+            // after to, see lowerBound
+            start = lowerBound(saturatedAdd(fromEpochSeconds, -maxLagSeconds));
+            end = lowerBound(saturatedAdd(toEpochSeconds, maxLagSeconds));
+        }
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            long time = epochSeconds(i);
+            if (time >= fromEpochSeconds && time < toEpochSeconds && (device == ANY_DEVICE || device(i) == device)) {
+                visitor.visit(this, i);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return index of the first record at or after the given time in a time ordered log. With a max lag, every
+     * record before it is earlier than the time plus the lag, and every record from it on is at or after the time minus
+     * the lag
+     */
+    public int lowerBound(long epochSeconds) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (epochSeconds(mid) < epochSeconds) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static long saturatedAdd(long time, long seconds) {
+        long sum = time + seconds;
+        // overflow if both operands have the sign opposite to the sum
+        if (((time ^ sum) & (seconds ^ sum)) < 0) {
+            return seconds < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        return sum;
+    }
+
+    private int offset(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Record " + index + " of " + size);
+        }
+        return MeasurementLog.HEADER_SIZE + index * MeasurementLog.RECORD_SIZE;
+    }
+}
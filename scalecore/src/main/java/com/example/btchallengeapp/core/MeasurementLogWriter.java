@@ -0,0 +1,175 @@
+package com.example.btchallengeapp.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends measurements to a {@link MeasurementLog} file.
+ *
+ * Records are staged in a buffer and written with a single write and fsync once syncEveryRecords of them are pending,
+ * or when {@link #flush()} is called. A crash loses at most the staged records, a torn record at the end of the file
+ * is cut off the next time the log is opened.
+ *
+ * A record older than the newest one before it widens the max lag in the header, see {@link MeasurementLog}.
+ *
+ * The writer is thread safe.
+ */
+public final class MeasurementLogWriter implements Closeable {
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer staging;
+    private final ByteBuffer header = ByteBuffer.allocate(MeasurementLog.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long recordCount;
+    private long lastEpochSeconds = Long.MIN_VALUE;
+    private int headerFlags;
+    private int maxLagSeconds;
+
+    /**
+     * Opens the log, creating it if needed.
+     *
+     * @param syncEveryRecords number of records written and synced to disk together
+     * @throws IOException if the file can not be opened or is not a measurement log
+     */
+    public MeasurementLogWriter(File file, int syncEveryRecords) throws IOException {
+        this.file = file;
+        this.staging = ByteBuffer.allocateDirect(Math.max(1, syncEveryRecords) * MeasurementLog.RECORD_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            if (channel.size() < MeasurementLog.HEADER_SIZE) {
+                headerFlags = MeasurementLog.HEADER_FLAG_TIME_ORDERED | MeasurementLog.HEADER_FLAG_LAG_BOUNDED;
+                channel.truncate(0);
+                writeHeader();
+            } else {
+                readHeader();
+                recordCount = (channel.size() - MeasurementLog.HEADER_SIZE) / MeasurementLog.RECORD_SIZE;
+                channel.truncate(MeasurementLog.HEADER_SIZE + recordCount * MeasurementLog.RECORD_SIZE);
+                if (recordCount > 0) {
+                    ByteBuffer last = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                    channel.read(last, MeasurementLog.HEADER_SIZE + (recordCount - 1) * MeasurementLog.RECORD_SIZE);
+                    lastEpochSeconds = last.getLong(0);
+                }
+            }
+            channel.position(channel.size());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return number of records in the log, including the ones not yet written to disk
+     */
+    public synchronized long size() {
+        return recordCount;
+    }
+
+    /**
+     * Appends a complete measurement.
+     *
+     * @param device           packed MAC address of the scale, see {@link MacAddress#pack(String)}
+     * @param utcOffsetSeconds offset of the scale clock from UTC
+     */
+    public void append(BodyCompositionMeasurement measurement, long device, int utcOffsetSeconds) throws IOException {
+        append(measurement.getEpochSeconds(utcOffsetSeconds), device, measurement.getWeightGrams(),
+                measurement.getImpedance(), measurement.getFlags());
+    }
+
+    /**
+     * Appends one record.
+     *
+     * @param flags measurement flags, see the FLAG_ constants of {@link BodyCompositionMeasurement}
+     */
+    public synchronized void append(long epochSeconds, long device, int weightGrams, int impedance, int flags) throws IOException {
+        if (epochSeconds < lastEpochSeconds) {
+            updateLag(lastEpochSeconds - epochSeconds);
+        }
+        lastEpochSeconds = Math.max(lastEpochSeconds, epochSeconds);
+        staging.putLong(epochSeconds)
+                .putLong(device)
+                .putInt(weightGrams)
+                .putShort((short) impedance)
+                .putShort((short) flags);
+        recordCount++;
+        if (!staging.hasRemaining()) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the staged records and syncs them to disk
+     */
+    public synchronized void flush() throws IOException {
+        if (staging.position() == 0) {
+            return;
+        }
+        staging.flip();
+        while (staging.hasRemaining()) {
+            channel.write(staging);
+        }
+        staging.clear();
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Records that a record lags the newest one by the given time, in the header ahead of the record so that a view
+     * never sees a record with a larger lag than the header
+     */
+    private void updateLag(long lagSeconds) throws IOException {
+        int flags = headerFlags & ~MeasurementLog.HEADER_FLAG_TIME_ORDERED;
+        if ((headerFlags & MeasurementLog.HEADER_FLAG_TIME_ORDERED) != 0) {
+            // every record so far was in order, which a log from before the max lag field also tracked
+            flags |= MeasurementLog.HEADER_FLAG_LAG_BOUNDED;
+        }
+        if (lagSeconds > Integer.MAX_VALUE) {
+            flags &= ~MeasurementLog.HEADER_FLAG_LAG_BOUNDED;
+        }
+        if ((flags & MeasurementLog.HEADER_FLAG_LAG_BOUNDED) != 0 && lagSeconds > maxLagSeconds) {
+            maxLagSeconds = (int) lagSeconds;
+        } else if (flags == headerFlags) {
+            return;
+        }
+        headerFlags = flags;
+        writeHeader();
+    }
+
+    private void readHeader() throws IOException {
+        header.clear();
+        channel.read(header, 0);
+        if (header.getInt(0) != MeasurementLog.MAGIC || header.getShort(6) != MeasurementLog.RECORD_SIZE) {
+            throw new IOException("Not a measurement log: " + file);
+        }
+        headerFlags = header.getInt(MeasurementLog.HEADER_FLAGS_OFFSET);
+        maxLagSeconds = header.getInt(MeasurementLog.HEADER_MAX_LAG_OFFSET);
+    }
+
+    private void writeHeader() throws IOException {
+        header.clear();
+        header.putInt(MeasurementLog.MAGIC)
+                .putShort(MeasurementLog.VERSION)
+                .putShort((short) MeasurementLog.RECORD_SIZE)
+                .putInt(headerFlags)
+                .putInt(maxLagSeconds);
+        header.flip();
+        channel.write(header, 0);
+    }
+}
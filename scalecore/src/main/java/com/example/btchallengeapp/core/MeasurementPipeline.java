@@ -0,0 +1,473 @@
+package com.example.btchallengeapp.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Moves measurement processing off the bluetooth callback threads.
+ *
+ * The callback only copies the raw payload into a preallocated {@link FrameRingBuffer} through {@link #offer}. A single
+ * consumer thread then decodes each frame with the decoder table of its protocol, see {@link FrameDecoderRegistry},
+ * drops incomplete readings and repeats of the last reading of the same scale, appends the rest to the measurement log
+ * and collects them in a pending {@link MeasurementBatch}. The UI is told once that a batch is ready and takes
+ * everything gathered so far with {@link #drainTo}, so however fast frames arrive it handles at most one batch per
+ * drawn frame.
+ *
+ * With a {@link UserAttribution} set, every accepted reading is attributed to one of its profiles, which then follows
+ * the reading. Readings no profile matches confidently are counted for their scale instead. With {@link UserStatistics}
+ * set, every accepted reading also updates the statistics of its user, and with a {@link DownsampledHistory} its chart
+ * history. They are all primed from the measurement log once, on the consumer thread before the first frame, while
+ * frames wait in the ring buffer. Aggregates which outlive the pipeline share a {@link Priming} with every pipeline
+ * feeding them, so that the log is replayed into them only once.
+ *
+ * With a {@link FrameCaptureWriter} set, every raw frame is recorded before it is decoded, so that a session can be
+ * replayed later with {@link FrameReplayer}.
+ */
+public final class MeasurementPipeline implements FrameSink {
+
+    /**
+     * Told from the consumer thread that measurements are waiting to be drained.
+     * Not called again until {@link #drainTo} has been called.
+     */
+    public interface BatchListener {
+        void onBatchReady();
+    }
+
+    /**
+     * How far the measurement log has been fed into a set of aggregates. Pipelines feeding the same attribution,
+     * statistics and history one after the other share it, the next one only replays what the ones before did not.
+     */
+    public static final class Priming {
+        // log records before next are fed, the ones from end on were appended by a pipeline and fed as they arrived
+        private long next;
+        private long end = -1;
+    }
+
+    private static final long POLL_TIMEOUT_MILLIS = 500;
+
+    private final FrameRingBuffer ring;
+    private final MeasurementLogWriter log;
+    private final BatchListener listener;
+    private final MeasurementBatch pending;
+    private final BodyCompositionMeasurement measurement = new BodyCompositionMeasurement();
+    private final FrameRingBuffer.Frame frame = new FrameRingBuffer.Frame();
+
+    // last accepted reading per scale, open addressing on the device value
+    private final long[] lastDevices;
+    private final long[] lastReadings;
+
+    private volatile FrameDecoderRegistry decoders = FrameDecoderRegistry.createDefault();
+    private volatile FrameCaptureWriter capture;
+    private volatile UserStatistics statistics;
+    private volatile UserAttribution attribution;
+    private volatile DownsampledHistory history;
+    private volatile Trace trace;
+    private final UserAttribution.Result attributed = new UserAttribution.Result();
+    private volatile int utcOffsetSeconds;
+    private volatile boolean running;
+    private Thread consumer;
+    private boolean batchSignalled;
+    private volatile Priming priming = new Priming();
+
+    private volatile long decodedFrames;
+    private volatile long invalidFrames;
+    private volatile long incompleteFrames;
+    private volatile long duplicateFrames;
+    private volatile long logErrors;
+    private volatile long statisticsRefused;
+    private volatile long primedRecords;
+    private volatile long unattributed;
+    private volatile long captureErrors;
+
+    /**
+     * @param ringCapacity  number of raw frames buffered between the callback threads and the consumer
+     * @param batchCapacity number of measurements kept for the UI between two drains
+     * @param maxScales     number of scales for which repeated readings are detected
+     * @param log           log the accepted measurements are appended to, or null
+     * @param listener      told when a batch is ready for the UI
+     */
+    public MeasurementPipeline(int ringCapacity, int batchCapacity, int maxScales, MeasurementLogWriter log,
+                               BatchListener listener) {
+        this.ring = new FrameRingBuffer(ringCapacity);
+        this.pending = new MeasurementBatch(batchCapacity);
+        this.log = log;
+        this.listener = listener;
+        int tableSize = Integer.highestOneBit(Math.max(2, maxScales * 2) - 1) << 1;
+        lastDevices = new long[tableSize];
+        lastReadings = new long[tableSize];
+        Arrays.fill(lastDevices, -1);
+    }
+
+    /**
+     * @param utcOffsetSeconds offset of the scale clock from UTC, used to timestamp the readings
+     */
+    public void setUtcOffsetSeconds(int utcOffsetSeconds) {
+        this.utcOffsetSeconds = utcOffsetSeconds;
+    }
+
+    /**
+     * @param history chart history every accepted reading is added to, under the user it is attributed to, or null.
+     *                Set before {@link #start} to have it primed from the log.
+     */
+    public void setHistory(DownsampledHistory history) {
+        this.history = history;
+    }
+
+    /**
+     * @param trace counts and records every frame with the reason it was accepted or dropped, or null
+     */
+    public void setTrace(Trace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * @param decoders decoders of the protocols frames are offered with, the default registry if not set
+     */
+    public void setDecoderRegistry(FrameDecoderRegistry decoders) {
+        this.decoders = decoders;
+    }
+
+    /**
+     * @param capture records every raw frame before it is decoded, or null to stop recording. The pipeline does not
+     *                close it.
+     */
+    public void setCapture(FrameCaptureWriter capture) {
+        this.capture = capture;
+    }
+
+    /**
+     * @param attribution decides who took each reading, must be set before {@link #start()} for its profiles to follow
+     *                    the readings in the log. Without it, or without profiles, each scale counts as one user.
+     */
+    public void setAttribution(UserAttribution attribution) {
+        this.attribution = attribution;
+    }
+
+    /**
+     * @param statistics updated with every accepted reading, must be set before {@link #start()} to be primed from
+     *                   the log
+     */
+    public void setStatistics(UserStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * @param priming progress of priming shared with earlier pipelines on the same aggregates, set before
+     *                {@link #start()}. Without it every new pipeline replays the whole log.
+     */
+    public void setPriming(Priming priming) {
+        this.priming = priming;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        consumer = new Thread(this::consume, "MeasurementPipeline");
+        consumer.start();
+    }
+
+    /**
+     * Stops the consumer after it processed the frames already buffered, and flushes the log
+     */
+    public void stop() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = consumer;
+            consumer = null;
+        }
+        if (thread != null) {
+            ring.wakeUp();
+            thread.join();
+        }
+    }
+
+    @Override
+    public boolean offer(long device, int protocol, byte[] data, int offset, int length) {
+        return ring.offer(device, protocol, System.nanoTime(), data, offset, length);
+    }
+
+    /**
+     * Queues a frame, waiting for space instead of dropping it when the pipeline falls behind.
+     * Used to replay recorded frames as fast as the pipeline takes them.
+     */
+    public void put(long device, int protocol, byte[] data, int offset, int length) throws InterruptedException {
+        ring.put(device, protocol, System.nanoTime(), data, offset, length);
+    }
+
+    /**
+     * Moves the measurements gathered since the last call into the target batch
+     *
+     * @return number of measurements moved
+     */
+    public int drainTo(MeasurementBatch target) {
+        synchronized (pending) {
+            int count = pending.size();
+            pending.moveTo(target);
+            batchSignalled = false;
+            return count;
+        }
+    }
+
+    private void consume() {
+        primeStatistics();
+        try {
+            while (running || ring.depth() > 0) {
+                if (ring.poll(frame, POLL_TIMEOUT_MILLIS)) {
+                    process();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushLog();
+    }
+
+    private void process() {
+        FrameCaptureWriter frameCapture = capture;
+        if (frameCapture != null) {
+            try {
+                frameCapture.write(frame.device, frame.protocol, frame.timestampNanos, frame.data, 0, frame.length);
+            } catch (IOException e) {
+                captureErrors++;
+            }
+        }
+        FrameDecoderRegistry.Protocol protocol = decoders.getProtocol(frame.protocol);
+        if (protocol == null || !protocol.decode(frame.data, 0, frame.length, measurement)) {
+            invalidFrames++;
+            trace(Trace.LEVEL_INFO, Trace.FRAME_INVALID, frame.length);
+            return;
+        }
+        decodedFrames++;
+        int weightGrams = measurement.getWeightGrams();
+        if (!measurement.isComplete()) {
+            incompleteFrames++;
+            int flags = measurement.getFlags();
+            trace(Trace.LEVEL_DEBUG, (flags & BodyCompositionMeasurement.FLAG_WEIGHT_REMOVED) != 0 ? Trace.FRAME_WEIGHT_REMOVED
+                    : (flags & BodyCompositionMeasurement.FLAG_STABILIZED) == 0 ? Trace.FRAME_UNSTABILIZED
+                    : Trace.FRAME_DATE_INVALID, weightGrams);
+            return;
+        }
+        long epochSeconds = measurement.getEpochSeconds(utcOffsetSeconds);
+        if (isRepeat(frame.device, epochSeconds, weightGrams)) {
+            duplicateFrames++;
+            trace(Trace.LEVEL_DEBUG, Trace.FRAME_DUPLICATE, weightGrams);
+            return;
+        }
+        trace(Trace.LEVEL_DEBUG, Trace.FRAME_ACCEPTED, weightGrams);
+        int impedance = measurement.hasImpedance() ? measurement.getImpedance() : 0;
+        long user = attribute(frame.device, epochSeconds, weightGrams, impedance, true);
+        UserStatistics userStatistics = statistics;
+        if (userStatistics != null && !userStatistics.add(user, epochSeconds, weightGrams)) {
+            statisticsRefused++;
+        }
+        DownsampledHistory userHistory = history;
+        if (userHistory != null && !userHistory.add(user, epochSeconds, weightGrams, impedance)) {
+            statisticsRefused++;
+        }
+        if (log != null) {
+            try {
+                log.append(epochSeconds, frame.device, weightGrams, measurement.getImpedance(), measurement.getFlags());
+            } catch (IOException e) {
+                logErrors++;
+            }
+        }
+        boolean signal;
+        synchronized (pending) {
+            pending.add(frame.device, user, epochSeconds, weightGrams, measurement.getImpedance(), measurement.getFlags());
+            signal = !batchSignalled;
+            batchSignalled = true;
+        }
+        if (signal && listener != null) {
+            listener.onBatchReady();
+        }
+    }
+
+    private void trace(int level, int event, long argument) {
+        Trace frameTrace = trace;
+        if (frameTrace != null) {
+            frameTrace.event(level, event, frame.device, argument);
+        }
+    }
+
+    /**
+     * @param received false for a reading read back from the log, which was counted when it arrived
+     * @return the user the reading is attributed to, who learns from it, or the device if nobody matches confidently
+     */
+    private long attribute(long device, long epochSeconds, int weightGrams, int impedance, boolean received) {
+        UserAttribution users = attribution;
+        if (users == null || users.size() == 0) {
+            return device;
+        }
+        if (!users.attribute(epochSeconds, weightGrams, impedance, attributed)) {
+            if (received) {
+                unattributed++;
+            }
+            return device;
+        }
+        users.learn(attributed.getUser(), epochSeconds, weightGrams, impedance);
+        return attributed.getUser();
+    }
+
+    /**
+     * The scale repeats a stabilized reading in several indications, only the first one is kept
+     */
+    private boolean isRepeat(long device, long epochSeconds, int weightGrams) {
+        long reading = (epochSeconds << 20) ^ weightGrams;
+        int mask = lastDevices.length - 1;
+        int slot = (int) (device ^ (device >>> 17)) & mask;
+        for (int probes = 0; probes < lastDevices.length; probes++) {
+            if (lastDevices[slot] == device) {
+                if (lastReadings[slot] == reading) {
+                    return true;
+                }
+                lastReadings[slot] = reading;
+                return false;
+            }
+            if (lastDevices[slot] == -1) {
+                lastDevices[slot] = device;
+                lastReadings[slot] = reading;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        // table full, can not tell repeats of further scales apart
+        return false;
+    }
+
+    /**
+     * Feeds the readings already in the log to the attribution, the statistics and the history, so they survive the process.
+     * Stopping the pipeline cuts a long replay short, the next pipeline sharing the {@link Priming} goes on from there.
+     */
+    private void primeStatistics() {
+        UserStatistics userStatistics = statistics;
+        DownsampledHistory userHistory = history;
+        if ((userStatistics == null && attribution == null && userHistory == null) || log == null) {
+            return;
+        }
+        Priming progress = priming;
+        try {
+            log.flush();
+            MeasurementLogView view = MeasurementLogView.open(log.getFile());
+            int from;
+            int to;
+            synchronized (progress) {
+                if (progress.end < 0) {
+                    progress.end = view.size();
+                }
+                from = (int) progress.next;
+                to = (int) Math.min(progress.end, view.size());
+            }
+            int i = from;
+            //stop() waits for the consumer, possibly on the main thread, so a long log is not replayed to its end
+            for (; i < to && running; i++) {
+                boolean impedance = (view.flags(i) & BodyCompositionMeasurement.FLAG_IMPEDANCE) != 0;
+                long user = attribute(view.device(i), view.epochSeconds(i), view.weightGrams(i),
+                        impedance ? view.impedance(i) : 0, false);
+                if (userStatistics != null && !userStatistics.add(user, view.epochSeconds(i), view.weightGrams(i))) {
+                    statisticsRefused++;
+                }
+                if (userHistory != null && !userHistory.add(user, view.epochSeconds(i), view.weightGrams(i),
+                        impedance ? view.impedance(i) : 0)) {
+                    statisticsRefused++;
+                }
+            }
+            //a restarted pipeline, or a later one on the same aggregates, only replays the rest
+            synchronized (progress) {
+                progress.next = i;
+            }
+            primedRecords += i - from;
+        } catch (IOException e) {
+            logErrors++;
+        }
+    }
+
+    private void flushLog() {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.flush();
+        } catch (IOException e) {
+            logErrors++;
+        }
+    }
+
+    /**
+     * @return frames currently waiting for the consumer
+     */
+    public int getQueueDepth() {
+        return ring.depth();
+    }
+
+    /**
+     * @return most frames that were waiting at the same time
+     */
+    public int getMaxQueueDepth() {
+        return ring.maxDepth();
+    }
+
+    /**
+     * @return frames dropped because the ring buffer was full
+     */
+    public long getDroppedFrames() {
+        return ring.droppedCount();
+    }
+
+    public long getReceivedFrames() {
+        return ring.offeredCount();
+    }
+
+    public long getDecodedFrames() {
+        return decodedFrames;
+    }
+
+    /**
+     * @return frames of an unknown protocol or length, or malformed
+     */
+    public long getInvalidFrames() {
+        return invalidFrames;
+    }
+
+    /**
+     * @return frames which were not stabilized, had the weight removed or no valid date
+     */
+    public long getIncompleteFrames() {
+        return incompleteFrames;
+    }
+
+    public long getDuplicateFrames() {
+        return duplicateFrames;
+    }
+
+    public long getLogErrors() {
+        return logErrors;
+    }
+
+    /**
+     * @return readings left out of the statistics or the history because they track their maximum number of users
+     */
+    public long getStatisticsRefused() {
+        return statisticsRefused;
+    }
+
+    /**
+     * @return log records this pipeline replayed into the aggregates, once it got through them
+     */
+    public long getPrimedRecords() {
+        return primedRecords;
+    }
+
+    /**
+     * @return readings received since the start which no profile matched confidently, counted for their scale
+     */
+    public long getUnattributed() {
+        return unattributed;
+    }
+
+    public long getCaptureErrors() {
+        return captureErrors;
+    }
+}
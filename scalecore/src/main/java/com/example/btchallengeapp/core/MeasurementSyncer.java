@@ -0,0 +1,342 @@
+package com.example.btchallengeapp.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads the records of the measurement log in batches through a {@link SyncTransport}.
+ *
+ * The log is the queue: a cursor, saved in its own small file, marks the records the server acknowledged, and batches
+ * are read from the log after it. {@link #requestSync()} only schedules a pass on the syncer threads, so it can be
+ * called from the Bluetooth callbacks. At most maxInFlight batches are posted at once; a failed batch keeps its slot
+ * while it is retried with exponential backoff, so a slow or failing server holds reading back instead of filling
+ * memory. The cursor only moves over batches acknowledged without a gap, which means a crash can resend batches but
+ * never skips one. Resent batches carry the same id, made of an install id and their range in the log, and every record
+ * its log index, so the receiver can drop the repeats.
+ *
+ * Responses 2xx and 409 (already received) acknowledge a batch, 408, 429 and 5xx are retried like network errors,
+ * any other status rejects the batch, which is counted and skipped so that one bad batch can not stall the upload.
+ */
+public final class MeasurementSyncer {
+
+    private static final int MAGIC = 0x534E5953; // "SYNS"
+    private static final short VERSION = 1;
+    // int magic, short version, short unused, long install id, long cursor
+    private static final int STATE_SIZE = 24;
+
+    private static final class Batch {
+        final int first;
+        final int count;
+        final String id;
+        byte[] payload;
+        int attempts;
+        boolean done;
+
+        Batch(int first, int count, String id) {
+            this.first = first;
+            this.count = count;
+            this.id = id;
+        }
+    }
+
+    private final File logFile;
+    private final File stateFile;
+    private final SyncTransport transport;
+    private final int maxRecordsPerBatch;
+    private final int maxInFlight;
+
+    private ScheduledThreadPoolExecutor executor;
+    private final AtomicBoolean fillPending = new AtomicBoolean();
+    private final ArrayDeque<Batch> inFlight = new ArrayDeque<>();
+    private long installId;
+    // records before the cursor are acknowledged, those before next are acknowledged or in flight
+    private int cursor;
+    private int next;
+    private volatile long initialBackoffMillis = 1000;
+    private volatile long maxBackoffMillis = 5 * 60 * 1000;
+
+    private final AtomicLong syncedRecords = new AtomicLong();
+    private final AtomicLong sentBatches = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong rejectedBatches = new AtomicLong();
+    private final AtomicLong encodedRecords = new AtomicLong();
+    private final AtomicLong payloadBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    /**
+     * @param stateFile          holds the cursor and install id, created on first start
+     * @param maxRecordsPerBatch records posted in one request
+     * @param maxInFlight        requests posted at the same time, each on its own thread
+     */
+    public MeasurementSyncer(File logFile, File stateFile, SyncTransport transport, int maxRecordsPerBatch,
+                             int maxInFlight) {
+        this.logFile = logFile;
+        this.stateFile = stateFile;
+        this.transport = transport;
+        this.maxRecordsPerBatch = maxRecordsPerBatch;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Delay before the first retry of a batch, doubled on every further attempt up to the maximum. Each delay is
+     * shortened by a random amount of up to half, so that devices cut off together do not retry together.
+     */
+    public void setBackoff(long initialMillis, long maxMillis) {
+        initialBackoffMillis = initialMillis;
+        maxBackoffMillis = maxMillis;
+    }
+
+    /**
+     * Reads the saved cursor and starts uploading what the log holds after it
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        loadState();
+        next = cursor;
+        inFlight.clear();
+        // one thread per batch in flight and one reading the log
+        executor = new ScheduledThreadPoolExecutor(maxInFlight + 1, runnable -> {
+            Thread thread = new Thread(runnable, "MeasurementSyncer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        fillPending.set(false);
+        requestSync();
+    }
+
+    /**
+     * Stops posting, batches in flight are abandoned and sent again after the next start
+     */
+    public void stop() {
+        ScheduledThreadPoolExecutor stopped;
+        synchronized (this) {
+            stopped = executor;
+            executor = null;
+            inFlight.clear();
+        }
+        if (stopped != null) {
+            stopped.shutdownNow();
+        }
+    }
+
+    /**
+     * Schedules a pass over the log for records not sent yet. Never blocks, requests made while a pass is pending are
+     * merged into it.
+     */
+    public void requestSync() {
+        if (!fillPending.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            if (executor != null) {
+                executor.execute(this::fill);
+            } else {
+                fillPending.set(false);
+            }
+        }
+    }
+
+    private void fill() {
+        fillPending.set(false);
+        MeasurementLogView view;
+        try {
+            view = MeasurementLogView.open(logFile);
+        } catch (IOException e) {
+            return;
+        }
+        while (true) {
+            Batch batch;
+            synchronized (this) {
+                if (executor == null || inFlight.size() >= maxInFlight) {
+                    return;
+                }
+                if (view.size() < cursor && inFlight.isEmpty()) {
+                    // the log was cleared or replaced, its records are all new
+                    cursor = 0;
+                    next = 0;
+                }
+                if (next >= view.size()) {
+                    return;
+                }
+                int count = Math.min(maxRecordsPerBatch, view.size() - next);
+                batch = new Batch(next, count, Long.toHexString(installId) + '-' + next + '-' + count);
+                next += count;
+                inFlight.addLast(batch);
+            }
+            byte[] payload = SyncPayload.encode(view, batch.first, batch.count);
+            batch.payload = SyncPayload.compress(payload);
+            encodedRecords.addAndGet(batch.count);
+            payloadBytes.addAndGet(payload.length);
+            compressedBytes.addAndGet(batch.payload.length);
+            synchronized (this) {
+                if (executor == null) {
+                    return;
+                }
+                executor.execute(() -> send(batch));
+            }
+        }
+    }
+
+    private void send(Batch batch) {
+        synchronized (this) {
+            if (executor == null || !inFlight.contains(batch)) {
+                return;
+            }
+        }
+        int status;
+        try {
+            sentBatches.incrementAndGet();
+            status = transport.post(batch.id, batch.payload, batch.count);
+        } catch (IOException e) {
+            status = 0;
+        }
+        if (status / 100 == 2 || status == 409) {
+            complete(batch, true);
+        } else if (status == 0 || status == 408 || status == 429 || status >= 500) {
+            retry(batch);
+        } else {
+            complete(batch, false);
+        }
+    }
+
+    private void retry(Batch batch) {
+        retries.incrementAndGet();
+        long delay = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(batch.attempts++, 20));
+        delay -= ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        synchronized (this) {
+            if (executor != null) {
+                executor.schedule(() -> send(batch), delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void complete(Batch batch, boolean acknowledged) {
+        if (acknowledged) {
+            syncedRecords.addAndGet(batch.count);
+        } else {
+            rejectedBatches.incrementAndGet();
+        }
+        batch.payload = null;
+        boolean moved = false;
+        synchronized (this) {
+            batch.done = true;
+            while (!inFlight.isEmpty() && inFlight.peekFirst().done) {
+                Batch head = inFlight.pollFirst();
+                cursor = head.first + head.count;
+                moved = true;
+            }
+            if (moved) {
+                try {
+                    saveState();
+                } catch (IOException e) {
+                    // kept in memory, at worst acknowledged batches are sent again after a restart
+                }
+            }
+        }
+        requestSync();
+    }
+
+    private void loadState() {
+        installId = 0;
+        cursor = 0;
+        if (stateFile.exists()) {
+            try (RandomAccessFile in = new RandomAccessFile(stateFile, "r")) {
+                byte[] bytes = new byte[STATE_SIZE];
+                in.readFully(bytes);
+                ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+                if (buffer.getInt(0) == MAGIC && buffer.getShort(4) == VERSION) {
+                    installId = buffer.getLong(8);
+                    cursor = (int) buffer.getLong(16);
+                }
+            } catch (IOException e) {
+                installId = 0;
+                cursor = 0;
+            }
+        }
+        if (installId == 0) {
+            installId = new SecureRandom().nextLong();
+        }
+    }
+
+    /**
+     * Replaces the state file atomically, so a crash leaves either the old or the new cursor
+     */
+    private void saveState() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(STATE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putLong(installId).putLong(cursor);
+        File temp = new File(stateFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(buffer.array());
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(stateFile)) {
+            throw new IOException("Unable to replace " + stateFile);
+        }
+    }
+
+    /**
+     * @return index in the log of the first record not acknowledged yet
+     */
+    public synchronized int getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return number of batches posted or retried but not finished
+     */
+    public synchronized int getInFlight() {
+        return inFlight.size();
+    }
+
+    public long getSyncedRecords() {
+        return syncedRecords.get();
+    }
+
+    /**
+     * @return number of requests made, retries included
+     */
+    public long getSentBatches() {
+        return sentBatches.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getRejectedBatches() {
+        return rejectedBatches.get();
+    }
+
+    /**
+     * @return encoded size of the batches before compression
+     */
+    public long getPayloadBytes() {
+        return payloadBytes.get();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * @return compressed bytes per record encoded, 0 before the first batch
+     */
+    public double getBytesPerRecord() {
+        long records = encodedRecords.get();
+        return records == 0 ? 0 : (double) compressedBytes.get() / records;
+    }
+}
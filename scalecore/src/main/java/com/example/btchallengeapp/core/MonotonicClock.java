@@ -0,0 +1,15 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Source of monotonic time, injected where a policy depends on time so that it can run against a virtual clock in
+ * tests and simulations.
+ */
+public interface MonotonicClock {
+
+    MonotonicClock SYSTEM = System::nanoTime;
+
+    /**
+     * @return current time in nanoseconds from an arbitrary origin
+     */
+    long nanoTime();
+}
@@ -0,0 +1,257 @@
+package com.example.btchallengeapp.core;
+
+import java.util.Arrays;
+
+/**
+ * Orders scanned devices by smoothed signal strength, the closest first, for the scan list.
+ *
+ * Each advertisement feeds a one dimensional Kalman filter per device. Its process noise grows with the time since the
+ * previous advertisement, so a device heard again after a long pause follows its new RSSI quickly while one
+ * advertising ten times a second is not thrown around by single readings. The filter state is kept in primitive
+ * arrays indexed by {@link DeviceRegistry} handle, an advertisement costs a few multiplications and no allocation.
+ *
+ * The order itself only changes in {@link #update}, which does nothing until the resort interval has passed. It drops
+ * devices not heard for the stale time, appends the devices heard for the first time and restores the order with an
+ * insertion sort. Between two updates most devices keep their place, so the sort is linear plus the number of moves.
+ * A listed device only passes another one when it is stronger by more than the hysteresis, so that two devices at
+ * about the same distance do not swap places on every update; new devices go straight to their place. Each change is
+ * reported to a {@link Changes} receiver as it happens, in the form a list view animates.
+ *
+ * Devices remembered from an earlier scan can be listed with {@link #restore} before they are heard, and dropped with
+ * {@link #forget} if the scan does not confirm them.
+ *
+ * The ranker is not thread safe, it is meant to be used from the thread delivering the scan callbacks.
+ */
+public final class ProximityRanker {
+
+    /**
+     * Receives the changes of the order during {@link #update}, positions are those of the order as it was after the
+     * previous change
+     */
+    public interface Changes {
+        void onRemoved(int position);
+
+        void onInserted(int position);
+
+        void onMoved(int fromPosition, int toPosition);
+    }
+
+    /**
+     * Position of a device not in the order
+     */
+    public static final int NOT_LISTED = -1;
+    private static final int PENDING = -2;
+
+    // variance of a single RSSI reading, about 4 dB of noise
+    private static final float MEASUREMENT_VARIANCE = 16f;
+    // variance the true RSSI drifts by per second, walking around a room
+    private static final float DRIFT_VARIANCE_PER_SECOND = 4f;
+    // variance of an RSSI not heard in this scan, so large that the next reading replaces it
+    private static final float UNCONFIRMED_VARIANCE = 1e6f;
+
+    private final long resortIntervalNanos;
+    private final long staleNanos;
+    private final float hysteresisDb;
+
+    private float[] estimates;
+    private float[] variances;
+    private long[] lastSeenNanos;
+    private int[] positions;
+
+    private int[] order;
+    private int size;
+    private int[] pending;
+    private int pendingCount;
+    private long lastUpdateNanos = Long.MIN_VALUE;
+
+    /**
+     * @param resortIntervalNanos minimum time between two changes of the order
+     * @param staleNanos          devices not heard for this long are dropped from the order
+     * @param hysteresisDb        margin by which a listed device must be stronger to pass another one
+     */
+    public ProximityRanker(int initialCapacity, long resortIntervalNanos, long staleNanos, float hysteresisDb) {
+        int capacity = Math.max(4, initialCapacity);
+        estimates = new float[capacity];
+        variances = new float[capacity];
+        lastSeenNanos = new long[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, NOT_LISTED);
+        order = new int[capacity];
+        pending = new int[capacity];
+        this.resortIntervalNanos = resortIntervalNanos;
+        this.staleNanos = staleNanos;
+        this.hysteresisDb = hysteresisDb;
+    }
+
+    /**
+     * Feeds an advertisement into the filter of the device
+     *
+     * @param handle         {@link DeviceRegistry} handle of the device
+     * @param timestampNanos time the advertisement was received, in the time base passed to {@link #update}
+     * @return true if the device is heard for the first time, or again after it was dropped as stale
+     */
+    public boolean observe(int handle, int rssi, long timestampNanos) {
+        if (handle >= positions.length) {
+            growDevices(handle + 1);
+        }
+        boolean added = positions[handle] == NOT_LISTED;
+        if (added) {
+            estimates[handle] = rssi;
+            variances[handle] = MEASUREMENT_VARIANCE;
+            positions[handle] = PENDING;
+            if (pendingCount == pending.length) {
+                pending = Arrays.copyOf(pending, pendingCount * 2);
+            }
+            pending[pendingCount++] = handle;
+        } else {
+            float elapsedSeconds = Math.max(0, timestampNanos - lastSeenNanos[handle]) / 1e9f;
+            float variance = variances[handle] + DRIFT_VARIANCE_PER_SECOND * elapsedSeconds;
+            float gain = variance / (variance + MEASUREMENT_VARIANCE);
+            estimates[handle] += gain * (rssi - estimates[handle]);
+            variances[handle] = (1 - gain) * variance;
+        }
+        lastSeenNanos[handle] = Math.max(lastSeenNanos[handle], timestampNanos);
+        return added;
+    }
+
+    /**
+     * Lists a device remembered from an earlier scan, the first advertisement heard replaces its RSSI
+     *
+     * @param timestampNanos time the device is listed at, in the time base passed to {@link #update}
+     * @return true if the device was listed, false if it already was, its own advertisements are kept then
+     */
+    public boolean restore(int handle, int rssi, long timestampNanos) {
+        if (handle < positions.length && positions[handle] != NOT_LISTED) {
+            return false;
+        }
+        observe(handle, rssi, timestampNanos);
+        variances[handle] = UNCONFIRMED_VARIANCE;
+        return true;
+    }
+
+    /**
+     * Brings the order up to date if the resort interval has passed since the previous update
+     *
+     * @return number of changes reported, 0 if the update was skipped
+     */
+    public int update(long nowNanos, Changes changes) {
+        if (lastUpdateNanos != Long.MIN_VALUE && nowNanos - lastUpdateNanos < resortIntervalNanos) {
+            return 0;
+        }
+        lastUpdateNanos = nowNanos;
+        long staleBefore = nowNanos - staleNanos;
+        int changed = 0;
+
+        // forward compaction, a removed device is at the write position once those before it are gone
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            int handle = order[i];
+            if (lastSeenNanos[handle] < staleBefore) {
+                positions[handle] = NOT_LISTED;
+                changes.onRemoved(kept);
+                changed++;
+            } else {
+                order[kept++] = handle;
+            }
+        }
+        size = kept;
+        int listed = size;
+
+        for (int i = 0; i < pendingCount; i++) {
+            int handle = pending[i];
+            if (lastSeenNanos[handle] < staleBefore) {
+                positions[handle] = NOT_LISTED;
+                continue;
+            }
+            if (size == order.length) {
+                order = Arrays.copyOf(order, size * 2);
+            }
+            order[size] = handle;
+            changes.onInserted(size);
+            size++;
+            changed++;
+        }
+        pendingCount = 0;
+
+        for (int i = 1; i < size; i++) {
+            int handle = order[i];
+            // new devices go straight to their place, listed ones only move for a clear difference
+            float threshold = estimates[handle] - (i < listed ? hysteresisDb : 0);
+            int j = i;
+            while (j > 0 && estimates[order[j - 1]] < threshold) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            if (j != i) {
+                order[j] = handle;
+                changes.onMoved(i, j);
+                changed++;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            positions[order[i]] = i;
+        }
+        return changed;
+    }
+
+    /**
+     * @return number of devices in the order
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return handle of the device at the position of the order, the closest first
+     */
+    public int handleAt(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + " of " + size);
+        }
+        return order[position];
+    }
+
+    /**
+     * @return position of the device in the order, or {@link #NOT_LISTED} if it is not in it yet or any more
+     */
+    public int positionOf(int handle) {
+        return handle < positions.length && positions[handle] >= 0 ? positions[handle] : NOT_LISTED;
+    }
+
+    /**
+     * @return smoothed RSSI of the device in dBm, 0 if it was never heard
+     */
+    public float getRssi(int handle) {
+        return handle < estimates.length ? estimates[handle] : 0;
+    }
+
+    /**
+     * Treats the device as not heard for the stale time, the next update drops it unless it advertises before
+     */
+    public void forget(int handle) {
+        if (handle < lastSeenNanos.length) {
+            lastSeenNanos[handle] = Long.MIN_VALUE;
+            variances[handle] = UNCONFIRMED_VARIANCE;
+        }
+    }
+
+    /**
+     * Empties the order, the next advertisements start new filters
+     */
+    public void clear() {
+        Arrays.fill(positions, NOT_LISTED);
+        size = 0;
+        pendingCount = 0;
+        lastUpdateNanos = Long.MIN_VALUE;
+    }
+
+    private void growDevices(int minCapacity) {
+        int capacity = Math.max(minCapacity, positions.length * 2);
+        estimates = Arrays.copyOf(estimates, capacity);
+        variances = Arrays.copyOf(variances, capacity);
+        lastSeenNanos = Arrays.copyOf(lastSeenNanos, capacity);
+        int previous = positions.length;
+        positions = Arrays.copyOf(positions, capacity);
+        Arrays.fill(positions, previous, capacity, NOT_LISTED);
+    }
+}
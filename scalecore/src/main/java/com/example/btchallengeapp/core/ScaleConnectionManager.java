@@ -0,0 +1,307 @@
+package com.example.btchallengeapp.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Owns the connections to any number of scales at once, keyed by MAC address.
+ *
+ * Connection setup (connect, service discovery, subscription) is the expensive and failure prone part, and most phones
+ * only handle a few of those in parallel. The manager therefore admits at most maxConcurrentSetups sessions into setup at
+ * a time, in the order connect() was called, and starts the next waiting session as soon as one finishes setup or fails.
+ * Streaming sessions do not hold a setup slot, so their number is only limited by maxSessions.
+ *
+ * With a {@link KnownScaleStore} set, scales which were connected before are reconnected directly, without waiting for a
+ * background connection, and skip re-validating their GATT layout. Every successful setup is recorded in the store.
+ *
+ * Each session subscribes to the measurement characteristic of the first protocol in the {@link FrameDecoderRegistry}
+ * its scale offers, and decodes the frames with the decoder table of that protocol.
+ *
+ * Measurements of all sessions are delivered to one {@link Listener}, on the thread of the transport callback.
+ * When a {@link FrameSink} is set, the raw frames go to the sink instead and are not decoded on the callback thread.
+ * With a {@link HistorySync} set, each body composition scale is also asked for its stored readings once it streams.
+ */
+public final class ScaleConnectionManager {
+
+    /**
+     * Receives the state changes and measurements of all sessions
+     */
+    public interface Listener {
+
+        void onStateChanged(String address, ScaleSession.State state);
+
+        /**
+         * @param measurement reused holder, only valid during the call
+         */
+        void onMeasurement(String address, BodyCompositionMeasurement measurement);
+    }
+
+    private final ScaleTransport transport;
+    private final ScheduledExecutorService timer;
+    private final Listener listener;
+    private final int maxSessions;
+    private final int maxConcurrentSetups;
+
+    private final HashMap<String, ScaleSession> sessions = new HashMap<>();
+    private final ArrayDeque<ScaleSession> waiting = new ArrayDeque<>();
+    private int setupsInProgress;
+
+    private volatile FrameDecoderRegistry decoders = FrameDecoderRegistry.createDefault();
+    private volatile FrameSink frameSink;
+    private volatile LatencyTracker latencyTracker;
+    private volatile Trace trace;
+    private volatile KnownScaleStore knownScales;
+    private volatile HistorySync historySync;
+    private boolean autoConnect = true;
+    private long connectTimeoutMillis = 30000;
+    private long directConnectTimeoutMillis = 10000;
+    private long operationTimeoutMillis = 5000;
+    private int operationRetries = 2;
+
+    /**
+     * @param transport           opens the GATT connections
+     * @param timer               executor for GATT operation timeouts
+     * @param maxSessions         maximum number of scales connected or waiting at the same time
+     * @param maxConcurrentSetups maximum number of scales going through connection setup at the same time
+     * @param listener            receives the state changes and measurements of all sessions
+     */
+    public ScaleConnectionManager(ScaleTransport transport, ScheduledExecutorService timer, int maxSessions,
+                                  int maxConcurrentSetups, Listener listener) {
+        this.transport = transport;
+        this.timer = timer;
+        this.maxSessions = maxSessions;
+        this.maxConcurrentSetups = maxConcurrentSetups;
+        this.listener = listener;
+    }
+
+    /**
+     * @param decoders protocols of the supported scale models, the default registry if not set. A pipeline set as
+     *                 frame sink must use the same registry.
+     */
+    public void setDecoderRegistry(FrameDecoderRegistry decoders) {
+        this.decoders = decoders;
+    }
+
+    FrameDecoderRegistry getDecoderRegistry() {
+        return decoders;
+    }
+
+    /**
+     * @param frameSink receives the raw measurement frames of all sessions, or null to decode them on the callback thread
+     */
+    public void setFrameSink(FrameSink frameSink) {
+        this.frameSink = frameSink;
+    }
+
+    FrameSink getFrameSink() {
+        return frameSink;
+    }
+
+    /**
+     * @param latencyTracker receives the duration of each setup phase of every session, or null
+     */
+    public void setLatencyTracker(LatencyTracker latencyTracker) {
+        this.latencyTracker = latencyTracker;
+    }
+
+    /**
+     * @param trace counts and records the GATT errors and state changes of every session, or null
+     */
+    public void setTrace(Trace trace) {
+        this.trace = trace;
+    }
+
+    void trace(int level, int event, long device, long argument) {
+        Trace sessionTrace = trace;
+        if (sessionTrace != null) {
+            sessionTrace.event(level, event, device, argument);
+        }
+    }
+
+    /**
+     * @param knownScales remembers the scales connected so far and enables the fast reconnect path, or null
+     */
+    public void setKnownScaleStore(KnownScaleStore knownScales) {
+        this.knownScales = knownScales;
+    }
+
+    /**
+     * @param historySync downloads the readings body composition scales stored while offline, once they stream, or
+     *                    null to only receive live readings
+     */
+    public void setHistorySync(HistorySync historySync) {
+        this.historySync = historySync;
+    }
+
+    HistorySync getHistorySync() {
+        return historySync;
+    }
+
+    void recordLatency(ConnectionPhase phase, long durationNanos) {
+        LatencyTracker tracker = latencyTracker;
+        if (tracker != null) {
+            tracker.record(phase, durationNanos);
+        }
+    }
+
+    public synchronized void setAutoConnect(boolean autoConnect) {
+        this.autoConnect = autoConnect;
+    }
+
+    /**
+     * @param connectTimeoutMillis time a session may spend connecting before it is closed and its setup slot is freed
+     */
+    public synchronized void setConnectTimeout(long connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * @param directConnectTimeoutMillis time a known scale may take to connect directly before the session falls back
+     *                                   to a background connection
+     */
+    public synchronized void setDirectConnectTimeout(long directConnectTimeoutMillis) {
+        this.directConnectTimeoutMillis = directConnectTimeoutMillis;
+    }
+
+    public synchronized void setOperationTimeout(long operationTimeoutMillis, int operationRetries) {
+        this.operationTimeoutMillis = operationTimeoutMillis;
+        this.operationRetries = operationRetries;
+    }
+
+    /**
+     * Queues a connection to the scale with the given address.
+     *
+     * @return false if the scale already has a session or the session limit is reached
+     * @throws IllegalArgumentException if the address is not a valid MAC address
+     */
+    public boolean connect(String address) {
+        ScaleSession session;
+        synchronized (this) {
+            if (sessions.containsKey(address) || sessions.size() >= maxSessions) {
+                return false;
+            }
+            session = new ScaleSession(address, this);
+            sessions.put(address, session);
+            waiting.add(session);
+        }
+        listener.onStateChanged(address, ScaleSession.State.WAITING);
+        startWaitingSessions();
+        return true;
+    }
+
+    public void disconnect(String address) {
+        ScaleSession session;
+        synchronized (this) {
+            session = sessions.get(address);
+        }
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    public void disconnectAll() {
+        for (ScaleSession session : getSessions()) {
+            session.close();
+        }
+    }
+
+    /**
+     * @return the session of the scale, or null if it is not connected
+     */
+    public synchronized ScaleSession getSession(String address) {
+        return sessions.get(address);
+    }
+
+    /**
+     * @return snapshot of all current sessions
+     */
+    public synchronized List<ScaleSession> getSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    public synchronized int getSessionCount() {
+        return sessions.size();
+    }
+
+    private void startWaitingSessions() {
+        while (true) {
+            ScaleSession next;
+            boolean sessionAutoConnect;
+            long directMillis;
+            long connectMillis;
+            long timeoutMillis;
+            int retries;
+            synchronized (this) {
+                if (setupsInProgress >= maxConcurrentSetups || waiting.isEmpty()) {
+                    return;
+                }
+                next = waiting.poll();
+                setupsInProgress++;
+                sessionAutoConnect = autoConnect;
+                directMillis = directConnectTimeoutMillis;
+                connectMillis = connectTimeoutMillis;
+                timeoutMillis = operationTimeoutMillis;
+                retries = operationRetries;
+            }
+            KnownScaleStore store = knownScales;
+            FrameDecoderRegistry.Protocol knownProtocol = store != null
+                    ? decoders.getProtocol(store.getProtocol(next.getDevice())) : null;
+            if (next.start(transport, sessionAutoConnect, knownProtocol, timer, directMillis, connectMillis, timeoutMillis,
+                    retries)) {
+                listener.onStateChanged(next.getAddress(), ScaleSession.State.CONNECTING);
+            } else {
+                // closed while it was being taken off the waiting queue, the slot was never used
+                synchronized (this) {
+                    setupsInProgress--;
+                }
+            }
+        }
+    }
+
+    void onSessionStateChanged(ScaleSession session) {
+        listener.onStateChanged(session.getAddress(), session.getState());
+    }
+
+    void onSessionReady(ScaleSession session) {
+        KnownScaleStore store = knownScales;
+        if (store != null) {
+            store.recordConnected(session.getDevice(), System.currentTimeMillis(), session.getProtocol().getId());
+        }
+        // reported before the setup slot is released, so the listener never sees more setups than allowed
+        listener.onStateChanged(session.getAddress(), ScaleSession.State.STREAMING);
+        synchronized (this) {
+            setupsInProgress--;
+        }
+        startWaitingSessions();
+    }
+
+    void onCachedServicesInvalid(ScaleSession session) {
+        KnownScaleStore store = knownScales;
+        if (store != null) {
+            store.invalidate(session.getDevice());
+        }
+    }
+
+    void onSessionClosed(ScaleSession session, ScaleSession.State previous) {
+        synchronized (this) {
+            sessions.remove(session.getAddress());
+            if (previous == ScaleSession.State.WAITING) {
+                waiting.remove(session);
+            }
+        }
+        listener.onStateChanged(session.getAddress(), ScaleSession.State.CLOSED);
+        if (previous != ScaleSession.State.WAITING && previous != ScaleSession.State.STREAMING) {
+            synchronized (this) {
+                setupsInProgress--;
+            }
+        }
+        startWaitingSessions();
+    }
+
+    void onMeasurement(ScaleSession session, BodyCompositionMeasurement measurement) {
+        listener.onMeasurement(session.getAddress(), measurement);
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.btchallengeapp.core;
+
+import java.util.Random;
+
+/**
+ * Generates the Body Composition Measurement (0x2A9C) frames a Mi Body Composition Scale sends, without any hardware.
+ *
+ * In weigh-in mode the emulator plays the sequence of a person using the scale, over and over: unstabilized frames while
+ * the weight settles, stabilized frames without and then with impedance once the body fat measurement finished (the
+ * final reading is repeated a few times, as the scale does), and frames flagged weight removed when the person steps
+ * off. Otherwise every frame is a new stabilized reading with impedance. Weights are reported in the configured unit.
+ *
+ * Each emulator is seeded, so a run can be reproduced. It is not thread safe, one emulator emulates one scale.
+ */
+public final class ScaleEmulator {
+
+    public enum Unit {
+        KG,
+        LBS,
+        CATTY
+    }
+
+    private static final int CTRL0_LBS = 1;
+    private static final int CTRL1_IMPEDANCE = 1 << 1;
+    private static final int CTRL1_WEIGHT = 1 << 2;
+    private static final int CTRL1_STABILIZED = 1 << 5;
+    private static final int CTRL1_CATTY = 1 << 6;
+    private static final int CTRL1_REMOVED = 1 << 7;
+
+    private static final int SETTLING_FRAMES = 12;
+    private static final int STABILIZED_FRAMES = 2;
+    private static final int IMPEDANCE_FRAMES = 4;
+    private static final int REMOVED_FRAMES = 2;
+    private static final int WEIGH_IN_FRAMES = SETTLING_FRAMES + STABILIZED_FRAMES + IMPEDANCE_FRAMES + REMOVED_FRAMES;
+
+    private final Random random;
+    private final Unit unit;
+    private final boolean weighIns;
+    private final int baseWeightGrams;
+    private final int baseImpedance;
+
+    private int step;
+    private int weightGrams;
+    private int impedance;
+    // scale clock, local time
+    private int hours = 7;
+    private int minutes;
+    private int seconds;
+    private long frames;
+
+    /**
+     * @param seed     seed of the generated weights and impedances
+     * @param unit     unit the scale is set to
+     * @param weighIns true to emulate complete weigh-ins, false to send a new stabilized reading in every frame
+     */
+    public ScaleEmulator(long seed, Unit unit, boolean weighIns) {
+        this.random = new Random(seed);
+        this.unit = unit;
+        this.weighIns = weighIns;
+        this.baseWeightGrams = 50_000 + random.nextInt(60_000);
+        this.baseImpedance = 400 + random.nextInt(200);
+        nextPerson();
+    }
+
+    public Unit getUnit() {
+        return unit;
+    }
+
+    /**
+     * @return number of frames generated so far
+     */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * @return weight of the current weigh-in, in grams
+     */
+    public int getWeightGrams() {
+        return weightGrams;
+    }
+
+    /**
+     * Writes the next frame
+     *
+     * @param frame receives FRAME_LENGTH bytes at offset
+     */
+    public void nextFrame(byte[] frame, int offset) {
+        frames++;
+        if (!weighIns) {
+            nextPerson();
+            write(frame, offset, CTRL1_STABILIZED | CTRL1_IMPEDANCE, weightGrams, impedance);
+            return;
+        }
+        int position = step++ % WEIGH_IN_FRAMES;
+        if (position == 0) {
+            nextPerson();
+        }
+        if (position < SETTLING_FRAMES) {
+            // overshoot and settle towards the final weight
+            int remaining = SETTLING_FRAMES - position - 1;
+            int shown = weightGrams * (position + 1) / SETTLING_FRAMES
+                    + (random.nextInt(4001) - 2000) * remaining / SETTLING_FRAMES;
+            write(frame, offset, 0, Math.max(0, shown), 0);
+        } else if (position < SETTLING_FRAMES + STABILIZED_FRAMES) {
+            write(frame, offset, CTRL1_STABILIZED, weightGrams, 0);
+        } else if (position < SETTLING_FRAMES + STABILIZED_FRAMES + IMPEDANCE_FRAMES) {
+            write(frame, offset, CTRL1_STABILIZED | CTRL1_IMPEDANCE, weightGrams, impedance);
+        } else {
+            write(frame, offset, CTRL1_STABILIZED | CTRL1_IMPEDANCE | CTRL1_REMOVED, weightGrams, impedance);
+        }
+    }
+
+    private void nextPerson() {
+        weightGrams = baseWeightGrams + random.nextInt(2001) - 1000;
+        impedance = baseImpedance + random.nextInt(41) - 20;
+        // a few minutes between two weigh-ins
+        seconds += 60 + random.nextInt(240);
+        minutes += seconds / 60;
+        seconds %= 60;
+        hours = (hours + minutes / 60) % 24;
+        minutes %= 60;
+    }
+
+    private void write(byte[] frame, int offset, int ctrl1, int grams, int ohms) {
+        int ctrl0 = 0;
+        int weightRaw;
+        ctrl1 |= CTRL1_WEIGHT;
+        switch (unit) {
+            case LBS:
+                ctrl0 |= CTRL0_LBS;
+                weightRaw = Math.round(grams / 4.5359237f);
+                break;
+            case CATTY:
+                ctrl1 |= CTRL1_CATTY;
+                weightRaw = grams / 5;
+                break;
+            default:
+                weightRaw = grams / 5;
+                break;
+        }
+        frame[offset] = (byte) ctrl0;
+        frame[offset + 1] = (byte) ctrl1;
+        frame[offset + 2] = (byte) 0xE5;
+        frame[offset + 3] = 0x07;
+        frame[offset + 4] = 7;
+        frame[offset + 5] = 13;
+        frame[offset + 6] = (byte) hours;
+        frame[offset + 7] = (byte) minutes;
+        frame[offset + 8] = (byte) seconds;
+        frame[offset + 9] = (byte) ohms;
+        frame[offset + 10] = (byte) (ohms >> 8);
+        frame[offset + 11] = (byte) weightRaw;
+        frame[offset + 12] = (byte) (weightRaw >> 8);
+    }
+}
@@ -0,0 +1,426 @@
+package com.example.btchallengeapp.core;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection to one scale, driven through connect, service discovery and indication subscription until measurements stream in.
+ * Sessions are created and scheduled by {@link ScaleConnectionManager}.
+ *
+ * State changes happen on the transport callback threads. A session is used by one connection only, once closed it is not reused.
+ */
+public final class ScaleSession implements GattCallback {
+
+    public enum State {
+        /**
+         * Waiting for a free setup slot in the manager
+         */
+        WAITING,
+        CONNECTING,
+        DISCOVERING,
+        SUBSCRIBING,
+        /**
+         * Subscribed, measurements are being delivered
+         */
+        STREAMING,
+        CLOSED
+    }
+
+    private final String address;
+    private final long device;
+    private final ScaleConnectionManager manager;
+    private final BodyCompositionMeasurement measurement = new BodyCompositionMeasurement();
+
+    private volatile State state = State.WAITING;
+    private volatile FrameDecoderRegistry.Protocol protocol;
+    private GattClient client;
+    private GattOperationQueue queue;
+    private volatile HistorySync.Transfer history;
+
+    private ScaleTransport transport;
+    private ScheduledExecutorService timer;
+    private boolean fallbackAutoConnect;
+    private boolean fastPath;
+    private boolean resubscribed;
+    private boolean directAttempt;
+    private int connectAttempt;
+    private long connectTimeoutMillis;
+    private long operationTimeoutMillis;
+    private int operationRetries;
+
+    private long setupStartNanos;
+    private long phaseStartNanos;
+    private long setupNanos = -1;
+    private long firstMeasurementNanos = -1;
+    private volatile long frameCount;
+
+    ScaleSession(String address, ScaleConnectionManager manager) {
+        this.address = address;
+        this.device = MacAddress.pack(address);
+        this.manager = manager;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the packed MAC address, see {@link MacAddress}
+     */
+    public long getDevice() {
+        return device;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return time from the start of connection setup until indications were enabled, or -1 if the session never got there
+     */
+    public long getSetupNanos() {
+        return setupNanos;
+    }
+
+    /**
+     * @return time from the start of connection setup until the first frame arrived, or -1 if none arrived yet
+     */
+    public long getFirstMeasurementNanos() {
+        return firstMeasurementNanos;
+    }
+
+    /**
+     * @return number of frames received on the measurement characteristic
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return the protocol the scale is subscribed with, or null before it was resolved
+     */
+    public FrameDecoderRegistry.Protocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * @return true if the session reconnects a known scale through the fast path, see {@link KnownScaleStore}
+     */
+    public boolean isFastPath() {
+        return fastPath;
+    }
+
+    /**
+     * Starts connecting. The session is closed if the link is not up within connectTimeoutMillis.
+     *
+     * On the fast path the link is first opened directly, and if that fails or takes longer than
+     * directConnectTimeoutMillis the session falls back to a connection with the given autoConnect mode.
+     * Indications are then enabled right behind service discovery, relying on the GATT layout seen last time.
+     *
+     * @param knownProtocol protocol the scale was subscribed with last time to take the fast path, or null to resolve
+     *                      it after service discovery
+     * @return false if the session was closed before it could start
+     */
+    synchronized boolean start(ScaleTransport transport, boolean autoConnect,
+                               FrameDecoderRegistry.Protocol knownProtocol, ScheduledExecutorService timer,
+                               long directConnectTimeoutMillis, long connectTimeoutMillis,
+                               long operationTimeoutMillis, int operationRetries) {
+        if (state != State.WAITING) {
+            return false;
+        }
+        this.transport = transport;
+        this.timer = timer;
+        this.fallbackAutoConnect = autoConnect;
+        this.fastPath = knownProtocol != null;
+        this.protocol = knownProtocol;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.operationTimeoutMillis = operationTimeoutMillis;
+        this.operationRetries = operationRetries;
+        setupStartNanos = System.nanoTime();
+        state = State.CONNECTING;
+        if (fastPath && autoConnect) {
+            openLink(false, directConnectTimeoutMillis);
+        } else {
+            openLink(autoConnect, connectTimeoutMillis);
+        }
+        return true;
+    }
+
+    private void openLink(boolean autoConnect, long timeoutMillis) {
+        int attempt = ++connectAttempt;
+        directAttempt = !autoConnect;
+        client = transport.connect(address, autoConnect, this);
+        queue = new GattOperationQueue(client, timer, operationTimeoutMillis, operationRetries);
+        timer.schedule(() -> onConnectTimeout(attempt), timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void onConnectTimeout(int attempt) {
+        synchronized (this) {
+            if (state != State.CONNECTING || attempt != connectAttempt) {
+                return;
+            }
+        }
+        if (!fallBackToAutoConnect()) {
+            close();
+        }
+    }
+
+    /**
+     * Replaces a failed direct connection attempt of the fast path by a background connection
+     *
+     * @return false if the session was not in a direct attempt that can fall back
+     */
+    private boolean fallBackToAutoConnect() {
+        GattOperationQueue failedQueue;
+        GattClient failedClient;
+        synchronized (this) {
+            if (state != State.CONNECTING || !directAttempt || !fallbackAutoConnect) {
+                return false;
+            }
+            failedQueue = queue;
+            failedClient = client;
+            openLink(true, connectTimeoutMillis);
+        }
+        failedQueue.close();
+        failedClient.disconnect();
+        failedClient.close();
+        return true;
+    }
+
+    /**
+     * Disconnects and releases the connection. Safe to call more than once and from any state.
+     */
+    public void close() {
+        State previous;
+        GattOperationQueue closingQueue;
+        GattClient closingClient;
+        synchronized (this) {
+            previous = state;
+            if (previous == State.CLOSED) {
+                return;
+            }
+            state = State.CLOSED;
+            closingQueue = queue;
+            closingClient = client;
+        }
+        HistorySync.Transfer transfer = history;
+        if (transfer != null) {
+            transfer.fail();
+        }
+        // released outside the session lock, the queue and client take their own locks and call back into the session
+        if (closingQueue != null) {
+            closingQueue.close();
+        }
+        if (closingClient != null) {
+            closingClient.disconnect();
+            closingClient.close();
+        }
+        manager.onSessionClosed(this, previous);
+    }
+
+    @Override
+    public void onConnectionStateChange(int status, boolean connected) {
+        if (status != GattClient.GATT_SUCCESS || !connected) {
+            if (status != GattClient.GATT_SUCCESS) {
+                manager.trace(Trace.LEVEL_ERROR, Trace.GATT_ERROR, device, status);
+            }
+            if (!fallBackToAutoConnect()) {
+                close();
+            }
+            return;
+        }
+        synchronized (this) {
+            if (state != State.CONNECTING) {
+                return;
+            }
+            state = State.DISCOVERING;
+            phaseStartNanos = endPhase(ConnectionPhase.CONNECT, setupStartNanos);
+        }
+        manager.onSessionStateChanged(this);
+        CompletableFuture<Integer> discovered = queue.submit("discoverServices",
+                GattOperationQueue.Callback.SERVICES_DISCOVERED, GattClient::discoverServices);
+        if (!fastPath) {
+            discovered.whenComplete((discoverStatus, error) -> {
+                FrameDecoderRegistry.Protocol resolved;
+                if (error != null) {
+                    traceError(error);
+                    close();
+                } else if ((resolved = manager.getDecoderRegistry().resolve(client)) == null) {
+                    close();
+                } else {
+                    protocol = resolved;
+                    if (startSubscribing()) {
+                        enableIndication();
+                    }
+                }
+            });
+            return;
+        }
+        //the layout is known, the indication request waits in the queue and goes out as soon as discovery completes
+        discovered.whenComplete((discoverStatus, error) -> {
+            if (error != null) {
+                traceError(error);
+                close();
+            } else {
+                startSubscribing();
+            }
+        });
+        enableIndication();
+    }
+
+    private boolean startSubscribing() {
+        synchronized (this) {
+            if (state != State.DISCOVERING) {
+                return false;
+            }
+            state = State.SUBSCRIBING;
+            phaseStartNanos = endPhase(ConnectionPhase.SERVICE_DISCOVERY, phaseStartNanos);
+        }
+        manager.onSessionStateChanged(this);
+        return true;
+    }
+
+    private void enableIndication() {
+        FrameDecoderRegistry.Protocol subscribed = protocol;
+        queue.submit("enableIndication", GattOperationQueue.Callback.DESCRIPTOR_WRITE,
+                c -> c.enableIndication(subscribed.getService(), subscribed.getCharacteristic()))
+                .whenComplete((status, error) -> {
+                    if (error != null) {
+                        traceError(error);
+                        if (fastPath && !resubscribed) {
+                            manager.onCachedServicesInvalid(this);
+                            resubscribe();
+                        } else {
+                            close();
+                        }
+                        return;
+                    }
+                    synchronized (this) {
+                        //on the fast path the indication may complete before the discovery result was handled
+                        if (state != State.SUBSCRIBING && !(fastPath && state == State.DISCOVERING)) {
+                            return;
+                        }
+                        state = State.STREAMING;
+                        phaseStartNanos = endPhase(ConnectionPhase.ENABLE_INDICATION, phaseStartNanos);
+                        setupNanos = phaseStartNanos - setupStartNanos;
+                    }
+                    manager.onSessionReady(this);
+                    startHistory(subscribed);
+                });
+    }
+
+    /**
+     * Subscribes again with the protocol the discovered services resolve to, after the one remembered for the fast path
+     * was refused. The discovery queued ahead of the failed subscription has completed, so the link and the current
+     * reading are kept.
+     */
+    private void resubscribe() {
+        FrameDecoderRegistry.Protocol resolved = manager.getDecoderRegistry().resolve(client);
+        synchronized (this) {
+            if (state != State.DISCOVERING && state != State.SUBSCRIBING) {
+                return;
+            }
+            resubscribed = true;
+            protocol = resolved;
+        }
+        if (resolved == null) {
+            close();
+        } else {
+            enableIndication();
+        }
+    }
+
+    /**
+     * Downloads the readings the scale stored while offline, behind the live subscription so that live readings are
+     * not held up
+     */
+    private void startHistory(FrameDecoderRegistry.Protocol subscribed) {
+        HistorySync sync = manager.getHistorySync();
+        if (sync == null || subscribed.getId() != FrameDecoderRegistry.PROTOCOL_BODY_COMPOSITION) {
+            return;
+        }
+        HistorySync.Transfer transfer = sync.begin(device, queue, timer);
+        history = transfer;
+        transfer.start();
+    }
+
+    /**
+     * Records the failure of a queued operation, with its status if it was reported by the stack
+     */
+    private void traceError(Throwable error) {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        manager.trace(Trace.LEVEL_ERROR, Trace.GATT_ERROR, device,
+                cause instanceof GattException ? ((GattException) cause).getStatus() : GattException.STATUS_NOT_STARTED);
+    }
+
+    /**
+     * Records the phase that started at startNanos as finished now
+     *
+     * @return now, the start of the next phase
+     */
+    private long endPhase(ConnectionPhase phase, long startNanos) {
+        long now = System.nanoTime();
+        manager.recordLatency(phase, now - startNanos);
+        return now;
+    }
+
+    @Override
+    public void onServicesDiscovered(int status) {
+        queue.onOperationCompleted(GattOperationQueue.Callback.SERVICES_DISCOVERED, status);
+    }
+
+    @Override
+    public void onDescriptorWrite(int status) {
+        queue.onOperationCompleted(GattOperationQueue.Callback.DESCRIPTOR_WRITE, status);
+    }
+
+    @Override
+    public void onCharacteristicRead(UUID characteristic, byte[] value, int status) {
+        queue.onOperationCompleted(GattOperationQueue.Callback.CHARACTERISTIC_READ, status);
+    }
+
+    @Override
+    public void onCharacteristicWrite(UUID characteristic, int status) {
+        queue.onOperationCompleted(GattOperationQueue.Callback.CHARACTERISTIC_WRITE, status);
+    }
+
+    @Override
+    public void onMtuChanged(int mtu, int status) {
+        queue.onOperationCompleted(GattOperationQueue.Callback.MTU_CHANGED, status);
+    }
+
+    @Override
+    public void onCharacteristicChanged(UUID characteristic, byte[] value) {
+        if (GattUuids.BODY_COMPOSITION_HISTORY.equals(characteristic)) {
+            HistorySync.Transfer transfer = history;
+            if (transfer != null && value != null) {
+                transfer.onNotification(value);
+            }
+            return;
+        }
+        FrameDecoderRegistry.Protocol subscribed = protocol;
+        if (subscribed == null || !subscribed.getCharacteristic().equals(characteristic)) {
+            return;
+        }
+        if (frameCount++ == 0) {
+            long now = System.nanoTime();
+            firstMeasurementNanos = now - setupStartNanos;
+            manager.recordLatency(ConnectionPhase.FIRST_INDICATION, now - phaseStartNanos);
+            manager.recordLatency(fastPath ? ConnectionPhase.RECONNECT_TO_FIRST_MEASUREMENT
+                    : ConnectionPhase.TIME_TO_FIRST_MEASUREMENT, firstMeasurementNanos);
+        }
+        FrameSink frameSink = manager.getFrameSink();
+        if (frameSink != null) {
+            if (value != null) {
+                frameSink.offer(device, subscribed.getId(), value, 0, value.length);
+            }
+            return;
+        }
+        if (value != null && subscribed.decode(value, 0, value.length, measurement)) {
+            manager.onMeasurement(this, measurement);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Opens GATT connections to scales. Implemented on top of BluetoothDevice.connectGatt in the app,
+ * and by {@link SimulatedScaleTransport} for tests and soak runs on a JVM.
+ */
+public interface ScaleTransport {
+
+    /**
+     * Starts connecting to a scale. Connection progress and data are reported through the callback.
+     *
+     * @param address     MAC address of the scale
+     * @param autoConnect let the stack connect whenever the device shows up instead of trying a direct connection
+     * @return client for the connection, usable once the callback reports it connected
+     */
+    GattClient connect(String address, boolean autoConnect, GattCallback callback);
+}
@@ -0,0 +1,224 @@
+package com.example.btchallengeapp.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Devices seen by recent scans, keyed by packed MAC address, with their name and last RSSI, so that the scan list can
+ * be filled before the first scan result arrives.
+ *
+ * The cache holds a bounded number of devices in primitive arrays, the least recently seen one is replaced when it is
+ * full. Entries older than the maximum age are skipped when the file is read. Like {@link KnownScaleStore}, it lives in
+ * memory and is written with {@link #save()}; records are fixed size, names are cut to the length of an advertised
+ * local name. The cache is thread safe.
+ */
+public final class ScanCache {
+
+    private static final int MAGIC = 0x53434E43; // "SCNC"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    // long device, long last seen millis, byte rssi, byte name length, name
+    private static final int MAX_NAME_BYTES = 30;
+    private static final int RECORD_SIZE = 18 + MAX_NAME_BYTES;
+    private static final byte[] NAME_PADDING = new byte[MAX_NAME_BYTES];
+
+    private final File file;
+    private final long maxAgeMillis;
+    private final long[] devices;
+    private final long[] lastSeenMillis;
+    private final int[] rssis;
+    private final String[] names;
+    private int size;
+    private boolean dirty;
+
+    /**
+     * @param capacity     maximum number of devices remembered
+     * @param maxAgeMillis entries last seen longer ago are not read back
+     */
+    public ScanCache(File file, int capacity, long maxAgeMillis) {
+        this.file = file;
+        this.maxAgeMillis = maxAgeMillis;
+        devices = new long[capacity];
+        lastSeenMillis = new long[capacity];
+        rssis = new int[capacity];
+        names = new String[capacity];
+    }
+
+    /**
+     * Reads the devices saved in the file. A missing or unreadable file leaves the cache empty.
+     *
+     * @param nowMillis wall clock time the age of the entries is measured against
+     * @return true if the file was read
+     */
+    public synchronized boolean load(long nowMillis) {
+        size = 0;
+        if (!file.exists()) {
+            return false;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] bytes = new byte[(int) Math.min(in.length(), HEADER_SIZE + (long) devices.length * RECORD_SIZE)];
+            in.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            if (bytes.length < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+                return false;
+            }
+            int count = Math.min(buffer.getInt(8), (bytes.length - HEADER_SIZE) / RECORD_SIZE);
+            for (int i = 0; i < count; i++) {
+                int offset = HEADER_SIZE + i * RECORD_SIZE;
+                long seen = buffer.getLong(offset + 8);
+                if (nowMillis - seen > maxAgeMillis) {
+                    continue;
+                }
+                devices[size] = buffer.getLong(offset);
+                lastSeenMillis[size] = seen;
+                rssis[size] = buffer.get(offset + 16);
+                int nameLength = Math.min(buffer.get(offset + 17) & 0xFF, MAX_NAME_BYTES);
+                names[size] = nameLength > 0
+                        ? new String(bytes, offset + 18, nameLength, StandardCharsets.UTF_8) : null;
+                size++;
+            }
+            // aged out entries are only dropped from the file with the next change
+            dirty = false;
+            return true;
+        } catch (IOException e) {
+            size = 0;
+            return false;
+        }
+    }
+
+    /**
+     * Writes the cache if it changed since it was loaded or last saved. The file is replaced atomically, so a crash
+     * leaves either the old or the new content.
+     */
+    public void save() throws IOException {
+        byte[] bytes;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + size * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE).putInt(size);
+            for (int i = 0; i < size; i++) {
+                byte[] name = encodeName(names[i]);
+                buffer.putLong(devices[i]).putLong(lastSeenMillis[i]).put((byte) rssis[i]).put((byte) name.length)
+                        .put(name).put(NAME_PADDING, 0, MAX_NAME_BYTES - name.length);
+            }
+            bytes = buffer.array();
+            dirty = false;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(bytes);
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            synchronized (this) {
+                dirty = true;
+            }
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    /**
+     * @return the UTF-8 bytes of the name, cut at a character boundary to fit a record
+     */
+    private static byte[] encodeName(String name) {
+        if (name == null) {
+            return new byte[0];
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_NAME_BYTES);
+        // continuation bytes of a cut character are dropped with it
+        if (length < bytes.length) {
+            while (length > 0 && (bytes[length] & 0xC0) == 0x80) {
+                length--;
+            }
+        }
+        byte[] cut = new byte[length];
+        System.arraycopy(bytes, 0, cut, 0, length);
+        return cut;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return packed MAC address of the entry, entries are in no particular order
+     */
+    public synchronized long getDevice(int index) {
+        return devices[checkIndex(index)];
+    }
+
+    /**
+     * @return advertised name of the entry, or null if the device never sent one
+     */
+    public synchronized String getName(int index) {
+        return names[checkIndex(index)];
+    }
+
+    public synchronized int getRssi(int index) {
+        return rssis[checkIndex(index)];
+    }
+
+    /**
+     * @return wall clock time the device was last heard
+     */
+    public synchronized long getLastSeenMillis(int index) {
+        return lastSeenMillis[checkIndex(index)];
+    }
+
+    /**
+     * Remembers that the device was heard
+     *
+     * @param name advertised name, or null to keep the one already cached
+     */
+    public synchronized void record(long device, String name, int rssi, long timeMillis) {
+        int index = indexOf(device);
+        if (index < 0) {
+            index = size < devices.length ? size++ : leastRecentlySeen();
+            devices[index] = device;
+            names[index] = null;
+        } else if (timeMillis < lastSeenMillis[index]) {
+            return;
+        }
+        lastSeenMillis[index] = timeMillis;
+        rssis[index] = Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, rssi));
+        if (name != null) {
+            names[index] = name;
+        }
+        dirty = true;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + size);
+        }
+        return index;
+    }
+
+    // a few dozen devices, a scan beats hashing
+    private int indexOf(long device) {
+        for (int i = 0; i < size; i++) {
+            if (devices[i] == device) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int leastRecentlySeen() {
+        int oldest = 0;
+        for (int i = 1; i < size; i++) {
+            if (lastSeenMillis[i] < lastSeenMillis[oldest]) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+}
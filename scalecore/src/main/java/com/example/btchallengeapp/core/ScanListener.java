@@ -0,0 +1,21 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Receives the advertisements found by a {@link ScanTransport}, on the thread delivering the scan results.
+ */
+public interface ScanListener {
+
+    /**
+     * @param address        MAC address of the advertiser
+     * @param name           advertised name, or null
+     * @param timestampNanos time the advertisement was received, in the elapsed realtime base of the platform
+     */
+    void onAdvertisement(String address, String name, int rssi, long timestampNanos);
+
+    /**
+     * Called after each delivery of one or more advertisements, so that a list is updated once per batch
+     */
+    void onAdvertisementsDelivered();
+
+    void onScanFailed(int errorCode);
+}
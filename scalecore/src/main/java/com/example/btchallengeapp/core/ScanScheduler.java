@@ -0,0 +1,263 @@
+package com.example.btchallengeapp.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duty cycles a background scan so that a weigh-in on a known scale is caught without the app being open.
+ *
+ * The scheduler alternates low power scan windows with idle intervals. Every window in which no known scale advertised
+ * doubles the interval, up to a maximum, so an empty room costs little radio time. When a known scale advertises, the
+ * interval drops back to the minimum, the scan switches to an aggressive low latency window and the scale is handed to
+ * the {@link Host} to connect. While a scale is connected scanning is suspended, and once the connection is gone an
+ * aggressive window catches the next person stepping on.
+ *
+ * The scheduler owns no thread and no timer. It reads time from an injected {@link MonotonicClock} and asks the host
+ * for its wake-ups, so the policy runs the same against the platform scanner and a virtual clock. It is thread safe.
+ * The transport and the wake-up requests are called with the scheduler lock held and must not call back in place,
+ * the scale hand-off is called without it.
+ */
+public final class ScanScheduler implements ScanListener {
+
+    public enum Mode {
+        STOPPED,
+        /**
+         * Waiting for the next low power window
+         */
+        IDLE,
+        LOW_POWER,
+        /**
+         * Low latency scan after a known scale was seen or a connection ended
+         */
+        AGGRESSIVE,
+        /**
+         * Suspended while a scale is connected
+         */
+        CONNECTED
+    }
+
+    /**
+     * Runs the scheduler: wakes it up when asked to and connects the scales it finds
+     */
+    public interface Host {
+
+        /**
+         * Calls {@link #onWakeUp()} after the delay, replacing the wake-up requested before. The delay runs on while
+         * the device sleeps, and the wake-up must wake it, the scan is stopped in between.
+         */
+        void requestWakeUp(long delayNanos);
+
+        /**
+         * A known scale advertised and should be connected
+         */
+        void onScaleFound(String address);
+    }
+
+    private static final Mode[] MODES = Mode.values();
+
+    private final ScanTransport transport;
+    private final KnownScaleStore knownScales;
+    private final MonotonicClock clock;
+    private final Host host;
+
+    private long lowPowerWindowNanos = TimeUnit.SECONDS.toNanos(10);
+    private long aggressiveWindowNanos = TimeUnit.SECONDS.toNanos(20);
+    private long minIntervalNanos = TimeUnit.SECONDS.toNanos(10);
+    private long maxIntervalNanos = TimeUnit.SECONDS.toNanos(50);
+
+    private Mode mode = Mode.STOPPED;
+    private long modeStartNanos;
+    private long deadlineNanos;
+    private long intervalNanos;
+    private boolean scaleSeen;
+    private String handedOffAddress;
+    private long handedOffNanos;
+
+    private final long[] modeNanos = new long[MODES.length];
+    private long windows;
+    private long wakeUps;
+    private long handOffs;
+
+    /**
+     * @param transport   scans for the scales, started in scales only mode
+     * @param knownScales scales that trigger the aggressive window and are handed off to connect
+     */
+    public ScanScheduler(ScanTransport transport, KnownScaleStore knownScales, MonotonicClock clock, Host host) {
+        this.transport = transport;
+        this.knownScales = knownScales;
+        this.clock = clock;
+        this.host = host;
+    }
+
+    /**
+     * @param lowPowerWindowMillis   length of a low power scan window
+     * @param aggressiveWindowMillis length of a low latency scan window
+     * @param minIntervalMillis      idle time after a window in which a known scale advertised
+     * @param maxIntervalMillis      longest idle time the backoff grows to, a scale advertising for longer than this
+     *                               plus a window is always caught
+     */
+    public synchronized void setWindows(long lowPowerWindowMillis, long aggressiveWindowMillis, long minIntervalMillis,
+                                        long maxIntervalMillis) {
+        lowPowerWindowNanos = TimeUnit.MILLISECONDS.toNanos(lowPowerWindowMillis);
+        aggressiveWindowNanos = TimeUnit.MILLISECONDS.toNanos(aggressiveWindowMillis);
+        minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+        maxIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(minIntervalMillis, maxIntervalMillis));
+    }
+
+    public synchronized Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Starts with a low power window
+     */
+    public synchronized void start() {
+        if (mode != Mode.STOPPED) {
+            return;
+        }
+        intervalNanos = minIntervalNanos;
+        enter(Mode.LOW_POWER);
+    }
+
+    public synchronized void stop() {
+        if (mode != Mode.STOPPED) {
+            enter(Mode.STOPPED);
+        }
+    }
+
+    /**
+     * Tells the scheduler whether any scale is connected. Scanning is suspended while one is.
+     */
+    public synchronized void setConnected(boolean connected) {
+        if (connected ? mode == Mode.STOPPED || mode == Mode.CONNECTED : mode != Mode.CONNECTED) {
+            return;
+        }
+        enter(connected ? Mode.CONNECTED : Mode.AGGRESSIVE);
+    }
+
+    /**
+     * Called by the host when a requested wake-up is due
+     */
+    public synchronized void onWakeUp() {
+        wakeUps++;
+        long now = clock.nanoTime();
+        if (mode == Mode.STOPPED || mode == Mode.CONNECTED) {
+            return;
+        }
+        if (now < deadlineNanos) {
+            //early, or a stale wake-up of a replaced deadline
+            host.requestWakeUp(deadlineNanos - now);
+            return;
+        }
+        if (mode == Mode.IDLE) {
+            enter(Mode.LOW_POWER);
+            return;
+        }
+        if (mode == Mode.LOW_POWER && !scaleSeen) {
+            intervalNanos = Math.min(intervalNanos * 2, maxIntervalNanos);
+        }
+        enter(Mode.IDLE);
+    }
+
+    @Override
+    public void onAdvertisement(String address, String name, int rssi, long timestampNanos) {
+        synchronized (this) {
+            if (mode != Mode.LOW_POWER && mode != Mode.AGGRESSIVE) {
+                //results still in flight after the scan was stopped
+                return;
+            }
+            if (!knownScales.isKnown(MacAddress.pack(address))) {
+                return;
+            }
+            long now = clock.nanoTime();
+            intervalNanos = minIntervalNanos;
+            if (mode == Mode.LOW_POWER) {
+                enter(Mode.AGGRESSIVE);
+            }
+            scaleSeen = true;
+            //the scale advertises many times a second while it is in use, hand it off once per window
+            if (address.equals(handedOffAddress) && now - handedOffNanos < aggressiveWindowNanos) {
+                address = null;
+            } else {
+                handedOffAddress = address;
+                handedOffNanos = now;
+                handOffs++;
+            }
+        }
+        if (address != null) {
+            host.onScaleFound(address);
+        }
+    }
+
+    @Override
+    public void onAdvertisementsDelivered() {
+    }
+
+    @Override
+    public void onScanFailed(int errorCode) {
+        //the next window tries again
+    }
+
+    private synchronized void enter(Mode next) {
+        long now = clock.nanoTime();
+        modeNanos[mode.ordinal()] += now - modeStartNanos;
+        mode = next;
+        modeStartNanos = now;
+        scaleSeen = false;
+        long delay;
+        switch (next) {
+            case LOW_POWER:
+                delay = lowPowerWindowNanos;
+                windows++;
+                break;
+            case AGGRESSIVE:
+                delay = aggressiveWindowNanos;
+                windows++;
+                break;
+            case IDLE:
+                delay = intervalNanos;
+                break;
+            default:
+                delay = -1;
+                break;
+        }
+        deadlineNanos = now + delay;
+        //called with the lock held so that the radio follows the mode changes in order, neither calls back in place
+        if (next == Mode.LOW_POWER || next == Mode.AGGRESSIVE) {
+            transport.startScan(true, next == Mode.AGGRESSIVE, this);
+        } else {
+            transport.stopScan();
+        }
+        if (delay >= 0) {
+            host.requestWakeUp(delay);
+        }
+    }
+
+    /**
+     * @return time spent in the mode so far
+     */
+    public synchronized long getModeNanos(Mode of) {
+        long total = modeNanos[of.ordinal()];
+        return of == mode ? total + clock.nanoTime() - modeStartNanos : total;
+    }
+
+    /**
+     * @return scan windows opened so far, low power and aggressive
+     */
+    public synchronized long getWindowCount() {
+        return windows;
+    }
+
+    /**
+     * @return wake-ups handled so far, each one costs the CPU a wake from sleep
+     */
+    public synchronized long getWakeUpCount() {
+        return wakeUps;
+    }
+
+    /**
+     * @return scales handed off to connect so far
+     */
+    public synchronized long getHandOffCount() {
+        return handOffs;
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Finds advertising scales. Implemented on top of BluetoothLeScanner in the app and by {@link SimulatedScanner}
+ * for runs on a JVM, so the code consuming the scan results is the same in both.
+ */
+public interface ScanTransport {
+
+    /**
+     * @param scalesOnly true to only report body composition scales, filtered and batched by the controller if possible
+     */
+    void startScan(boolean scalesOnly, ScanListener listener);
+
+    /**
+     * @param lowLatency true to keep the radio listening all the time, false for the duty cycle the transport is
+     *                   configured with
+     */
+    default void startScan(boolean scalesOnly, boolean lowLatency, ScanListener listener) {
+        startScan(scalesOnly, listener);
+    }
+
+    void stopScan();
+}
@@ -0,0 +1,296 @@
+package com.example.btchallengeapp.core;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport connecting to virtual scales instead of real peripherals, for tests and soak runs on a JVM.
+ *
+ * Every GATT request completes after the configured link latency, and once indications are enabled the scale sends
+ * a body composition frame at a fixed interval until it is disconnected. The frames come from a {@link ScaleEmulator}
+ * seeded with the address, by default each one is a new stabilized reading in kg.
+ *
+ * Scales can also hold a history of stored readings, sent over {@link GattUuids#BODY_COMPOSITION_HISTORY} when asked
+ * for. Its speed follows the link parameters: a connection event every 30 ms, 11.25 ms at high and 100 ms at low power
+ * priority, with up to four notifications per event, each packing as many records as the MTU leaves room for.
+ */
+public final class SimulatedScaleTransport implements ScaleTransport {
+
+    private final ScheduledExecutorService executor;
+    private final long linkLatencyMillis;
+    private final long frameIntervalMillis;
+    private final long autoConnectLatencyMillis;
+    private volatile ScaleEmulator.Unit[] units = {ScaleEmulator.Unit.KG};
+    private volatile boolean weighIns;
+    private volatile int historyRecords;
+    private volatile boolean historyEnds = true;
+    // readings still stored per address, until a transfer is acknowledged
+    private final ConcurrentHashMap<String, Integer> histories = new ConcurrentHashMap<>();
+    // connection priority last asked for per address
+    private final ConcurrentHashMap<String, Integer> priorities = new ConcurrentHashMap<>();
+
+    /**
+     * @param executor            runs the simulated callbacks, its thread count plays the role of the binder threads
+     * @param linkLatencyMillis   delay before the callback of every request
+     * @param frameIntervalMillis time between two indications of a subscribed scale
+     */
+    public SimulatedScaleTransport(ScheduledExecutorService executor, long linkLatencyMillis, long frameIntervalMillis) {
+        this(executor, linkLatencyMillis, frameIntervalMillis, linkLatencyMillis);
+    }
+
+    /**
+     * @param autoConnectLatencyMillis time a background (autoConnect) connection takes to come up, usually far longer
+     *                                 than a direct one
+     */
+    public SimulatedScaleTransport(ScheduledExecutorService executor, long linkLatencyMillis, long frameIntervalMillis,
+                                   long autoConnectLatencyMillis) {
+        this.executor = executor;
+        this.linkLatencyMillis = linkLatencyMillis;
+        this.frameIntervalMillis = frameIntervalMillis;
+        this.autoConnectLatencyMillis = autoConnectLatencyMillis;
+    }
+
+    /**
+     * @param weighIns true to send complete weigh-ins including unstabilized and weight removed frames
+     * @param units    units the scales are set to, assigned to the scales by address
+     */
+    public void setEmulation(boolean weighIns, ScaleEmulator.Unit... units) {
+        this.weighIns = weighIns;
+        this.units = units.clone();
+    }
+
+    /**
+     * @param records number of stored readings each scale starts with, sent in one history transfer
+     */
+    public void setHistory(int records) {
+        historyRecords = records;
+        histories.clear();
+    }
+
+    /**
+     * @param ends false for scales which go silent after their records instead of sending the end marker
+     */
+    public void setHistoryEnds(boolean ends) {
+        historyEnds = ends;
+    }
+
+    /**
+     * @return connection priority last asked for on a connection to the scale, the balanced one if none was
+     */
+    public int getConnectionPriority(String address) {
+        return priorities.getOrDefault(address, GattClient.CONNECTION_PRIORITY_BALANCED);
+    }
+
+    @Override
+    public GattClient connect(String address, boolean autoConnect, GattCallback callback) {
+        SimulatedScale scale = new SimulatedScale(address, callback);
+        scale.after(autoConnect ? autoConnectLatencyMillis : linkLatencyMillis,
+                () -> callback.onConnectionStateChange(GattClient.GATT_SUCCESS, true));
+        return scale;
+    }
+
+    private final class SimulatedScale implements GattClient {
+
+        private static final int NOTIFICATIONS_PER_EVENT = 4;
+        private static final int MAX_MTU = 247;
+
+        private final String address;
+        private final ScaleEmulator emulator;
+        private final ScaleEmulator historyEmulator;
+        private final GattCallback callback;
+        private final byte[] frame = new byte[BodyCompositionDecoder.FRAME_LENGTH];
+        private volatile ScheduledFuture<?> indications;
+        private volatile boolean connected = true;
+        private volatile int mtu = DEFAULT_MTU;
+        private volatile long connectionIntervalMicros = 30_000;
+        private volatile boolean historyNotifications;
+        private int historyRemaining;
+        private boolean historyStreaming;
+
+        SimulatedScale(String address, GattCallback callback) {
+            int seed = address.hashCode();
+            ScaleEmulator.Unit[] scaleUnits = units;
+            ScaleEmulator.Unit unit = scaleUnits[Math.floorMod(seed, scaleUnits.length)];
+            this.address = address;
+            this.emulator = new ScaleEmulator(seed, unit, weighIns);
+            // the same stored readings on every connection until they are acknowledged
+            this.historyEmulator = new ScaleEmulator(seed * 31L + 1, unit, false);
+            this.callback = callback;
+        }
+
+        /**
+         * Runs a callback after the link latency, unless the scale got disconnected meanwhile
+         */
+        void later(Runnable event) {
+            after(linkLatencyMillis, event);
+        }
+
+        void after(long delayMillis, Runnable event) {
+            executor.schedule(() -> {
+                if (connected) {
+                    event.run();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void indicate() {
+            if (!connected) {
+                indications.cancel(false);
+                return;
+            }
+            emulator.nextFrame(frame, 0);
+            callback.onCharacteristicChanged(GattUuids.BODY_COMPOSITION_MEASUREMENT, frame);
+        }
+
+        /**
+         * Sends the notifications of one connection event, then the end marker once the history is through
+         */
+        private void streamHistory() {
+            int perNotification = Math.max(1, (mtu - 3) / BodyCompositionDecoder.FRAME_LENGTH);
+            for (int n = 0; n < NOTIFICATIONS_PER_EVENT; n++) {
+                byte[] value;
+                synchronized (this) {
+                    if (!historyStreaming) {
+                        return;
+                    }
+                    if (historyRemaining == 0) {
+                        historyStreaming = false;
+                        if (!historyEnds) {
+                            return;
+                        }
+                        value = new byte[]{0x03};
+                    } else {
+                        int count = Math.min(perNotification, historyRemaining);
+                        historyRemaining -= count;
+                        value = new byte[count * BodyCompositionDecoder.FRAME_LENGTH];
+                        for (int i = 0; i < count; i++) {
+                            historyEmulator.nextFrame(value, i * BodyCompositionDecoder.FRAME_LENGTH);
+                        }
+                    }
+                }
+                callback.onCharacteristicChanged(GattUuids.BODY_COMPOSITION_HISTORY, value);
+                if (value.length == 1) {
+                    return;
+                }
+            }
+            executor.schedule(() -> {
+                if (connected) {
+                    streamHistory();
+                }
+            }, connectionIntervalMicros, TimeUnit.MICROSECONDS);
+        }
+
+        private void onHistoryCommand(byte[] value) {
+            if (value.length == 0) {
+                return;
+            }
+            synchronized (this) {
+                switch (value[0]) {
+                    case 0x02:
+                        if (!historyNotifications || historyStreaming) {
+                            return;
+                        }
+                        historyRemaining = histories.getOrDefault(address, historyRecords);
+                        historyStreaming = true;
+                        break;
+                    case 0x03:
+                        historyStreaming = false;
+                        return;
+                    case 0x04:
+                        histories.put(address, 0);
+                        return;
+                    default:
+                        return;
+                }
+            }
+            after(linkLatencyMillis, this::streamHistory);
+        }
+
+        @Override
+        public boolean discoverServices() {
+            later(() -> callback.onServicesDiscovered(GattClient.GATT_SUCCESS));
+            return connected;
+        }
+
+        @Override
+        public boolean hasService(UUID service) {
+            return GattUuids.SERVICE_BODY_COMPOSITION.equals(service);
+        }
+
+        @Override
+        public boolean enableIndication(UUID service, UUID characteristic) {
+            if (!hasService(service)) {
+                // refused like a service the stack does not know
+                return false;
+            }
+            later(() -> {
+                callback.onDescriptorWrite(GattClient.GATT_SUCCESS);
+                indications = executor.scheduleAtFixedRate(this::indicate, frameIntervalMillis, frameIntervalMillis,
+                        TimeUnit.MILLISECONDS);
+            });
+            return connected;
+        }
+
+        @Override
+        public boolean enableNotification(UUID service, UUID characteristic) {
+            later(() -> {
+                historyNotifications = true;
+                callback.onDescriptorWrite(GattClient.GATT_SUCCESS);
+            });
+            return connected;
+        }
+
+        @Override
+        public boolean requestMtu(int requested) {
+            later(() -> {
+                mtu = Math.max(DEFAULT_MTU, Math.min(requested, MAX_MTU));
+                callback.onMtuChanged(mtu, GattClient.GATT_SUCCESS);
+            });
+            return connected;
+        }
+
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            priorities.put(address, priority);
+            connectionIntervalMicros = priority == CONNECTION_PRIORITY_HIGH ? 11_250
+                    : priority == CONNECTION_PRIORITY_LOW_POWER ? 100_000 : 30_000;
+            return connected;
+        }
+
+        @Override
+        public boolean readCharacteristic(UUID service, UUID characteristic) {
+            later(() -> callback.onCharacteristicRead(characteristic, new byte[0], GattClient.GATT_SUCCESS));
+            return connected;
+        }
+
+        @Override
+        public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, boolean withResponse) {
+            byte[] command = value.clone();
+            // like on Android, a write without response is reported as well, once the scale took the command
+            later(() -> {
+                if (GattUuids.BODY_COMPOSITION_HISTORY.equals(characteristic)) {
+                    onHistoryCommand(command);
+                }
+                callback.onCharacteristicWrite(characteristic, GattClient.GATT_SUCCESS);
+            });
+            return connected;
+        }
+
+        @Override
+        public void disconnect() {
+            connected = false;
+            ScheduledFuture<?> running = indications;
+            if (running != null) {
+                running.cancel(false);
+            }
+        }
+
+        @Override
+        public void close() {
+            disconnect();
+        }
+    }
+}
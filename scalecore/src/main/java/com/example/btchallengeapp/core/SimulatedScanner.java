@@ -0,0 +1,108 @@
+package com.example.btchallengeapp.core;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scan transport reporting virtual advertisers, for tests and soak runs on a JVM.
+ *
+ * A number of scales, with the addresses returned by {@link #scaleAddress(int)}, and of other devices advertise at a
+ * fixed interval with a wandering RSSI. A scales only scan leaves the other devices out, as the controller filter
+ * would. With a report delay the results are delivered in batches, like offloaded scan batching, otherwise each
+ * advertisement is delivered on its own. All results are delivered from one task at a time, like the main thread
+ * delivers the platform scan callbacks.
+ */
+public final class SimulatedScanner implements ScanTransport {
+
+    public static final String SCALE_NAME = "MIBFS";
+
+    private final ScheduledExecutorService executor;
+    private final int scales;
+    private final int otherDevices;
+    private final long advertisingIntervalMillis;
+    private final long reportDelayMillis;
+    private final String[] addresses;
+    private final int[] rssi;
+    private final Random random = new Random(42);
+
+    private ScheduledFuture<?> scan;
+    private volatile long advertisementCount;
+
+    /**
+     * @param scales                    number of advertising scales
+     * @param otherDevices              number of advertisers which are not scales
+     * @param advertisingIntervalMillis time between two advertisements of a device
+     * @param reportDelayMillis         time the results are batched for, 0 to deliver each one directly
+     */
+    public SimulatedScanner(ScheduledExecutorService executor, int scales, int otherDevices,
+                            long advertisingIntervalMillis, long reportDelayMillis) {
+        this.executor = executor;
+        this.scales = scales;
+        this.otherDevices = otherDevices;
+        this.advertisingIntervalMillis = advertisingIntervalMillis;
+        this.reportDelayMillis = reportDelayMillis;
+        addresses = new String[scales + otherDevices];
+        rssi = new int[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = i < scales ? scaleAddress(i)
+                    : String.format("AA:BB:CC:%02X:%02X:%02X", (i >> 16) & 0xFF, (i >> 8) & 0xFF, i & 0xFF);
+            rssi[i] = -50 - random.nextInt(40);
+        }
+    }
+
+    /**
+     * @return MAC address of the scale with the given index
+     */
+    public static String scaleAddress(int index) {
+        return String.format("C8:47:8C:%02X:%02X:%02X", (index >> 16) & 0xFF, (index >> 8) & 0xFF, index & 0xFF);
+    }
+
+    /**
+     * @return advertisements delivered so far
+     */
+    public long getAdvertisementCount() {
+        return advertisementCount;
+    }
+
+    @Override
+    public synchronized void startScan(boolean scalesOnly, ScanListener listener) {
+        stopScan();
+        int devices = scalesOnly ? scales : addresses.length;
+        if (reportDelayMillis > 0) {
+            int advertisementsPerReport = (int) Math.max(1, reportDelayMillis / advertisingIntervalMillis);
+            scan = executor.scheduleAtFixedRate(() -> deliver(listener, devices, advertisementsPerReport, true),
+                    reportDelayMillis, reportDelayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            scan = executor.scheduleAtFixedRate(() -> deliver(listener, devices, 1, false),
+                    advertisingIntervalMillis, advertisingIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public synchronized void stopScan() {
+        if (scan != null) {
+            scan.cancel(false);
+            scan = null;
+        }
+    }
+
+    private void deliver(ScanListener listener, int devices, int advertisementsPerDevice, boolean batched) {
+        long delivered = 0;
+        for (int i = 0; i < devices; i++) {
+            for (int k = 0; k < advertisementsPerDevice; k++) {
+                rssi[i] = Math.max(-100, Math.min(-30, rssi[i] + random.nextInt(7) - 3));
+                listener.onAdvertisement(addresses[i], i < scales ? SCALE_NAME : null, rssi[i], System.nanoTime());
+                delivered++;
+            }
+            if (!batched) {
+                listener.onAdvertisementsDelivered();
+            }
+        }
+        if (batched) {
+            listener.onAdvertisementsDelivered();
+        }
+        advertisementCount += delivered;
+    }
+}
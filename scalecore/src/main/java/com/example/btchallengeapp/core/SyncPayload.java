@@ -0,0 +1,202 @@
+package com.example.btchallengeapp.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact encoding of a run of measurement log records for upload, see {@link MeasurementSyncer}.
+ *
+ * Layout before compression:
+ * "WS", version byte, varint index of the first record in the log, varint record count, then per record:
+ * zigzag varint seconds since the previous record (since 1970 for the first), varint device code, zigzag varint grams
+ * since the previous record, varint impedance, varint flags.
+ * The device code is 0 for a device not seen before in the payload, followed by its 6 byte packed MAC address, or one
+ * more than the position of the device among those seen before.
+ *
+ * Consecutive readings are close in time and weight, so most records take 7 to 9 bytes before compression and 6 to 7
+ * after, a quarter of a record in the log. The payload is compressed with zlib, which HTTP calls deflate.
+ * The log index lets the server drop records it already has when a batch is resent with other boundaries.
+ */
+public final class SyncPayload {
+
+    public static final int VERSION = 1;
+    private static final int MAX_DEVICES = 64;
+
+    private SyncPayload() {
+    }
+
+    /**
+     * @return the uncompressed payload of count records of the log starting at first
+     */
+    public static byte[] encode(MeasurementLogView view, int first, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + count * 8);
+        out.write('W');
+        out.write('S');
+        out.write(VERSION);
+        writeVarint(out, first);
+        writeVarint(out, count);
+        long[] devices = new long[MAX_DEVICES];
+        int deviceCount = 0;
+        long previousEpoch = 0;
+        int previousGrams = 0;
+        for (int i = first; i < first + count; i++) {
+            long epochSeconds = view.epochSeconds(i);
+            writeVarint(out, zigzag(epochSeconds - previousEpoch));
+            previousEpoch = epochSeconds;
+
+            long device = view.device(i);
+            int code = 0;
+            for (int d = 0; d < deviceCount && code == 0; d++) {
+                if (devices[d] == device) {
+                    code = d + 1;
+                }
+            }
+            writeVarint(out, code);
+            if (code == 0) {
+                for (int shift = 40; shift >= 0; shift -= 8) {
+                    out.write((int) (device >>> shift));
+                }
+                // further devices are written out each time, a batch rarely holds more than a few scales
+                if (deviceCount < MAX_DEVICES) {
+                    devices[deviceCount++] = device;
+                }
+            }
+
+            int grams = view.weightGrams(i);
+            writeVarint(out, zigzag(grams - previousGrams));
+            previousGrams = grams;
+            writeVarint(out, view.impedance(i));
+            writeVarint(out, view.flags(i));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes an uncompressed payload into the batch, the device of each record is also set as its user
+     *
+     * @return index of the first record in the log of the sender
+     * @throws IOException if the payload is malformed
+     */
+    public static long decode(byte[] payload, MeasurementBatch out) throws IOException {
+        Reader in = new Reader(payload);
+        if (in.readByte() != 'W' || in.readByte() != 'S' || in.readByte() != VERSION) {
+            throw new IOException("Not a measurement payload");
+        }
+        long first = in.readVarint();
+        long count = in.readVarint();
+        long[] devices = new long[MAX_DEVICES];
+        int deviceCount = 0;
+        long epochSeconds = 0;
+        long grams = 0;
+        for (long i = 0; i < count; i++) {
+            epochSeconds += unzigzag(in.readVarint());
+            int code = (int) in.readVarint();
+            long device;
+            if (code == 0) {
+                device = 0;
+                for (int b = 0; b < 6; b++) {
+                    device = (device << 8) | in.readByte();
+                }
+                if (deviceCount < MAX_DEVICES) {
+                    devices[deviceCount++] = device;
+                }
+            } else if (code <= deviceCount) {
+                device = devices[code - 1];
+            } else {
+                throw new IOException("Unknown device " + code);
+            }
+            grams += unzigzag(in.readVarint());
+            int impedance = (int) in.readVarint();
+            int flags = (int) in.readVarint();
+            out.add(device, device, epochSeconds, (int) grams, impedance, flags);
+        }
+        return first;
+    }
+
+    public static byte[] compress(byte[] payload) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 2 + 64);
+            byte[] chunk = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @throws IOException if the data is not zlib compressed
+     */
+    public static byte[] decompress(byte[] compressed) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 2);
+            byte[] chunk = new byte[4096];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(chunk);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated payload");
+                }
+                out.write(chunk, 0, inflated);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() throws IOException {
+            if (position >= data.length) {
+                throw new IOException("Truncated payload");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+    }
+}
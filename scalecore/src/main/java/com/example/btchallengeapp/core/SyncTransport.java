@@ -0,0 +1,19 @@
+package com.example.btchallengeapp.core;
+
+import java.io.IOException;
+
+/**
+ * Delivers compressed measurement payloads for the {@link MeasurementSyncer}. Called on the syncer threads, one call
+ * per batch in flight, so implementations may block and must be thread safe.
+ */
+public interface SyncTransport {
+
+    /**
+     * @param batchId     stays the same when a batch is retried, so the receiver can drop repeats
+     * @param payload     zlib compressed {@link SyncPayload}
+     * @param recordCount number of records in the payload
+     * @return the HTTP status of the response
+     * @throws IOException if no response was received
+     */
+    int post(String batchId, byte[] payload, int recordCount) throws IOException;
+}
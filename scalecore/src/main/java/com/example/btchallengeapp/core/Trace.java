@@ -0,0 +1,176 @@
+package com.example.btchallengeapp.core;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Event trace for the hot callbacks: scan results, measurement frames and GATT status.
+ *
+ * Every event is counted, whatever the level, with one atomic increment. Events at or below the current level are
+ * also recorded into a preallocated ring of primitive records, the time, the event and two arguments, overwriting the
+ * oldest ones when it is full. Nothing is formatted and nothing is allocated until the trace is dumped, so tracing can
+ * stay in callbacks which run hundreds of times a second. With the level at {@link #LEVEL_OFF} an event costs the
+ * counter increment and a comparison.
+ *
+ * The first argument of every event is the packed MAC address of the device, see {@link MacAddress}.
+ */
+public final class Trace {
+
+    public static final int LEVEL_OFF = 0;
+    public static final int LEVEL_ERROR = 1;
+    public static final int LEVEL_INFO = 2;
+    public static final int LEVEL_DEBUG = 3;
+
+    /**
+     * Advertisement received, with the RSSI
+     */
+    public static final int SCAN_RESULT = 0;
+    /**
+     * Frame decoded into a new reading, with the weight in grams
+     */
+    public static final int FRAME_ACCEPTED = 1;
+    /**
+     * Frame of an unknown protocol or with a length its decoders do not understand, with the length
+     */
+    public static final int FRAME_INVALID = 2;
+    /**
+     * Frame of a reading still settling, with the weight in grams
+     */
+    public static final int FRAME_UNSTABILIZED = 3;
+    /**
+     * Frame sent after stepping off the scale, with the weight in grams
+     */
+    public static final int FRAME_WEIGHT_REMOVED = 4;
+    /**
+     * Frame with a stabilized weight but the scale clock unset, with the weight in grams
+     */
+    public static final int FRAME_DATE_INVALID = 5;
+    /**
+     * Repeat of the last reading of the scale, with the weight in grams
+     */
+    public static final int FRAME_DUPLICATE = 6;
+    /**
+     * Connection or operation failed, with the GATT status or one of the {@link GattException} statuses
+     */
+    public static final int GATT_ERROR = 7;
+    /**
+     * Session changed state, with the ordinal of the {@link ScaleSession.State}
+     */
+    public static final int CONNECTION_STATE = 8;
+    /**
+     * Device added to the scan list, also when heard again after it was dropped as stale, with the RSSI
+     */
+    public static final int DEVICE_LISTED = 9;
+    /**
+     * First scan list drawn after the process started, with the milliseconds since the process start
+     */
+    public static final int LIST_DRAWN = 10;
+
+    private static final String[] NAMES = {"SCAN_RESULT", "FRAME_ACCEPTED", "FRAME_INVALID", "FRAME_UNSTABILIZED",
+            "FRAME_WEIGHT_REMOVED", "FRAME_DATE_INVALID", "FRAME_DUPLICATE", "GATT_ERROR", "CONNECTION_STATE",
+            "DEVICE_LISTED", "LIST_DRAWN"};
+    private static final String[] ARGUMENTS = {"rssi", "grams", "length", "grams", "grams", "grams", "grams", "status",
+            "state", "rssi", "millis"};
+    public static final int EVENT_COUNT = NAMES.length;
+
+    private static final int FIELDS = 4;
+
+    private final MonotonicClock clock;
+    private final long[] records;
+    private final int mask;
+    private final AtomicLongArray counts = new AtomicLongArray(EVENT_COUNT);
+    private volatile int level;
+    private long written;
+
+    /**
+     * @param capacity number of events kept, rounded up to a power of two
+     * @param level    events above this level are counted but not recorded
+     */
+    public Trace(int capacity, int level, MonotonicClock clock) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.records = new long[size * FIELDS];
+        this.mask = size - 1;
+        this.level = level;
+        this.clock = clock;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return true if events of the level are recorded, to skip computing expensive arguments
+     */
+    public boolean isEnabled(int eventLevel) {
+        return eventLevel <= level;
+    }
+
+    /**
+     * Counts the event and records it if its level is enabled
+     */
+    public void event(int eventLevel, int event, long device, long argument) {
+        counts.incrementAndGet(event);
+        if (eventLevel > level) {
+            return;
+        }
+        long now = clock.nanoTime();
+        synchronized (this) {
+            int base = (int) (written++ & mask) * FIELDS;
+            records[base] = now;
+            records[base + 1] = (long) eventLevel << 32 | event;
+            records[base + 2] = device;
+            records[base + 3] = argument;
+        }
+    }
+
+    /**
+     * @return number of times the event happened, recorded or not
+     */
+    public long getCount(int event) {
+        return counts.get(event);
+    }
+
+    public static String getName(int event) {
+        return NAMES[event];
+    }
+
+    /**
+     * @return number of events recorded since the trace was created, including those overwritten since
+     */
+    public synchronized long getWritten() {
+        return written;
+    }
+
+    /**
+     * Writes the counters, then the recorded events oldest first, each timed relative to now
+     *
+     * @return number of events written
+     */
+    public int dump(Appendable out) throws IOException {
+        long[] copy;
+        long end;
+        synchronized (this) {
+            copy = records.clone();
+            end = written;
+        }
+        long now = clock.nanoTime();
+        for (int event = 0; event < EVENT_COUNT; event++) {
+            out.append(String.format(Locale.US, "%-20s %d%n", NAMES[event], counts.get(event)));
+        }
+        long start = Math.max(0, end - mask - 1);
+        for (long i = start; i < end; i++) {
+            int base = (int) (i & mask) * FIELDS;
+            int event = (int) copy[base + 1];
+            int eventLevel = (int) (copy[base + 1] >>> 32);
+            out.append(String.format(Locale.US, "%12.6f s %c %-20s %s %s=%d%n", (copy[base] - now) / 1e9,
+                    "-EID".charAt(eventLevel), NAMES[event], MacAddress.format(copy[base + 2]), ARGUMENTS[event],
+                    copy[base + 3]));
+        }
+        return (int) (end - start);
+    }
+}
@@ -0,0 +1,439 @@
+package com.example.btchallengeapp.core;
+
+import java.util.Arrays;
+
+/**
+ * Decides who stepped on a shared scale. A frame carries weight and impedance but no user, so each reading is matched
+ * against the profiles of the enrolled users: the weight each one is expected to have now, following their recent
+ * trajectory, and the band their impedance usually falls into.
+ *
+ * Profiles are kept in a sorted primitive index keyed by weight bucket and impedance bucket. A reading with impedance
+ * only visits the impedance band around it in each weight bucket within the search radius, a few binary searches,
+ * instead of every member of similar weight, which keeps a gym of thousands cheap. A reading without impedance visits
+ * the weight buckets whole.
+ *
+ * Every candidate gets a score, the squared number of standard deviations the reading is away from the profile in
+ * weight and impedance. The ambiguity of an attribution is the likelihood of the runner-up relative to the best match:
+ * 0 when no other profile fits, 1 when two profiles fit equally well. Attributions more ambiguous than the limit set
+ * are refused, so that a reading never trains the wrong profile.
+ *
+ * The attribution is thread safe.
+ */
+public final class UserAttribution {
+
+    public static final long NO_USER = Long.MIN_VALUE;
+
+    /**
+     * Outcome of {@link #attribute}
+     */
+    public static final class Result {
+        long user;
+        long runnerUp;
+        double score;
+        double runnerUpScore;
+        double ambiguity;
+        int candidates;
+
+        /**
+         * @return best matching user, or {@link #NO_USER} if no profile fits the reading
+         */
+        public long getUser() {
+            return user;
+        }
+
+        /**
+         * @return second best matching user, or {@link #NO_USER}
+         */
+        public long getRunnerUp() {
+            return runnerUp;
+        }
+
+        /**
+         * @return squared standard deviations between the reading and the best profile
+         */
+        public double getScore() {
+            return score;
+        }
+
+        /**
+         * @return likelihood of the runner-up relative to the best match, from 0 to 1
+         */
+        public double getAmbiguity() {
+            return ambiguity;
+        }
+
+        /**
+         * @return profiles scored, the work done for the reading
+         */
+        public int getCandidates() {
+            return candidates;
+        }
+    }
+
+    private static final double SECONDS_PER_DAY = 86_400;
+    private static final int WEIGHT_BUCKET_GRAMS = 500;
+    private static final int IMPEDANCE_BUCKET_OHMS = 8;
+    private static final int IMPEDANCE_BITS = 12;
+    private static final int MAX_IMPEDANCE_BUCKET = (1 << IMPEDANCE_BITS) - 1;
+    // day to day fluctuation, growing with the days since the last weigh-in
+    private static final double WEIGHT_SIGMA_GRAMS = 500;
+    private static final double WEIGHT_SIGMA_GRAMS_PER_DAY = 40;
+    private static final double MAX_PROJECTION_DAYS = 30;
+    private static final double MAX_TREND_GRAMS_PER_DAY = 150;
+    private static final double MIN_IMPEDANCE_SIGMA_OHMS = 12;
+    // gains of the alpha beta filter following the weight, and of the impedance averages
+    private static final double WEIGHT_GAIN = 0.3;
+    private static final double TREND_GAIN = 0.05;
+    private static final double IMPEDANCE_GAIN = 0.2;
+    // further than three standard deviations a profile does not match
+    private static final double MAX_SCORE = 9;
+
+    private final long[] users;
+    private final double[] weights;
+    private final double[] trends;
+    private final long[] anchorEpochSeconds;
+    private final double[] impedanceCenters;
+    private final double[] impedanceSpreads;
+    private final int[] positions;
+
+    // the index, profile slots sorted by key
+    private final int[] sortedKeys;
+    private final int[] sortedProfiles;
+
+    // open addressing from user to profile slot
+    private final long[] slotUsers;
+    private final int[] slotProfiles;
+
+    private int size;
+    private int weightRadiusGrams = 2000;
+    private int impedanceRadiusOhms = 40;
+    private double maxAmbiguity = 0.5;
+
+    /**
+     * @param maxProfiles number of users that can be enrolled
+     */
+    public UserAttribution(int maxProfiles) {
+        users = new long[maxProfiles];
+        weights = new double[maxProfiles];
+        trends = new double[maxProfiles];
+        anchorEpochSeconds = new long[maxProfiles];
+        impedanceCenters = new double[maxProfiles];
+        impedanceSpreads = new double[maxProfiles];
+        positions = new int[maxProfiles];
+        sortedKeys = new int[maxProfiles];
+        sortedProfiles = new int[maxProfiles];
+        int tableSize = Integer.highestOneBit(Math.max(2, maxProfiles * 2) - 1) << 1;
+        slotUsers = new long[tableSize];
+        slotProfiles = new int[tableSize];
+        Arrays.fill(slotUsers, NO_USER);
+    }
+
+    /**
+     * @param weightGrams  how far from the reading the last known weight of a profile may be for it to be considered,
+     *                     a member who changed more since their last weigh-in has to be enrolled again
+     * @param impedanceOhms how far from the reading the usual impedance of a profile may be
+     */
+    public synchronized void setSearchRadius(int weightGrams, int impedanceOhms) {
+        weightRadiusGrams = weightGrams;
+        impedanceRadiusOhms = impedanceOhms;
+    }
+
+    /**
+     * @param maxAmbiguity attributions with a runner-up more likely than this, relative to the best match, are refused
+     */
+    public synchronized void setMaxAmbiguity(double maxAmbiguity) {
+        this.maxAmbiguity = maxAmbiguity;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Adds a profile from a first weigh-in
+     *
+     * @param impedance usual impedance in ohms, 0 if unknown
+     * @return false if the user is enrolled already or maxProfiles users are
+     */
+    public synchronized boolean enroll(long user, int weightGrams, int impedance, long epochSeconds) {
+        if (user == NO_USER || size == users.length || profileOf(user) >= 0) {
+            return false;
+        }
+        int profile = size++;
+        users[profile] = user;
+        weights[profile] = weightGrams;
+        trends[profile] = 0;
+        anchorEpochSeconds[profile] = epochSeconds;
+        impedanceCenters[profile] = impedance;
+        impedanceSpreads[profile] = 0;
+        insertSlot(user, profile);
+        // enter at the end of the index and move into place
+        positions[profile] = profile;
+        sortedProfiles[profile] = profile;
+        reposition(profile);
+        return true;
+    }
+
+    /**
+     * Removes the profile of the user
+     *
+     * @return false if the user is not enrolled
+     */
+    public synchronized boolean remove(long user) {
+        int profile = profileOf(user);
+        if (profile < 0) {
+            return false;
+        }
+        int position = positions[profile];
+        int last = --size;
+        System.arraycopy(sortedKeys, position + 1, sortedKeys, position, last - position);
+        System.arraycopy(sortedProfiles, position + 1, sortedProfiles, position, last - position);
+        for (int i = position; i < last; i++) {
+            positions[sortedProfiles[i]] = i;
+        }
+        removeSlot(user);
+        // the last profile takes the freed slot
+        if (profile != last) {
+            users[profile] = users[last];
+            weights[profile] = weights[last];
+            trends[profile] = trends[last];
+            anchorEpochSeconds[profile] = anchorEpochSeconds[last];
+            impedanceCenters[profile] = impedanceCenters[last];
+            impedanceSpreads[profile] = impedanceSpreads[last];
+            positions[profile] = positions[last];
+            sortedProfiles[positions[profile]] = profile;
+            slotProfiles[slotOf(users[profile])] = profile;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the profile that best matches a reading, without changing any profile
+     *
+     * @param impedance impedance in ohms, 0 if the scale did not measure it
+     * @return true if a profile matches and the attribution is not too ambiguous
+     */
+    public synchronized boolean attribute(long epochSeconds, int weightGrams, int impedance, Result out) {
+        out.user = NO_USER;
+        out.runnerUp = NO_USER;
+        out.score = Double.POSITIVE_INFINITY;
+        out.runnerUpScore = Double.POSITIVE_INFINITY;
+        out.ambiguity = 0;
+        out.candidates = 0;
+
+        int fromWeight = Math.max(0, (weightGrams - weightRadiusGrams) / WEIGHT_BUCKET_GRAMS);
+        int toWeight = (weightGrams + weightRadiusGrams) / WEIGHT_BUCKET_GRAMS;
+        for (int bucket = fromWeight; bucket <= toWeight; bucket++) {
+            int base = bucket << IMPEDANCE_BITS;
+            if (impedance > 0) {
+                // profiles without impedance sort first in their weight bucket and can match any reading
+                scan(lowerBound(base), lowerBound(base + 1), epochSeconds, weightGrams, impedance, out);
+                scan(lowerBound(base + impedanceBucket(impedance - impedanceRadiusOhms)),
+                        lowerBound(base + impedanceBucket(impedance + impedanceRadiusOhms) + 1),
+                        epochSeconds, weightGrams, impedance, out);
+            } else {
+                scan(lowerBound(base), lowerBound(base + MAX_IMPEDANCE_BUCKET + 1), epochSeconds, weightGrams, 0, out);
+            }
+        }
+        if (out.score > MAX_SCORE) {
+            out.user = NO_USER;
+            out.runnerUp = NO_USER;
+            return false;
+        }
+        if (out.runnerUpScore <= MAX_SCORE) {
+            out.ambiguity = Math.exp((out.score - out.runnerUpScore) / 2);
+        } else {
+            out.runnerUp = NO_USER;
+        }
+        return out.ambiguity <= maxAmbiguity;
+    }
+
+    private void scan(int from, int to, long epochSeconds, int weightGrams, int impedance, Result out) {
+        for (int i = from; i < to; i++) {
+            int profile = sortedProfiles[i];
+            double score = score(profile, epochSeconds, weightGrams, impedance);
+            out.candidates++;
+            if (score < out.score) {
+                out.runnerUpScore = out.score;
+                out.runnerUp = out.user;
+                out.score = score;
+                out.user = users[profile];
+            } else if (score < out.runnerUpScore) {
+                out.runnerUpScore = score;
+                out.runnerUp = users[profile];
+            }
+        }
+    }
+
+    /**
+     * Moves the profile of the user towards a reading attributed to them. Readings older than the last one only
+     * adjust the impedance band.
+     *
+     * @param impedance impedance in ohms, 0 if the scale did not measure it
+     * @return false if the user is not enrolled
+     */
+    public synchronized boolean learn(long user, long epochSeconds, int weightGrams, int impedance) {
+        int profile = profileOf(user);
+        if (profile < 0) {
+            return false;
+        }
+        double days = (epochSeconds - anchorEpochSeconds[profile]) / SECONDS_PER_DAY;
+        if (days >= 0) {
+            double predicted = weights[profile] + trends[profile] * Math.min(days, MAX_PROJECTION_DAYS);
+            double residual = weightGrams - predicted;
+            weights[profile] = predicted + WEIGHT_GAIN * residual;
+            // weigh-ins minutes apart say nothing about the trend
+            if (days >= 0.5) {
+                double trend = trends[profile] + TREND_GAIN * residual / Math.max(days, 1);
+                trends[profile] = Math.max(-MAX_TREND_GRAMS_PER_DAY, Math.min(MAX_TREND_GRAMS_PER_DAY, trend));
+            }
+            anchorEpochSeconds[profile] = epochSeconds;
+        }
+        if (impedance > 0) {
+            if (impedanceCenters[profile] <= 0) {
+                impedanceCenters[profile] = impedance;
+            } else {
+                double deviation = impedance - impedanceCenters[profile];
+                impedanceSpreads[profile] += IMPEDANCE_GAIN * (Math.abs(deviation) - impedanceSpreads[profile]);
+                impedanceCenters[profile] += IMPEDANCE_GAIN * deviation;
+            }
+        }
+        reposition(profile);
+        return true;
+    }
+
+    /**
+     * @return the weight the user is expected to have at the given time, NaN if the user is not enrolled
+     */
+    public synchronized double getExpectedWeightGrams(long user, long epochSeconds) {
+        int profile = profileOf(user);
+        return profile >= 0 ? expectedWeight(profile, epochSeconds) : Double.NaN;
+    }
+
+    private double expectedWeight(int profile, long epochSeconds) {
+        double days = (epochSeconds - anchorEpochSeconds[profile]) / SECONDS_PER_DAY;
+        return weights[profile] + trends[profile] * Math.max(0, Math.min(days, MAX_PROJECTION_DAYS));
+    }
+
+    private double score(int profile, long epochSeconds, int weightGrams, int impedance) {
+        double days = Math.max(0, Math.min((epochSeconds - anchorEpochSeconds[profile]) / SECONDS_PER_DAY,
+                MAX_PROJECTION_DAYS));
+        double sigma = WEIGHT_SIGMA_GRAMS + WEIGHT_SIGMA_GRAMS_PER_DAY * days;
+        double z = (weightGrams - weights[profile] - trends[profile] * days) / sigma;
+        double score = z * z;
+        if (impedance > 0 && impedanceCenters[profile] > 0) {
+            // the mean absolute deviation is about 0.8 standard deviations
+            double impedanceSigma = Math.max(MIN_IMPEDANCE_SIGMA_OHMS, 1.25 * impedanceSpreads[profile]);
+            double zi = (impedance - impedanceCenters[profile]) / impedanceSigma;
+            score += zi * zi;
+        }
+        return score;
+    }
+
+    private int keyOf(int profile) {
+        int weightBucket = (int) Math.max(0, weights[profile]) / WEIGHT_BUCKET_GRAMS;
+        int impedance = (int) Math.round(impedanceCenters[profile]);
+        return (weightBucket << IMPEDANCE_BITS) | (impedance > 0 ? impedanceBucket(impedance) : 0);
+    }
+
+    private static int impedanceBucket(int impedance) {
+        return Math.max(1, Math.min(MAX_IMPEDANCE_BUCKET, impedance / IMPEDANCE_BUCKET_OHMS + 1));
+    }
+
+    /**
+     * Moves the index entry of the profile to where its key sorts. A weigh-in changes the key of a profile a little,
+     * so the entry travels a short distance with one array copy.
+     */
+    private void reposition(int profile) {
+        int key = keyOf(profile);
+        int from = positions[profile];
+        int to = from;
+        while (to > 0 && sortedKeys[to - 1] > key) {
+            to--;
+        }
+        if (to < from) {
+            System.arraycopy(sortedKeys, to, sortedKeys, to + 1, from - to);
+            System.arraycopy(sortedProfiles, to, sortedProfiles, to + 1, from - to);
+            for (int i = to + 1; i <= from; i++) {
+                positions[sortedProfiles[i]] = i;
+            }
+        } else {
+            while (to < size - 1 && sortedKeys[to + 1] < key) {
+                to++;
+            }
+            System.arraycopy(sortedKeys, from + 1, sortedKeys, from, to - from);
+            System.arraycopy(sortedProfiles, from + 1, sortedProfiles, from, to - from);
+            for (int i = from; i < to; i++) {
+                positions[sortedProfiles[i]] = i;
+            }
+        }
+        sortedKeys[to] = key;
+        sortedProfiles[to] = profile;
+        positions[profile] = to;
+    }
+
+    private int lowerBound(int key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedKeys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int profileOf(long user) {
+        int slot = slotOf(user);
+        return slot >= 0 ? slotProfiles[slot] : -1;
+    }
+
+    private int slotOf(long user) {
+        int mask = slotUsers.length - 1;
+        int slot = (int) (user ^ (user >>> 17) ^ (user >>> 35)) & mask;
+        while (slotUsers[slot] != NO_USER) {
+            if (slotUsers[slot] == user) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insertSlot(long user, int profile) {
+        int mask = slotUsers.length - 1;
+        int slot = (int) (user ^ (user >>> 17) ^ (user >>> 35)) & mask;
+        while (slotUsers[slot] != NO_USER) {
+            slot = (slot + 1) & mask;
+        }
+        slotUsers[slot] = user;
+        slotProfiles[slot] = profile;
+    }
+
+    /**
+     * Deletes with backward shifting, so that lookups never need tombstones
+     */
+    private void removeSlot(long user) {
+        int mask = slotUsers.length - 1;
+        int hole = slotOf(user);
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long moved = slotUsers[slot];
+            if (moved == NO_USER) {
+                break;
+            }
+            int home = (int) (moved ^ (moved >>> 17) ^ (moved >>> 35)) & mask;
+            // the entry can fill the hole if its home is not cyclically between the hole and its slot
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                slotUsers[hole] = moved;
+                slotProfiles[hole] = slotProfiles[slot];
+                hole = slot;
+            }
+        }
+        slotUsers[hole] = NO_USER;
+    }
+}
@@ -0,0 +1,320 @@
+package com.example.btchallengeapp.core;
+
+import java.util.Arrays;
+
+/**
+ * Running weight statistics of every user, updated in constant time per reading and read in constant time.
+ *
+ * For each user it keeps an exponentially weighted average, the lowest and highest weight of the last readings and the
+ * weight trend. The average and the trend come from exponentially weighted least squares sums: on each reading the sums
+ * are moved to the time of the newest reading and decayed by the half-life, so older readings count less without ever
+ * being visited again. The minimum and maximum come from monotonic deques of the last window readings, each reading is
+ * pushed and popped at most once.
+ *
+ * All state lives in primitive arrays sized for maxUsers when the statistics are created, users are found by their id
+ * through open addressing, so a reading allocates nothing. A few thousand users with the default window take a few
+ * hundred kilobytes. The statistics are thread safe.
+ */
+public final class UserStatistics {
+
+    /**
+     * All statistics of one user, filled by {@link #read}
+     */
+    public static final class Summary {
+        int count;
+        long lastEpochSeconds;
+        int lastWeightGrams;
+        double averageGrams;
+        int minWeightGrams;
+        int maxWeightGrams;
+        double trendGramsPerDay;
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getLastEpochSeconds() {
+            return lastEpochSeconds;
+        }
+
+        public int getLastWeightGrams() {
+            return lastWeightGrams;
+        }
+
+        /**
+         * @return exponentially weighted average weight
+         */
+        public double getAverageGrams() {
+            return averageGrams;
+        }
+
+        /**
+         * @return lowest weight of the last window readings
+         */
+        public int getMinWeightGrams() {
+            return minWeightGrams;
+        }
+
+        /**
+         * @return highest weight of the last window readings
+         */
+        public int getMaxWeightGrams() {
+            return maxWeightGrams;
+        }
+
+        /**
+         * @return weight change per day, NaN until readings were taken at two different times
+         */
+        public double getTrendGramsPerDay() {
+            return trendGramsPerDay;
+        }
+    }
+
+    private static final long NO_USER = Long.MIN_VALUE;
+    private static final double SECONDS_PER_DAY = 86_400;
+
+    private final int window;
+    // decay per day, ln 2 / half-life
+    private final double decayRate;
+
+    // open addressing from user id to user index
+    private final long[] slotUsers;
+    private final int[] slotIndexes;
+
+    // per user index
+    private final int[] counts;
+    private final long[] lastEpochSeconds;
+    private final int[] lastWeights;
+    // weighted sums of 1, t, x, t * t and t * x, t in days relative to the newest reading
+    private final double[] sumW;
+    private final double[] sumT;
+    private final double[] sumX;
+    private final double[] sumTT;
+    private final double[] sumTX;
+
+    // monotonic deques of window entries per user: reading sequence number and weight
+    private final int[] minSeqs;
+    private final int[] minWeights;
+    private final int[] minHeads;
+    private final int[] minSizes;
+    private final int[] maxSeqs;
+    private final int[] maxWeights;
+    private final int[] maxHeads;
+    private final int[] maxSizes;
+
+    private int size;
+
+    /**
+     * @param maxUsers     number of users tracked, readings of further users are refused
+     * @param window       number of latest readings the minimum and maximum are taken over
+     * @param halfLifeDays age at which a reading counts half as much as a new one in the average and the trend
+     */
+    public UserStatistics(int maxUsers, int window, double halfLifeDays) {
+        if (maxUsers <= 0 || window <= 0 || !(halfLifeDays > 0)) {
+            throw new IllegalArgumentException("maxUsers " + maxUsers + " window " + window + " halfLifeDays " + halfLifeDays);
+        }
+        this.window = window;
+        this.decayRate = Math.log(2) / halfLifeDays;
+        int tableSize = Integer.highestOneBit(Math.max(2, maxUsers * 2) - 1) << 1;
+        slotUsers = new long[tableSize];
+        slotIndexes = new int[tableSize];
+        Arrays.fill(slotUsers, NO_USER);
+
+        counts = new int[maxUsers];
+        lastEpochSeconds = new long[maxUsers];
+        lastWeights = new int[maxUsers];
+        sumW = new double[maxUsers];
+        sumT = new double[maxUsers];
+        sumX = new double[maxUsers];
+        sumTT = new double[maxUsers];
+        sumTX = new double[maxUsers];
+
+        minSeqs = new int[maxUsers * window];
+        minWeights = new int[maxUsers * window];
+        minHeads = new int[maxUsers];
+        minSizes = new int[maxUsers];
+        maxSeqs = new int[maxUsers * window];
+        maxWeights = new int[maxUsers * window];
+        maxHeads = new int[maxUsers];
+        maxSizes = new int[maxUsers];
+    }
+
+    public int getMaxUsers() {
+        return counts.length;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * @return number of users with readings
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Adds a reading. Readings older than the newest one of the user count with the weight their age gives them.
+     *
+     * @param user any id but Long.MIN_VALUE
+     * @return false if the user is new and maxUsers users are tracked already
+     */
+    public synchronized boolean add(long user, long epochSeconds, int weightGrams) {
+        int index = indexOf(user, true);
+        if (index < 0) {
+            return false;
+        }
+        int seq = counts[index]++;
+        double x = weightGrams;
+        if (seq == 0 || epochSeconds >= lastEpochSeconds[index]) {
+            double dt = seq == 0 ? 0 : (epochSeconds - lastEpochSeconds[index]) / SECONDS_PER_DAY;
+            double decay = Math.exp(-decayRate * dt);
+            // move the origin to the new reading, then age the sums
+            double w = sumW[index];
+            double t = sumT[index];
+            sumTT[index] = decay * (sumTT[index] - 2 * dt * t + dt * dt * w);
+            sumTX[index] = decay * (sumTX[index] - dt * sumX[index]);
+            sumT[index] = decay * (t - dt * w);
+            sumW[index] = decay * w + 1;
+            sumX[index] = decay * sumX[index] + x;
+            lastEpochSeconds[index] = epochSeconds;
+            lastWeights[index] = weightGrams;
+        } else {
+            double t = (epochSeconds - lastEpochSeconds[index]) / SECONDS_PER_DAY;
+            double w = Math.exp(decayRate * t);
+            sumW[index] += w;
+            sumT[index] += w * t;
+            sumX[index] += w * x;
+            sumTT[index] += w * t * t;
+            sumTX[index] += w * t * x;
+        }
+        pushWindow(index, seq, weightGrams);
+        return true;
+    }
+
+    private void pushWindow(int index, int seq, int weightGrams) {
+        int base = index * window;
+        int expired = seq - window;
+
+        int head = minHeads[index];
+        int count = minSizes[index];
+        if (count > 0 && minSeqs[base + head] <= expired) {
+            head = head + 1 == window ? 0 : head + 1;
+            count--;
+        }
+        while (count > 0 && minWeights[base + (head + count - 1) % window] >= weightGrams) {
+            count--;
+        }
+        int tail = base + (head + count) % window;
+        minSeqs[tail] = seq;
+        minWeights[tail] = weightGrams;
+        minHeads[index] = head;
+        minSizes[index] = count + 1;
+
+        head = maxHeads[index];
+        count = maxSizes[index];
+        if (count > 0 && maxSeqs[base + head] <= expired) {
+            head = head + 1 == window ? 0 : head + 1;
+            count--;
+        }
+        while (count > 0 && maxWeights[base + (head + count - 1) % window] <= weightGrams) {
+            count--;
+        }
+        tail = base + (head + count) % window;
+        maxSeqs[tail] = seq;
+        maxWeights[tail] = weightGrams;
+        maxHeads[index] = head;
+        maxSizes[index] = count + 1;
+    }
+
+    /**
+     * Fills the summary with the statistics of the user
+     *
+     * @return false, leaving the summary untouched, if the user has no readings
+     */
+    public synchronized boolean read(long user, Summary out) {
+        int index = indexOf(user, false);
+        if (index < 0) {
+            return false;
+        }
+        int base = index * window;
+        out.count = counts[index];
+        out.lastEpochSeconds = lastEpochSeconds[index];
+        out.lastWeightGrams = lastWeights[index];
+        out.averageGrams = sumX[index] / sumW[index];
+        out.minWeightGrams = minWeights[base + minHeads[index]];
+        out.maxWeightGrams = maxWeights[base + maxHeads[index]];
+        out.trendGramsPerDay = trend(index);
+        return true;
+    }
+
+    /**
+     * @return number of readings of the user, 0 if unknown
+     */
+    public synchronized int getCount(long user) {
+        int index = indexOf(user, false);
+        return index >= 0 ? counts[index] : 0;
+    }
+
+    /**
+     * @return exponentially weighted average weight, NaN if the user is unknown
+     */
+    public synchronized double getAverageGrams(long user) {
+        int index = indexOf(user, false);
+        return index >= 0 ? sumX[index] / sumW[index] : Double.NaN;
+    }
+
+    /**
+     * @return lowest weight of the last window readings, 0 if the user is unknown
+     */
+    public synchronized int getMinWeightGrams(long user) {
+        int index = indexOf(user, false);
+        return index >= 0 ? minWeights[index * window + minHeads[index]] : 0;
+    }
+
+    /**
+     * @return highest weight of the last window readings, 0 if the user is unknown
+     */
+    public synchronized int getMaxWeightGrams(long user) {
+        int index = indexOf(user, false);
+        return index >= 0 ? maxWeights[index * window + maxHeads[index]] : 0;
+    }
+
+    /**
+     * @return weight change per day, NaN if the user is unknown or all readings were taken at the same time
+     */
+    public synchronized double getTrendGramsPerDay(long user) {
+        int index = indexOf(user, false);
+        return index >= 0 ? trend(index) : Double.NaN;
+    }
+
+    private double trend(int index) {
+        double w = sumW[index];
+        double t = sumT[index];
+        double denominator = w * sumTT[index] - t * t;
+        // readings spread over a few minutes carry no trend
+        if (denominator <= 1e-6 * w * w) {
+            return Double.NaN;
+        }
+        return (w * sumTX[index] - t * sumX[index]) / denominator;
+    }
+
+    private int indexOf(long user, boolean create) {
+        int mask = slotUsers.length - 1;
+        int slot = (int) (user ^ (user >>> 17) ^ (user >>> 35)) & mask;
+        while (slotUsers[slot] != NO_USER) {
+            if (slotUsers[slot] == user) {
+                return slotIndexes[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!create || user == NO_USER || size == counts.length) {
+            return -1;
+        }
+        int index = size++;
+        slotUsers[slot] = user;
+        slotIndexes[slot] = index;
+        return index;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.btchallengeapp.core;
+
+/**
+ * Decoder for the Weight Measurement (0x2A9D) payload of the Weight Scale service (0x181D), as sent by the first
+ * generation Xiaomi Mi Scale and by standard weight scales.
+ *
+ * Layout (little endian), optional fields present depending on the flags:
+ * byte 0 : flags. bit 0 lbs, bit 1 time stamp present, bit 2 user id present, bit 3 BMI and height present
+ * byte 1-2 : weight, in 1/200 kg or 1/100 lbs
+ * time stamp : year (2 bytes), month, day, hours, minutes, seconds
+ * user id : 1 byte, BMI and height : 2 bytes each
+ *
+ * The Mi Scale always sends the 10 byte form with a time stamp, and reports its state in the reserved flag bits:
+ * bit 4 catty, bit 5 stabilized, bit 7 weight removed. It is told apart by its vendor service, see
+ * {@link FrameDecoderRegistry#PROTOCOL_MI_SCALE}. Standard scales leave those bits clear and only indicate final
+ * readings, so without Mi Scale flags every frame is taken as stabilized. A reading without time stamp is marked with
+ * an invalid date, like one of a scale whose clock is unset, and is not stored.
+ */
+public final class WeightScaleDecoder implements FrameDecoder {
+
+    public static final int MI_SCALE_FRAME_LENGTH = 10;
+
+    private static final int FLAG_IMPERIAL = 1;
+    private static final int FLAG_TIME_STAMP = 1 << 1;
+    private static final int FLAG_USER_ID = 1 << 2;
+    private static final int FLAG_BMI_HEIGHT = 1 << 3;
+    private static final int FLAG_MI_CATTY = 1 << 4;
+    private static final int FLAG_MI_STABILIZED = 1 << 5;
+    private static final int FLAG_MI_REMOVED = 1 << 7;
+
+    private final boolean miScaleFlags;
+
+    /**
+     * @param miScaleFlags true to read the Mi Scale state from the reserved flag bits, false for standard scales
+     */
+    public WeightScaleDecoder(boolean miScaleFlags) {
+        this.miScaleFlags = miScaleFlags;
+    }
+
+    /**
+     * @param flags first byte of the payload
+     * @return length of a payload with these flags
+     */
+    public static int frameLength(int flags) {
+        int length = 3;
+        if ((flags & FLAG_TIME_STAMP) != 0) {
+            length += 7;
+        }
+        if ((flags & FLAG_USER_ID) != 0) {
+            length += 1;
+        }
+        if ((flags & FLAG_BMI_HEIGHT) != 0) {
+            length += 4;
+        }
+        return length;
+    }
+
+    @Override
+    public boolean decode(byte[] data, int offset, int length, BodyCompositionMeasurement out) {
+        if (data == null || offset < 0 || length < 3 || data.length - offset < length) {
+            return false;
+        }
+        int ctrl = data[offset] & 0xFF;
+        if (frameLength(ctrl) != length) {
+            return false;
+        }
+        int flags = 0;
+        if ((ctrl & FLAG_IMPERIAL) != 0) {
+            flags |= BodyCompositionMeasurement.FLAG_LBS_UNIT;
+        }
+        if (!miScaleFlags) {
+            flags |= BodyCompositionMeasurement.FLAG_STABILIZED;
+        } else {
+            if ((ctrl & FLAG_MI_CATTY) != 0) {
+                flags |= BodyCompositionMeasurement.FLAG_CATTY_UNIT;
+            }
+            if ((ctrl & FLAG_MI_STABILIZED) != 0) {
+                flags |= BodyCompositionMeasurement.FLAG_STABILIZED;
+            }
+            if ((ctrl & FLAG_MI_REMOVED) != 0) {
+                flags |= BodyCompositionMeasurement.FLAG_WEIGHT_REMOVED;
+            }
+        }
+        int weightRaw = u16(data[offset + 1], data[offset + 2]);
+        if ((ctrl & FLAG_TIME_STAMP) == 0) {
+            out.set(flags | BodyCompositionMeasurement.FLAG_DATE_INVALID, 0, 0, 0, 0, 0, 0, weightRaw, 0);
+            return true;
+        }
+        out.set(flags,
+                u16(data[offset + 3], data[offset + 4]),
+                data[offset + 5],
+                data[offset + 6],
+                data[offset + 7],
+                data[offset + 8],
+                data[offset + 9],
+                weightRaw,
+                0);
+        return true;
+    }
+
+    private static int u16(byte low, byte high) {
+        return ((high & 0xFF) << 8) | (low & 0xFF);
+    }
+}
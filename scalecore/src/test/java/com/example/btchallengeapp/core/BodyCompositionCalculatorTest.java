@@ -0,0 +1,84 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the precomputed coefficients against values of the reference formulas evaluated term by term, for profiles
+ * on both sides of every weight, height and age threshold.
+ */
+public class BodyCompositionCalculatorTest {
+
+    private static final float TOLERANCE = 0.02f;
+
+    private final BodyComposition result = new BodyComposition();
+
+    @Test
+    public void matchesTheReferenceFormulas() {
+        // sex, height, age, weight, impedance, then bmi, fat, lean, muscle, water, bone, visceral, bmr
+        assertComposition(true, 180, 30, 80.0f, 500,
+                24.691f, 23.315f, 61.348f, 58.222f, 52.606f, 3.125f, 13.360f, 1671.12f);
+        assertComposition(false, 165, 45, 62.0f, 550,
+                22.773f, 34.137f, 40.835f, 38.373f, 47.026f, 2.462f, 1.000f, 1153.14f);
+        assertComposition(false, 155, 60, 48.0f, 600,
+                19.979f, 26.123f, 35.461f, 33.640f, 50.680f, 1.821f, 1.000f, 921.16f);
+        assertComposition(true, 175, 25, 58.0f, 450,
+                18.939f, 9.923f, 52.245f, 49.534f, 61.793f, 2.711f, 2.870f, 1391.48f);
+        assertComposition(true, 168, 70, 95.5f, 420,
+                33.836f, 36.229f, 60.901f, 57.799f, 45.532f, 3.102f, 30.468f, 1551.99f);
+        assertComposition(false, 172, 22, 70.0f, 480,
+                23.661f, 32.597f, 47.182f, 44.390f, 48.126f, 2.793f, 1.000f, 1374.71f);
+        assertComposition(false, 158, 35, 85.0f, 520,
+                34.049f, 46.516f, 45.461f, 42.687f, 38.187f, 2.774f, 10.617f, 1452.62f);
+    }
+
+    @Test
+    public void refusesReadingsWithoutImpedance() {
+        BodyCompositionCalculator calculator = new BodyCompositionCalculator(180, 30, true);
+        assertTrue(calculator.calculate(80.0f, 500, result));
+        float fat = result.getFatPercent();
+        assertFalse(calculator.calculate(80.0f, 0, result));
+        assertFalse(calculator.calculate(80.0f, BodyCompositionCalculator.MAX_IMPEDANCE, result));
+        assertFalse(calculator.calculate(0.0f, 500, result));
+        assertEquals(fat, result.getFatPercent(), 0);
+    }
+
+    @Test
+    public void clampsToTheReportedRanges() {
+        BodyCompositionCalculator calculator = new BodyCompositionCalculator(150, 40, false);
+        assertTrue(calculator.calculate(300.0f, 2900, result));
+        assertEquals(75.0f, result.getFatPercent(), 0);
+        assertEquals(35.0f, result.getWaterPercent(), 0);
+        assertEquals(50.0f, result.getVisceralFat(), 0);
+        assertTrue(calculator.calculate(30.0f, 100, result));
+        assertEquals(5.0f, result.getFatPercent(), 0);
+        assertEquals(1.0f, result.getVisceralFat(), 0);
+
+        // the muscle mass is taken from the clamped bone mass, as in the reference
+        BodyCompositionCalculator small = new BodyCompositionCalculator(100, 10, false);
+        assertTrue(small.calculate(45.0f, 2800, result));
+        assertEquals(0.5f, result.getBoneMassKg(), 0);
+        assertEquals(result.getLeanMassKg() - 0.5f, result.getMuscleMassKg(), 1e-4f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsImpossibleProfiles() {
+        new BodyCompositionCalculator(0, 30, true);
+    }
+
+    private void assertComposition(boolean male, int height, int age, float weight, int impedance,
+                                   float bmi, float fat, float lean, float muscle, float water, float bone,
+                                   float visceral, float bmr) {
+        String profile = (male ? "M" : "F") + age + " " + height + " cm " + weight + " kg";
+        assertTrue(profile, new BodyCompositionCalculator(height, age, male).calculate(weight, impedance, result));
+        assertEquals(profile, bmi, result.getBmi(), TOLERANCE);
+        assertEquals(profile, fat, result.getFatPercent(), TOLERANCE);
+        assertEquals(profile, lean, result.getLeanMassKg(), TOLERANCE);
+        assertEquals(profile, muscle, result.getMuscleMassKg(), TOLERANCE);
+        assertEquals(profile, water, result.getWaterPercent(), TOLERANCE);
+        assertEquals(profile, bone, result.getBoneMassKg(), TOLERANCE);
+        assertEquals(profile, visceral, result.getVisceralFat(), TOLERANCE);
+        assertEquals(profile, bmr, result.getBmrKcal(), 0.1f);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the 0x2A9C frame decoding against frames synthesized from the documented Mi Body Composition Scale layout.
+ */
+public class BodyCompositionDecoderTest {
+
+    // 13/07/2021 08:30:15, stabilized, impedance 500 ohm, 70.00 kg
+    private static final byte[] STABLE_KG_FRAME = {
+            0x02, 0x26, (byte) 0xE5, 0x07, 0x07, 0x0D, 0x08, 0x1E, 0x0F, (byte) 0xF4, 0x01, (byte) 0xB0, 0x36};
+
+    private final BodyCompositionDecoder decoder = new BodyCompositionDecoder();
+
+    @Test
+    public void decodesStabilizedKgFrame() {
+        BodyCompositionMeasurement measurement = new BodyCompositionMeasurement();
+        assertTrue(decoder.decode(STABLE_KG_FRAME, 0, measurement));
+        assertTrue(measurement.isComplete());
+        assertTrue(measurement.hasImpedance());
+        assertFalse(measurement.isLbsUnit());
+        assertEquals(2021, measurement.getYear());
+        assertEquals(7, measurement.getMonth());
+        assertEquals(13, measurement.getDay());
+        assertEquals(8, measurement.getHours());
+        assertEquals(30, measurement.getMinutes());
+        assertEquals(15, measurement.getSeconds());
+        assertEquals(500, measurement.getImpedance());
+        assertEquals(70.0f, measurement.getWeight(), 0.001f);
+    }
+
+    @Test
+    public void decodesLbsAndRemovedFlags() {
+        byte[] frame = STABLE_KG_FRAME.clone();
+        frame[0] = 0x03;
+        frame[1] = (byte) 0xA4;
+        BodyCompositionMeasurement measurement = new BodyCompositionMeasurement();
+        assertTrue(decoder.decode(frame, 0, measurement));
+        assertTrue(measurement.isLbsUnit());
+        assertTrue(measurement.isWeightRemoved());
+        assertFalse(measurement.hasImpedance());
+        assertFalse(measurement.isComplete());
+        assertEquals(0, measurement.getImpedance());
+        assertEquals(140.0f, measurement.getWeight(), 0.001f);
+    }
+
+    @Test
+    public void byteBufferAtOffsetMatchesArray() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(32);
+        buffer.position(7);
+        buffer.put(STABLE_KG_FRAME);
+        buffer.flip();
+        BodyCompositionMeasurement fromArray = new BodyCompositionMeasurement();
+        BodyCompositionMeasurement fromBuffer = new BodyCompositionMeasurement();
+        decoder.decode(STABLE_KG_FRAME, 0, fromArray);
+        assertTrue(decoder.decode(buffer, 7, fromBuffer));
+        assertEquals(0, buffer.position());
+        assertEquals(fromArray.getFlags(), fromBuffer.getFlags());
+        assertEquals(fromArray.getWeightRaw(), fromBuffer.getWeightRaw());
+        assertEquals(fromArray.getImpedance(), fromBuffer.getImpedance());
+    }
+
+    @Test
+    public void rejectsShortFrame() {
+        BodyCompositionMeasurement measurement = new BodyCompositionMeasurement();
+        assertFalse(decoder.decode(new byte[12], 0, measurement));
+        assertFalse(decoder.decode(STABLE_KG_FRAME, 1, measurement));
+        assertFalse(decoder.decode((byte[]) null, 0, measurement));
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks handle assignment across growth and the RSSI history ring.
+ */
+public class DeviceRegistryTest {
+
+    @Test
+    public void handlesAreStableAcrossGrowth() {
+        DeviceRegistry registry = new DeviceRegistry();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, registry.register(0xC8478C000000L + i * 7919L));
+        }
+        assertEquals(1000, registry.size());
+        for (int i = 0; i < 1000; i++) {
+            long device = 0xC8478C000000L + i * 7919L;
+            assertEquals(i, registry.register(device));
+            assertEquals(i, registry.handleOf(device));
+            assertEquals(device, registry.getDevice(i));
+        }
+        assertEquals(DeviceRegistry.NO_HANDLE, registry.handleOf(1));
+        assertEquals("C8:47:8C:00:00:00", registry.getAddress(0));
+    }
+
+    @Test
+    public void keepsTheLatestRssiReadings() {
+        DeviceRegistry registry = new DeviceRegistry();
+        int handle = registry.register(MacAddress.pack("C8:47:8C:00:00:01"));
+        assertEquals(0, registry.getRssi(handle));
+        for (int i = 0; i < 20; i++) {
+            registry.recordAdvertisement(handle, -40 - i, 1000 + i);
+        }
+        assertEquals(-59, registry.getRssi(handle));
+        assertEquals(1000, registry.getFirstSeenNanos(handle));
+        assertEquals(1019, registry.getLastSeenNanos(handle));
+        int[] history = new int[DeviceRegistry.RSSI_HISTORY];
+        assertEquals(DeviceRegistry.RSSI_HISTORY, registry.getRssiHistory(handle, history));
+        assertEquals(-44, history[0]);
+        assertEquals(-59, history[DeviceRegistry.RSSI_HISTORY - 1]);
+        assertEquals(-51, registry.getAverageRssi(handle));
+        assertEquals(ScaleSession.State.CLOSED, registry.getConnectionState(handle));
+    }
+}
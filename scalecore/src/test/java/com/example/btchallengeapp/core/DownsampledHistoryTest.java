@@ -0,0 +1,120 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Calendar buckets of the tiers, readings arriving out of order, and chart queries choosing a tier by width and
+ * keeping the extremes when reducing the points.
+ */
+public class DownsampledHistoryTest {
+
+    private static final long DAY = 86_400;
+    // Monday 2021-01-04 00:00 UTC
+    private static final long MONDAY = 1_609_718_400L;
+    private static final long USER = 7;
+
+    private final DownsampledHistory.Points points = new DownsampledHistory.Points();
+
+    @Test
+    public void monthsFollowTheCivilCalendar() {
+        assertEquals(1970 * 12, DownsampledHistory.monthOf(0));
+        assertEquals(1970 * 12 + 1, DownsampledHistory.monthOf(31));
+        // 2020-02-29 and 2020-03-01
+        assertEquals(2020 * 12 + 1, DownsampledHistory.monthOf(18_321));
+        assertEquals(2020 * 12 + 2, DownsampledHistory.monthOf(18_322));
+        assertEquals(1969 * 12 + 11, DownsampledHistory.monthOf(-1));
+    }
+
+    @Test
+    public void aggregatesDaysWeeksAndMonths() {
+        DownsampledHistory history = new DownsampledHistory(4);
+        // twice a day for three weeks, the evening reading first to arrive out of order
+        for (int day = 0; day < 21; day++) {
+            assertTrue(history.add(USER, MONDAY + day * DAY + 20 * 3600, 80_400 + day * 10, 500));
+            assertTrue(history.add(USER, MONDAY + day * DAY + 7 * 3600, 80_000 + day * 10, 0));
+        }
+        assertEquals(42, history.getCount(USER, DownsampledHistory.RAW));
+        assertEquals(21, history.getCount(USER, DownsampledHistory.DAILY));
+        assertEquals(3, history.getCount(USER, DownsampledHistory.WEEKLY));
+        assertEquals(1, history.getCount(USER, DownsampledHistory.MONTHLY));
+
+        // raw readings fit into the width, sorted by time
+        assertTrue(history.query(USER, MONDAY, MONDAY + DAY - 1, 100, points));
+        assertEquals(DownsampledHistory.RAW, points.getTier());
+        assertEquals(2, points.size());
+        assertEquals(80_000, points.weightGrams(0), 0);
+        assertEquals(0, points.impedance(0));
+        assertEquals(80_400, points.weightGrams(1), 0);
+        assertEquals(500, points.impedance(1));
+
+        // 42 readings do not fit 5 points, 21 days neither, 3 weeks do
+        assertTrue(history.query(USER, MONDAY, MONDAY + 21 * DAY - 1, 5, points));
+        assertEquals(DownsampledHistory.WEEKLY, points.getTier());
+        assertEquals(3, points.size());
+        assertEquals(80_000, points.minGrams(0));
+        assertEquals(80_460, points.maxGrams(0));
+        assertEquals(80_230, points.weightGrams(0), 0.01);
+        assertEquals(500, points.impedance(0));
+
+        assertFalse(history.query(USER, MONDAY - 10 * DAY, MONDAY - 1, 5, points));
+        assertEquals(0, points.size());
+        assertFalse(history.query(USER + 1, MONDAY, MONDAY + DAY, 5, points));
+    }
+
+    @Test
+    public void localOffsetMovesTheDayBoundary() {
+        DownsampledHistory history = new DownsampledHistory(4);
+        history.setUtcOffsetSeconds(2 * 3600);
+        // 23:00 UTC is already the next day two hours east
+        history.add(USER, MONDAY + 23 * 3600, 80_000, 0);
+        history.add(USER, MONDAY + 25 * 3600, 80_100, 0);
+        assertEquals(1, history.getCount(USER, DownsampledHistory.DAILY));
+    }
+
+    @Test
+    public void reducesYearsToTheWidthKeepingExtremes() {
+        DownsampledHistory history = new DownsampledHistory(4);
+        Random random = new Random(5);
+        long start = MONDAY - 5 * 365 * DAY;
+        long end = MONDAY;
+        // three readings a day for five years around a slow wave, with one day of a large spike
+        long spike = start + 900 * DAY + 8 * 3600;
+        for (long time = start; time < end; time += 8 * 3600) {
+            int grams = (int) (80_000 + 5000 * Math.sin((time - start) / (365.0 * DAY) * Math.PI)
+                    + random.nextGaussian() * 200);
+            history.add(USER, time, time == spike ? 95_000 : grams, 0);
+        }
+
+        assertTrue(history.query(USER, start, end, 200, points));
+        assertEquals(DownsampledHistory.WEEKLY, points.getTier());
+        assertEquals(200, points.size());
+        int highest = Integer.MIN_VALUE;
+        for (int i = 0; i < points.size(); i++) {
+            highest = Math.max(highest, points.maxGrams(i));
+            if (i > 0) {
+                assertTrue(points.epochSeconds(i) > points.epochSeconds(i - 1));
+            }
+            assertTrue(points.minGrams(i) <= points.weightGrams(i) && points.weightGrams(i) <= points.maxGrams(i));
+        }
+        // the spike is in the envelope even though the point stands for a whole week
+        assertEquals(95_000, highest);
+
+        assertTrue(history.query(USER, start, end, 20, points));
+        assertEquals(DownsampledHistory.MONTHLY, points.getTier());
+        assertEquals(20, points.size());
+
+        // zoomed into a fortnight around the spike, the raw readings are reduced and the spike kept as a point
+        assertTrue(history.query(USER, spike - 7 * DAY, spike + 7 * DAY, 30, points));
+        assertEquals(DownsampledHistory.RAW, points.getTier());
+        assertEquals(30, points.size());
+        boolean spikeShown = false;
+        for (int i = 0; i < points.size(); i++) {
+            spikeShown |= points.weightGrams(i) == 95_000;
+        }
+        assertTrue(spikeShown);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips emulated frames through a capture file and replays them into the pipeline.
+ */
+public class FrameCaptureTest {
+
+    private static final long SCALE_A = MacAddress.pack("C8:47:8C:00:00:01");
+    private static final long SCALE_B = MacAddress.pack("C8:47:8C:00:00:02");
+    private static final int BODY_COMPOSITION = FrameDecoderRegistry.PROTOCOL_BODY_COMPOSITION;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackRecordedFrames() throws Exception {
+        File file = folder.newFile("session.fcap");
+        ScaleEmulator emulator = new ScaleEmulator(3, ScaleEmulator.Unit.KG, true);
+        List<byte[]> frames = new ArrayList<>();
+        try (FrameCaptureWriter writer = new FrameCaptureWriter(file)) {
+            for (int i = 0; i < 5000; i++) {
+                byte[] frame = new byte[BodyCompositionDecoder.FRAME_LENGTH];
+                emulator.nextFrame(frame, 0);
+                frames.add(frame);
+                writer.write(i % 3 == 0 ? SCALE_B : SCALE_A, BODY_COMPOSITION, 1_000_000_000L + i * 20_000_000L, frame,
+                        0, frame.length);
+            }
+            assertEquals(5000, writer.getFrameCount());
+        }
+        // 3 byte time delta, device index and length byte per 13 byte frame, plus the two devices and their protocol
+        assertTrue(file.length() <= FrameCapture.HEADER_SIZE + 5000L * 18 + 2 * 9);
+
+        try (FrameCaptureReader reader = new FrameCaptureReader(file)) {
+            FrameRingBuffer.Frame frame = new FrameRingBuffer.Frame();
+            for (int i = 0; i < 5000; i++) {
+                assertTrue(reader.next(frame));
+                assertEquals(i % 3 == 0 ? SCALE_B : SCALE_A, frame.device);
+                assertEquals(i * 20_000_000L, frame.timestampNanos);
+                assertEquals(BodyCompositionDecoder.FRAME_LENGTH, frame.length);
+                for (int b = 0; b < frame.length; b++) {
+                    assertEquals(frames.get(i)[b], frame.data[b]);
+                }
+            }
+            assertFalse(reader.next(frame));
+        }
+    }
+
+    @Test
+    public void keepsTheProtocolOfEachFrame() throws Exception {
+        File file = folder.newFile("protocols.fcap");
+        byte[] miScaleFrame = {0x22, (byte) 0xB0, 0x36, (byte) 0xE5, 0x07, 0x07, 0x0D, 0x08, 0x1E, 0x00};
+        byte[] bodyCompositionFrame = new byte[BodyCompositionDecoder.FRAME_LENGTH];
+        new ScaleEmulator(1, ScaleEmulator.Unit.KG, false).nextFrame(bodyCompositionFrame, 0);
+        try (FrameCaptureWriter writer = new FrameCaptureWriter(file)) {
+            writer.write(SCALE_A, BODY_COMPOSITION, 0, bodyCompositionFrame, 0, bodyCompositionFrame.length);
+            writer.write(SCALE_B, FrameDecoderRegistry.PROTOCOL_MI_SCALE, 1000, miScaleFrame, 0, miScaleFrame.length);
+            writer.write(SCALE_A, BODY_COMPOSITION, 2000, bodyCompositionFrame, 0, bodyCompositionFrame.length);
+        }
+        FrameDecoderRegistry decoders = FrameDecoderRegistry.createDefault();
+        BodyCompositionMeasurement measurement = new BodyCompositionMeasurement();
+        try (FrameCaptureReader reader = new FrameCaptureReader(file)) {
+            FrameRingBuffer.Frame frame = new FrameRingBuffer.Frame();
+            int[] expected = {BODY_COMPOSITION, FrameDecoderRegistry.PROTOCOL_MI_SCALE, BODY_COMPOSITION};
+            for (int protocol : expected) {
+                assertTrue(reader.next(frame));
+                assertEquals(protocol, frame.protocol);
+                assertTrue(decoders.getProtocol(frame.protocol).decode(frame.data, 0, frame.length, measurement));
+                if (protocol == FrameDecoderRegistry.PROTOCOL_MI_SCALE) {
+                    assertEquals(70000, measurement.getWeightGrams());
+                }
+            }
+            assertFalse(reader.next(frame));
+        }
+    }
+
+    @Test
+    public void tornLastRecordEndsTheCapture() throws Exception {
+        File file = folder.newFile("torn.fcap");
+        byte[] frame = new byte[BodyCompositionDecoder.FRAME_LENGTH];
+        try (FrameCaptureWriter writer = new FrameCaptureWriter(file)) {
+            writer.write(SCALE_A, BODY_COMPOSITION, 0, frame, 0, frame.length);
+            writer.write(SCALE_A, BODY_COMPOSITION, 1000, frame, 0, frame.length);
+        }
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.setLength(raw.length() - 4);
+        }
+        try (FrameCaptureReader reader = new FrameCaptureReader(file)) {
+            FrameRingBuffer.Frame holder = new FrameRingBuffer.Frame();
+            assertTrue(reader.next(holder));
+            assertFalse(reader.next(holder));
+            assertEquals(1, reader.getFrameCount());
+        }
+    }
+
+    @Test
+    public void replaysIntoThePipelineAtFullSpeed() throws Exception {
+        File file = folder.newFile("replay.fcap");
+        ScaleEmulator emulator = new ScaleEmulator(5, ScaleEmulator.Unit.KG, false);
+        byte[] frame = new byte[BodyCompositionDecoder.FRAME_LENGTH];
+        try (FrameCaptureWriter writer = new FrameCaptureWriter(file)) {
+            for (int i = 0; i < 20000; i++) {
+                emulator.nextFrame(frame, 0);
+                writer.write(SCALE_A, BODY_COMPOSITION, i * 1_000_000L, frame, 0, frame.length);
+            }
+        }
+        MeasurementPipeline pipeline = new MeasurementPipeline(64, 16, 4, null, null);
+        pipeline.start();
+        try (FrameCaptureReader reader = new FrameCaptureReader(file)) {
+            assertEquals(20000, new FrameReplayer().replay(reader, FrameReplayer.into(pipeline), false));
+        }
+        pipeline.stop();
+        assertEquals(0, pipeline.getDroppedFrames());
+        assertEquals(20000, pipeline.getDecodedFrames());
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the dispatch by protocol and length, the 0x2A9D decoding, and fuzzes every registered decoder.
+ */
+public class FrameDecoderRegistryTest {
+
+    // 13/07/2021 08:30:15, stabilized, 70.00 kg, from a first generation Mi Scale
+    private static final byte[] MI_SCALE_FRAME = {0x22, (byte) 0xB0, 0x36, (byte) 0xE5, 0x07, 0x07, 0x0D, 0x08, 0x1E, 0x0F};
+
+    private final FrameDecoderRegistry registry = FrameDecoderRegistry.createDefault();
+    private final BodyCompositionMeasurement measurement = new BodyCompositionMeasurement();
+
+    /**
+     * @return a client which only answers which services the scale offers
+     */
+    private static GattClient scaleOffering(UUID... services) {
+        List<UUID> offered = Arrays.asList(services);
+        return (GattClient) Proxy.newProxyInstance(GattClient.class.getClassLoader(), new Class<?>[]{GattClient.class},
+                (proxy, method, args) -> method.getName().equals("hasService") && offered.contains(args[0]));
+    }
+
+    @Test
+    public void resolvesProtocolsInRegistrationOrder() {
+        assertEquals(3, registry.size());
+        FrameDecoderRegistry.Protocol bodyComposition = registry.getProtocol(FrameDecoderRegistry.PROTOCOL_BODY_COMPOSITION);
+        assertEquals(GattUuids.BODY_COMPOSITION_MEASUREMENT, bodyComposition.getCharacteristic());
+        FrameDecoderRegistry.Protocol miScale = registry.getProtocol(FrameDecoderRegistry.PROTOCOL_MI_SCALE);
+        assertEquals(GattUuids.SERVICE_MI_SCALE, miScale.getVendorService());
+        FrameDecoderRegistry.Protocol weightScale = registry.getProtocol(FrameDecoderRegistry.PROTOCOL_WEIGHT_SCALE);
+        assertEquals(GattUuids.SERVICE_WEIGHT_SCALE, weightScale.getService());
+        assertNull(weightScale.getVendorService());
+        assertNull(registry.getProtocol(3));
+        assertNull(registry.getProtocol(-1));
+    }
+
+    @Test
+    public void resolvesMiScaleOnlyByItsVendorService() {
+        assertSame(registry.getProtocol(FrameDecoderRegistry.PROTOCOL_MI_SCALE),
+                registry.resolve(scaleOffering(GattUuids.SERVICE_WEIGHT_SCALE, GattUuids.SERVICE_MI_SCALE)));
+        assertSame(registry.getProtocol(FrameDecoderRegistry.PROTOCOL_WEIGHT_SCALE),
+                registry.resolve(scaleOffering(GattUuids.SERVICE_WEIGHT_SCALE)));
+        assertSame(registry.getProtocol(FrameDecoderRegistry.PROTOCOL_BODY_COMPOSITION),
+                registry.resolve(scaleOffering(GattUuids.SERVICE_BODY_COMPOSITION, GattUuids.SERVICE_WEIGHT_SCALE)));
+        assertNull(registry.resolve(scaleOffering(GattUuids.SERVICE_MI_SCALE)));
+    }
+
+    @Test
+    public void decodesMiScaleFrame() {
+        FrameDecoderRegistry.Protocol protocol = registry.getProtocol(FrameDecoderRegistry.PROTOCOL_MI_SCALE);
+        assertTrue(protocol.decode(MI_SCALE_FRAME, 0, MI_SCALE_FRAME.length, measurement));
+        assertTrue(measurement.isComplete());
+        assertFalse(measurement.hasImpedance());
+        assertEquals(2021, measurement.getYear());
+        assertEquals(13, measurement.getDay());
+        assertEquals(15, measurement.getSeconds());
+        assertEquals(70000, measurement.getWeightGrams());
+
+        byte[] removed = MI_SCALE_FRAME.clone();
+        removed[0] = (byte) 0xB3; // lbs, catty bit, stabilized, removed
+        assertTrue(protocol.decode(removed, 0, removed.length, measurement));
+        assertTrue(measurement.isLbsUnit());
+        assertTrue(measurement.isCattyUnit());
+        assertTrue(measurement.isWeightRemoved());
+        assertFalse(measurement.isComplete());
+    }
+
+    @Test
+    public void decodesStandardFrameWithUserId() {
+        byte[] frame = new byte[11];
+        System.arraycopy(MI_SCALE_FRAME, 0, frame, 0, MI_SCALE_FRAME.length);
+        frame[0] = 0x06;
+        frame[10] = 3;
+        FrameDecoderRegistry.Protocol protocol = registry.getProtocol(FrameDecoderRegistry.PROTOCOL_WEIGHT_SCALE);
+        assertTrue(protocol.decode(frame, 0, frame.length, measurement));
+        assertTrue(measurement.isComplete());
+        assertEquals(70000, measurement.getWeightGrams());
+
+        // flags announcing BMI and height do not match an 11 byte frame
+        frame[0] = 0x0E;
+        assertFalse(protocol.decode(frame, 0, frame.length, measurement));
+    }
+
+    @Test
+    public void takesEveryStandardFrameAsStabilized() {
+        FrameDecoderRegistry.Protocol protocol = registry.getProtocol(FrameDecoderRegistry.PROTOCOL_WEIGHT_SCALE);
+        // time stamped, the same 10 bytes as a Mi Scale frame, but without its stabilized bit
+        byte[] frame = MI_SCALE_FRAME.clone();
+        frame[0] = 0x02;
+        assertTrue(protocol.decode(frame, 0, frame.length, measurement));
+        assertTrue(measurement.isComplete());
+        assertEquals(2021, measurement.getYear());
+        assertEquals(70000, measurement.getWeightGrams());
+
+        // weight only, decoded but not stored without a time stamp
+        byte[] weightOnly = {0x00, (byte) 0xB0, 0x36};
+        assertEquals(WeightScaleDecoder.frameLength(0), weightOnly.length);
+        assertTrue(protocol.decode(weightOnly, 0, weightOnly.length, measurement));
+        assertEquals(70000, measurement.getWeightGrams());
+        assertFalse(measurement.isComplete());
+    }
+
+    @Test
+    public void rejectsLengthsWithoutDecoder() {
+        FrameDecoderRegistry.Protocol protocol = registry.getProtocol(FrameDecoderRegistry.PROTOCOL_BODY_COMPOSITION);
+        byte[] frame = new byte[64];
+        assertFalse(protocol.decode(frame, 0, MI_SCALE_FRAME.length, measurement));
+        assertFalse(protocol.decode(frame, 0, 64, measurement));
+        assertFalse(protocol.decode(frame, 0, -1, measurement));
+        assertTrue(protocol.decode(frame, 0, BodyCompositionDecoder.FRAME_LENGTH, measurement));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesSecondDecoderForTheSameLength() {
+        registry.register(GattUuids.SERVICE_WEIGHT_SCALE, GattUuids.SERVICE_MI_SCALE, GattUuids.WEIGHT_MEASUREMENT,
+                WeightScaleDecoder.MI_SCALE_FRAME_LENGTH, new WeightScaleDecoder(false));
+    }
+
+    /**
+     * Random frames of every length at random offsets must never throw, and must decode the same whatever surrounds
+     * them, so no decoder reads outside its frame.
+     */
+    @Test
+    public void fuzzedFramesStayInBounds() {
+        Random random = new Random(7);
+        byte[] buffer = new byte[FrameDecoderRegistry.MAX_FRAME_LENGTH + 16];
+        BodyCompositionMeasurement again = new BodyCompositionMeasurement();
+        for (int id = 0; id < registry.size(); id++) {
+            FrameDecoderRegistry.Protocol protocol = registry.getProtocol(id);
+            for (int i = 0; i < 100_000; i++) {
+                random.nextBytes(buffer);
+                int length = random.nextInt(FrameDecoderRegistry.MAX_FRAME_LENGTH + 3);
+                int offset = random.nextInt(buffer.length - length + 1);
+                boolean decoded = protocol.decode(buffer, offset, length, measurement);
+                for (int b = 0; b < buffer.length; b++) {
+                    if (b < offset || b >= offset + length) {
+                        buffer[b] = (byte) ~buffer[b];
+                    }
+                }
+                assertEquals(decoded, protocol.decode(buffer, offset, length, again));
+                if (decoded) {
+                    assertEquals(measurement.getFlags(), again.getFlags());
+                    assertEquals(measurement.getWeightRaw(), again.getWeightRaw());
+                    assertEquals(measurement.getImpedance(), again.getImpedance());
+                    assertEquals(measurement.getSeconds(), again.getSeconds());
+                    assertTrue(measurement.getWeightRaw() >= 0 && measurement.getWeightRaw() <= 0xFFFF);
+                }
+            }
+        }
+    }
+}
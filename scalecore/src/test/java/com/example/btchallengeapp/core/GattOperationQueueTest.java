@@ -0,0 +1,218 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.btchallengeapp.core.GattOperationQueue.Callback.*;
+import static org.junit.Assert.*;
+
+/**
+ * Runs the queue against a fake GATT client which only records the requests it receives.
+ */
+public class GattOperationQueueTest {
+
+    private static final UUID SERVICE = UUID.fromString("0000181b-0000-1000-8000-00805f9b34fb");
+    private static final UUID CHARACTERISTIC = UUID.fromString("00002a9c-0000-1000-8000-00805f9b34fb");
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final FakeGattClient client = new FakeGattClient();
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void startsOneOperationAtATime() {
+        GattOperationQueue queue = new GattOperationQueue(client, timer, 1000, 0);
+        CompletableFuture<Integer> discover = queue.submit("discover", SERVICES_DISCOVERED, GattClient::discoverServices);
+        CompletableFuture<Integer> indicate = queue.submit("indicate", DESCRIPTOR_WRITE,
+                c -> c.enableIndication(SERVICE, CHARACTERISTIC));
+        assertEquals(1, client.requests.size());
+        assertEquals(2, queue.size());
+
+        queue.onOperationCompleted(SERVICES_DISCOVERED, GattClient.GATT_SUCCESS);
+        assertTrue(discover.isDone());
+        assertFalse(indicate.isDone());
+        assertEquals(2, client.requests.size());
+        assertEquals("indicate", client.requests.get(1));
+
+        queue.onOperationCompleted(DESCRIPTOR_WRITE, GattClient.GATT_SUCCESS);
+        assertTrue(indicate.isDone());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void requestsWithoutCallbackArePipelined() {
+        GattOperationQueue queue = new GattOperationQueue(client, timer, 1000, 0);
+        for (int i = 0; i < 5; i++) {
+            queue.submitWithoutCallback("priority", c -> c.requestConnectionPriority(GattClient.CONNECTION_PRIORITY_HIGH));
+        }
+        assertEquals(5, client.requests.size());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void writeWithoutResponseWaitsForItsCallback() throws Exception {
+        GattOperationQueue queue = new GattOperationQueue(client, timer, 1000, 0);
+        CompletableFuture<Integer> write = queue.submit("write", CHARACTERISTIC_WRITE,
+                c -> c.writeCharacteristic(SERVICE, CHARACTERISTIC, new byte[]{1}, false));
+        CompletableFuture<Integer> read = queue.submit("read", CHARACTERISTIC_READ,
+                c -> c.readCharacteristic(SERVICE, CHARACTERISTIC));
+        assertEquals(1, client.requests.size());
+        // the write callback completes the write, not the read behind it
+        queue.onOperationCompleted(CHARACTERISTIC_WRITE, GattClient.GATT_SUCCESS);
+        assertTrue(write.isDone());
+        assertFalse(read.isDone());
+        assertEquals(2, client.requests.size());
+        queue.onOperationCompleted(CHARACTERISTIC_READ, GattClient.GATT_SUCCESS);
+        assertEquals(GattClient.GATT_SUCCESS, (int) read.get());
+    }
+
+    @Test
+    public void retriesAfterErrorStatusThenFails() throws Exception {
+        GattOperationQueue queue = new GattOperationQueue(client, timer, 1000, 1);
+        CompletableFuture<Integer> read = queue.submit("read", CHARACTERISTIC_READ,
+                c -> c.readCharacteristic(SERVICE, CHARACTERISTIC));
+        queue.onOperationCompleted(CHARACTERISTIC_READ, 133);
+        assertEquals(2, client.requests.size());
+        queue.onOperationCompleted(CHARACTERISTIC_READ, 133);
+        assertEquals(133, statusOf(read));
+    }
+
+    @Test
+    public void timesOutLostCallbackAndMovesOn() throws Exception {
+        GattOperationQueue queue = new GattOperationQueue(client, timer, 50, 1);
+        CompletableFuture<Integer> lost = queue.submit("lost", SERVICES_DISCOVERED, GattClient::discoverServices);
+        CompletableFuture<Integer> next = queue.submit("next", CHARACTERISTIC_READ,
+                c -> c.readCharacteristic(SERVICE, CHARACTERISTIC));
+        assertEquals(GattException.STATUS_TIMEOUT, statusOf(lost));
+        // original attempt, one retry, then the next operation
+        assertEquals(3, client.requests.size());
+        queue.onOperationCompleted(CHARACTERISTIC_READ, GattClient.GATT_SUCCESS);
+        assertEquals(GattClient.GATT_SUCCESS, next.get(1, TimeUnit.SECONDS).intValue());
+    }
+
+    @Test
+    public void dropsLateCallbackOfAnotherOperationType() throws Exception {
+        GattOperationQueue queue = new GattOperationQueue(client, timer, 50, 0);
+        CompletableFuture<Integer> write = queue.submit("write", CHARACTERISTIC_WRITE,
+                c -> c.writeCharacteristic(SERVICE, CHARACTERISTIC, new byte[]{1}, true));
+        CompletableFuture<Integer> indicate = queue.submit("indicate", DESCRIPTOR_WRITE,
+                c -> c.enableIndication(SERVICE, CHARACTERISTIC));
+        assertEquals(GattException.STATUS_TIMEOUT, statusOf(write));
+        // the write callback arrives after the write timed out, while the descriptor write is in flight
+        queue.onOperationCompleted(CHARACTERISTIC_WRITE, GattClient.GATT_SUCCESS);
+        assertFalse(indicate.isDone());
+        assertEquals(1, queue.size());
+        queue.onOperationCompleted(DESCRIPTOR_WRITE, GattClient.GATT_SUCCESS);
+        assertEquals(GattClient.GATT_SUCCESS, indicate.get(1, TimeUnit.SECONDS).intValue());
+    }
+
+    @Test
+    public void retriesRefusedStart() throws Exception {
+        client.refusals = 2;
+        GattOperationQueue queue = new GattOperationQueue(client, timer, 50, 3);
+        CompletableFuture<Integer> discover = queue.submit("discover", SERVICES_DISCOVERED, GattClient::discoverServices);
+        long deadline = System.currentTimeMillis() + 1000;
+        while (client.requests.size() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        queue.onOperationCompleted(SERVICES_DISCOVERED, GattClient.GATT_SUCCESS);
+        assertEquals(GattClient.GATT_SUCCESS, discover.get(1, TimeUnit.SECONDS).intValue());
+    }
+
+    @Test
+    public void closeCancelsPendingOperations() throws Exception {
+        GattOperationQueue queue = new GattOperationQueue(client, timer, 1000, 0);
+        CompletableFuture<Integer> first = queue.submit("first", SERVICES_DISCOVERED, GattClient::discoverServices);
+        CompletableFuture<Integer> second = queue.submit("second", SERVICES_DISCOVERED, GattClient::discoverServices);
+        queue.close();
+        assertEquals(GattException.STATUS_CANCELLED, statusOf(first));
+        assertEquals(GattException.STATUS_CANCELLED, statusOf(second));
+        assertEquals(GattException.STATUS_CANCELLED, statusOf(queue.submit("late", SERVICES_DISCOVERED,
+                GattClient::discoverServices)));
+    }
+
+    private static int statusOf(CompletableFuture<Integer> future) throws Exception {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("Operation should have failed");
+            return 0;
+        } catch (ExecutionException e) {
+            return ((GattException) e.getCause()).getStatus();
+        }
+    }
+
+    private static class FakeGattClient implements GattClient {
+        final List<String> requests = new ArrayList<>();
+        int refusals;
+
+        private synchronized boolean record(String request) {
+            if (refusals > 0) {
+                refusals--;
+                requests.add(request);
+                return false;
+            }
+            requests.add(request);
+            return true;
+        }
+
+        @Override
+        public boolean discoverServices() {
+            return record("discover");
+        }
+
+        @Override
+        public boolean hasService(UUID service) {
+            return true;
+        }
+
+        @Override
+        public boolean enableIndication(UUID service, UUID characteristic) {
+            return record("indicate");
+        }
+
+        @Override
+        public boolean enableNotification(UUID service, UUID characteristic) {
+            return record("notify");
+        }
+
+        @Override
+        public boolean requestMtu(int mtu) {
+            return record("mtu");
+        }
+
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            return record("priority");
+        }
+
+        @Override
+        public boolean readCharacteristic(UUID service, UUID characteristic) {
+            return record("read");
+        }
+
+        @Override
+        public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, boolean withResponse) {
+            return record("write");
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Downloads the history of simulated scales into a logged pipeline, and checks that a history already stored is
+ * recognized on the next connection.
+ */
+public class HistorySyncTest {
+
+    private static final String ADDRESS = "C8:47:8C:00:00:01";
+    private static final int RECORDS = 120;
+
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+    private final ExecutorService delivery = Executors.newSingleThreadExecutor();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        delivery.shutdownNow();
+    }
+
+    private static final ScaleConnectionManager.Listener IGNORE = new ScaleConnectionManager.Listener() {
+        @Override
+        public void onStateChanged(String address, ScaleSession.State state) {
+        }
+
+        @Override
+        public void onMeasurement(String address, BodyCompositionMeasurement measurement) {
+        }
+    };
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private SimulatedScaleTransport scaleWithHistory() {
+        // live frames are rare, the history goes over its own characteristic
+        SimulatedScaleTransport transport = new SimulatedScaleTransport(executor, 1, 10_000);
+        transport.setHistory(RECORDS);
+        return transport;
+    }
+
+    @Test
+    public void downloadsHistoryOnceAndRecognizesItAgain() throws Exception {
+        File logFile = new File(folder.getRoot(), "measurements.log");
+        MeasurementLogWriter log = new MeasurementLogWriter(logFile, 64);
+        MeasurementPipeline pipeline = new MeasurementPipeline(16, 16, 4, log, null);
+        pipeline.start();
+        HistorySync sync = new HistorySync(0x1234, pipeline, log, delivery, 1000);
+
+        ScaleConnectionManager manager = new ScaleConnectionManager(scaleWithHistory(), executor, 1, 1, IGNORE);
+        manager.setHistorySync(sync);
+        assertTrue(manager.connect(ADDRESS));
+        await(() -> sync.getCompletedTransfers() == 1);
+        await(() -> pipeline.getDecodedFrames() == RECORDS);
+        manager.disconnectAll();
+
+        assertEquals(RECORDS, sync.getReceivedRecords());
+        assertEquals(0, sync.getDuplicateRecords());
+        assertEquals(RECORDS * 13 + 1, sync.getReceivedBytes());
+        assertTrue(sync.getTransferNanos() > 0);
+        // a small ring only holds the delivery up, nothing is dropped
+        assertEquals(0, pipeline.getDroppedFrames());
+        log.flush();
+        assertEquals(RECORDS, MeasurementLogView.open(logFile).size());
+
+        // the scale got the acknowledgement, the next connection finds nothing stored
+        assertTrue(manager.connect(ADDRESS));
+        await(() -> sync.getCompletedTransfers() == 2);
+        manager.disconnectAll();
+        assertEquals(RECORDS, sync.getReceivedRecords());
+
+        // a scale which lost the acknowledgement sends the same readings again
+        ScaleConnectionManager again = new ScaleConnectionManager(scaleWithHistory(), executor, 1, 1, IGNORE);
+        again.setHistorySync(sync);
+        assertTrue(again.connect(ADDRESS));
+        await(() -> sync.getCompletedTransfers() == 3);
+        again.disconnectAll();
+        assertEquals(RECORDS, sync.getDuplicateRecords());
+        assertEquals(0, sync.getFailedTransfers());
+
+        pipeline.stop();
+        log.close();
+        assertEquals(RECORDS, MeasurementLogView.open(logFile).size());
+    }
+
+    @Test
+    public void deliversLongHistoryInChunks() throws Exception {
+        MeasurementPipeline pipeline = new MeasurementPipeline(16, 16, 4, null, null);
+        pipeline.start();
+        HistorySync sync = new HistorySync(0x1234, pipeline, null, delivery, 50);
+        sync.setBulkParameters(GattClient.DEFAULT_MTU, false);
+        SimulatedScaleTransport transport = scaleWithHistory();
+
+        ScaleConnectionManager manager = new ScaleConnectionManager(transport, executor, 1, 1, IGNORE);
+        manager.setHistorySync(sync);
+        assertTrue(manager.connect(ADDRESS));
+        await(() -> sync.getCompletedTransfers() == 1);
+        await(() -> pipeline.getDecodedFrames() == RECORDS);
+        manager.disconnectAll();
+        assertEquals(RECORDS, sync.getReceivedRecords());
+        assertEquals(1, sync.getChunkedTransfers());
+        assertEquals(0, pipeline.getDroppedFrames());
+
+        // acknowledged, so the scale holds nothing any more
+        assertTrue(manager.connect(ADDRESS));
+        await(() -> sync.getCompletedTransfers() == 2);
+        manager.disconnectAll();
+        assertEquals(0, sync.getFailedTransfers());
+        assertEquals(RECORDS, sync.getReceivedRecords());
+        pipeline.stop();
+    }
+
+    @Test
+    public void failsHistoryWhichNeverEnds() throws Exception {
+        MeasurementPipeline pipeline = new MeasurementPipeline(16, 16, 4, null, null);
+        pipeline.start();
+        HistorySync sync = new HistorySync(0x1234, pipeline, null, delivery, 1000);
+        sync.setTransferTimeout(200);
+        SimulatedScaleTransport transport = scaleWithHistory();
+        transport.setHistoryEnds(false);
+
+        ScaleConnectionManager manager = new ScaleConnectionManager(transport, executor, 1, 1, IGNORE);
+        manager.setHistorySync(sync);
+        assertTrue(manager.connect(ADDRESS));
+        await(() -> sync.getFailedTransfers() == 1);
+        // the connection goes back to low power while it stays up for the live stream
+        await(() -> transport.getConnectionPriority(ADDRESS) == GattClient.CONNECTION_PRIORITY_LOW_POWER);
+        manager.disconnectAll();
+        assertEquals(0, sync.getCompletedTransfers());
+        assertEquals(0, sync.getReceivedRecords());
+        assertEquals(RECORDS * 13, sync.getReceivedBytes());
+        // not acknowledged, the scale sends the same readings on the next connection
+        transport.setHistoryEnds(true);
+        assertTrue(manager.connect(ADDRESS));
+        await(() -> sync.getCompletedTransfers() == 1);
+        await(() -> pipeline.getDecodedFrames() == RECORDS);
+        manager.disconnectAll();
+        assertEquals(1, sync.getFailedTransfers());
+        pipeline.stop();
+    }
+}
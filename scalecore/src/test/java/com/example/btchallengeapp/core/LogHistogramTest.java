@@ -0,0 +1,49 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the bucket layout and the percentile accuracy of the histogram.
+ */
+public class LogHistogramTest {
+
+    @Test
+    public void bucketsCoverTheirValues() {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 1000, 123_456_789L, 1L << 40, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LogHistogram.bucketOf(value);
+            assertTrue(value <= LogHistogram.upperBoundOf(bucket));
+            if (bucket > 0) {
+                assertTrue(value > LogHistogram.upperBoundOf(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        LogHistogram histogram = new LogHistogram();
+        for (long millis = 1; millis <= 1000; millis++) {
+            histogram.record(millis * 1_000_000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000_000L, histogram.getMax());
+        assertEquals(500e6, histogram.getPercentile(50), 500e6 * 0.125);
+        assertEquals(950e6, histogram.getPercentile(95), 950e6 * 0.125);
+        assertEquals(990e6, histogram.getPercentile(99), 990e6 * 0.125);
+        assertEquals(1_000_000_000L, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void emptyAndResetReportZero() {
+        LogHistogram histogram = new LogHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        histogram.record(-5);
+        histogram.record(42);
+        assertEquals(0, histogram.getPercentile(50));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+}
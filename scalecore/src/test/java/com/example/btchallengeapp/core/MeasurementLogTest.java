@@ -0,0 +1,121 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips records through the log writer and the mapped view.
+ */
+public class MeasurementLogTest {
+
+    private static final long SCALE_A = MacAddress.pack("C8:47:8C:00:00:01");
+    private static final long SCALE_B = MacAddress.pack("C8:47:8C:00:00:02");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackAppendedRecords() throws Exception {
+        File file = folder.newFile("measurements.log");
+        try (MeasurementLogWriter writer = new MeasurementLogWriter(file, 4)) {
+            for (int i = 0; i < 10; i++) {
+                writer.append(1_600_000_000L + i * 86400L, i % 2 == 0 ? SCALE_A : SCALE_B, 70_000 + i, 500 + i,
+                        BodyCompositionMeasurement.FLAG_STABILIZED);
+            }
+        }
+        MeasurementLogView view = MeasurementLogView.open(file);
+        assertEquals(10, view.size());
+        assertTrue(view.isTimeOrdered());
+        assertEquals(1_600_000_000L + 3 * 86400L, view.epochSeconds(3));
+        assertEquals(SCALE_B, view.device(3));
+        assertEquals(70_003, view.weightGrams(3));
+        assertEquals(503, view.impedance(3));
+        assertEquals(BodyCompositionMeasurement.FLAG_STABILIZED, view.flags(3));
+
+        List<Integer> matches = new ArrayList<>();
+        int count = view.query(1_600_000_000L + 2 * 86400L, 1_600_000_000L + 8 * 86400L, SCALE_A,
+                (v, index) -> matches.add(index));
+        assertEquals(3, count);
+        assertEquals(2, (int) matches.get(0));
+        assertEquals(6, (int) matches.get(2));
+    }
+
+    @Test
+    public void reopensAndCutsTornRecord() throws Exception {
+        File file = folder.newFile("measurements.log");
+        try (MeasurementLogWriter writer = new MeasurementLogWriter(file, 16)) {
+            writer.append(100, SCALE_A, 60_000, 0, 0);
+            writer.append(200, SCALE_A, 61_000, 0, 0);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() + 5);
+        }
+        try (MeasurementLogWriter writer = new MeasurementLogWriter(file, 16)) {
+            assertEquals(2, writer.size());
+            // older than the last record, the log is no longer time ordered
+            writer.append(150, SCALE_B, 62_000, 0, 0);
+        }
+        MeasurementLogView view = MeasurementLogView.open(file);
+        assertEquals(3, view.size());
+        assertFalse(view.isTimeOrdered());
+        assertEquals(62_000, view.weightGrams(2));
+        assertEquals(2, view.query(100, 180, MeasurementLogView.ANY_DEVICE, (v, index) -> { }));
+    }
+
+    @Test
+    public void queriesHistoryAppendedAfterLiveRecords() throws Exception {
+        File file = folder.newFile("measurements.log");
+        long start = 1_600_000_000L;
+        try (MeasurementLogWriter writer = new MeasurementLogWriter(file, 16)) {
+            for (int i = 0; i < 500; i++) {
+                writer.append(start + i * 3600L, SCALE_A, 70_000 + i, 0, 0);
+            }
+            // a history downloaded after the live readings, going back two days
+            for (int i = 0; i < 48; i++) {
+                writer.append(start + 497 * 3600L - 48 * 3600L + i * 3600L, SCALE_B, 60_000 + i, 0, 0);
+            }
+        }
+        try (MeasurementLogWriter writer = new MeasurementLogWriter(file, 16)) {
+            for (int i = 500; i < 600; i++) {
+                writer.append(start + i * 3600L, SCALE_A, 70_000 + i, 0, 0);
+            }
+            // lags less than the history, the max lag stays
+            writer.append(start + 590 * 3600L, SCALE_B, 61_000, 0, 0);
+        }
+        MeasurementLogView view = MeasurementLogView.open(file);
+        assertEquals(649, view.size());
+        assertFalse(view.isTimeOrdered());
+        assertEquals(50 * 3600L, view.getMaxLagSeconds());
+        for (long from = start - 7200; from < start + 610 * 3600L; from += 1800) {
+            long to = from + 5 * 3600L;
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < view.size(); i++) {
+                if (view.epochSeconds(i) >= from && view.epochSeconds(i) < to) {
+                    expected.add(i);
+                }
+            }
+            List<Integer> matches = new ArrayList<>();
+            view.query(from, to, MeasurementLogView.ANY_DEVICE, (v, index) -> matches.add(index));
+            assertEquals(expected, matches);
+        }
+        assertEquals(649, view.query(Long.MIN_VALUE, Long.MAX_VALUE, MeasurementLogView.ANY_DEVICE, (v, index) -> { }));
+    }
+
+    @Test
+    public void convertsScaleTimeAndWeight() {
+        BodyCompositionMeasurement measurement = new BodyCompositionMeasurement();
+        measurement.set(BodyCompositionMeasurement.FLAG_STABILIZED, 2021, 7, 13, 8, 30, 15, 14000, 500);
+        assertEquals(1626165015L, measurement.getEpochSeconds(0));
+        assertEquals(1626165015L - 19800, measurement.getEpochSeconds(19800));
+        assertEquals(70_000, measurement.getWeightGrams());
+        assertEquals("C8:47:8C:00:00:01", MacAddress.format(SCALE_A));
+    }
+}
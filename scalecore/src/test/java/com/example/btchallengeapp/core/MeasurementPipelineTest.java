@@ -0,0 +1,219 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds frames into the pipeline the way the bluetooth callbacks do and checks what reaches the UI batch.
+ */
+public class MeasurementPipelineTest {
+
+    private static final long SCALE = MacAddress.pack("C8:47:8C:00:00:01");
+    private static final int BODY_COMPOSITION = FrameDecoderRegistry.PROTOCOL_BODY_COMPOSITION;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] frame(int ctrlByte1, int minute, int weightRaw) {
+        return new byte[]{0x02, (byte) ctrlByte1, (byte) 0xE5, 0x07, 0x07, 0x0D, 0x08, (byte) minute, 0x00,
+                (byte) 0xF4, 0x01, (byte) weightRaw, (byte) (weightRaw >> 8)};
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    public void decodesDedupsAndCoalesces() throws Exception {
+        CountDownLatch ready = new CountDownLatch(1);
+        AtomicInteger signals = new AtomicInteger();
+        MeasurementPipeline pipeline = new MeasurementPipeline(64, 16, 4, null, () -> {
+            signals.incrementAndGet();
+            ready.countDown();
+        });
+        Trace trace = new Trace(16, Trace.LEVEL_INFO, MonotonicClock.SYSTEM);
+        pipeline.setTrace(trace);
+        pipeline.start();
+        assertTrue(pipeline.offer(SCALE, BODY_COMPOSITION, frame(0x06, 30, 14000), 0, 13)); // not stabilized
+        assertTrue(pipeline.offer(SCALE, BODY_COMPOSITION, frame(0x26, 30, 14000), 0, 13));
+        assertTrue(pipeline.offer(SCALE, BODY_COMPOSITION, frame(0x26, 30, 14000), 0, 13)); // repeated indication
+        assertTrue(pipeline.offer(SCALE, BODY_COMPOSITION, frame(0x26, 31, 14100), 0, 13));
+        assertTrue(pipeline.offer(SCALE, BODY_COMPOSITION, new byte[5], 0, 5));
+        pipeline.stop();
+
+        assertTrue(ready.await(1, TimeUnit.SECONDS));
+        assertEquals(1, signals.get());
+        MeasurementBatch batch = new MeasurementBatch(16);
+        assertEquals(2, pipeline.drainTo(batch));
+        assertEquals(70_000, batch.weightGrams(0));
+        assertEquals(70_500, batch.weightGrams(1));
+        assertEquals(SCALE, batch.device(1));
+        assertEquals(5, pipeline.getReceivedFrames());
+        assertEquals(1, pipeline.getInvalidFrames());
+        assertEquals(1, pipeline.getIncompleteFrames());
+        assertEquals(1, pipeline.getDuplicateFrames());
+        assertEquals(0, pipeline.getDroppedFrames());
+        assertEquals(2, trace.getCount(Trace.FRAME_ACCEPTED));
+        assertEquals(1, trace.getCount(Trace.FRAME_UNSTABILIZED));
+        assertEquals(1, trace.getCount(Trace.FRAME_DUPLICATE));
+        assertEquals(1, trace.getCount(Trace.FRAME_INVALID));
+        // only the invalid frame is at info level
+        assertEquals(1, trace.getWritten());
+    }
+
+    @Test
+    public void dropsWhenRingIsFull() {
+        MeasurementPipeline pipeline = new MeasurementPipeline(4, 16, 4, null, null);
+        for (int i = 0; i < 6; i++) {
+            pipeline.offer(SCALE, BODY_COMPOSITION, frame(0x26, i, 14000), 0, 13);
+        }
+        assertEquals(4, pipeline.getQueueDepth());
+        assertEquals(2, pipeline.getDroppedFrames());
+    }
+
+    @Test
+    public void primesStatisticsFromTheLogOnce() throws Exception {
+        File logFile = new File(folder.getRoot(), "measurements.log");
+        MeasurementLogWriter log = new MeasurementLogWriter(logFile, 4);
+        log.append(1_600_000_000, SCALE, 71_000, 500, 0);
+        UserStatistics statistics = new UserStatistics(4, 8, 7);
+        MeasurementPipeline pipeline = new MeasurementPipeline(64, 16, 4, log, null);
+        pipeline.setStatistics(statistics);
+        pipeline.start();
+        assertTrue(pipeline.offer(SCALE, BODY_COMPOSITION, frame(0x26, 30, 14000), 0, 13));
+        // stopping cuts priming short, the frame is only decoded once it is through
+        await(() -> pipeline.getDecodedFrames() == 1);
+        pipeline.stop();
+        pipeline.start();
+        pipeline.stop();
+        log.close();
+
+        assertEquals(2, statistics.getCount(SCALE));
+        assertEquals(70_000, statistics.getMinWeightGrams(SCALE));
+        assertEquals(71_000, statistics.getMaxWeightGrams(SCALE));
+        assertEquals(0, pipeline.getStatisticsRefused());
+    }
+
+    @Test
+    public void attributesReadingsToProfiles() throws Exception {
+        UserAttribution attribution = new UserAttribution(4);
+        attribution.enroll(42, 70_200, 500, 1_600_000_000);
+        MeasurementPipeline pipeline = new MeasurementPipeline(64, 16, 4, null, null);
+        pipeline.setAttribution(attribution);
+        pipeline.start();
+        assertTrue(pipeline.offer(SCALE, BODY_COMPOSITION, frame(0x26, 30, 14000), 0, 13));
+        assertTrue(pipeline.offer(SCALE, BODY_COMPOSITION, frame(0x26, 31, 18000), 0, 13));
+        pipeline.stop();
+
+        MeasurementBatch batch = new MeasurementBatch(16);
+        assertEquals(2, pipeline.drainTo(batch));
+        assertEquals(42, batch.user(0));
+        // nobody weighs 90 kg, the reading stays with the scale
+        assertEquals(SCALE, batch.user(1));
+        assertEquals(1, pipeline.getUnattributed());
+    }
+
+    @Test
+    public void primesAttributionWithoutCountingLoggedReadings() throws Exception {
+        File logFile = new File(folder.getRoot(), "measurements.log");
+        MeasurementLogWriter log = new MeasurementLogWriter(logFile, 4);
+        log.append(1_600_000_000, SCALE, 70_100, 500, 0);
+        log.append(1_600_000_100, SCALE, 90_000, 500, 0);
+        UserAttribution attribution = new UserAttribution(4);
+        attribution.enroll(42, 70_200, 500, 1_599_990_000);
+        UserStatistics statistics = new UserStatistics(4, 8, 7);
+        MeasurementPipeline pipeline = new MeasurementPipeline(64, 16, 4, log, null);
+        pipeline.setAttribution(attribution);
+        pipeline.setStatistics(statistics);
+        pipeline.start();
+        await(() -> pipeline.getPrimedRecords() == 2);
+        pipeline.stop();
+        log.close();
+
+        assertEquals(1, statistics.getCount(42));
+        assertEquals(1, statistics.getCount(SCALE));
+        // both were counted when they arrived
+        assertEquals(0, pipeline.getUnattributed());
+    }
+
+    @Test
+    public void primesSharedAggregatesOnceForAllPipelines() throws Exception {
+        File logFile = new File(folder.getRoot(), "measurements.log");
+        MeasurementLogWriter log = new MeasurementLogWriter(logFile, 4);
+        for (int i = 0; i < 5; i++) {
+            log.append(1_600_000_000 + i * 86_400, SCALE, 70_000 + i * 100, 500, 0);
+        }
+        UserStatistics statistics = new UserStatistics(4, 8, 7);
+        DownsampledHistory history = new DownsampledHistory(4);
+        MeasurementPipeline.Priming priming = new MeasurementPipeline.Priming();
+        MeasurementPipeline first = new MeasurementPipeline(64, 16, 4, log, null);
+        first.setStatistics(statistics);
+        first.setHistory(history);
+        first.setPriming(priming);
+        first.start();
+        assertTrue(first.offer(SCALE, BODY_COMPOSITION, frame(0x26, 30, 14000), 0, 13));
+        await(() -> first.getDecodedFrames() == 1);
+        first.stop();
+        assertEquals(5, first.getPrimedRecords());
+
+        // a recreated service starts a new pipeline on the same aggregates
+        MeasurementPipeline second = new MeasurementPipeline(64, 16, 4, log, null);
+        second.setStatistics(statistics);
+        second.setHistory(history);
+        second.setPriming(priming);
+        second.start();
+        assertTrue(second.offer(SCALE, BODY_COMPOSITION, frame(0x26, 31, 14100), 0, 13));
+        await(() -> second.getDecodedFrames() == 1);
+        second.stop();
+        log.close();
+
+        assertEquals(0, second.getPrimedRecords());
+        assertEquals(7, statistics.getCount(SCALE));
+        assertEquals(7, history.getCount(SCALE, DownsampledHistory.RAW));
+    }
+
+    @Test
+    public void stopCutsPrimingShortAndTheNextPipelineResumes() throws Exception {
+        File logFile = new File(folder.getRoot(), "measurements.log");
+        MeasurementLogWriter log = new MeasurementLogWriter(logFile, 100_000);
+        int records = 200_000;
+        for (int i = 0; i < records; i++) {
+            log.append(1_500_000_000 + i * 60L, SCALE, 70_000 + i % 1000, 500, 0);
+        }
+        UserStatistics statistics = new UserStatistics(4, 8, 7);
+        MeasurementPipeline.Priming priming = new MeasurementPipeline.Priming();
+        MeasurementPipeline first = new MeasurementPipeline(64, 16, 4, log, null);
+        first.setStatistics(statistics);
+        first.setPriming(priming);
+        first.start();
+        await(() -> statistics.getCount(SCALE) > 0);
+        first.stop();
+        assertTrue(first.getPrimedRecords() < records);
+
+        MeasurementPipeline second = new MeasurementPipeline(64, 16, 4, log, null);
+        second.setStatistics(statistics);
+        second.setPriming(priming);
+        second.start();
+        // frames wait until the log is replayed, the rest of it included
+        assertTrue(second.offer(SCALE, BODY_COMPOSITION, frame(0x26, 30, 14000), 0, 13));
+        await(() -> second.getDecodedFrames() == 1);
+        second.stop();
+        log.close();
+
+        assertEquals(records, first.getPrimedRecords() + second.getPrimedRecords());
+        assertEquals(records + 1, statistics.getCount(SCALE));
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.btchallengeapp.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+/**
+ * Uploads a log to a local HTTP server which fails part of the requests, and checks every record arrives once.
+ */
+public class MeasurementSyncerTest {
+
+    private static final long SCALE_A = MacAddress.pack("C8:47:8C:00:00:01");
+    private static final long SCALE_B = MacAddress.pack("C8:47:8C:00:00:02");
+    private static final int RECORDS = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private URL endpoint;
+    private final AtomicIntegerArray received = new AtomicIntegerArray(RECORDS);
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    // every request with a number divisible by this fails with 503, 0 to never fail
+    private volatile int failEvery;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/measurements", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.start();
+        endpoint = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/measurements");
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int concurrent = active.incrementAndGet();
+        maxActive.accumulateAndGet(concurrent, Math::max);
+        try {
+            byte[] body = readAll(exchange.getRequestBody());
+            int request = requests.incrementAndGet();
+            int status = 200;
+            if (failEvery > 0 && request % failEvery == 0) {
+                status = 503;
+            } else {
+                MeasurementBatch batch = new MeasurementBatch(RECORDS);
+                long first = SyncPayload.decode(SyncPayload.decompress(body), batch);
+                assertEquals(Integer.toString(batch.size()), exchange.getRequestHeaders().getFirst("X-Record-Count"));
+                for (int i = 0; i < batch.size(); i++) {
+                    received.incrementAndGet((int) first + i);
+                }
+            }
+            exchange.sendResponseHeaders(status, -1);
+        } finally {
+            active.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        for (int n; (n = in.read(chunk)) >= 0; ) {
+            out.write(chunk, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private File writeLog(int count) throws IOException {
+        File file = new File(folder.getRoot(), "measurements.log");
+        // rewritten whole, the writer appends to an existing log
+        file.delete();
+        try (MeasurementLogWriter writer = new MeasurementLogWriter(file, 100)) {
+            for (int i = 0; i < count; i++) {
+                writer.append(1_600_000_000L + i * 43_200L, i % 3 == 0 ? SCALE_B : SCALE_A, 70_000 + (i * 37) % 900,
+                        i % 2 == 0 ? 480 + i % 20 : 0, BodyCompositionMeasurement.FLAG_STABILIZED);
+            }
+        }
+        return file;
+    }
+
+    private static void awaitCursor(MeasurementSyncer syncer, int cursor) throws InterruptedException {
+        for (int i = 0; i < 500 && syncer.getCursor() < cursor; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(cursor, syncer.getCursor());
+    }
+
+    @Test
+    public void payloadRoundTripsCompactly() throws Exception {
+        MeasurementLogView view = MeasurementLogView.open(writeLog(RECORDS));
+        byte[] payload = SyncPayload.encode(view, 100, 500);
+        byte[] compressed = SyncPayload.compress(payload);
+        assertTrue("payload " + payload.length, payload.length < 500 * 10);
+        assertTrue("compressed " + compressed.length, compressed.length < payload.length);
+
+        MeasurementBatch batch = new MeasurementBatch(500);
+        assertEquals(100, SyncPayload.decode(SyncPayload.decompress(compressed), batch));
+        assertEquals(500, batch.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(view.epochSeconds(100 + i), batch.epochSeconds(i));
+            assertEquals(view.device(100 + i), batch.device(i));
+            assertEquals(view.weightGrams(100 + i), batch.weightGrams(i));
+            assertEquals(view.impedance(100 + i), batch.impedance(i));
+            assertEquals(view.flags(100 + i), batch.flags(i));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedPayload() throws Exception {
+        byte[] payload = SyncPayload.encode(MeasurementLogView.open(writeLog(10)), 0, 10);
+        byte[] truncated = new byte[payload.length - 3];
+        System.arraycopy(payload, 0, truncated, 0, truncated.length);
+        SyncPayload.decode(truncated, new MeasurementBatch(10));
+    }
+
+    @Test
+    public void uploadsEveryRecordOnceDespiteFailures() throws Exception {
+        File log = writeLog(RECORDS);
+        File state = new File(folder.getRoot(), "sync_state");
+        failEvery = 3;
+        MeasurementSyncer syncer = new MeasurementSyncer(log, state,
+                new HttpSyncTransport(endpoint, 2000, 2000), 100, 2);
+        syncer.setBackoff(5, 20);
+        syncer.start();
+        awaitCursor(syncer, RECORDS);
+        syncer.stop();
+
+        for (int i = 0; i < RECORDS; i++) {
+            assertEquals("record " + i, 1, received.get(i));
+        }
+        assertTrue(maxActive.get() <= 2);
+        assertTrue(syncer.getRetries() > 0);
+        assertEquals(RECORDS, syncer.getSyncedRecords());
+        assertEquals(0, syncer.getRejectedBatches());
+        assertEquals(10 + syncer.getRetries(), syncer.getSentBatches());
+        assertTrue(syncer.getBytesPerRecord() > 0 && syncer.getBytesPerRecord() < 8);
+        assertEquals(0, syncer.getInFlight());
+    }
+
+    @Test
+    public void resumesFromSavedCursor() throws Exception {
+        File state = new File(folder.getRoot(), "sync_state");
+        MeasurementSyncer syncer = new MeasurementSyncer(writeLog(400), state,
+                new HttpSyncTransport(endpoint, 2000, 2000), 100, 2);
+        syncer.start();
+        awaitCursor(syncer, 400);
+        syncer.stop();
+
+        File log = writeLog(RECORDS);
+        MeasurementSyncer restarted = new MeasurementSyncer(log, state,
+                new HttpSyncTransport(endpoint, 2000, 2000), 100, 2);
+        restarted.start();
+        awaitCursor(restarted, RECORDS);
+        restarted.stop();
+
+        assertEquals(600, restarted.getSyncedRecords());
+        for (int i = 0; i < RECORDS; i++) {
+            assertEquals("record " + i, 1, received.get(i));
+        }
+    }
+
+    @Test
+    public void skipsRejectedBatch() throws Exception {
+        MeasurementSyncer syncer = new MeasurementSyncer(writeLog(250), new File(folder.getRoot(), "sync_state"),
+                (batchId, payload, recordCount) -> batchId.endsWith("-100-100") ? 400 : 200, 100, 1);
+        syncer.start();
+        awaitCursor(syncer, 250);
+        syncer.stop();
+        assertEquals(1, syncer.getRejectedBatches());
+        assertEquals(150, syncer.getSyncedRecords());
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the proximity order, its throttling and aging, and that the reported changes rebuild the same order.
+ */
+public class ProximityRankerTest {
+
+    private static final long MS = 1_000_000L;
+
+    /**
+     * Applies the changes to a list of handles the way a list view would, taking the handles from the ranker
+     */
+    private static final class Mirror implements ProximityRanker.Changes {
+        final List<Integer> rows = new ArrayList<>();
+        final ProximityRanker ranker;
+        // handles in the order they were appended, inserted rows are only ever at the end
+        final List<Integer> appended = new ArrayList<>();
+
+        Mirror(ProximityRanker ranker) {
+            this.ranker = ranker;
+        }
+
+        @Override
+        public void onRemoved(int position) {
+            rows.remove(position);
+        }
+
+        @Override
+        public void onInserted(int position) {
+            assertEquals(rows.size(), position);
+            rows.add(appended.remove(0));
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            rows.add(toPosition, rows.remove(fromPosition));
+        }
+
+        void assertMatches() {
+            assertEquals(ranker.size(), rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                assertEquals("position " + i, ranker.handleAt(i), (int) rows.get(i));
+                assertEquals(i, ranker.positionOf(rows.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void ordersByFilteredRssi() {
+        ProximityRanker ranker = new ProximityRanker(4, 500 * MS, 10_000 * MS, 3f);
+        assertTrue(ranker.observe(0, -80, 0));
+        assertTrue(ranker.observe(1, -50, 0));
+        assertTrue(ranker.observe(2, -65, 0));
+        assertFalse(ranker.observe(0, -81, 10 * MS));
+        assertEquals(ProximityRanker.NOT_LISTED, ranker.positionOf(1));
+
+        Mirror mirror = new Mirror(ranker);
+        mirror.appended.add(0);
+        mirror.appended.add(1);
+        mirror.appended.add(2);
+        ranker.update(100 * MS, mirror);
+        mirror.assertMatches();
+        assertEquals(1, ranker.handleAt(0));
+        assertEquals(2, ranker.handleAt(1));
+        assertEquals(0, ranker.handleAt(2));
+    }
+
+    @Test
+    public void smoothsSingleOutliers() {
+        ProximityRanker ranker = new ProximityRanker(4, 0, 10_000 * MS, 3f);
+        for (int i = 0; i < 50; i++) {
+            ranker.observe(0, -60, i * 100 * MS);
+        }
+        ranker.observe(0, -90, 5000 * MS);
+        assertTrue(ranker.getRssi(0) > -66);
+        // after a long pause the filter trusts the new readings more
+        ranker.observe(0, -90, 60_000 * MS);
+        assertTrue(ranker.getRssi(0) < -75);
+    }
+
+    @Test
+    public void throttlesAndKeepsCloseDevicesInPlace() {
+        ProximityRanker ranker = new ProximityRanker(4, 500 * MS, 10_000 * MS, 3f);
+        Mirror mirror = new Mirror(ranker);
+        ranker.observe(0, -60, 0);
+        ranker.observe(1, -70, 0);
+        mirror.appended.add(0);
+        mirror.appended.add(1);
+        assertEquals(2, ranker.update(0, mirror));
+
+        for (int i = 1; i <= 20; i++) {
+            ranker.observe(1, -58, i * 20 * MS);
+        }
+        assertEquals(0, ranker.update(400 * MS, mirror));
+        assertEquals(0, ranker.handleAt(0));
+        // about 2 dB stronger is within the hysteresis
+        assertEquals(0, ranker.update(500 * MS, mirror));
+        assertEquals(0, ranker.handleAt(0));
+
+        for (int i = 21; i <= 60; i++) {
+            ranker.observe(1, -50, i * 20 * MS);
+        }
+        assertEquals(1, ranker.update(1200 * MS, mirror));
+        assertEquals(1, ranker.handleAt(0));
+        mirror.assertMatches();
+    }
+
+    @Test
+    public void agesOutSilentDevices() {
+        ProximityRanker ranker = new ProximityRanker(4, 0, 1000 * MS, 3f);
+        Mirror mirror = new Mirror(ranker);
+        for (int handle = 0; handle < 4; handle++) {
+            ranker.observe(handle, -50 - handle * 10, 0);
+            mirror.appended.add(handle);
+        }
+        ranker.update(0, mirror);
+        ranker.observe(1, -60, 900 * MS);
+        ranker.observe(3, -80, 900 * MS);
+        ranker.update(1500 * MS, mirror);
+        mirror.assertMatches();
+        assertEquals(2, ranker.size());
+        assertEquals(ProximityRanker.NOT_LISTED, ranker.positionOf(0));
+
+        assertTrue(ranker.observe(0, -40, 1600 * MS));
+        mirror.appended.add(0);
+        ranker.update(1600 * MS, mirror);
+        mirror.assertMatches();
+        assertEquals(0, ranker.handleAt(0));
+    }
+
+    @Test
+    public void replacesRestoredRssiAndDropsForgottenDevices() {
+        ProximityRanker ranker = new ProximityRanker(4, 0, 10_000 * MS, 3f);
+        Mirror mirror = new Mirror(ranker);
+        assertTrue(ranker.restore(0, -50, 0));
+        assertTrue(ranker.restore(1, -60, 0));
+        assertFalse(ranker.restore(1, -40, 0));
+        mirror.appended.add(0);
+        mirror.appended.add(1);
+        ranker.update(0, mirror);
+        assertEquals(0, ranker.handleAt(0));
+
+        // the first advertisement counts, not the remembered RSSI
+        ranker.observe(1, -80, 100 * MS);
+        assertEquals(-80, ranker.getRssi(1), 0.5f);
+        ranker.forget(0);
+        ranker.update(200 * MS, mirror);
+        mirror.assertMatches();
+        assertEquals(1, ranker.size());
+        assertEquals(ProximityRanker.NOT_LISTED, ranker.positionOf(0));
+    }
+
+    @Test
+    public void changesRebuildTheOrderOfManyDevices() {
+        ProximityRanker ranker = new ProximityRanker(16, 500 * MS, 5_000 * MS, 3f);
+        Mirror mirror = new Mirror(ranker);
+        Random random = new Random(7);
+        int[] distanceRssi = new int[300];
+        for (int handle = 0; handle < distanceRssi.length; handle++) {
+            distanceRssi[handle] = -40 - random.nextInt(55);
+        }
+        for (long now = 0; now < 30_000 * MS; now += 50 * MS) {
+            for (int k = 0; k < 20; k++) {
+                int handle = random.nextInt(distanceRssi.length);
+                // a third of the devices goes quiet half way through
+                if (now > 15_000 * MS && handle % 3 == 0) {
+                    continue;
+                }
+                if (ranker.observe(handle, distanceRssi[handle] + random.nextInt(11) - 5, now)) {
+                    mirror.appended.add(handle);
+                }
+            }
+            ranker.update(now, mirror);
+            mirror.assertMatches();
+        }
+        // the last readings came after the last resort
+        ranker.update(30_000 * MS, mirror);
+        mirror.assertMatches();
+        assertEquals(200, ranker.size());
+        for (int i = 1; i < ranker.size(); i++) {
+            assertTrue(ranker.getRssi(ranker.handleAt(i - 1)) + 3f >= ranker.getRssi(ranker.handleAt(i)));
+        }
+    }
+}
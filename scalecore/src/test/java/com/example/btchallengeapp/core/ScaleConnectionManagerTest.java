@@ -0,0 +1,162 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Connects the manager to a set of simulated scales and checks that all of them end up streaming
+ * without ever exceeding the setup concurrency.
+ */
+public class ScaleConnectionManagerTest {
+
+    private static final int SCALES = 24;
+    private static final int MAX_SETUPS = 4;
+
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void streamsFromAllScalesWithBoundedSetup() throws Exception {
+        ConcurrentHashMap<String, AtomicInteger> measurements = new ConcurrentHashMap<>();
+        AtomicInteger settingUp = new AtomicInteger();
+        AtomicInteger maxSettingUp = new AtomicInteger();
+        ScaleConnectionManager manager = new ScaleConnectionManager(new SimulatedScaleTransport(executor, 2, 10),
+                executor, SCALES, MAX_SETUPS, new ScaleConnectionManager.Listener() {
+            @Override
+            public void onStateChanged(String address, ScaleSession.State state) {
+                if (state == ScaleSession.State.CONNECTING) {
+                    maxSettingUp.accumulateAndGet(settingUp.incrementAndGet(), Math::max);
+                } else if (state == ScaleSession.State.STREAMING || state == ScaleSession.State.CLOSED) {
+                    settingUp.decrementAndGet();
+                }
+            }
+
+            @Override
+            public void onMeasurement(String address, BodyCompositionMeasurement measurement) {
+                assertTrue(measurement.isComplete());
+                measurements.computeIfAbsent(address, a -> new AtomicInteger()).incrementAndGet();
+            }
+        });
+
+        for (int i = 0; i < SCALES; i++) {
+            assertTrue(manager.connect(String.format("C8:47:8C:00:00:%02X", i)));
+        }
+        assertFalse(manager.connect("C8:47:8C:00:00:00"));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (measurements.size() < SCALES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(SCALES, measurements.size());
+        assertTrue(maxSettingUp.get() <= MAX_SETUPS);
+        for (ScaleSession session : manager.getSessions()) {
+            assertEquals(ScaleSession.State.STREAMING, session.getState());
+            assertTrue(session.getSetupNanos() > 0);
+        }
+
+        manager.disconnectAll();
+        assertEquals(0, manager.getSessionCount());
+    }
+
+    @Test
+    public void reconnectsKnownScaleDirectly() throws Exception {
+        String address = "C8:47:8C:00:00:01";
+        File file = new File(folder.getRoot(), "known_scales");
+        KnownScaleStore store = new KnownScaleStore(file, 4);
+        ConcurrentHashMap<String, ScaleSession.State> states = new ConcurrentHashMap<>();
+        //a background connection takes far longer than the direct one
+        ScaleConnectionManager manager = new ScaleConnectionManager(new SimulatedScaleTransport(executor, 2, 10, 300),
+                executor, 1, 1, new ScaleConnectionManager.Listener() {
+            @Override
+            public void onStateChanged(String address, ScaleSession.State state) {
+                states.put(address, state);
+            }
+
+            @Override
+            public void onMeasurement(String address, BodyCompositionMeasurement measurement) {
+            }
+        });
+        manager.setKnownScaleStore(store);
+
+        assertTrue(manager.connect(address));
+        assertFalse(manager.getSession(address).isFastPath());
+        awaitState(states, address, ScaleSession.State.STREAMING);
+        long coldSetupNanos = manager.getSession(address).getSetupNanos();
+        manager.disconnect(address);
+        store.save();
+
+        KnownScaleStore reloaded = new KnownScaleStore(file, 4);
+        assertTrue(reloaded.load());
+        assertTrue(reloaded.hasValidatedServices(MacAddress.pack(address)));
+        assertEquals(1, reloaded.getConnectionCount(MacAddress.pack(address)));
+        manager.setKnownScaleStore(reloaded);
+
+        assertTrue(manager.connect(address));
+        ScaleSession session = manager.getSession(address);
+        assertTrue(session.isFastPath());
+        awaitState(states, address, ScaleSession.State.STREAMING);
+        assertTrue(session.getSetupNanos() < coldSetupNanos);
+        assertEquals(2, reloaded.getConnectionCount(MacAddress.pack(address)));
+        manager.disconnectAll();
+    }
+
+    @Test
+    public void resubscribesWhenTheRememberedProtocolIsRefused() throws Exception {
+        String address = "C8:47:8C:00:00:02";
+        long device = MacAddress.pack(address);
+        KnownScaleStore store = new KnownScaleStore(new File(folder.getRoot(), "known_scales"), 4);
+        //remembered as a Mi Scale, but the scale now only offers body composition
+        store.recordConnected(device, System.currentTimeMillis(), FrameDecoderRegistry.PROTOCOL_MI_SCALE);
+        ConcurrentHashMap<String, ScaleSession.State> states = new ConcurrentHashMap<>();
+        ScaleConnectionManager manager = new ScaleConnectionManager(new SimulatedScaleTransport(executor, 2, 10),
+                executor, 1, 1, new ScaleConnectionManager.Listener() {
+            @Override
+            public void onStateChanged(String address, ScaleSession.State state) {
+                states.put(address, state);
+            }
+
+            @Override
+            public void onMeasurement(String address, BodyCompositionMeasurement measurement) {
+            }
+        });
+        manager.setKnownScaleStore(store);
+
+        assertTrue(manager.connect(address));
+        ScaleSession session = manager.getSession(address);
+        assertTrue(session.isFastPath());
+        awaitState(states, address, ScaleSession.State.STREAMING);
+        //the same session streams, subscribed with the protocol the discovery resolved
+        assertSame(session, manager.getSession(address));
+        assertEquals(FrameDecoderRegistry.PROTOCOL_BODY_COMPOSITION, session.getProtocol().getId());
+        assertEquals(FrameDecoderRegistry.PROTOCOL_BODY_COMPOSITION, store.getProtocol(device));
+        assertTrue(store.hasValidatedServices(device));
+        manager.disconnectAll();
+    }
+
+    private static void awaitState(ConcurrentHashMap<String, ScaleSession.State> states, String address,
+                                   ScaleSession.State state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (states.get(address) != state && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(state, states.get(address));
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decodes emulated weigh-ins and checks that every kind of frame shows up with the expected weight.
+ */
+public class ScaleEmulatorTest {
+
+    private final BodyCompositionDecoder decoder = new BodyCompositionDecoder();
+    private final BodyCompositionMeasurement measurement = new BodyCompositionMeasurement();
+    private final byte[] frame = new byte[BodyCompositionDecoder.FRAME_LENGTH];
+
+    @Test
+    public void weighInsCoverAllFrameKinds() {
+        for (ScaleEmulator.Unit unit : ScaleEmulator.Unit.values()) {
+            ScaleEmulator emulator = new ScaleEmulator(7, unit, true);
+            int unstabilized = 0;
+            int withImpedance = 0;
+            int removed = 0;
+            for (int i = 0; i < 200; i++) {
+                emulator.nextFrame(frame, 0);
+                assertTrue(decoder.decode(frame, 0, measurement));
+                assertEquals(unit == ScaleEmulator.Unit.LBS, measurement.isLbsUnit());
+                assertEquals(unit == ScaleEmulator.Unit.CATTY, measurement.isCattyUnit());
+                if (!measurement.isStabilized()) {
+                    unstabilized++;
+                    continue;
+                }
+                assertEquals(emulator.getWeightGrams(), measurement.getWeightGrams(), 5);
+                if (measurement.hasImpedance()) {
+                    withImpedance++;
+                    assertTrue(measurement.getImpedance() >= 380 && measurement.getImpedance() <= 620);
+                }
+                if (measurement.isWeightRemoved()) {
+                    removed++;
+                }
+            }
+            assertTrue(unstabilized > 0);
+            assertTrue(withImpedance > 0);
+            assertTrue(removed > 0);
+        }
+    }
+
+    @Test
+    public void streamsCompleteReadingsOutsideWeighIns() {
+        ScaleEmulator emulator = new ScaleEmulator(7, ScaleEmulator.Unit.KG, false);
+        for (int i = 0; i < 100; i++) {
+            emulator.nextFrame(frame, 0);
+            assertTrue(decoder.decode(frame, 0, measurement));
+            assertTrue(measurement.isComplete());
+            assertTrue(measurement.hasImpedance());
+            assertEquals(emulator.getWeightGrams(), measurement.getWeightGrams(), 5);
+        }
+        assertEquals(100, emulator.getFrameCount());
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the scan cache round trips through its file, evicts the least recently seen device and ages entries out.
+ */
+public class ScanCacheTest {
+
+    private static final long DAY = 86_400_000L;
+    private static final long NOW = 1_600_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsAndAgesOut() throws Exception {
+        File file = new File(folder.getRoot(), "scan_cache");
+        ScanCache cache = new ScanCache(file, 4, 7 * DAY);
+        assertFalse(cache.load(NOW));
+        cache.record(MacAddress.pack("C8:47:8C:00:00:01"), "MIBCS", -55, NOW - DAY);
+        cache.record(MacAddress.pack("C8:47:8C:00:00:02"), null, -200, NOW - 8 * DAY);
+        // a name longer than an advertisement allows, with a character cut at the limit
+        cache.record(MacAddress.pack("C8:47:8C:00:00:03"), "Bathroom scale \u00e4\u00e4\u00e4\u00e4\u00e4\u00e4\u00e4\u00e4", -70, NOW);
+        cache.record(MacAddress.pack("C8:47:8C:00:00:01"), null, -60, NOW);
+        cache.save();
+
+        ScanCache reloaded = new ScanCache(file, 4, 7 * DAY);
+        assertTrue(reloaded.load(NOW));
+        assertEquals(2, reloaded.size());
+        assertEquals(MacAddress.pack("C8:47:8C:00:00:01"), reloaded.getDevice(0));
+        assertEquals("MIBCS", reloaded.getName(0));
+        assertEquals(-60, reloaded.getRssi(0));
+        assertEquals(NOW, reloaded.getLastSeenMillis(0));
+        assertEquals("Bathroom scale \u00e4\u00e4\u00e4\u00e4\u00e4\u00e4\u00e4", reloaded.getName(1));
+    }
+
+    @Test
+    public void replacesLeastRecentlySeen() throws Exception {
+        ScanCache cache = new ScanCache(new File(folder.getRoot(), "scan_cache"), 2, 7 * DAY);
+        cache.record(1, "a", -50, NOW - 2);
+        cache.record(2, "b", -50, NOW - 3);
+        cache.record(1, "a", -50, NOW - 1);
+        cache.record(3, "c", -50, NOW);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getDevice(0));
+        assertEquals(3, cache.getDevice(1));
+        assertEquals("c", cache.getName(1));
+    }
+
+    @Test
+    public void ignoresForeignFile() throws Exception {
+        File file = new File(folder.getRoot(), "scan_cache");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13});
+        }
+        ScanCache cache = new ScanCache(file, 2, DAY);
+        assertFalse(cache.load(NOW));
+        assertEquals(0, cache.size());
+    }
+}
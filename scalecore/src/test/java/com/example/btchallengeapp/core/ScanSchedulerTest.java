@@ -0,0 +1,156 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the scheduler on a virtual clock and checks the backoff, the switch to an aggressive window when a known scale
+ * advertises, and the suspension while a scale is connected.
+ */
+public class ScanSchedulerTest {
+
+    private static final String KNOWN_SCALE = "C8:47:8C:00:00:01";
+    private static final String OTHER_SCALE = "C8:47:8C:00:00:02";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private long now;
+    private long wakeUpAt = -1;
+    private Boolean lowLatency;
+    private final List<String> handedOff = new ArrayList<>();
+    private ScanScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        KnownScaleStore knownScales = new KnownScaleStore(new File(folder.getRoot(), "known"), 4);
+        knownScales.recordConnected(MacAddress.pack(KNOWN_SCALE), 1, 0);
+        ScanTransport transport = new ScanTransport() {
+            @Override
+            public void startScan(boolean scalesOnly, ScanListener listener) {
+                startScan(scalesOnly, false, listener);
+            }
+
+            @Override
+            public void startScan(boolean scalesOnly, boolean lowLatency, ScanListener listener) {
+                assertTrue(scalesOnly);
+                ScanSchedulerTest.this.lowLatency = lowLatency;
+            }
+
+            @Override
+            public void stopScan() {
+                lowLatency = null;
+            }
+        };
+        scheduler = new ScanScheduler(transport, knownScales, () -> now, new ScanScheduler.Host() {
+            @Override
+            public void requestWakeUp(long delayNanos) {
+                wakeUpAt = now + delayNanos;
+            }
+
+            @Override
+            public void onScaleFound(String address) {
+                handedOff.add(address);
+            }
+        });
+        scheduler.setWindows(1_000, 5_000, 10_000, 50_000);
+    }
+
+    /**
+     * @return milliseconds until the wake-up
+     */
+    private long fireWakeUp() {
+        long waited = TimeUnit.NANOSECONDS.toMillis(wakeUpAt - now);
+        now = wakeUpAt;
+        scheduler.onWakeUp();
+        return waited;
+    }
+
+    @Test
+    public void backsOffWhileNoKnownScaleAdvertises() {
+        scheduler.start();
+        assertEquals(ScanScheduler.Mode.LOW_POWER, scheduler.getMode());
+        assertEquals(Boolean.FALSE, lowLatency);
+
+        long[] intervals = new long[5];
+        for (int i = 0; i < intervals.length; i++) {
+            assertEquals(1_000, fireWakeUp());
+            assertEquals(ScanScheduler.Mode.IDLE, scheduler.getMode());
+            assertNull(lowLatency);
+            intervals[i] = fireWakeUp();
+            assertEquals(ScanScheduler.Mode.LOW_POWER, scheduler.getMode());
+        }
+        assertArrayEquals(new long[]{20_000, 40_000, 50_000, 50_000, 50_000}, intervals);
+
+        // an unknown scale does not reset the backoff
+        scheduler.onAdvertisement(OTHER_SCALE, null, -60, now);
+        fireWakeUp();
+        assertEquals(50_000, fireWakeUp());
+        assertTrue(handedOff.isEmpty());
+        assertEquals(7, scheduler.getWindowCount());
+        assertEquals(TimeUnit.SECONDS.toNanos(6), scheduler.getModeNanos(ScanScheduler.Mode.LOW_POWER));
+    }
+
+    @Test
+    public void knownScaleSwitchesToAggressiveWindowAndHandsOffOnce() {
+        scheduler.start();
+        fireWakeUp();
+        fireWakeUp();
+        assertEquals(ScanScheduler.Mode.LOW_POWER, scheduler.getMode());
+
+        now += TimeUnit.MILLISECONDS.toNanos(300);
+        scheduler.onAdvertisement(KNOWN_SCALE, null, -60, now);
+        scheduler.onAdvertisement(KNOWN_SCALE, null, -60, now);
+        assertEquals(ScanScheduler.Mode.AGGRESSIVE, scheduler.getMode());
+        assertEquals(Boolean.TRUE, lowLatency);
+        assertEquals(1, handedOff.size());
+        assertEquals(KNOWN_SCALE, handedOff.get(0));
+
+        // the wake-up of the replaced low power window is stale and only rearms the aggressive deadline
+        now += TimeUnit.MILLISECONDS.toNanos(700);
+        scheduler.onWakeUp();
+        assertEquals(ScanScheduler.Mode.AGGRESSIVE, scheduler.getMode());
+        assertEquals(4_300, fireWakeUp());
+        assertEquals(ScanScheduler.Mode.IDLE, scheduler.getMode());
+        assertEquals(10_000, fireWakeUp());
+        assertEquals(1, scheduler.getHandOffCount());
+
+        // late results of a stopped scan are ignored
+        scheduler.stop();
+        scheduler.onAdvertisement(KNOWN_SCALE, null, -60, now);
+        assertEquals(ScanScheduler.Mode.STOPPED, scheduler.getMode());
+        assertEquals(1, handedOff.size());
+    }
+
+    @Test
+    public void suspendsWhileConnected() {
+        scheduler.start();
+        scheduler.onAdvertisement(KNOWN_SCALE, null, -60, now);
+        scheduler.setConnected(true);
+        assertEquals(ScanScheduler.Mode.CONNECTED, scheduler.getMode());
+        assertNull(lowLatency);
+
+        now += TimeUnit.MINUTES.toNanos(10);
+        scheduler.onWakeUp();
+        assertEquals(ScanScheduler.Mode.CONNECTED, scheduler.getMode());
+
+        scheduler.setConnected(false);
+        assertEquals(ScanScheduler.Mode.AGGRESSIVE, scheduler.getMode());
+        assertEquals(Boolean.TRUE, lowLatency);
+        assertEquals(TimeUnit.MINUTES.toNanos(10), scheduler.getModeNanos(ScanScheduler.Mode.CONNECTED));
+
+        // the scale that just disconnected is handed off again once its window passed
+        now += TimeUnit.SECONDS.toNanos(5);
+        scheduler.onAdvertisement(KNOWN_SCALE, null, -60, now);
+        assertEquals(2, handedOff.size());
+    }
+}
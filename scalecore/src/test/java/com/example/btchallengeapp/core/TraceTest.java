@@ -0,0 +1,53 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Level gating, counting of events which are not recorded, the ring overwriting the oldest events and the dump format.
+ */
+public class TraceTest {
+
+    private static final long DEVICE = MacAddress.pack("C8:47:8C:00:00:01");
+
+    private long now = 10_000_000_000L;
+
+    @Test
+    public void countsEverythingAndRecordsEnabledLevels() throws Exception {
+        Trace trace = new Trace(8, Trace.LEVEL_INFO, () -> now);
+        trace.event(Trace.LEVEL_DEBUG, Trace.SCAN_RESULT, DEVICE, -60);
+        trace.event(Trace.LEVEL_DEBUG, Trace.SCAN_RESULT, DEVICE, -61);
+        trace.event(Trace.LEVEL_ERROR, Trace.GATT_ERROR, DEVICE, 133);
+        assertEquals(2, trace.getCount(Trace.SCAN_RESULT));
+        assertEquals(1, trace.getCount(Trace.GATT_ERROR));
+        assertEquals(1, trace.getWritten());
+
+        now += 1_500_000_000L;
+        StringBuilder out = new StringBuilder();
+        assertEquals(1, trace.dump(out));
+        assertTrue(out.toString(), out.toString().contains("SCAN_RESULT          2"));
+        assertTrue(out.toString(), out.toString().contains("-1.500000 s E GATT_ERROR           C8:47:8C:00:00:01 status=133"));
+
+        trace.setLevel(Trace.LEVEL_OFF);
+        trace.event(Trace.LEVEL_ERROR, Trace.GATT_ERROR, DEVICE, 8);
+        assertEquals(2, trace.getCount(Trace.GATT_ERROR));
+        assertEquals(1, trace.getWritten());
+    }
+
+    @Test
+    public void keepsTheNewestEvents() throws Exception {
+        Trace trace = new Trace(5, Trace.LEVEL_DEBUG, () -> now);
+        for (int i = 0; i < 20; i++) {
+            now += 1_000_000;
+            trace.event(Trace.LEVEL_DEBUG, Trace.FRAME_ACCEPTED, DEVICE, 70_000 + i);
+        }
+        StringBuilder out = new StringBuilder();
+        // rounded up to 8
+        assertEquals(8, trace.dump(out));
+        String dump = out.toString();
+        assertFalse(dump, dump.contains("grams=70011"));
+        assertTrue(dump, dump.indexOf("grams=70012") < dump.indexOf("grams=70019"));
+        assertTrue(dump, dump.contains("-0.007000 s D FRAME_ACCEPTED"));
+    }
+}
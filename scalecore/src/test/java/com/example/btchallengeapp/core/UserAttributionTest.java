@@ -0,0 +1,108 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Attributes readings of shared scales: members told apart by impedance, overlapping profiles, a member following a
+ * trend, and a gym sized population where the index has to keep the work per reading small.
+ */
+public class UserAttributionTest {
+
+    private static final long DAY = 86_400;
+    private static final long START = 1_600_000_000L;
+
+    private final UserAttribution.Result result = new UserAttribution.Result();
+
+    @Test
+    public void impedanceSeparatesMembersOfTheSameWeight() {
+        UserAttribution attribution = new UserAttribution(8);
+        assertTrue(attribution.enroll(1, 70_000, 450, START));
+        assertTrue(attribution.enroll(2, 70_200, 600, START));
+        assertFalse(attribution.enroll(2, 80_000, 500, START));
+
+        assertTrue(attribution.attribute(START + DAY, 70_100, 455, result));
+        assertEquals(1, result.getUser());
+        assertEquals(0, result.getAmbiguity(), 0);
+        assertTrue(attribution.attribute(START + DAY, 70_100, 590, result));
+        assertEquals(2, result.getUser());
+
+        // without impedance the weight alone can not tell them apart
+        assertFalse(attribution.attribute(START + DAY, 70_100, 0, result));
+        assertTrue(result.getAmbiguity() > 0.9);
+        assertEquals(2, result.getCandidates());
+        assertTrue(result.getUser() == 1 && result.getRunnerUp() == 2 || result.getUser() == 2 && result.getRunnerUp() == 1);
+
+        assertFalse(attribution.attribute(START + DAY, 90_000, 450, result));
+        assertEquals(UserAttribution.NO_USER, result.getUser());
+    }
+
+    @Test
+    public void followsTheTrajectoryOfAMember() {
+        UserAttribution attribution = new UserAttribution(8);
+        attribution.enroll(1, 95_000, 500, START);
+        attribution.enroll(2, 80_000, 500, START);
+        // loses 150 g a day, weighing in every other day
+        for (int day = 2; day <= 60; day += 2) {
+            int weight = 95_000 - day * 150;
+            assertTrue("day " + day, attribution.attribute(START + day * DAY, weight, 500, result));
+            assertEquals("day " + day, 1, result.getUser());
+            attribution.learn(1, START + day * DAY, weight, 500);
+        }
+        assertEquals(95_000 - 64 * 150, attribution.getExpectedWeightGrams(1, START + 64 * DAY), 800);
+        // member 2 has not been seen since and is still expected at their enrolled weight
+        assertEquals(80_000, attribution.getExpectedWeightGrams(2, START + 64 * DAY), 0);
+        assertTrue(attribution.attribute(START + 62 * DAY, 80_200, 500, result));
+        assertEquals(2, result.getUser());
+    }
+
+    @Test
+    public void scalesToAGym() {
+        int members = 5000;
+        UserAttribution attribution = new UserAttribution(members);
+        Random random = new Random(11);
+        int[] weights = new int[members];
+        int[] impedances = new int[members];
+        for (int i = 0; i < members; i++) {
+            weights[i] = (int) (80_000 + random.nextGaussian() * 15_000);
+            impedances[i] = (int) (500 + random.nextGaussian() * 80);
+            assertTrue(attribution.enroll(i, weights[i], impedances[i], START));
+        }
+        assertEquals(members, attribution.size());
+
+        int correct = 0;
+        int wrong = 0;
+        long candidates = 0;
+        for (int i = 0; i < members; i++) {
+            int weight = weights[i] + (int) (random.nextGaussian() * 300);
+            int impedance = impedances[i] + (int) (random.nextGaussian() * 5);
+            if (attribution.attribute(START + DAY, weight, impedance, result)) {
+                if (result.getUser() == i) {
+                    correct++;
+                } else {
+                    wrong++;
+                }
+            }
+            candidates += result.getCandidates();
+        }
+        // among thousands most readings fit several members and are refused, the ones attributed are nearly always right
+        assertTrue("correct " + correct + " wrong " + wrong, correct > 100 && wrong * 20 < correct);
+        // only members of similar weight and impedance are scored
+        assertTrue("candidates " + candidates / members, candidates / members < members / 25);
+
+        // remove every other member, the rest are still found
+        for (int i = 0; i < members; i += 2) {
+            assertTrue(attribution.remove(i));
+        }
+        assertFalse(attribution.remove(0));
+        assertEquals(members / 2, attribution.size());
+        for (int i = 1; i < members; i += 2) {
+            assertTrue(attribution.learn(i, START + 2 * DAY, weights[i], impedances[i]));
+            attribution.attribute(START + 2 * DAY, weights[i], impedances[i], result);
+            assertTrue(result.getUser() == i || result.getRunnerUp() == i);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.btchallengeapp.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the incremental statistics with the same figures recomputed from the whole history.
+ */
+public class UserStatisticsTest {
+
+    private static final int USERS = 50;
+    private static final int WINDOW = 7;
+    private static final double HALF_LIFE_DAYS = 10;
+    private static final long FIRST_USER = MacAddress.pack("C8:47:8C:00:00:00");
+
+    @Test
+    public void matchesStatisticsRecomputedFromHistory() {
+        UserStatistics statistics = new UserStatistics(USERS, WINDOW, HALF_LIFE_DAYS);
+        Random random = new Random(3);
+        int readings = 4000;
+        long[] users = new long[readings];
+        long[] times = new long[readings];
+        int[] weights = new int[readings];
+        long[] clock = new long[USERS];
+        for (int i = 0; i < readings; i++) {
+            int user = random.nextInt(USERS);
+            // mostly in order, now and then a reading from the scale history arrives late
+            long time = random.nextInt(10) == 0 ? clock[user] - random.nextInt(86_400 * 5)
+                    : (clock[user] += random.nextInt(86_400 * 3));
+            users[i] = FIRST_USER + user;
+            times[i] = 1_600_000_000L + time;
+            weights[i] = 60_000 + user * 100 + random.nextInt(3000);
+            assertTrue(statistics.add(users[i], times[i], weights[i]));
+        }
+        assertEquals(USERS, statistics.size());
+
+        UserStatistics.Summary summary = new UserStatistics.Summary();
+        for (int user = 0; user < USERS; user++) {
+            long id = FIRST_USER + user;
+            int count = 0;
+            long latest = Long.MIN_VALUE;
+            for (int i = 0; i < readings; i++) {
+                if (users[i] == id) {
+                    count++;
+                    latest = Math.max(latest, times[i]);
+                }
+            }
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            int seen = 0;
+            double w = 0, t = 0, x = 0, tt = 0, tx = 0;
+            for (int i = 0; i < readings; i++) {
+                if (users[i] != id) {
+                    continue;
+                }
+                if (seen++ >= count - WINDOW) {
+                    min = Math.min(min, weights[i]);
+                    max = Math.max(max, weights[i]);
+                }
+                double days = (times[i] - latest) / 86_400.0;
+                double weight = Math.pow(0.5, -days / HALF_LIFE_DAYS);
+                w += weight;
+                t += weight * days;
+                x += weight * weights[i];
+                tt += weight * days * days;
+                tx += weight * days * weights[i];
+            }
+            assertTrue(statistics.read(id, summary));
+            assertEquals(count, summary.getCount());
+            assertEquals(min, summary.getMinWeightGrams());
+            assertEquals(max, summary.getMaxWeightGrams());
+            assertEquals(x / w, summary.getAverageGrams(), 1e-6);
+            assertEquals((w * tx - t * x) / (w * tt - t * t), summary.getTrendGramsPerDay(), 1e-3);
+        }
+    }
+
+    @Test
+    public void followsSteadyLoss() {
+        UserStatistics statistics = new UserStatistics(1, 3, 30);
+        for (int day = 0; day < 60; day++) {
+            statistics.add(1, day * 86_400L, 90_000 - day * 100);
+        }
+        assertEquals(-100, statistics.getTrendGramsPerDay(1), 1e-6);
+        assertEquals(84_100, statistics.getMinWeightGrams(1));
+        assertEquals(84_300, statistics.getMaxWeightGrams(1));
+        // the average lags behind the latest reading on a trend
+        assertTrue(statistics.getAverageGrams(1) > 84_100);
+    }
+
+    @Test
+    public void refusesUsersBeyondCapacity() {
+        UserStatistics statistics = new UserStatistics(2, 4, 7);
+        assertTrue(statistics.add(1, 0, 70_000));
+        assertTrue(statistics.add(2, 0, 80_000));
+        assertFalse(statistics.add(3, 0, 90_000));
+        assertTrue(statistics.add(1, 0, 71_000));
+        assertFalse(statistics.read(3, new UserStatistics.Summary()));
+        assertEquals(0, statistics.getCount(3));
+        assertTrue(Double.isNaN(statistics.getAverageGrams(3)));
+        // both readings at the same time
+        assertTrue(Double.isNaN(statistics.getTrendGramsPerDay(1)));
+        assertEquals(70_500, statistics.getAverageGrams(1), 1e-9);
+    }
+}